@@ -0,0 +1,45 @@
+package edu.sandiego.bcl.benchmarks;
+
+import edu.sandiego.bcl.MachineState;
+import edu.sandiego.bcl.x86RuntimeException;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Optional;
+
+/**
+ * Helpers for building the machine states used by the benchmarks.
+ */
+final class BenchmarkStates {
+
+    private BenchmarkStates() {
+    }
+
+    /**
+     * Creates a state with small, nonzero values in the general purpose
+     * registers and the given number of quad words pushed onto the stack.
+     *
+     * @param stackDepth Number of 8-byte values on the stack.
+     * @return The new state.
+     * @throws x86RuntimeException if the state couldn't be built.
+     */
+    static MachineState withStack(int stackDepth) throws x86RuntimeException {
+        MachineState state = new MachineState();
+        String[] regs = {"rax", "rbx", "rcx", "rdx", "rsi", "rdi", "r8", "r9"};
+        for (int i = 0; i < regs.length; i++) {
+            state = state.cloneWithUpdatedRegister(regs[i],
+                    Optional.of(BigInteger.valueOf(i + 2)), new HashMap<>(), false);
+        }
+        state = state.cloneWithUpdatedRegister("rdx",
+                Optional.of(BigInteger.ZERO), new HashMap<>(), false);
+
+        long rsp = state.getRegisterValue("rsp").longValue();
+        for (int i = 0; i < stackDepth; i++) {
+            rsp -= 8;
+            state = state.cloneWithUpdatedRegister("rsp",
+                    Optional.of(BigInteger.valueOf(rsp)), new HashMap<>(), false);
+            state = state.cloneWithUpdatedMemory(Optional.of(BigInteger.valueOf(i)),
+                    rsp, 8, new HashMap<>(), false);
+        }
+        return state;
+    }
+}
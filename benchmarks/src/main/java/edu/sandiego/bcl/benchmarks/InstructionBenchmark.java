@@ -0,0 +1,134 @@
+package edu.sandiego.bcl.benchmarks;
+
+import edu.sandiego.bcl.InstructionType;
+import edu.sandiego.bcl.MachineState;
+import edu.sandiego.bcl.X86Parser;
+import edu.sandiego.bcl.x86ProgramLine;
+import edu.sandiego.bcl.x86RuntimeException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@code eval} for one instruction of every {@link InstructionType}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InstructionBenchmark {
+
+    /**
+     * An example of each type of instruction. Memory operands refer to the
+     * values that {@link BenchmarkStates#withStack(int)} puts on the stack.
+     */
+    static final Map<InstructionType, String> EXAMPLES = new EnumMap<>(InstructionType.class);
+
+    static {
+        EXAMPLES.put(InstructionType.ADD, "addq %rbx, %rax");
+        EXAMPLES.put(InstructionType.SUB, "subq 8(%rsp), %rax");
+        EXAMPLES.put(InstructionType.IMUL, "imulq %rbx, %rax");
+        EXAMPLES.put(InstructionType.CMP, "cmpq $3, %rax");
+        EXAMPLES.put(InstructionType.OR, "orq %rbx, %rax");
+        EXAMPLES.put(InstructionType.AND, "andq $0xF, %rax");
+        EXAMPLES.put(InstructionType.TEST, "testq %rax, %rax");
+        EXAMPLES.put(InstructionType.XOR, "xorq %rbx, %rax");
+        EXAMPLES.put(InstructionType.SHL, "shlq $2, %rax");
+        EXAMPLES.put(InstructionType.SAL, "salq $2, %rax");
+        EXAMPLES.put(InstructionType.SHR, "shrq $1, %rax");
+        EXAMPLES.put(InstructionType.SAR, "sarq $1, %rax");
+        EXAMPLES.put(InstructionType.MOV, "movq %rax, (%rsp)");
+        EXAMPLES.put(InstructionType.MOVZ, "movzbl %bl, %eax");
+        EXAMPLES.put(InstructionType.MOVS, "movsbq %bl, %rax");
+        EXAMPLES.put(InstructionType.LEA, "leaq 8(%rsp,%rbx,4), %rax");
+        EXAMPLES.put(InstructionType.CMOVE, "cmove %rbx, %rax");
+        EXAMPLES.put(InstructionType.CMOVNE, "cmovne %rbx, %rax");
+        EXAMPLES.put(InstructionType.CMOVS, "cmovs %rbx, %rax");
+        EXAMPLES.put(InstructionType.CMOVNS, "cmovns %rbx, %rax");
+        EXAMPLES.put(InstructionType.CMOVG, "cmovg %rbx, %rax");
+        EXAMPLES.put(InstructionType.CMOVGE, "cmovge %rbx, %rax");
+        EXAMPLES.put(InstructionType.CMOVL, "cmovl %rbx, %rax");
+        EXAMPLES.put(InstructionType.CMOVLE, "cmovle %rbx, %rax");
+        EXAMPLES.put(InstructionType.CMOVA, "cmova %rbx, %rax");
+        EXAMPLES.put(InstructionType.CMOVAE, "cmovae %rbx, %rax");
+        EXAMPLES.put(InstructionType.CMOVB, "cmovb %rbx, %rax");
+        EXAMPLES.put(InstructionType.CMOVBE, "cmovbe %rbx, %rax");
+        EXAMPLES.put(InstructionType.IDIV, "idivq %rcx");
+        EXAMPLES.put(InstructionType.INC, "incq %rax");
+        EXAMPLES.put(InstructionType.DEC, "decq %rax");
+        EXAMPLES.put(InstructionType.NEG, "negq %rax");
+        EXAMPLES.put(InstructionType.NOT, "notq %rax");
+        EXAMPLES.put(InstructionType.PUSH, "pushq %rax");
+        EXAMPLES.put(InstructionType.POP, "popq %rbx");
+        EXAMPLES.put(InstructionType.SETE, "sete %al");
+        EXAMPLES.put(InstructionType.SETNE, "setne %al");
+        EXAMPLES.put(InstructionType.SETS, "sets %al");
+        EXAMPLES.put(InstructionType.SETNS, "setns %al");
+        EXAMPLES.put(InstructionType.SETG, "setg %al");
+        EXAMPLES.put(InstructionType.SETGE, "setge %al");
+        EXAMPLES.put(InstructionType.SETL, "setl %al");
+        EXAMPLES.put(InstructionType.SETLE, "setle %al");
+        EXAMPLES.put(InstructionType.SETA, "seta %al");
+        EXAMPLES.put(InstructionType.SETAE, "setae %al");
+        EXAMPLES.put(InstructionType.SETB, "setb %al");
+        EXAMPLES.put(InstructionType.SETBE, "setbe %al");
+        EXAMPLES.put(InstructionType.JE, "je target");
+        EXAMPLES.put(InstructionType.JNE, "jne target");
+        EXAMPLES.put(InstructionType.JS, "js target");
+        EXAMPLES.put(InstructionType.JNS, "jns target");
+        EXAMPLES.put(InstructionType.JG, "jg target");
+        EXAMPLES.put(InstructionType.JGE, "jge target");
+        EXAMPLES.put(InstructionType.JL, "jl target");
+        EXAMPLES.put(InstructionType.JLE, "jle target");
+        EXAMPLES.put(InstructionType.JA, "ja target");
+        EXAMPLES.put(InstructionType.JAE, "jae target");
+        EXAMPLES.put(InstructionType.JB, "jb target");
+        EXAMPLES.put(InstructionType.JBE, "jbe target");
+        EXAMPLES.put(InstructionType.JMP, "jmp target");
+        EXAMPLES.put(InstructionType.CALL, "callq target");
+        EXAMPLES.put(InstructionType.RET, "retq");
+        EXAMPLES.put(InstructionType.CLT, "cltq");
+    }
+
+    @Param({"ADD", "SUB", "IMUL", "CMP", "OR", "AND", "TEST", "XOR", "SHL",
+        "SAL", "SHR", "SAR", "MOV", "MOVZ", "MOVS", "LEA", "CMOVE", "CMOVNE",
+        "CMOVS", "CMOVNS", "CMOVG", "CMOVGE", "CMOVL", "CMOVLE", "CMOVA",
+        "CMOVAE", "CMOVB", "CMOVBE", "IDIV", "INC", "DEC", "NEG", "NOT", "PUSH",
+        "POP", "SETE", "SETNE", "SETS", "SETNS", "SETG", "SETGE", "SETL",
+        "SETLE", "SETA", "SETAE", "SETB", "SETBE", "JE", "JNE", "JS", "JNS",
+        "JG", "JGE", "JL", "JLE", "JA", "JAE", "JB", "JBE", "JMP", "CALL",
+        "RET", "CLT"})
+    public String type;
+
+    private x86ProgramLine instruction;
+    private MachineState state;
+
+    @Setup
+    public void setUp() throws Exception {
+        X86Parser parser = new X86Parser();
+        parser.parseLine("target:");
+        this.instruction = parser.parseLine(
+                EXAMPLES.get(InstructionType.valueOf(this.type)));
+        this.state = BenchmarkStates.withStack(4);
+        // Fail now rather than measuring an exception.
+        this.instruction.eval(this.state);
+    }
+
+    @Benchmark
+    public MachineState eval() throws x86RuntimeException {
+        return this.instruction.eval(this.state);
+    }
+}
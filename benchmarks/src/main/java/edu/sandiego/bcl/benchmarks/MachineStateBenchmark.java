@@ -0,0 +1,106 @@
+package edu.sandiego.bcl.benchmarks;
+
+import edu.sandiego.bcl.MachineState;
+import edu.sandiego.bcl.x86RuntimeException;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures reading and writing memory and registers in a
+ * {@link MachineState}, with different numbers of values on the stack.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MachineStateBenchmark {
+
+    /**
+     * Number of 8-byte values on the stack.
+     */
+    @Param({"1", "16", "256", "4096"})
+    public int stackDepth;
+
+    private MachineState state;
+    private long topAddress;
+    private long bottomAddress;
+    private Optional<BigInteger> value;
+    private Optional<BigInteger> byteValue;
+
+    @Setup
+    public void setUp() throws x86RuntimeException {
+        this.state = BenchmarkStates.withStack(this.stackDepth);
+        this.topAddress = this.state.getRegisterValue("rsp").longValue();
+        this.bottomAddress = this.topAddress + 8L * (this.stackDepth - 1);
+        this.value = Optional.of(BigInteger.valueOf(0x1234));
+        this.byteValue = Optional.of(BigInteger.valueOf(0x12));
+    }
+
+    @Benchmark
+    public MachineState writeMemoryTop() throws x86RuntimeException {
+        return this.state.cloneWithUpdatedMemory(this.value, this.topAddress,
+                8, new HashMap<>(), true);
+    }
+
+    @Benchmark
+    public MachineState writeMemoryBottom() throws x86RuntimeException {
+        return this.state.cloneWithUpdatedMemory(this.value, this.bottomAddress,
+                8, new HashMap<>(), true);
+    }
+
+    /**
+     * Writes part of an existing value, which splits its stack entry.
+     */
+    @Benchmark
+    public MachineState writeMemoryPartial() throws x86RuntimeException {
+        return this.state.cloneWithUpdatedMemory(this.value, this.topAddress + 2,
+                2, new HashMap<>(), true);
+    }
+
+    @Benchmark
+    public BigInteger readMemoryTop() throws x86RuntimeException {
+        return this.state.getMemoryValue(this.topAddress, 8);
+    }
+
+    @Benchmark
+    public BigInteger readMemoryBottom() throws x86RuntimeException {
+        return this.state.getMemoryValue(this.bottomAddress, 8);
+    }
+
+    @Benchmark
+    public MachineState writeQuadRegister() throws x86RuntimeException {
+        return this.state.cloneWithUpdatedRegister("rax", this.value,
+                new HashMap<>(), true);
+    }
+
+    @Benchmark
+    public MachineState writeByteRegister() throws x86RuntimeException {
+        return this.state.cloneWithUpdatedRegister("al", this.byteValue,
+                new HashMap<>(), true);
+    }
+
+    /**
+     * Pops the top value off the stack, which removes its stack entry.
+     */
+    @Benchmark
+    public MachineState popStack() throws x86RuntimeException {
+        return this.state.cloneWithUpdatedRegister("rsp",
+                Optional.of(BigInteger.valueOf(this.topAddress + 8)),
+                new HashMap<>(), true);
+    }
+}
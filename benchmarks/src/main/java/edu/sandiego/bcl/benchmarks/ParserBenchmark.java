@@ -0,0 +1,106 @@
+package edu.sandiego.bcl.benchmarks;
+
+import edu.sandiego.bcl.X86Parser;
+import edu.sandiego.bcl.X86ParsingException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures {@link X86Parser#parseLine(String)} for each family of
+ * instructions, both when the decoded line is already in the parser's cache
+ * and when it has to be decoded from scratch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    private static final Map<String, String[]> FAMILIES = new HashMap<>();
+
+    static {
+        FAMILIES.put("arithmetic", new String[]{
+            "addq %rbx, %rax", "subl $12, %ecx", "imulq 8(%rsp), %rdx",
+            "incq %rsi", "decw %di", "negq %r8", "idivq %rcx"});
+        FAMILIES.put("logic", new String[]{
+            "andq $0xFF, %rax", "orl %ebx, %ecx", "xorq %rax, %rax",
+            "notq %rdx", "testq %rax, %rax", "cmpq $10, %rcx"});
+        FAMILIES.put("shift", new String[]{
+            "shlq $2, %rax", "salq $1, %rbx", "shrl $3, %ecx", "sarq $63, %rdx"});
+        FAMILIES.put("move", new String[]{
+            "movq %rsp, %rbp", "movl $-1, %eax", "movzbl %al, %eax",
+            "movsbq (%rdi), %rax", "movq %rax, -8(%rbp)"});
+        FAMILIES.put("address", new String[]{
+            "leaq 8(%rsp,%rbx,4), %rax", "movq (%rdi,%rsi,8), %rdx",
+            "leaq -16(%rbp), %rsi", "movl 0x10(,%rcx,2), %eax"});
+        FAMILIES.put("conditional", new String[]{
+            "cmove %rbx, %rax", "cmovge %rcx, %rdx", "sete %al", "setbe %dl",
+            "setne %cl"});
+        FAMILIES.put("control", new String[]{
+            "target:", "je target", "jmp target", "jle target", "callq target",
+            "retq"});
+        FAMILIES.put("stack", new String[]{
+            "pushq %rbp", "pushq $5", "popq %rbx", "cltq"});
+        FAMILIES.put("other", new String[]{
+            "", "# just a comment", "main: # start here",
+            "   addq   %rbx,   %rax    # spaced out"});
+    }
+
+    @Param({"arithmetic", "logic", "shift", "move", "address", "conditional",
+        "control", "stack", "other"})
+    public String family;
+
+    /**
+     * Whether lines are found in the decode cache. When false, the cache is
+     * emptied before each line is parsed.
+     */
+    @Param({"true", "false"})
+    public boolean cached;
+
+    private String[] lines;
+
+    @Setup
+    public void setUp() throws X86ParsingException {
+        this.lines = FAMILIES.get(this.family);
+        X86Parser.getDecodeCache().clear();
+        // Make sure every line is valid (and cached).
+        parseAll(new X86Parser(), null);
+    }
+
+    private void parseAll(X86Parser parser, Blackhole bh) throws X86ParsingException {
+        for (String line : this.lines) {
+            if (!this.cached) {
+                X86Parser.getDecodeCache().clear();
+            }
+            Object parsed = parser.parseLine(line);
+            if (bh != null) {
+                bh.consume(parsed);
+            }
+        }
+    }
+
+    /**
+     * Parses every line in the family with a new parser. A new parser is used
+     * each time so that labels aren't defined twice and label users don't
+     * pile up.
+     */
+    @Benchmark
+    public void parseFamily(Blackhole bh) throws X86ParsingException {
+        parseAll(new X86Parser(), bh);
+    }
+}
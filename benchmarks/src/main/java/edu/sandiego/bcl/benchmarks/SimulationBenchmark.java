@@ -0,0 +1,133 @@
+package edu.sandiego.bcl.benchmarks;
+
+import edu.sandiego.bcl.Simulation;
+import edu.sandiego.bcl.X86ParsingException;
+import edu.sandiego.bcl.x86RuntimeException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures running whole programs with {@link Simulation#finish()}.
+ * The number of simulated instructions is reported as a secondary result so
+ * that time and allocation can be worked out per instruction.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SimulationBenchmark {
+
+    static final Map<String, String[]> KERNELS = new HashMap<>();
+
+    static {
+        // Sums the numbers from 1 to 2000.
+        KERNELS.put("loop", new String[]{
+            "main:",
+            "movq $0, %rax",
+            "movq $2000, %rcx",
+            "loop:",
+            "addq %rcx, %rax",
+            "decq %rcx",
+            "jne loop",
+            "retq"});
+
+        // Recursively sums the numbers from 1 to 200.
+        KERNELS.put("recursion", new String[]{
+            "main:",
+            "movq $200, %rdi",
+            "callq sum",
+            "retq",
+            "sum:",
+            "cmpq $0, %rdi",
+            "jne recurse",
+            "movq $0, %rax",
+            "retq",
+            "recurse:",
+            "pushq %rdi",
+            "decq %rdi",
+            "callq sum",
+            "popq %rdi",
+            "addq %rdi, %rax",
+            "retq"});
+
+        // Fills a 64 element array on the stack, then sums it.
+        KERNELS.put("array", new String[]{
+            "main:",
+            "subq $512, %rsp",
+            "movq $0, %rcx",
+            "fill:",
+            "movq %rcx, (%rsp,%rcx,8)",
+            "incq %rcx",
+            "cmpq $64, %rcx",
+            "jl fill",
+            "movq $0, %rax",
+            "movq $0, %rcx",
+            "sum:",
+            "addq (%rsp,%rcx,8), %rax",
+            "incq %rcx",
+            "cmpq $64, %rcx",
+            "jl sum",
+            "addq $512, %rsp",
+            "retq"});
+    }
+
+    @Param({"loop", "recursion", "array"})
+    public String kernel;
+
+    private Simulation simulation;
+
+    /**
+     * Counts the simulated instructions for each benchmark iteration.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long instructions;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            this.instructions = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws X86ParsingException, x86RuntimeException {
+        this.simulation = new Simulation();
+        for (String line : KERNELS.get(this.kernel)) {
+            this.simulation.appendToProgram(line);
+        }
+        // Fail now rather than measuring a broken kernel.
+        finish();
+        if (!this.simulation.isFinished()) {
+            throw new IllegalStateException(this.kernel + " didn't finish");
+        }
+    }
+
+    private void finish() throws x86RuntimeException {
+        this.simulation.restart();
+        while (!this.simulation.finish()) { }
+    }
+
+    @Benchmark
+    public long run(Counters counters) throws x86RuntimeException {
+        finish();
+        counters.instructions += this.simulation.getNumExecuted();
+        return this.simulation.getNumExecuted();
+    }
+}
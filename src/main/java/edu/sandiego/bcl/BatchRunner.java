@@ -0,0 +1,387 @@
+package edu.sandiego.bcl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Runs many programs against many initial machine states at once, e.g. to
+ * grade a set of submissions against a set of test inputs.
+ *
+ * Every (program, initial state) combination is run as its own task on a
+ * work-stealing pool. Unlike {@link Simulation}, these runs don't keep a
+ * history of states, so each one only holds on to the state it is currently
+ * at. Results are handed back as soon as each run finishes.
+ *
+ * Programs must not be edited while a batch that uses them is running.
+ */
+public class BatchRunner implements AutoCloseable {
+
+    /**
+     * The ways in which a single run can end.
+     */
+    public enum Status {
+        /**
+         * The program ran off its end or returned from main.
+         */
+        COMPLETED,
+
+        /**
+         * The program was still running after executing the maximum number
+         * of instructions.
+         */
+        BUDGET_EXHAUSTED,
+
+        /**
+         * The program stopped because of a runtime error.
+         */
+        RUNTIME_ERROR
+    }
+
+    /**
+     * The outcome of running one program with one initial state.
+     */
+    public static class Result {
+        private final int programIndex;
+        private final int inputIndex;
+        private final Status status;
+        private final MachineState finalState;
+        private final long numExecuted;
+        private final Optional<Exception> error;
+
+        Result(int programIndex, int inputIndex, Status status,
+                MachineState finalState, long numExecuted,
+                Optional<Exception> error) {
+            this.programIndex = programIndex;
+            this.inputIndex = inputIndex;
+            this.status = status;
+            this.finalState = finalState;
+            this.numExecuted = numExecuted;
+            this.error = error;
+        }
+
+        /**
+         * @return Index of the program (in the list given to the runner).
+         */
+        public int getProgramIndex() { return this.programIndex; }
+
+        /**
+         * @return Index of the initial state (in the list given to the runner).
+         */
+        public int getInputIndex() { return this.inputIndex; }
+
+        public Status getStatus() { return this.status; }
+
+        /**
+         * @return The last state that was reached. When there was an error,
+         * this is the state before the instruction that caused it.
+         */
+        public MachineState getFinalState() { return this.finalState; }
+
+        /**
+         * @return The number of instructions that were executed.
+         */
+        public long getNumExecuted() { return this.numExecuted; }
+
+        /**
+         * @return The error that stopped the run, if there was one.
+         */
+        public Optional<Exception> getError() { return this.error; }
+
+        /**
+         * @return The value of %rax in the final state (i.e. the return value
+         * when a function was run).
+         */
+        public BigInteger getReturnValue() {
+            return this.finalState.getRegisterValue("rax");
+        }
+    }
+
+    /**
+     * Registers used to pass the first six arguments to a function.
+     */
+    private static final String[] ARGUMENT_REGISTERS = {
+        "rdi", "rsi", "rdx", "rcx", "r8", "r9"
+    };
+
+    /**
+     * Pool that runs the individual simulations.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates a runner that uses all available processors.
+     */
+    public BatchRunner() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param parallelism The number of runs to do at the same time.
+     */
+    public BatchRunner(int parallelism) {
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Loads programs to run in a batch.
+     * Unlike programs opened for editing, these don't keep a journal of
+     * unsaved edits, so grading a directory of submissions doesn't create
+     * (or recover from) a journal for each one.
+     *
+     * @param files The files containing the programs.
+     * @return The programs, in the same order as the files.
+     * @throws IOException if there was a problem reading one of the files.
+     * @throws X86ParsingException if one of the files couldn't be parsed.
+     */
+    public static List<x86Program> loadPrograms(List<File> files)
+            throws IOException, X86ParsingException {
+        List<x86Program> programs = new ArrayList<>(files.size());
+        for (File f : files) {
+            programs.add(new x86Program(f, false));
+        }
+        return programs;
+    }
+
+    /**
+     * Starts running every program with every initial state.
+     *
+     * @param programs The programs to run.
+     * @param inputs The states to start each program from. These are never
+     * modified.
+     * @param maxInstructions The maximum number of instructions each run may
+     * execute.
+     * @param onResult Called with each result as soon as it is ready. This is
+     * called from the runner's threads, so it must be thread safe.
+     * @return A future that completes once every run has finished.
+     */
+    public CompletableFuture<Void> submit(List<x86Program> programs,
+            List<MachineState> inputs, long maxInstructions,
+            Consumer<Result> onResult) {
+        List<CompletableFuture<Void>> runs = new ArrayList<>();
+
+        for (int p = 0; p < programs.size(); p++) {
+            x86Program program = programs.get(p);
+            program.prepareForConcurrentReads();
+            int start = program.isEmpty() ? 0
+                    : program.getBeginningOfProgram().getLineNum();
+
+            for (int i = 0; i < inputs.size(); i++) {
+                int programIndex = p;
+                int inputIndex = i;
+                MachineState input = inputs.get(i);
+                runs.add(CompletableFuture.runAsync(() -> onResult.accept(
+                        run(programIndex, inputIndex, program, start, input,
+                                maxInstructions)), this.pool));
+            }
+        }
+
+        return CompletableFuture.allOf(runs.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Runs every program with every initial state, waiting until all of them
+     * have finished.
+     *
+     * @param programs The programs to run.
+     * @param inputs The states to start each program from.
+     * @param maxInstructions The maximum number of instructions each run may
+     * execute.
+     * @return The results, ordered by program and then by initial state.
+     */
+    public List<Result> runAll(List<x86Program> programs,
+            List<MachineState> inputs, long maxInstructions) {
+        ConcurrentLinkedQueue<Result> results = new ConcurrentLinkedQueue<>();
+        submit(programs, inputs, maxInstructions, results::add).join();
+
+        List<Result> sorted = new ArrayList<>(results);
+        sorted.sort(Comparator.comparingInt(Result::getProgramIndex)
+                .thenComparingInt(Result::getInputIndex));
+        return sorted;
+    }
+
+    /**
+     * Calls a function once for each of the given argument vectors, with each
+     * call starting from the same prepared state.
+     *
+     * @param program The program containing the function.
+     * @param function The label at the start of the function.
+     * @param prepared The state to make each call from. This is never
+     * modified.
+     * @param args The arguments for each call, which are passed in %rdi, %rsi,
+     * %rdx, %rcx, %r8, and %r9 (in that order).
+     * @param maxInstructions The maximum number of instructions each call may
+     * execute.
+     * @return The result of each call, in the same order as {@code args}.
+     * The input index of each result is the index of its argument vector.
+     */
+    public List<Result> runFunction(x86Program program, x86Label function,
+            MachineState prepared, List<long[]> args, long maxInstructions) {
+        for (long[] a : args) {
+            if (a.length > ARGUMENT_REGISTERS.length) {
+                throw new IllegalArgumentException("At most "
+                        + ARGUMENT_REGISTERS.length + " arguments are supported.");
+            }
+        }
+
+        program.prepareForConcurrentReads();
+        int entry = function.getLineNum();
+
+        // Returning to the (nonexistent) line after the program's end makes
+        // the run finish as soon as the function returns.
+        int returnAddress = program.getNumLines();
+
+        // A parallel stream run from inside the pool uses the pool's threads,
+        // splitting the vectors into chunks rather than one task per vector.
+        return this.pool.submit(() -> IntStream.range(0, args.size())
+                .parallel()
+                .mapToObj(i -> {
+                    MachineState start;
+                    try {
+                        start = prepareCall(prepared, args.get(i), returnAddress);
+                    } catch (x86RuntimeException e) {
+                        return new Result(0, i, Status.RUNTIME_ERROR, prepared,
+                                0, Optional.of(e));
+                    }
+                    return run(0, i, program, entry, start, maxInstructions);
+                })
+                .collect(Collectors.toList())).join();
+    }
+
+    /**
+     * Sets up the arguments and return address for a function call.
+     *
+     * @param state The state to make the call from.
+     * @param args The values of the arguments.
+     * @param returnAddress The line to return to.
+     * @return A clone of {@code state} with the argument registers set and the
+     * return address pushed onto the stack.
+     * @throws x86RuntimeException if the return address couldn't be pushed.
+     */
+    private static MachineState prepareCall(MachineState state, long[] args,
+            int returnAddress) throws x86RuntimeException {
+        Map<String, Boolean> flags = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            state = state.cloneWithUpdatedRegister(ARGUMENT_REGISTERS[i],
+                    Optional.of(BigInteger.valueOf(args[i])), flags, false);
+        }
+
+        BigInteger rsp = state.getRegisterValue("rsp").subtract(BigInteger.valueOf(8));
+        state = state.cloneWithUpdatedRegister("rsp", Optional.of(rsp), flags, false);
+        state = state.cloneWithUpdatedMemory(
+                Optional.of(BigInteger.valueOf(returnAddress)), rsp.longValue(), 8,
+                flags, false);
+        state.pushToCallStack(-1, returnAddress, rsp.longValue());
+        return state;
+    }
+
+    /**
+     * Runs a program from the given state until it finishes, fails, or runs
+     * out of instructions.
+     *
+     * @param programIndex Index of the program, for the result.
+     * @param inputIndex Index of the initial state, for the result.
+     * @param program The program to run.
+     * @param start The line to start at.
+     * @param initial The state to start from.
+     * @param maxInstructions The maximum number of instructions to execute.
+     * @return The result of the run.
+     */
+    static Result run(int programIndex, int inputIndex, x86Program program,
+            int start, MachineState initial, long maxInstructions) {
+        try {
+            return run(programIndex, inputIndex, program, start, initial,
+                    maxInstructions, Optional.empty());
+        } catch (IOException e) {
+            // Can't happen without a trace.
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Runs a program from the beginning, writing a trace of every step to
+     * the given file. Like the other runs, this doesn't keep any history, so
+     * it can be used for very long runs.
+     *
+     * @param program The program to run.
+     * @param initial The state to start from. This is never modified.
+     * @param maxInstructions The maximum number of instructions to execute.
+     * @param traceFile The file to write the trace to (see
+     * {@link TraceRecorder}).
+     * @return The result of the run.
+     * @throws IOException if the trace couldn't be written.
+     */
+    public static Result runWithTrace(x86Program program, MachineState initial,
+            long maxInstructions, File traceFile) throws IOException {
+        int start = program.isEmpty() ? 0
+                : program.getBeginningOfProgram().getLineNum();
+        MachineState state = initial.cloneWithNewRIP(start);
+        try (TraceRecorder trace = new TraceRecorder(traceFile, state)) {
+            return run(0, 0, program, start, state, maxInstructions,
+                    Optional.of(trace));
+        }
+    }
+
+    /**
+     * Runs a program, optionally recording each step in a trace.
+     *
+     * @throws IOException if the trace couldn't be written.
+     */
+    private static Result run(int programIndex, int inputIndex,
+            x86Program program, int start, MachineState initial,
+            long maxInstructions, Optional<TraceRecorder> trace)
+            throws IOException {
+        // Cloning keeps the (shared) initial state from being modified.
+        MachineState state = initial.cloneWithNewRIP(start);
+        int numLines = program.getNumLines();
+        long numExecuted = 0;
+
+        try {
+            while (state.getRipRegister() < numLines
+                    && state.getCallStackSize() >= 0) {
+                if (numExecuted >= maxInstructions) {
+                    return new Result(programIndex, inputIndex,
+                            Status.BUDGET_EXHAUSTED, state, numExecuted,
+                            Optional.empty());
+                }
+                x86ProgramLine line = program.getLine(state.getRipRegister());
+                MachineState next = line.eval(state);
+                if (trace.isPresent()) {
+                    trace.get().record(line.getLineNum(), state, next);
+                }
+                state = next;
+                numExecuted++;
+            }
+        } catch (x86RuntimeException | RuntimeException e) {
+            // A bad program shouldn't stop the rest of the batch, so
+            // unexpected errors are reported the same way as runtime errors.
+            return new Result(programIndex, inputIndex, Status.RUNTIME_ERROR,
+                    state, numExecuted, Optional.of(e));
+        }
+
+        return new Result(programIndex, inputIndex, Status.COMPLETED, state,
+                numExecuted, Optional.empty());
+    }
+
+    /**
+     * Stops the runner's threads once any runs that were already submitted
+     * have finished.
+     */
+    @Override
+    public void close() {
+        this.pool.shutdown();
+    }
+}
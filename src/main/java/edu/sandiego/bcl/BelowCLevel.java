@@ -19,6 +19,8 @@ public class BelowCLevel extends Application {
     
     @Override
     public void start(Stage stage) throws Exception {
+        SimulatorMetrics.registerMBean();
+        
         Parent root = FXMLLoader.load(getClass().getResource("/fxml/FXMLDocument.fxml"));
         
         Scene scene = new Scene(root);
@@ -0,0 +1,393 @@
+package edu.sandiego.bcl;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Counts how often each conditional jump is taken, and how often it would be
+ * mispredicted by a few simple branch predictors, to show how predictable a
+ * program's branches are (e.g. why replacing a data-dependent branch with a
+ * cmov can help).
+ *
+ * All of the predictors are simulated at once, so they can be compared with
+ * each other. Counts and predictor state are kept in arrays indexed by line
+ * number, so recording a branch doesn't allocate anything. The predictor
+ * state before each branch is saved in a journal so branches can be taken
+ * back when stepping backward.
+ */
+public class BranchStats {
+
+    /**
+     * The branch predictors that are simulated.
+     */
+    public enum Predictor {
+        /**
+         * Predicts that backward jumps (i.e. loops) are taken and forward
+         * jumps aren't.
+         */
+        STATIC,
+
+        /**
+         * Predicts that each jump does whatever it did last time.
+         */
+        ONE_BIT,
+
+        /**
+         * Keeps a 2-bit saturating counter for each jump, so it takes two
+         * surprises in a row to change the prediction.
+         */
+        TWO_BIT,
+
+        /**
+         * Keeps a table of 2-bit counters indexed by the line number XORed
+         * with the outcomes of the most recent jumps, so it can learn
+         * patterns.
+         */
+        GSHARE
+    }
+
+    /**
+     * The predictors, so that looping over them doesn't copy the array that
+     * values() returns.
+     */
+    private static final Predictor[] PREDICTORS = Predictor.values();
+    private static final int NUM_PREDICTORS = PREDICTORS.length;
+
+    /**
+     * Number of recent outcomes used by gshare when none is given.
+     */
+    public static final int DEFAULT_HISTORY_BITS = 8;
+
+    private final int historyBits;
+    private final int historyMask;
+
+    /**
+     * Times each line's jump was taken and not taken.
+     */
+    private long[] taken;
+    private long[] notTaken;
+
+    /**
+     * Mispredictions of each line's jump (line * NUM_PREDICTORS + predictor).
+     */
+    private long[] mispredictions;
+
+    /**
+     * The last outcome (1-bit) and the counter (2-bit) of each line's jump.
+     */
+    private byte[] lastOutcomes;
+    private byte[] counters;
+
+    /**
+     * Target line of each line's jump, and the line it was worked out for.
+     */
+    private int[] targets;
+    private x86ProgramLine[] targetedLines;
+
+    /**
+     * The gshare counters, and the outcomes of the most recent jumps (one per
+     * bit, newest in the lowest bit).
+     */
+    private final byte[] gshareCounters;
+    private int history;
+
+    /**
+     * The predictor state before each recorded jump, packed by
+     * {@link #saveState(int, int)}.
+     */
+    private long[] journal;
+    private int journalSize;
+
+    private long totalBranches;
+    private final long[] totalMispredictions = new long[NUM_PREDICTORS];
+
+    public BranchStats() {
+        this(DEFAULT_HISTORY_BITS);
+    }
+
+    /**
+     * @param historyBits Number of recent outcomes used by gshare.
+     * @throws IllegalArgumentException if historyBits isn't between 1 and
+     * 20.
+     */
+    public BranchStats(int historyBits) {
+        if (historyBits < 1 || historyBits > 20) {
+            throw new IllegalArgumentException("historyBits must be between 1 and 20");
+        }
+        this.historyBits = historyBits;
+        this.historyMask = (1 << historyBits) - 1;
+        this.gshareCounters = new byte[1 << historyBits];
+        reset();
+    }
+
+    public int getHistoryBits() { return this.historyBits; }
+
+    /**
+     * Forgets everything that has been counted, and resets the predictors.
+     */
+    public void reset() {
+        this.taken = new long[16];
+        this.notTaken = new long[16];
+        this.mispredictions = new long[16 * NUM_PREDICTORS];
+        this.lastOutcomes = new byte[16];
+        this.counters = new byte[16];
+        Arrays.fill(this.counters, (byte) 1);
+        this.targets = new int[16];
+        this.targetedLines = new x86ProgramLine[16];
+        Arrays.fill(this.gshareCounters, (byte) 1);
+        this.history = 0;
+        this.journal = new long[16];
+        this.journalSize = 0;
+        this.totalBranches = 0;
+        Arrays.fill(this.totalMispredictions, 0);
+    }
+
+    private void ensureCapacity(int lineNum) {
+        if (lineNum >= this.taken.length) {
+            int oldSize = this.taken.length;
+            int size = Math.max(lineNum + 1, oldSize * 2);
+            this.taken = Arrays.copyOf(this.taken, size);
+            this.notTaken = Arrays.copyOf(this.notTaken, size);
+            this.mispredictions = Arrays.copyOf(this.mispredictions, size * NUM_PREDICTORS);
+            this.lastOutcomes = Arrays.copyOf(this.lastOutcomes, size);
+            this.counters = Arrays.copyOf(this.counters, size);
+            Arrays.fill(this.counters, oldSize, size, (byte) 1);
+            this.targets = Arrays.copyOf(this.targets, size);
+            this.targetedLines = Arrays.copyOf(this.targetedLines, size);
+        }
+    }
+
+    /**
+     * @param line A line of a program.
+     * @return True if the line is a conditional jump.
+     */
+    public static boolean isConditionalJump(x86ProgramLine line) {
+        return CostModel.isJump(line)
+                && ((x86Instruction) line).getType() != InstructionType.JMP;
+    }
+
+    /**
+     * @return The line the jump goes to, or -1 if its label doesn't exist.
+     */
+    private int targetOf(x86UnaryInstruction jump, int lineNum, MachineState state) {
+        if (this.targetedLines[lineNum] != jump) {
+            int target;
+            try {
+                target = jump.destination.getValue(state).intValue();
+            } catch (x86RuntimeException e) {
+                target = -1;
+            }
+            this.targets[lineNum] = target;
+            this.targetedLines[lineNum] = jump;
+        }
+        return this.targets[lineNum];
+    }
+
+    private int gshareIndex(int lineNum) {
+        return (lineNum ^ this.history) & this.historyMask;
+    }
+
+    /**
+     * @return What the given predictor would predict for a line's jump, in
+     * the current predictor state.
+     */
+    private boolean predict(Predictor p, int lineNum, int target) {
+        switch (p) {
+            case STATIC:
+                return target >= 0 && target <= lineNum;
+            case ONE_BIT:
+                return this.lastOutcomes[lineNum] != 0;
+            case TWO_BIT:
+                return this.counters[lineNum] >= 2;
+            default:
+                return this.gshareCounters[gshareIndex(lineNum)] >= 2;
+        }
+    }
+
+    private static byte updateCounter(byte counter, boolean taken) {
+        if (taken) {
+            return counter < 3 ? (byte) (counter + 1) : counter;
+        }
+        return counter > 0 ? (byte) (counter - 1) : counter;
+    }
+
+    /**
+     * Packs the state of the predictors that a jump on the given line will
+     * change.
+     */
+    private long saveState(int lineNum, int gshareIndex) {
+        return ((long) this.history << 8)
+                | (this.gshareCounters[gshareIndex] << 4)
+                | (this.counters[lineNum] << 2)
+                | this.lastOutcomes[lineNum];
+    }
+
+    /**
+     * Counts an executed instruction, if it is a conditional jump.
+     *
+     * @param line The line that was executed.
+     * @param before The state before it was executed.
+     */
+    public void record(x86ProgramLine line, MachineState before) {
+        if (!isConditionalJump(line)) {
+            return;
+        }
+        x86UnaryInstruction jump = (x86UnaryInstruction) line;
+        int lineNum = line.getLineNum();
+        ensureCapacity(lineNum);
+        boolean isTaken = jump.conditionHolds(before);
+        int target = targetOf(jump, lineNum, before);
+
+        for (Predictor p : PREDICTORS) {
+            if (predict(p, lineNum, target) != isTaken) {
+                this.mispredictions[lineNum * NUM_PREDICTORS + p.ordinal()]++;
+                this.totalMispredictions[p.ordinal()]++;
+            }
+        }
+        if (isTaken) {
+            this.taken[lineNum]++;
+        } else {
+            this.notTaken[lineNum]++;
+        }
+        this.totalBranches++;
+
+        int index = gshareIndex(lineNum);
+        if (this.journalSize == this.journal.length) {
+            this.journal = Arrays.copyOf(this.journal, this.journal.length * 2);
+        }
+        this.journal[this.journalSize++] = saveState(lineNum, index);
+
+        this.lastOutcomes[lineNum] = (byte) (isTaken ? 1 : 0);
+        this.counters[lineNum] = updateCounter(this.counters[lineNum], isTaken);
+        this.gshareCounters[index] = updateCounter(this.gshareCounters[index], isTaken);
+        this.history = ((this.history << 1) | (isTaken ? 1 : 0)) & this.historyMask;
+    }
+
+    /**
+     * Takes back the count of an instruction (e.g. when stepping backward).
+     * This must be the last instruction recorded that hasn't been taken back.
+     *
+     * @param line The line that was executed.
+     * @param before The state before it was executed.
+     */
+    public void undo(x86ProgramLine line, MachineState before) {
+        if (!isConditionalJump(line) || this.journalSize == 0
+                || line.getLineNum() >= this.taken.length) {
+            return;
+        }
+        x86UnaryInstruction jump = (x86UnaryInstruction) line;
+        int lineNum = line.getLineNum();
+        boolean isTaken = jump.conditionHolds(before);
+
+        long saved = this.journal[--this.journalSize];
+        this.history = (int) (saved >>> 8);
+        this.gshareCounters[gshareIndex(lineNum)] = (byte) ((saved >>> 4) & 3);
+        this.counters[lineNum] = (byte) ((saved >>> 2) & 3);
+        this.lastOutcomes[lineNum] = (byte) (saved & 3);
+
+        int target = targetOf(jump, lineNum, before);
+        for (Predictor p : PREDICTORS) {
+            if (predict(p, lineNum, target) != isTaken) {
+                this.mispredictions[lineNum * NUM_PREDICTORS + p.ordinal()]--;
+                this.totalMispredictions[p.ordinal()]--;
+            }
+        }
+        if (isTaken) {
+            this.taken[lineNum]--;
+        } else {
+            this.notTaken[lineNum]--;
+        }
+        this.totalBranches--;
+    }
+
+    /**
+     * @return The number of conditional jumps executed.
+     */
+    public long getTotalBranches() { return this.totalBranches; }
+
+    /**
+     * @param p A predictor.
+     * @return The number of conditional jumps it mispredicted.
+     */
+    public long getTotalMispredictions(Predictor p) {
+        return this.totalMispredictions[p.ordinal()];
+    }
+
+    public long getTakenCount(int lineNum) {
+        return lineNum < this.taken.length ? this.taken[lineNum] : 0;
+    }
+
+    public long getNotTakenCount(int lineNum) {
+        return lineNum < this.notTaken.length ? this.notTaken[lineNum] : 0;
+    }
+
+    /**
+     * @param lineNum The line of a conditional jump.
+     * @param p A predictor.
+     * @return The number of times the predictor mispredicted the jump.
+     */
+    public long getMispredictions(int lineNum, Predictor p) {
+        return lineNum < this.taken.length
+                ? this.mispredictions[lineNum * NUM_PREDICTORS + p.ordinal()] : 0;
+    }
+
+    /**
+     * Formats the counts as a table, with a row for each conditional jump
+     * that was executed.
+     *
+     * @param lines The lines of the program the counts are for.
+     * @return The formatted counts.
+     */
+    public String toText(List<x86ProgramLine> lines) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(this.totalBranches).append(" conditional jumps executed\n");
+        for (Predictor p : PREDICTORS) {
+            long m = this.totalMispredictions[p.ordinal()];
+            sb.append(String.format("%8s: %d mispredicted (%.2f%%)%n", p, m,
+                    this.totalBranches == 0 ? 0 : 100.0 * m / this.totalBranches));
+        }
+        sb.append(String.format("%n%10s %10s", "taken", "not taken"));
+        for (Predictor p : PREDICTORS) {
+            sb.append(String.format(" %8s", p));
+        }
+        sb.append(String.format(" %6s  %s%n", "line", "instruction"));
+        for (int i = 0; i < this.taken.length; i++) {
+            if (this.taken[i] + this.notTaken[i] == 0) {
+                continue;
+            }
+            sb.append(String.format("%10d %10d", this.taken[i], this.notTaken[i]));
+            for (int p = 0; p < NUM_PREDICTORS; p++) {
+                sb.append(String.format(" %8d", this.mispredictions[i * NUM_PREDICTORS + p]));
+            }
+            String text = i < lines.size() ? lines.get(i).toString().trim() : "";
+            sb.append(String.format(" %6d  %s%n", i, text));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Formats the counts as comma-separated values, with a row for each
+     * conditional jump that was executed.
+     *
+     * @return The formatted counts.
+     */
+    public String toCsv() {
+        StringBuilder sb = new StringBuilder("line,taken,not_taken");
+        for (Predictor p : PREDICTORS) {
+            sb.append(",mispredicted_").append(p.name().toLowerCase());
+        }
+        sb.append('\n');
+        for (int i = 0; i < this.taken.length; i++) {
+            if (this.taken[i] + this.notTaken[i] == 0) {
+                continue;
+            }
+            sb.append(i).append(',').append(this.taken[i]).append(',')
+                    .append(this.notTaken[i]);
+            for (int p = 0; p < NUM_PREDICTORS; p++) {
+                sb.append(',').append(this.mispredictions[i * NUM_PREDICTORS + p]);
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
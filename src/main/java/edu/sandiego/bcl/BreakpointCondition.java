@@ -0,0 +1,347 @@
+package edu.sandiego.bcl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * A condition that must hold for a breakpoint to stop the simulation, for
+ * example {@code %rax > 10 && (%rsp) == 0}.
+ *
+ * Conditions are parsed once, into a tree of small functions that read the
+ * state directly, so checking one on every instruction costs little more
+ * than the register and memory reads it does.
+ *
+ * Conditions use C syntax and 64-bit signed arithmetic. They may contain
+ * registers (e.g. {@code %rax} or {@code %eax}), numbers (decimal or
+ * hexadecimal), quad words in memory (e.g. {@code (%rsp)} or
+ * {@code -8(%rbp)}), the arithmetic operators {@code + - *}, the comparisons
+ * {@code == != < <= > >=}, and the logical operators {@code && || !}.
+ * A condition that reads invalid memory is false.
+ */
+public class BreakpointCondition implements Predicate<MachineState> {
+
+    /**
+     * A compiled expression.
+     */
+    @FunctionalInterface
+    private interface Value {
+        long get(MachineState state) throws x86RuntimeException;
+    }
+
+    private final String text;
+    private final Value value;
+
+    private BreakpointCondition(String text, Value value) {
+        this.text = text;
+        this.value = value;
+    }
+
+    /**
+     * Parses and compiles a condition.
+     *
+     * @param text The text of the condition.
+     * @return The condition.
+     * @throws X86ParsingException if the text isn't a valid condition.
+     */
+    public static BreakpointCondition parse(String text) throws X86ParsingException {
+        Parser parser = new Parser(text);
+        Value v = parser.parseOr();
+        if (parser.pos < parser.tokens.size()) {
+            Token t = parser.tokens.get(parser.pos);
+            throw new X86ParsingException("Unexpected \"" + t.text + "\"",
+                    t.start, t.end);
+        }
+        return new BreakpointCondition(text.trim(), v);
+    }
+
+    /**
+     * @param state The state to check.
+     * @return True if the condition holds in the given state.
+     */
+    @Override
+    public boolean test(MachineState state) {
+        try {
+            return this.value.get(state) != 0;
+        } catch (x86RuntimeException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public String toString() { return this.text; }
+
+    private enum TokenType { NUMBER, REGISTER, OPERATOR, END }
+
+    private static class Token {
+        final TokenType type;
+        final String text;
+        final int start;
+        final int end;
+
+        Token(TokenType type, String text, int start, int end) {
+            this.type = type;
+            this.text = text;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Operators, with longer ones first so they are matched before their
+     * prefixes.
+     */
+    private static final String[] OPERATORS = {"&&", "||", "==", "!=", "<=",
+        ">=", "<", ">", "!", "+", "-", "*", "(", ")"};
+
+    /**
+     * A recursive descent parser, with one method for each level of
+     * precedence.
+     */
+    private static class Parser {
+        final String text;
+        final List<Token> tokens;
+        int pos = 0;
+
+        Parser(String text) throws X86ParsingException {
+            this.text = text;
+            this.tokens = tokenize(text);
+        }
+
+        private static List<Token> tokenize(String text) throws X86ParsingException {
+            List<Token> tokens = new ArrayList<>();
+            int i = 0;
+            outer:
+            while (i < text.length()) {
+                char c = text.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '%') {
+                    int j = i + 1;
+                    while (j < text.length() && Character.isLetterOrDigit(text.charAt(j))) {
+                        j++;
+                    }
+                    tokens.add(new Token(TokenType.REGISTER, text.substring(i + 1, j), i, j));
+                    i = j;
+                } else if (Character.isDigit(c)) {
+                    int j = i + 1;
+                    while (j < text.length() && Character.isLetterOrDigit(text.charAt(j))) {
+                        j++;
+                    }
+                    tokens.add(new Token(TokenType.NUMBER, text.substring(i, j), i, j));
+                    i = j;
+                } else {
+                    for (String op : OPERATORS) {
+                        if (text.startsWith(op, i)) {
+                            tokens.add(new Token(TokenType.OPERATOR, op, i, i + op.length()));
+                            i += op.length();
+                            continue outer;
+                        }
+                    }
+                    throw new X86ParsingException("Unexpected character '" + c + "'",
+                            i, i + 1);
+                }
+            }
+            return tokens;
+        }
+
+        private Token peek() {
+            if (this.pos < this.tokens.size()) {
+                return this.tokens.get(this.pos);
+            }
+            return new Token(TokenType.END, "", this.text.length(), this.text.length());
+        }
+
+        private boolean accept(String op) {
+            Token t = peek();
+            if (t.type == TokenType.OPERATOR && t.text.equals(op)) {
+                this.pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String op) throws X86ParsingException {
+            if (!accept(op)) {
+                Token t = peek();
+                throw new X86ParsingException("Expected \"" + op + "\"", t.start,
+                        Math.max(t.end, t.start + 1));
+            }
+        }
+
+        Value parseOr() throws X86ParsingException {
+            Value left = parseAnd();
+            while (accept("||")) {
+                Value l = left;
+                Value r = parseAnd();
+                left = s -> l.get(s) != 0 || r.get(s) != 0 ? 1 : 0;
+            }
+            return left;
+        }
+
+        private Value parseAnd() throws X86ParsingException {
+            Value left = parseComparison();
+            while (accept("&&")) {
+                Value l = left;
+                Value r = parseComparison();
+                left = s -> l.get(s) != 0 && r.get(s) != 0 ? 1 : 0;
+            }
+            return left;
+        }
+
+        private Value parseComparison() throws X86ParsingException {
+            Value l = parseSum();
+            Token t = peek();
+            if (t.type != TokenType.OPERATOR) {
+                return l;
+            }
+            switch (t.text) {
+                case "==":
+                    this.pos++;
+                    Value eq = parseSum();
+                    return s -> l.get(s) == eq.get(s) ? 1 : 0;
+                case "!=":
+                    this.pos++;
+                    Value ne = parseSum();
+                    return s -> l.get(s) != ne.get(s) ? 1 : 0;
+                case "<":
+                    this.pos++;
+                    Value lt = parseSum();
+                    return s -> l.get(s) < lt.get(s) ? 1 : 0;
+                case "<=":
+                    this.pos++;
+                    Value le = parseSum();
+                    return s -> l.get(s) <= le.get(s) ? 1 : 0;
+                case ">":
+                    this.pos++;
+                    Value gt = parseSum();
+                    return s -> l.get(s) > gt.get(s) ? 1 : 0;
+                case ">=":
+                    this.pos++;
+                    Value ge = parseSum();
+                    return s -> l.get(s) >= ge.get(s) ? 1 : 0;
+                default:
+                    return l;
+            }
+        }
+
+        private Value parseSum() throws X86ParsingException {
+            Value left = parseProduct();
+            while (true) {
+                Value l = left;
+                if (accept("+")) {
+                    Value r = parseProduct();
+                    left = s -> l.get(s) + r.get(s);
+                } else if (accept("-")) {
+                    Value r = parseProduct();
+                    left = s -> l.get(s) - r.get(s);
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        private Value parseProduct() throws X86ParsingException {
+            Value left = parseUnary();
+            while (accept("*")) {
+                Value l = left;
+                Value r = parseUnary();
+                left = s -> l.get(s) * r.get(s);
+            }
+            return left;
+        }
+
+        private Value parseUnary() throws X86ParsingException {
+            if (accept("!")) {
+                Value v = parseUnary();
+                return s -> v.get(s) == 0 ? 1 : 0;
+            }
+            if (accept("-")) {
+                // A negative displacement belongs to the memory operand it
+                // comes before, e.g. -8(%rbp).
+                if (peek().type == TokenType.NUMBER && isMemoryOperand(this.pos + 1)) {
+                    return parseMemory(-parseNumber(), this.pos);
+                }
+                Value v = parseUnary();
+                return s -> -v.get(s);
+            }
+            return parseAtom();
+        }
+
+        /**
+         * @return True if the tokens starting at the given index are "(",
+         * a register, and ")".
+         */
+        private boolean isMemoryOperand(int i) {
+            return i + 2 < this.tokens.size()
+                    && this.tokens.get(i).text.equals("(")
+                    && this.tokens.get(i + 1).type == TokenType.REGISTER
+                    && this.tokens.get(i + 2).text.equals(")");
+        }
+
+        private Value parseAtom() throws X86ParsingException {
+            Token t = peek();
+            switch (t.type) {
+                case NUMBER:
+                    long n = parseNumber();
+                    if (isMemoryOperand(this.pos)) {
+                        return parseMemory(n, this.pos);
+                    }
+                    return s -> n;
+                case REGISTER:
+                    this.pos++;
+                    return register(t);
+                case OPERATOR:
+                    if (t.text.equals("(")) {
+                        if (isMemoryOperand(this.pos)) {
+                            return parseMemory(0, this.pos);
+                        }
+                        this.pos++;
+                        Value v = parseOr();
+                        expect(")");
+                        return v;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            throw new X86ParsingException("Expected a register, number, or memory operand",
+                    t.start, Math.max(t.end, t.start + 1));
+        }
+
+        private long parseNumber() throws X86ParsingException {
+            Token t = this.tokens.get(this.pos++);
+            try {
+                if (t.text.startsWith("0x") || t.text.startsWith("0X")) {
+                    return Long.parseUnsignedLong(t.text.substring(2), 16);
+                }
+                return Long.parseLong(t.text);
+            } catch (NumberFormatException e) {
+                throw new X86ParsingException("Invalid number", t.start, t.end);
+            }
+        }
+
+        /**
+         * Parses the "(%reg)" part of a memory operand.
+         */
+        private Value parseMemory(long displacement, int i) throws X86ParsingException {
+            this.pos = i + 3;
+            Value base = register(this.tokens.get(i + 1));
+            return s -> s.getMemoryValue(base.get(s) + displacement, 8).longValue();
+        }
+
+        private static Value register(Token t) throws X86ParsingException {
+            OpSize size;
+            try {
+                size = X86Parser.getRegisterSize(t.text);
+            } catch (X86ParsingException e) {
+                throw new X86ParsingException(e.getMessage(), t.start, t.end);
+            }
+            String name = t.text;
+            if (size == OpSize.QUAD) {
+                return s -> s.getQuadRegisterValue(name);
+            }
+            return s -> s.getRegisterValue(name).longValue();
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package edu.sandiego.bcl;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A model of a set-associative data cache, which is given the address of every
+ * memory read and write a program makes and counts the hits and misses of
+ * each line of the program.
+ *
+ * Each cache line's tag and the time it was last used (for LRU) or filled (for
+ * FIFO) are kept in arrays that are allocated when the cache is created, so
+ * accesses don't allocate anything and the model can be run over long traces.
+ * Writes are treated like reads (i.e. a write miss brings the line into the
+ * cache), and an access that spans two cache lines counts as an access to
+ * each of them.
+ *
+ * Evictions can't be worked out backwards, so the accesses of recorded
+ * instructions also log what they changed. This lets them be taken back one
+ * instruction at a time (e.g. when stepping backward) without running the
+ * whole trace again.
+ */
+public class CacheSimulator {
+
+    /**
+     * How to choose the line to evict from a full set.
+     */
+    public enum Replacement {
+        /**
+         * Evict the least recently used line.
+         */
+        LRU,
+
+        /**
+         * Evict the line that was brought into the cache first.
+         */
+        FIFO
+    }
+
+    private final int size;
+    private final int lineSize;
+    private final int associativity;
+    private final Replacement replacement;
+
+    /**
+     * log2 of the line size and number of sets, for splitting up addresses.
+     */
+    private final int lineBits;
+    private final int setBits;
+
+    /**
+     * Tag of each line of each set (set * associativity + way).
+     */
+    private final long[] tags;
+
+    /**
+     * When each line was last used or filled, or 0 if it is empty.
+     */
+    private final long[] stamps;
+
+    /**
+     * Number of accesses made so far, used as the clock for the stamps.
+     */
+    private long clock;
+
+    private long hits;
+    private long misses;
+
+    /**
+     * Number of the misses that were writes.
+     */
+    private long writeMisses;
+
+    /**
+     * Hits and misses of each program line.
+     */
+    private long[] lineHits;
+    private long[] lineMisses;
+
+    /**
+     * What each access changed, 4 values for each block looked up: the index
+     * of the cache line it used, that line's old tag and stamp, and its
+     * outcome (lineNum * 4, plus 2 if it hit and 1 if it was a write).
+     */
+    private long[] undoLog;
+    private int undoLogSize;
+
+    /**
+     * Where in the undo log the accesses of each recorded instruction start.
+     */
+    private int[] recordStarts;
+    private int numRecords;
+
+    /**
+     * True while an instruction is being recorded, i.e. accesses should be
+     * logged.
+     */
+    private boolean recording;
+
+    private final MemoryAccesses.Visitor visitor = this::access;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param size Total size, in bytes.
+     * @param lineSize Size of each line, in bytes.
+     * @param associativity Number of lines in each set.
+     * @param replacement How to choose which line to evict.
+     * @throws IllegalArgumentException if the sizes aren't powers of two, or
+     * the size isn't a multiple of lineSize * associativity.
+     */
+    public CacheSimulator(int size, int lineSize, int associativity,
+            Replacement replacement) {
+        if (Integer.bitCount(size) != 1 || Integer.bitCount(lineSize) != 1
+                || associativity < 1) {
+            throw new IllegalArgumentException(
+                    "size and line size must be powers of two and associativity must be positive");
+        }
+        if (size % lineSize != 0 || (size / lineSize) % associativity != 0
+                || Integer.bitCount(size / lineSize / associativity) != 1) {
+            throw new IllegalArgumentException(
+                    "size must be a power-of-two number of sets of associativity lines");
+        }
+        this.size = size;
+        this.lineSize = lineSize;
+        this.associativity = associativity;
+        this.replacement = replacement;
+        this.lineBits = Integer.numberOfTrailingZeros(lineSize);
+        this.setBits = Integer.numberOfTrailingZeros(size / lineSize / associativity);
+        this.tags = new long[size / lineSize];
+        this.stamps = new long[size / lineSize];
+        this.lineHits = new long[16];
+        this.lineMisses = new long[16];
+        this.undoLog = new long[64];
+        this.recordStarts = new int[16];
+    }
+
+    public int getSize() { return this.size; }
+
+    public int getLineSize() { return this.lineSize; }
+
+    public int getAssociativity() { return this.associativity; }
+
+    public Replacement getReplacement() { return this.replacement; }
+
+    public int getNumSets() { return 1 << this.setBits; }
+
+    /**
+     * Empties the cache and clears the counts.
+     */
+    public void reset() {
+        Arrays.fill(this.stamps, 0);
+        Arrays.fill(this.lineHits, 0);
+        Arrays.fill(this.lineMisses, 0);
+        this.clock = 0;
+        this.hits = 0;
+        this.misses = 0;
+        this.writeMisses = 0;
+        this.undoLogSize = 0;
+        this.numRecords = 0;
+    }
+
+    /**
+     * Records the memory accesses made by executing a line.
+     *
+     * @param line The line being executed.
+     * @param before The state before the line was executed, which is used to
+     * work out the addresses accessed.
+     */
+    public void record(x86ProgramLine line, MachineState before) {
+        if (this.numRecords == this.recordStarts.length) {
+            this.recordStarts = Arrays.copyOf(this.recordStarts, 2 * this.numRecords);
+        }
+        this.recordStarts[this.numRecords++] = this.undoLogSize;
+        this.recording = true;
+        try {
+            MemoryAccesses.visit(line, before, this.visitor);
+        } finally {
+            this.recording = false;
+        }
+    }
+
+    /**
+     * Takes back the memory accesses of an instruction, putting the cache
+     * back the way it was before them. This must be the last instruction
+     * recorded that hasn't been taken back.
+     */
+    public void undo() {
+        if (this.numRecords == 0) {
+            return;
+        }
+        int start = this.recordStarts[--this.numRecords];
+        while (this.undoLogSize > start) {
+            long outcome = this.undoLog[--this.undoLogSize];
+            long stamp = this.undoLog[--this.undoLogSize];
+            long tag = this.undoLog[--this.undoLogSize];
+            int i = (int) this.undoLog[--this.undoLogSize];
+            this.tags[i] = tag;
+            this.stamps[i] = stamp;
+            this.clock--;
+
+            int lineNum = (int) (outcome >>> 2);
+            if ((outcome & 2) != 0) {
+                this.hits--;
+                this.lineHits[lineNum]--;
+            } else {
+                this.misses--;
+                this.lineMisses[lineNum]--;
+                if ((outcome & 1) != 0) {
+                    this.writeMisses--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Records an access to memory.
+     *
+     * @param lineNum The line of the program that made the access.
+     * @param address The first address accessed.
+     * @param numBytes The number of bytes accessed.
+     * @param isWrite True if the access is a write.
+     */
+    public void access(int lineNum, long address, int numBytes, boolean isWrite) {
+        if (lineNum >= this.lineHits.length) {
+            int newSize = Math.max(lineNum + 1, this.lineHits.length * 2);
+            this.lineHits = Arrays.copyOf(this.lineHits, newSize);
+            this.lineMisses = Arrays.copyOf(this.lineMisses, newSize);
+        }
+        long first = address >>> this.lineBits;
+        long last = (address + Math.max(numBytes, 1) - 1) >>> this.lineBits;
+        for (long block = first; block <= last; block++) {
+            boolean hit = lookup(block);
+            if (hit) {
+                this.hits++;
+                this.lineHits[lineNum]++;
+            } else {
+                this.misses++;
+                this.lineMisses[lineNum]++;
+                if (isWrite) {
+                    this.writeMisses++;
+                }
+            }
+            if (this.recording) {
+                log(((long) lineNum << 2) | (hit ? 2 : 0) | (isWrite ? 1 : 0));
+            }
+        }
+    }
+
+    /**
+     * Adds a value to the undo log.
+     */
+    private void log(long value) {
+        if (this.undoLogSize == this.undoLog.length) {
+            this.undoLog = Arrays.copyOf(this.undoLog, 2 * this.undoLogSize);
+        }
+        this.undoLog[this.undoLogSize++] = value;
+    }
+
+    /**
+     * Logs a cache line before it is changed, if an instruction is being
+     * recorded.
+     */
+    private void logLine(int i) {
+        if (!this.recording) {
+            return;
+        }
+        log(i);
+        log(this.tags[i]);
+        log(this.stamps[i]);
+    }
+
+    /**
+     * Looks up a block of memory, bringing it into the cache if it isn't
+     * there.
+     *
+     * @param block The address divided by the line size.
+     * @return True if the block was in the cache.
+     */
+    private boolean lookup(long block) {
+        long now = ++this.clock;
+        int set = (int) (block & ((1 << this.setBits) - 1));
+        long tag = block >>> this.setBits;
+        int start = set * this.associativity;
+        int end = start + this.associativity;
+        int victim = start;
+        for (int i = start; i < end; i++) {
+            if (this.stamps[i] != 0 && this.tags[i] == tag) {
+                logLine(i);
+                if (this.replacement == Replacement.LRU) {
+                    this.stamps[i] = now;
+                }
+                return true;
+            }
+            if (this.stamps[i] < this.stamps[victim]) {
+                victim = i;
+            }
+        }
+        logLine(victim);
+        this.tags[victim] = tag;
+        this.stamps[victim] = now;
+        return false;
+    }
+
+    public long getHits() { return this.hits; }
+
+    public long getMisses() { return this.misses; }
+
+    public long getWriteMisses() { return this.writeMisses; }
+
+    /**
+     * @return The fraction of accesses that missed, or 0 if there weren't
+     * any.
+     */
+    public double getMissRate() {
+        return missRate(this.hits, this.misses);
+    }
+
+    public long getLineHits(int lineNum) {
+        return lineNum < this.lineHits.length ? this.lineHits[lineNum] : 0;
+    }
+
+    public long getLineMisses(int lineNum) {
+        return lineNum < this.lineMisses.length ? this.lineMisses[lineNum] : 0;
+    }
+
+    /**
+     * @param lineNum The line number.
+     * @return The fraction of the line's accesses that missed, or 0 if it
+     * didn't access memory.
+     */
+    public double getLineMissRate(int lineNum) {
+        return missRate(getLineHits(lineNum), getLineMisses(lineNum));
+    }
+
+    private static double missRate(long hits, long misses) {
+        return hits + misses == 0 ? 0 : (double) misses / (hits + misses);
+    }
+
+    /**
+     * Formats the counts as a table, with a row for each line that accessed
+     * memory.
+     *
+     * @param lines The lines of the program the counts are for.
+     * @return The formatted counts.
+     */
+    public String toText(List<x86ProgramLine> lines) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Cache: %d bytes, %d byte lines, %d-way, %s%n",
+                this.size, this.lineSize, this.associativity, this.replacement));
+        sb.append(String.format("%d hits, %d misses (%d on writes), miss rate %.2f%%%n%n",
+                this.hits, this.misses, this.writeMisses, 100 * getMissRate()));
+        sb.append(String.format("%12s %12s %7s %6s  %s%n", "hits", "misses",
+                "miss %", "line", "instruction"));
+        for (int i = 0; i < this.lineHits.length; i++) {
+            if (this.lineHits[i] + this.lineMisses[i] == 0) {
+                continue;
+            }
+            String text = i < lines.size() ? lines.get(i).toString().trim() : "";
+            sb.append(String.format("%12d %12d %7.2f %6d  %s%n", this.lineHits[i],
+                    this.lineMisses[i], 100 * getLineMissRate(i), i, text));
+        }
+        return sb.toString();
+    }
+}
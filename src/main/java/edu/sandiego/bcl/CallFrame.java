@@ -0,0 +1,59 @@
+package edu.sandiego.bcl;
+
+import java.util.Optional;
+
+/**
+ * An entry in the shadow call stack kept alongside the machine state, which
+ * records each function call that hasn't returned yet.
+ *
+ * Frames are never modified, and each frame points to its caller's frame, so
+ * states can share the frames they have in common.
+ */
+public class CallFrame {
+
+    /**
+     * The line with the call instruction.
+     */
+    private final int callLine;
+
+    /**
+     * The line that the function will return to.
+     */
+    private final int returnRip;
+
+    /**
+     * Value of %rsp when the function was entered (i.e. just after the return
+     * address was pushed).
+     */
+    private final long stackPointer;
+
+    /**
+     * The frame of the calling function, or null if the caller isn't in a
+     * function call.
+     */
+    private final CallFrame caller;
+
+    CallFrame(int callLine, int returnRip, long stackPointer, CallFrame caller) {
+        this.callLine = callLine;
+        this.returnRip = returnRip;
+        this.stackPointer = stackPointer;
+        this.caller = caller;
+    }
+
+    public int getCallLine() { return this.callLine; }
+
+    public int getReturnRip() { return this.returnRip; }
+
+    public long getStackPointer() { return this.stackPointer; }
+
+    public Optional<CallFrame> getCaller() { return Optional.ofNullable(this.caller); }
+
+    CallFrame getCallerOrNull() { return this.caller; }
+
+    @Override
+    public String toString() {
+        return "call at line " + this.callLine + " returning to line "
+                + this.returnRip + " (rsp = 0x"
+                + Long.toHexString(this.stackPointer).toUpperCase() + ")";
+    }
+}
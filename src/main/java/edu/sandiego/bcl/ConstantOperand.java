@@ -39,6 +39,12 @@ public class ConstantOperand extends Operand {
         this.stringRep = stringRep;
     }
 
+    public long getConstant() { return this.constant; }
+
+    public int getBase() { return this.base; }
+
+    public String getStringRep() { return this.stringRep; }
+
     @Override
     public BigInteger getValue(MachineState state) {
         return BigInteger.valueOf(constant);
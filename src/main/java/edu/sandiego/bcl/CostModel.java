@@ -0,0 +1,180 @@
+package edu.sandiego.bcl;
+
+import java.util.Arrays;
+
+/**
+ * Estimates how many cycles each instruction takes, so that different
+ * versions of a program can be compared by more than their instruction
+ * counts.
+ *
+ * An instruction's cost is the base cost of its type, plus a cost for each of
+ * its operands that depends on the instruction type and the kind of operand
+ * (e.g. a memory operand of an add), plus a penalty if it is a jump that is
+ * taken. The default costs are rough figures for a modern x86-64 processor.
+ * Real processors overlap instructions, so estimates are only useful for
+ * comparing programs with each other.
+ *
+ * Cost models are immutable: the {@code with} methods return a modified
+ * copy.
+ */
+public class CostModel {
+
+    /**
+     * The kinds of operands an instruction may have.
+     */
+    public enum OperandKind {
+        REGISTER,
+        MEMORY,
+        IMMEDIATE,
+        LABEL;
+
+        /**
+         * @param op An operand.
+         * @return The kind of the operand.
+         */
+        public static OperandKind of(Operand op) {
+            if (op instanceof RegOperand) {
+                return REGISTER;
+            } else if (op instanceof MemoryOperand) {
+                return MEMORY;
+            } else if (op instanceof ConstantOperand) {
+                return IMMEDIATE;
+            }
+            return LABEL;
+        }
+    }
+
+    /**
+     * Cost of reading or writing memory that is in the cache.
+     */
+    private static final int DEFAULT_MEMORY_CYCLES = 4;
+
+    /**
+     * The default cost model: most instructions take 1 cycle, imul takes 3,
+     * idiv takes 40, each memory operand adds 4 (except for lea, which
+     * doesn't access memory), and taken jumps add 2.
+     */
+    public static final CostModel DEFAULT = createDefault();
+
+    private static CostModel createDefault() {
+        int numTypes = InstructionType.values().length;
+        int[] base = new int[numTypes];
+        Arrays.fill(base, 1);
+        base[InstructionType.IMUL.ordinal()] = 3;
+        base[InstructionType.IDIV.ordinal()] = 40;
+
+        // These access the stack without having a memory operand.
+        base[InstructionType.PUSH.ordinal()] = 1 + DEFAULT_MEMORY_CYCLES;
+        base[InstructionType.POP.ordinal()] = 1 + DEFAULT_MEMORY_CYCLES;
+        base[InstructionType.CALL.ordinal()] = 2 + DEFAULT_MEMORY_CYCLES;
+        base[InstructionType.RET.ordinal()] = 2 + DEFAULT_MEMORY_CYCLES;
+
+        int[] operands = new int[numTypes * OperandKind.values().length];
+        for (InstructionType t : InstructionType.values()) {
+            if (t != InstructionType.LEA) {
+                operands[index(t, OperandKind.MEMORY)] = DEFAULT_MEMORY_CYCLES;
+            }
+        }
+        return new CostModel(base, operands, 2);
+    }
+
+    /**
+     * Base cost of each instruction type, indexed by its ordinal.
+     */
+    private final int[] baseCycles;
+
+    /**
+     * Cost of each operand, indexed by {@link #index(InstructionType, OperandKind)}.
+     */
+    private final int[] operandCycles;
+
+    private final int takenBranchCycles;
+
+    private CostModel(int[] baseCycles, int[] operandCycles, int takenBranchCycles) {
+        this.baseCycles = baseCycles;
+        this.operandCycles = operandCycles;
+        this.takenBranchCycles = takenBranchCycles;
+    }
+
+    private static int index(InstructionType type, OperandKind kind) {
+        return type.ordinal() * OperandKind.values().length + kind.ordinal();
+    }
+
+    private static int checkCycles(int cycles) {
+        if (cycles < 0) {
+            throw new IllegalArgumentException("cycles must not be negative");
+        }
+        return cycles;
+    }
+
+    public int getBaseCycles(InstructionType type) {
+        return this.baseCycles[type.ordinal()];
+    }
+
+    public int getOperandCycles(InstructionType type, OperandKind kind) {
+        return this.operandCycles[index(type, kind)];
+    }
+
+    /**
+     * @return Extra cost of a jump that is taken.
+     */
+    public int getTakenBranchCycles() { return this.takenBranchCycles; }
+
+    public CostModel withBaseCycles(InstructionType type, int cycles) {
+        int[] base = this.baseCycles.clone();
+        base[type.ordinal()] = checkCycles(cycles);
+        return new CostModel(base, this.operandCycles, this.takenBranchCycles);
+    }
+
+    public CostModel withOperandCycles(InstructionType type, OperandKind kind,
+            int cycles) {
+        int[] operands = this.operandCycles.clone();
+        operands[index(type, kind)] = checkCycles(cycles);
+        return new CostModel(this.baseCycles, operands, this.takenBranchCycles);
+    }
+
+    /**
+     * Sets the cost of a kind of operand for every instruction type.
+     */
+    public CostModel withOperandCycles(OperandKind kind, int cycles) {
+        int[] operands = this.operandCycles.clone();
+        for (InstructionType t : InstructionType.values()) {
+            operands[index(t, kind)] = checkCycles(cycles);
+        }
+        return new CostModel(this.baseCycles, operands, this.takenBranchCycles);
+    }
+
+    public CostModel withTakenBranchCycles(int cycles) {
+        return new CostModel(this.baseCycles, this.operandCycles,
+                checkCycles(cycles));
+    }
+
+    /**
+     * Gets the cost of a line, not counting the penalty for a taken jump.
+     *
+     * @param line A line of a program.
+     * @return The estimated number of cycles it takes. This is 0 for lines
+     * that aren't instructions (e.g. labels).
+     */
+    public int getCycles(x86ProgramLine line) {
+        if (!(line instanceof x86Instruction)) {
+            return 0;
+        }
+        InstructionType type = ((x86Instruction) line).getType();
+        int cycles = this.baseCycles[type.ordinal()];
+        for (Operand op : ((x86Instruction) line).getOperands()) {
+            cycles += this.operandCycles[index(type, OperandKind.of(op))];
+        }
+        return cycles;
+    }
+
+    /**
+     * @param line A line of a program.
+     * @return True if the line is a jump, i.e. if it may pay the penalty for
+     * a taken jump.
+     */
+    public static boolean isJump(x86ProgramLine line) {
+        return line instanceof x86Instruction
+                && ((x86Instruction) line).getType().name().startsWith("J");
+    }
+}
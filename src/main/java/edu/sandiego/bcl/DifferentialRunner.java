@@ -0,0 +1,623 @@
+package edu.sandiego.bcl;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Runs a submission and a reference solution side by side, from the same
+ * initial state, to find the first point where the submission's behavior
+ * differs from the reference's.
+ *
+ * The two programs are compared at checkpoints: calling a function,
+ * returning from one, and reaching a label that both programs define.
+ * Each program is run up to its next checkpoint, then the two checkpoints
+ * (and the registers and memory that matter at that kind of checkpoint) are
+ * compared. Only the current state of each program is kept, so this works for
+ * runs of any length.
+ *
+ * Memory is compared by address, so the two programs' callers should lay out
+ * their stack frames the same way (e.g. by sharing the code that calls the
+ * function being checked). The flags aren't compared, since they aren't part
+ * of the calling convention; a difference in them that matters will show up
+ * as the programs taking different paths.
+ */
+public class DifferentialRunner {
+
+    /**
+     * The kinds of points where the two programs are compared.
+     */
+    public enum CheckpointKind {
+        /**
+         * A function was called. The registers holding the function's
+         * arguments are compared.
+         */
+        CALL,
+
+        /**
+         * A function returned. %rax, the callee-saved registers, and the
+         * caller's stack frame are compared.
+         */
+        RETURN,
+
+        /**
+         * A label that both programs have was reached. Only the order in which
+         * labels are reached is compared, since the two programs may keep
+         * their values in different (scratch) registers.
+         */
+        LABEL,
+
+        /**
+         * The program finished (or, for a submission, stopped with an error
+         * or ran out of instructions). %rax and whatever is left on the stack
+         * are compared.
+         */
+        END
+    }
+
+    /**
+     * Registers compared at calls.
+     */
+    private static final List<String> ARGUMENT_REGISTERS = Collections.unmodifiableList(
+            Arrays.asList("rdi", "rsi", "rdx", "rcx", "r8", "r9"));
+
+    /**
+     * Registers compared at returns.
+     */
+    private static final List<String> RETURN_REGISTERS = Collections.unmodifiableList(
+            Arrays.asList("rax", "rbx", "rbp", "r12", "r13", "r14", "r15"));
+
+    /**
+     * A point reached by one of the programs.
+     */
+    public static class Checkpoint {
+        private final CheckpointKind kind;
+        private final String name;
+        private final int lineNum;
+        private final long stepNum;
+        private final MachineState state;
+        private final Optional<Exception> error;
+
+        private Checkpoint(CheckpointKind kind, String name, int lineNum,
+                long stepNum, MachineState state, Optional<Exception> error) {
+            this.kind = kind;
+            this.name = name;
+            this.lineNum = lineNum;
+            this.stepNum = stepNum;
+            this.state = state;
+            this.error = error;
+        }
+
+        public CheckpointKind getKind() { return this.kind; }
+
+        /**
+         * @return The function called or label reached. This is empty for
+         * returns and ends.
+         */
+        public String getName() { return this.name; }
+
+        /**
+         * @return The line where the checkpoint was reached.
+         */
+        public int getLineNum() { return this.lineNum; }
+
+        /**
+         * @return Number of instructions executed up to this point.
+         */
+        public long getStepNum() { return this.stepNum; }
+
+        /**
+         * @return The state right after the checkpoint was reached.
+         */
+        public MachineState getState() { return this.state; }
+
+        /**
+         * @return The error that stopped the program, if that is why it ended.
+         */
+        public Optional<Exception> getError() { return this.error; }
+
+        @Override
+        public String toString() {
+            String s = this.kind + (this.name.isEmpty() ? "" : " " + this.name)
+                    + " at line " + this.lineNum + " (step " + this.stepNum + ")";
+            if (this.error.isPresent()) {
+                s += ": " + this.error.get().getMessage();
+            }
+            return s;
+        }
+    }
+
+    /**
+     * The first point where the two programs differed.
+     */
+    public static class Divergence {
+        private final long checkpointNum;
+        private final Checkpoint expected;
+        private final Checkpoint actual;
+        private final List<String> differences;
+
+        private Divergence(long checkpointNum, Checkpoint expected,
+                Checkpoint actual, List<String> differences) {
+            this.checkpointNum = checkpointNum;
+            this.expected = expected;
+            this.actual = actual;
+            this.differences = Collections.unmodifiableList(differences);
+        }
+
+        /**
+         * @return Number of checkpoints that matched before this one.
+         */
+        public long getCheckpointNum() { return this.checkpointNum; }
+
+        /**
+         * @return Where the reference was.
+         */
+        public Checkpoint getExpected() { return this.expected; }
+
+        /**
+         * @return Where the submission was.
+         */
+        public Checkpoint getActual() { return this.actual; }
+
+        /**
+         * @return A description of each difference.
+         */
+        public List<String> getDifferences() { return this.differences; }
+
+        @Override
+        public String toString() {
+            return "Diverged at checkpoint " + this.checkpointNum
+                    + ": expected " + this.expected + ", got " + this.actual
+                    + " " + this.differences;
+        }
+    }
+
+    /**
+     * One program being run, along with its current state.
+     */
+    private static class Runner {
+        private final x86Program program;
+        private final Set<String> sharedLabels;
+        private final int numLines;
+        private MachineState state;
+        private long numExecuted;
+
+        Runner(x86Program program, Set<String> sharedLabels, MachineState initial) {
+            this.program = program;
+            this.sharedLabels = sharedLabels;
+            this.numLines = program.getNumLines();
+            int start = program.isEmpty() ? 0
+                    : program.getBeginningOfProgram().getLineNum();
+            this.state = initial.cloneWithNewRIP(start);
+            this.numExecuted = 0;
+        }
+
+        /**
+         * Runs until the next checkpoint.
+         */
+        Checkpoint next(long maxInstructions) {
+            while (this.state.getRipRegister() < this.numLines
+                    && this.state.getCallStackSize() >= 0) {
+                if (this.numExecuted >= maxInstructions) {
+                    return end(Optional.of(new QuotaExceededException(
+                            "Instruction limit of " + maxInstructions + " reached.",
+                            ExecutionQuota.Kind.INSTRUCTIONS, maxInstructions)));
+                }
+
+                x86ProgramLine line = this.program.getLine(this.state.getRipRegister());
+                try {
+                    this.state = line.eval(this.state);
+                } catch (x86RuntimeException | RuntimeException e) {
+                    return end(Optional.of(e));
+                }
+                this.numExecuted++;
+
+                Optional<Checkpoint> c = checkpointAt(line);
+                if (c.isPresent()) {
+                    return c.get();
+                }
+            }
+            return end(Optional.empty());
+        }
+
+        private Optional<Checkpoint> checkpointAt(x86ProgramLine line) {
+            CheckpointKind kind = null;
+            String name = "";
+            if (line instanceof x86Label) {
+                name = ((x86Label) line).getName();
+                if (this.sharedLabels.contains(name)) {
+                    kind = CheckpointKind.LABEL;
+                }
+            } else if (line instanceof x86UnaryInstruction
+                    && ((x86UnaryInstruction) line).getType() == InstructionType.CALL) {
+                kind = CheckpointKind.CALL;
+                Operand target = ((x86UnaryInstruction) line).destination;
+                name = target instanceof LabelOperand
+                        ? ((LabelOperand) target).getName() : target.toString();
+            } else if (line instanceof x86NullaryInstruction
+                    && ((x86NullaryInstruction) line).getType() == InstructionType.RET) {
+                kind = CheckpointKind.RETURN;
+            }
+
+            if (kind == null) {
+                return Optional.empty();
+            }
+            return Optional.of(new Checkpoint(kind, name, line.getLineNum(),
+                    this.numExecuted, this.state, Optional.empty()));
+        }
+
+        private Checkpoint end(Optional<Exception> error) {
+            return new Checkpoint(CheckpointKind.END, "",
+                    this.state.getRipRegister(), this.numExecuted, this.state,
+                    error);
+        }
+    }
+
+    private final x86Program reference;
+    private final x86Program submission;
+
+    /**
+     * Labels defined in both programs.
+     */
+    private final Set<String> sharedLabels;
+
+    /**
+     * Number of arguments taken by each function called by the reference.
+     */
+    private final Map<String, Integer> argumentCounts;
+
+    /**
+     * @param reference The program with the expected behavior.
+     * @param submission The program being checked.
+     */
+    public DifferentialRunner(x86Program reference, x86Program submission) {
+        this.reference = reference;
+        this.submission = submission;
+        this.sharedLabels = new HashSet<>(labelsOf(reference));
+        this.sharedLabels.retainAll(labelsOf(submission));
+        this.argumentCounts = countArguments(reference);
+    }
+
+    /**
+     * Sets the number of arguments a function takes, i.e. how many of the
+     * argument registers are compared when it is called.
+     * By default, this is guessed from the registers the reference's version
+     * of the function uses.
+     *
+     * @param function The name of the function.
+     * @param count The number of arguments, from 0 to 6.
+     */
+    public void setArgumentCount(String function, int count) {
+        if (count < 0 || count > ARGUMENT_REGISTERS.size()) {
+            throw new IllegalArgumentException("count must be between 0 and "
+                    + ARGUMENT_REGISTERS.size());
+        }
+        this.argumentCounts.put(function, count);
+    }
+
+    /**
+     * Guesses how many arguments each function called in the program takes,
+     * based on the last argument register its body reads before writing. A
+     * function's body runs from its label to the label of the next function.
+     * Registers that are only written (e.g. used as scratch space) aren't
+     * counted, since they may hold anything when the function is called.
+     * Calls to other functions count as reading the arguments those
+     * functions take.
+     *
+     * This looks at the body in order, without following jumps, so a
+     * register read after a write on one path but before it on another may
+     * be missed. {@link #setArgumentCount} can be used in that case.
+     *
+     * @param program The program.
+     * @return Map from function name to number of arguments.
+     */
+    private static Map<String, Integer> countArguments(x86Program program) {
+        Set<String> functions = new HashSet<>();
+        for (x86ProgramLine line : program.getProgramLines()) {
+            if (line instanceof x86UnaryInstruction
+                    && ((x86UnaryInstruction) line).getType() == InstructionType.CALL
+                    && ((x86UnaryInstruction) line).destination instanceof LabelOperand) {
+                functions.add(((LabelOperand) ((x86UnaryInstruction) line).destination).getName());
+            }
+        }
+
+        // Argument registers each function reads directly, and the calls it
+        // makes along with the argument registers it has written before each.
+        Map<String, Integer> counts = new HashMap<>();
+        Map<String, List<String>> callees = new HashMap<>();
+        Map<String, List<Set<String>>> writtenBeforeCall = new HashMap<>();
+        String current = null;
+        Set<String> written = new HashSet<>();
+        for (x86ProgramLine line : program.getProgramLines()) {
+            if (line instanceof x86Label && functions.contains(((x86Label) line).getName())) {
+                current = ((x86Label) line).getName();
+                counts.put(current, 0);
+                callees.put(current, new ArrayList<>());
+                writtenBeforeCall.put(current, new ArrayList<>());
+                written = new HashSet<>();
+            } else if (current != null && line instanceof x86Instruction) {
+                x86Instruction instr = (x86Instruction) line;
+                for (String reg : getReadRegisters(instr)) {
+                    if (!written.contains(reg)) {
+                        countArgument(counts, current, reg);
+                    }
+                }
+                if (instr.getType() == InstructionType.CALL
+                        && instr.getOperands().get(0) instanceof LabelOperand) {
+                    callees.get(current).add(((LabelOperand) instr.getOperands().get(0)).getName());
+                    writtenBeforeCall.get(current).add(new HashSet<>(written));
+                }
+                written.addAll(getWrittenRegisters(instr));
+            }
+        }
+
+        // Passing arguments through to another function counts as reading
+        // them, so repeat until the counts stop changing.
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (String f : counts.keySet()) {
+                for (int i = 0; i < callees.get(f).size(); i++) {
+                    int calleeCount = counts.getOrDefault(callees.get(f).get(i), 0);
+                    for (String reg : ARGUMENT_REGISTERS.subList(0, calleeCount)) {
+                        if (!writtenBeforeCall.get(f).get(i).contains(reg)) {
+                            changed |= countArgument(counts, f, reg);
+                        }
+                    }
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Makes sure the given function's argument count includes the given
+     * register, if it is an argument register.
+     *
+     * @return True if the count went up.
+     */
+    private static boolean countArgument(Map<String, Integer> counts,
+            String function, String reg) {
+        int n = ARGUMENT_REGISTERS.indexOf(reg) + 1;
+        if (n > counts.get(function)) {
+            counts.put(function, n);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return True if the instruction's last operand is only written, not
+     * read.
+     */
+    private static boolean overwritesDestination(x86Instruction instr) {
+        List<Operand> operands = instr.getOperands();
+        switch (instr.getType()) {
+            case MOV:
+            case MOVZ:
+            case MOVS:
+            case LEA:
+            case POP:
+                return true;
+            case XOR:
+            case SUB:
+                // e.g. xorl %eax, %eax, which sets it to 0 without reading it
+                return operands.get(0) instanceof RegOperand
+                        && operands.get(1) instanceof RegOperand
+                        && operands.get(0).getUsedRegisters()
+                                .equals(operands.get(1).getUsedRegisters());
+            default:
+                return instr.getType().name().startsWith("SET");
+        }
+    }
+
+    /**
+     * @return The quad registers whose values the instruction reads.
+     */
+    private static Set<String> getReadRegisters(x86Instruction instr) {
+        Set<String> read = new HashSet<>();
+        List<Operand> operands = instr.getOperands();
+        for (int i = 0; i < operands.size(); i++) {
+            Operand op = operands.get(i);
+            boolean isDestination = i == operands.size() - 1;
+            if (op instanceof MemoryOperand || !isDestination
+                    || !overwritesDestination(instr)) {
+                read.addAll(op.getUsedRegisters());
+            }
+        }
+        if (instr.getType() == InstructionType.XOR || instr.getType() == InstructionType.SUB) {
+            if (overwritesDestination(instr)) {
+                read.clear();
+            }
+        } else if (instr.getType() == InstructionType.IDIV) {
+            read.add("rax");
+            read.add("rdx");
+        } else if (instr.getType() == InstructionType.CLT) {
+            read.add("rax");
+        }
+        return read;
+    }
+
+    /**
+     * @return The quad registers the instruction writes.
+     */
+    private static Set<String> getWrittenRegisters(x86Instruction instr) {
+        Set<String> written = new HashSet<>();
+        List<Operand> operands = instr.getOperands();
+        InstructionType type = instr.getType();
+        if (!operands.isEmpty() && operands.get(operands.size() - 1) instanceof RegOperand
+                && type != InstructionType.CMP && type != InstructionType.TEST
+                && type != InstructionType.PUSH && type != InstructionType.IDIV) {
+            written.addAll(operands.get(operands.size() - 1).getUsedRegisters());
+        }
+        if (type == InstructionType.IDIV) {
+            written.add("rax");
+            written.add("rdx");
+        } else if (type == InstructionType.CLT) {
+            written.add("rdx");
+        }
+        return written;
+    }
+
+    private static Set<String> labelsOf(x86Program program) {
+        Set<String> labels = new HashSet<>();
+        for (x86ProgramLine line : program.getProgramLines()) {
+            if (line instanceof x86Label) {
+                labels.add(((x86Label) line).getName());
+            }
+        }
+        return labels;
+    }
+
+    /**
+     * Runs both programs until one of them differs from the other or both
+     * finish.
+     *
+     * @param initial The state both programs start from. This is never
+     * modified.
+     * @param maxInstructions The maximum number of instructions each program
+     * may execute.
+     * @return The first divergence, or empty if the programs behaved the same
+     * at every checkpoint.
+     */
+    public Optional<Divergence> run(MachineState initial, long maxInstructions) {
+        Runner expected = new Runner(this.reference, this.sharedLabels, initial);
+        Runner actual = new Runner(this.submission, this.sharedLabels, initial);
+
+        for (long n = 0; ; n++) {
+            Checkpoint e = expected.next(maxInstructions);
+            Checkpoint a = actual.next(maxInstructions);
+
+            List<String> differences = compare(e, a);
+            if (!differences.isEmpty()) {
+                return Optional.of(new Divergence(n, e, a, differences));
+            }
+            if (e.getKind() == CheckpointKind.END) {
+                return Optional.empty();
+            }
+        }
+    }
+
+    /**
+     * @return The differences between the two checkpoints.
+     */
+    private List<String> compare(Checkpoint expected, Checkpoint actual) {
+        List<String> differences = new ArrayList<>();
+        if (expected.getKind() != actual.getKind()
+                || !expected.getName().equals(actual.getName())) {
+            differences.add("expected " + expected.getKind()
+                    + (expected.getName().isEmpty() ? "" : " " + expected.getName())
+                    + " but got " + actual.getKind()
+                    + (actual.getName().isEmpty() ? "" : " " + actual.getName()));
+            return differences;
+        }
+
+        List<String> registers;
+        switch (expected.getKind()) {
+            case CALL:
+                registers = ARGUMENT_REGISTERS.subList(0, this.argumentCounts
+                        .getOrDefault(expected.getName(), ARGUMENT_REGISTERS.size()));
+                break;
+            case LABEL:
+                registers = Collections.emptyList();
+                break;
+            case RETURN:
+                registers = RETURN_REGISTERS;
+                break;
+            default:
+                if (actual.getError().isPresent() && !expected.getError().isPresent()) {
+                    differences.add("submission stopped: "
+                            + actual.getError().get().getMessage());
+                }
+                registers = Collections.singletonList("rax");
+                break;
+        }
+
+        for (String reg : registers) {
+            BigInteger e = expected.getState().getRegisterValue(reg);
+            BigInteger a = actual.getState().getRegisterValue(reg);
+            if (!e.equals(a)) {
+                differences.add("%" + reg + ": expected " + e + " but got " + a);
+            }
+        }
+
+        if (expected.getKind() == CheckpointKind.RETURN
+                || expected.getKind() == CheckpointKind.END) {
+            compareFrames(expected.getState(), actual.getState())
+                    .ifPresent(differences::add);
+        }
+        return differences;
+    }
+
+    /**
+     * Compares the stack frame of the function each state is in, i.e.
+     * everything from %rsp up to (but not including) the function's return
+     * address, or up to the top of the stack if it isn't in a function call.
+     * After a return, this is where any stores the callee made to its
+     * caller's locals (e.g. through a pointer argument) are.
+     * Stores into frames further up are caught when those frames are
+     * returned to.
+     *
+     * @return A description of the lowest address that differs, if any.
+     */
+    private static Optional<String> compareFrames(MachineState expected,
+            MachineState actual) {
+        SortedMap<Long, Byte> e = getFrameBytes(expected);
+        SortedMap<Long, Byte> a = getFrameBytes(actual);
+        if (e.equals(a)) {
+            return Optional.empty();
+        }
+
+        SortedSet<Long> addresses = new TreeSet<>(e.keySet());
+        addresses.addAll(a.keySet());
+        for (long address : addresses) {
+            Byte eb = e.get(address);
+            Byte ab = a.get(address);
+            if (!Objects.equals(eb, ab)) {
+                return Optional.of("memory at 0x" + Long.toHexString(address).toUpperCase()
+                        + ": expected " + describeByte(eb) + " but got " + describeByte(ab));
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static String describeByte(Byte b) {
+        return b == null ? "nothing written" : String.format("0x%02X", b);
+    }
+
+    /**
+     * @return Map from address to value of each byte written in the current
+     * function's stack frame.
+     */
+    private static SortedMap<Long, Byte> getFrameBytes(MachineState state) {
+        // Memory is only ever kept from %rsp up, so the frame starts at the
+        // lowest entry.
+        long end = state.getCallFrame().map(CallFrame::getStackPointer)
+                .orElse(Long.MAX_VALUE);
+        SortedMap<Long, Byte> bytes = new TreeMap<>();
+        for (StackEntry entry : state.getStackEntries()) {
+            byte[] value = entry.getValueArr();
+            // Loop over offsets since the top slot ends at Long.MAX_VALUE.
+            for (int i = 0; i < value.length; i++) {
+                long address = entry.getStartAddress() + i;
+                if (end != Long.MAX_VALUE && address >= end) {
+                    break;
+                }
+                bytes.put(address, value[i]);
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,90 @@
+package edu.sandiego.bcl;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Limits on how much a single simulation is allowed to do. These protect a
+ * shared process (e.g. a grading server) from programs that run forever or
+ * use up all of its memory.
+ *
+ * Quotas are immutable: each of the {@code with...} methods returns a new
+ * quota with one limit changed.
+ */
+public class ExecutionQuota {
+
+    /**
+     * The different limits a quota can put on a simulation.
+     */
+    public enum Kind {
+        /**
+         * Number of instructions executed.
+         */
+        INSTRUCTIONS,
+
+        /**
+         * Number of bytes in use on the stack.
+         */
+        STACK_BYTES,
+
+        /**
+         * Estimated number of bytes used by the simulation's history.
+         */
+        HISTORY_BYTES,
+
+        /**
+         * Wall-clock time spent since the simulation (re)started.
+         */
+        DEADLINE
+    }
+
+    /**
+     * A quota with no limits.
+     */
+    public static final ExecutionQuota UNLIMITED = new ExecutionQuota(
+            Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, Optional.empty());
+
+    private final long maxInstructions;
+    private final long maxStackBytes;
+    private final long maxHistoryBytes;
+    private final Optional<Duration> timeLimit;
+
+    private ExecutionQuota(long maxInstructions, long maxStackBytes,
+            long maxHistoryBytes, Optional<Duration> timeLimit) {
+        this.maxInstructions = maxInstructions;
+        this.maxStackBytes = maxStackBytes;
+        this.maxHistoryBytes = maxHistoryBytes;
+        this.timeLimit = timeLimit;
+    }
+
+    public long getMaxInstructions() { return this.maxInstructions; }
+
+    public long getMaxStackBytes() { return this.maxStackBytes; }
+
+    public long getMaxHistoryBytes() { return this.maxHistoryBytes; }
+
+    /**
+     * @return The longest the simulation may run for, if it is limited.
+     */
+    public Optional<Duration> getTimeLimit() { return this.timeLimit; }
+
+    public ExecutionQuota withMaxInstructions(long max) {
+        return new ExecutionQuota(max, this.maxStackBytes,
+                this.maxHistoryBytes, this.timeLimit);
+    }
+
+    public ExecutionQuota withMaxStackBytes(long max) {
+        return new ExecutionQuota(this.maxInstructions, max,
+                this.maxHistoryBytes, this.timeLimit);
+    }
+
+    public ExecutionQuota withMaxHistoryBytes(long max) {
+        return new ExecutionQuota(this.maxInstructions, this.maxStackBytes,
+                max, this.timeLimit);
+    }
+
+    public ExecutionQuota withTimeLimit(Duration limit) {
+        return new ExecutionQuota(this.maxInstructions, this.maxStackBytes,
+                this.maxHistoryBytes, Optional.of(limit));
+    }
+}
@@ -1,6 +1,9 @@
 package edu.sandiego.bcl;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import javafx.scene.image.Image;
 import javafx.fxml.FXML;
 import javafx.scene.input.*;
@@ -64,6 +67,22 @@ public class FXMLDocumentController implements Initializable {
     @FXML
     private MenuItem runMenuItem;
     @FXML
+    private MenuItem stepOverMenuItem;
+    @FXML
+    private MenuItem stepOutMenuItem;
+    @FXML
+    private MenuItem goToStepMenuItem;
+    @FXML
+    private MenuItem exportProfileMenuItem;
+    @FXML
+    private MenuItem dataCacheMenuItem;
+    @FXML
+    private CheckMenuItem sanitizerMenuItem;
+    @FXML
+    private MenuItem addWatchpointMenuItem;
+    @FXML
+    private MenuItem clearWatchpointsMenuItem;
+    @FXML
     private MenuItem restartMenuItem;
     @FXML
     private MenuItem helpMenuItem;
@@ -305,6 +324,24 @@ public class FXMLDocumentController implements Initializable {
         runAllButton.setOnAction(this::runForward);
         runAllButton.setTooltip(new Tooltip("Run"));
         runMenuItem.setOnAction(this::runForward);
+        stepOverMenuItem.setOnAction(this::stepOver);
+        stepOutMenuItem.setOnAction(this::stepOut);
+        goToStepMenuItem.setOnAction(this::goToStep);
+        addWatchpointMenuItem.setOnAction(this::addWatchpoint);
+        exportProfileMenuItem.setOnAction(this::exportProfile);
+        dataCacheMenuItem.setOnAction(this::simulateDataCache);
+        sanitizerMenuItem.setOnAction(event -> {
+            if (sanitizerMenuItem.isSelected()) {
+                activeSimulation.setStackSanitizer(new StackSanitizer());
+            } else {
+                activeSimulation.removeStackSanitizer();
+            }
+        });
+        clearWatchpointsMenuItem.setOnAction(event -> {
+            for (Watchpoint w : new ArrayList<>(activeSimulation.getWatchpoints())) {
+                activeSimulation.removeWatchpoint(w);
+            }
+        });
 
         /**
          * Event handler for "scroll back to current instruction" button.
@@ -456,8 +493,29 @@ public class FXMLDocumentController implements Initializable {
      * @param event The event that triggered this action.
      */
     private void runForward(Event event) {
+        runWithConfirmation(activeSimulation::finish);
+    }
+
+    /**
+     * A way of running the simulation that may stop before it is done.
+     */
+    @FunctionalInterface
+    private interface SimulationRun {
+        /**
+         * @return True if the run is done, false if it should be continued.
+         */
+        boolean run() throws x86RuntimeException;
+    }
+
+    /**
+     * Runs the simulation, asking whether to continue each time the run stops
+     * because it executed many instructions, then updates the UI once.
+     *
+     * @param simRun The run to do.
+     */
+    private void runWithConfirmation(SimulationRun simRun) {
         try {
-            while (!activeSimulation.finish()) {
+            while (!simRun.run()) {
                 Alert longRunningConfirmation = new Alert(AlertType.CONFIRMATION);
                 longRunningConfirmation.setTitle("Long Running Computation");
                 longRunningConfirmation.setHeaderText("Infinite Loop?");
@@ -477,7 +535,7 @@ public class FXMLDocumentController implements Initializable {
     }
 
     private void showRuntimeErrorDialogue(x86RuntimeException e){
-        simStateLabel.setText("Line " + activeSimulation.getCurrentLine().lineNum + ": " + e.getMessage());
+        simStateLabel.setText("Line " + activeSimulation.getCurrentLine().getLineNum() + ": " + e.getMessage());
             ImageView completePic = new ImageView(
                     new Image(this.getClass().getResourceAsStream("/images/error.png")));
             completePic.setFitHeight(16);
@@ -489,7 +547,7 @@ public class FXMLDocumentController implements Initializable {
         Alert evalError = new Alert(Alert.AlertType.ERROR);
         evalError.setTitle("Simulation Error");
         evalError.setHeaderText("Error during simulation");
-        evalError.setContentText("The following error occurred while simulating the instruction on line number " + activeSimulation.getCurrentLine().lineNum
+        evalError.setContentText("The following error occurred while simulating the instruction on line number " + activeSimulation.getCurrentLine().getLineNum()
                     + "\n\n" + e.getMessage());
             evalError.showAndWait();
         */
@@ -504,6 +562,94 @@ public class FXMLDocumentController implements Initializable {
         updateSimulatorUIElements();
     }
 
+    /**
+     * Executes the current instruction, running any function it calls to
+     * completion.
+     *
+     * @param event The event that triggered this action.
+     */
+    private void stepOver(Event event) {
+        if (activeSimulation.isAtCall()) {
+            int depth = activeSimulation.getCallDepth();
+            runWithConfirmation(() -> activeSimulation.runToDepth(depth));
+        } else {
+            stepForward(event);
+        }
+    }
+
+    /**
+     * Runs until the current function returns.
+     *
+     * @param event The event that triggered this action.
+     */
+    private void stepOut(Event event) {
+        int depth = activeSimulation.getCallDepth() - 1;
+        runWithConfirmation(() -> activeSimulation.runToDepth(depth));
+    }
+
+    /**
+     * Asks for a step number then moves the simulation to that step.
+     *
+     * @param event The event that triggered this action.
+     */
+    private void goToStep(Event event) {
+        TextInputDialog stepDialog = new TextInputDialog(
+                Long.toString(activeSimulation.getCurrentStep()));
+        stepDialog.setTitle("Go to Step");
+        stepDialog.setHeaderText("Current step: " + activeSimulation.getCurrentStep());
+        stepDialog.setContentText("Step:");
+
+        Optional<String> result = stepDialog.showAndWait();
+        if (!result.isPresent()) {
+            return;
+        }
+
+        long step;
+        try {
+            step = Long.parseLong(result.get().trim());
+            if (step < 0) {
+                throw new NumberFormatException();
+            }
+        } catch (NumberFormatException ex) {
+            Alert badStep = new Alert(AlertType.ERROR);
+            badStep.setTitle("Go to Step");
+            badStep.setHeaderText("Invalid step");
+            badStep.setContentText("The step must be a non-negative whole number.");
+            badStep.showAndWait();
+            return;
+        }
+        runWithConfirmation(() -> activeSimulation.jumpToStep(step));
+    }
+
+    /**
+     * Asks for a register or memory range, then stops simulation whenever it
+     * is written.
+     *
+     * @param event The event that triggered this action.
+     */
+    private void addWatchpoint(Event event) {
+        TextInputDialog watchDialog = new TextInputDialog();
+        watchDialog.setTitle("Add Watchpoint");
+        watchDialog.setHeaderText("Stop whenever a register (e.g. %rax) or memory\n"
+                + "(e.g. 0x7FFFFFFFFFFFFFF0 or 0x7FFFFFFFFFFFFFF0:4) is written.");
+        watchDialog.setContentText("Watch:");
+
+        Optional<String> result = watchDialog.showAndWait();
+        if (!result.isPresent() || result.get().trim().isEmpty()) {
+            return;
+        }
+
+        try {
+            activeSimulation.addWatchpoint(Watchpoint.parse(result.get()));
+        } catch (X86ParsingException e) {
+            Alert badWatchpoint = new Alert(AlertType.ERROR);
+            badWatchpoint.setTitle("Add Watchpoint");
+            badWatchpoint.setHeaderText("Invalid watchpoint");
+            badWatchpoint.setContentText(e.getMessage());
+            badWatchpoint.showAndWait();
+        }
+    }
+
     /**
      * Restarts simulation back to its starting state.
      *
@@ -531,6 +677,9 @@ public class FXMLDocumentController implements Initializable {
      * currently active simulation state.
      */
     private void updateSimulatorUIElements() {
+        long startTime = System.nanoTime();
+        SimulatorEvents.UiRefresh event = new SimulatorEvents.UiRefresh();
+        event.begin();
         programView.getSelectionModel().select(activeSimulation.getCurrentLine());
         registerTableEntries.setAll(activeSimulation.getRegisters());
         stackTableEntries.setAll(activeSimulation.getStackEntries());
@@ -546,10 +695,22 @@ public class FXMLDocumentController implements Initializable {
             completePic.setSmooth(true);
             completePic.setPreserveRatio(true);
             simStateLabel.setGraphic(completePic);
+        } else if (activeSimulation.getWatchpointHit().isPresent()) {
+            Watchpoint.Hit hit = activeSimulation.getWatchpointHit().get();
+            simStateLabel.setText("Line " + hit.getLineNum() + " wrote to "
+                    + hit.getWatchpoint());
+            simStateLabel.setGraphic(null);
+        } else if (activeSimulation.getSanitizerIssue().isPresent()) {
+            simStateLabel.setText(activeSimulation.getSanitizerIssue().get().toString());
+            simStateLabel.setGraphic(null);
         } else if (!activeSimulation.getStuckOnError()) {
             simStateLabel.setText(null);
             simStateLabel.setGraphic(null);
         }
+        SimulatorMetrics.get().recordUiRefresh(System.nanoTime() - startTime);
+        event.registers = registerTableEntries.size();
+        event.stackEntries = stackTableEntries.size();
+        event.commit();
     }
 
     /**
@@ -690,6 +851,115 @@ public class FXMLDocumentController implements Initializable {
         }
     }
 
+    /**
+     * Saves the profile of the current simulation, either as text, as
+     * collapsed stacks (for flame graph tools), or as branch statistics in CSV
+     * form, depending on the type of file chosen.
+     *
+     * @param event The event that triggered this action.
+     */
+    private void exportProfile(Event event) {
+        FileChooser profileChoice = new FileChooser();
+        FileChooser.ExtensionFilter textFilter =
+                new FileChooser.ExtensionFilter("Text profile (*.txt)", "*.txt");
+        FileChooser.ExtensionFilter collapsedFilter =
+                new FileChooser.ExtensionFilter("Collapsed stacks for flame graphs (*.folded)", "*.folded");
+        FileChooser.ExtensionFilter branchFilter =
+                new FileChooser.ExtensionFilter("Branch statistics (*.csv)", "*.csv");
+        profileChoice.getExtensionFilters().addAll(textFilter, collapsedFilter,
+                branchFilter);
+
+        File file = profileChoice.showSaveDialog(menuOptionsBar.getScene().getWindow());
+        if (file == null) {
+            return;
+        }
+
+        Profiler profiler = activeSimulation.getProfiler();
+        String profile;
+        if (profileChoice.getSelectedExtensionFilter() == collapsedFilter
+                || file.getName().endsWith(".folded")) {
+            profile = profiler.toCollapsedStacks();
+        } else if (profileChoice.getSelectedExtensionFilter() == branchFilter
+                || file.getName().endsWith(".csv")) {
+            profile = profiler.getBranchStats().toCsv();
+        } else {
+            profile = profiler.toText();
+            if (activeSimulation.getCacheSimulator().isPresent()) {
+                profile += "\n" + activeSimulation.getCacheSimulator().get()
+                        .toText(activeSimulation.getProgramLines());
+            }
+        }
+        try {
+            Files.write(file.toPath(),
+                    profile.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Alert saveError = new Alert(AlertType.ERROR);
+            saveError.setTitle("Export Profile");
+            saveError.setHeaderText("Couldn't save the profile");
+            saveError.setContentText(e.getMessage());
+            saveError.showAndWait();
+        }
+    }
+
+    /**
+     * Asks for the size, line size, associativity, and replacement policy of
+     * a data cache, then attaches a model of it to the simulation. Its hits
+     * and misses are included in text profiles. Leaving the description
+     * empty removes the cache.
+     *
+     * @param event The event that triggered this action.
+     */
+    private void simulateDataCache(Event event) {
+        String current = "32768 64 8 LRU";
+        if (activeSimulation.getCacheSimulator().isPresent()) {
+            CacheSimulator c = activeSimulation.getCacheSimulator().get();
+            current = c.getSize() + " " + c.getLineSize() + " "
+                    + c.getAssociativity() + " " + c.getReplacement();
+        }
+        TextInputDialog cacheDialog = new TextInputDialog(current);
+        cacheDialog.setTitle("Simulate Data Cache");
+        cacheDialog.setHeaderText("Enter the cache size (bytes), line size (bytes),\n"
+                + "associativity, and replacement policy (LRU or FIFO).\n"
+                + "Leave empty to stop simulating the cache.");
+        cacheDialog.setContentText("Cache:");
+
+        Optional<String> result = cacheDialog.showAndWait();
+        if (!result.isPresent()) {
+            return;
+        }
+        if (result.get().trim().isEmpty()) {
+            activeSimulation.removeCacheSimulator();
+            return;
+        }
+
+        try {
+            String[] parts = result.get().trim().split("\\s+");
+            if (parts.length != 4) {
+                throw new IllegalArgumentException("Expected 4 values.");
+            }
+            CacheSimulator cache = new CacheSimulator(Integer.parseInt(parts[0]),
+                    Integer.parseInt(parts[1]), Integer.parseInt(parts[2]),
+                    CacheSimulator.Replacement.valueOf(parts[3].toUpperCase()));
+            activeSimulation.setCacheSimulator(cache);
+            // Getting the cache brings it up to date with the history.
+            activeSimulation.getCacheSimulator();
+
+            Alert summary = new Alert(AlertType.INFORMATION);
+            summary.setTitle("Simulate Data Cache");
+            summary.setHeaderText("Data cache attached");
+            summary.setContentText(String.format(
+                    "So far: %d hits, %d misses (miss rate %.2f%%)",
+                    cache.getHits(), cache.getMisses(), 100 * cache.getMissRate()));
+            summary.showAndWait();
+        } catch (IllegalArgumentException e) {
+            Alert badCache = new Alert(AlertType.ERROR);
+            badCache.setTitle("Simulate Data Cache");
+            badCache.setHeaderText("Invalid cache");
+            badCache.setContentText(e.getMessage());
+            badCache.showAndWait();
+        }
+    }
+
     private void setIconsFitHeightAndWidth(ImageView i, ImageView j, ImageView k,
             ImageView l, ImageView m, int size) {
         i.setFitHeight(size);
@@ -753,6 +1023,7 @@ public class FXMLDocumentController implements Initializable {
         });
 
         t.setOnClosed((event) -> {
+            simStateFromTab.get(t).getSimulator().closeProgram();
             if (programTabs.getTabs().isEmpty()) {
                 createTab(new Simulation());
             }
@@ -786,6 +1057,7 @@ public class FXMLDocumentController implements Initializable {
     private void setAsActiveTab(Tab t) {
         programView = simStateFromTab.get(t).getProgramView();
         activeSimulation = simStateFromTab.get(t).getSimulator();
+        sanitizerMenuItem.setSelected(activeSimulation.getStackSanitizer().isPresent());
         updateSimulatorUIElements();
     }
 
@@ -835,6 +1107,8 @@ public class FXMLDocumentController implements Initializable {
         MenuItem deleteItem = new MenuItem("Delete");
         MenuItem editItem = new MenuItem("Edit");
         MenuItem toggleBreakpointItem = new MenuItem("Toggle breakpoint");
+        MenuItem breakpointConditionItem = new MenuItem("Set breakpoint condition...");
+        MenuItem runToLineItem = new MenuItem("Run to here");
 
         deleteItem.setOnAction(event -> {
             activeSimulation.removeFromProgram(cell.getItem());
@@ -898,7 +1172,52 @@ public class FXMLDocumentController implements Initializable {
             }
         });
 
-        rightClickMenu.getItems().addAll(editItem, toggleBreakpointItem, deleteItem);
+        // Event handler for setting the condition of a breakpoint, which also
+        // sets the breakpoint.
+        breakpointConditionItem.setOnAction(event -> {
+            x86ProgramLine line = cell.getItem();
+            TextInputDialog conditionDialog = new TextInputDialog(
+                    line.getBreakpointCondition().map(Object::toString).orElse(""));
+            conditionDialog.setTitle("Breakpoint Condition");
+            conditionDialog.setHeaderText("Stop at line " + line.getLineNum()
+                    + " only when this holds (e.g. %rax > 10 && (%rsp) == 0).\n"
+                    + "Leave empty to always stop.");
+            conditionDialog.setContentText("Condition:");
+
+            Optional<String> result = conditionDialog.showAndWait();
+            if (!result.isPresent()) {
+                return;
+            }
+
+            try {
+                if (result.get().trim().isEmpty()) {
+                    line.setBreakpointCondition(Optional.empty());
+                } else {
+                    line.setBreakpointCondition(Optional.of(
+                            BreakpointCondition.parse(result.get())));
+                }
+            } catch (X86ParsingException e) {
+                Alert badCondition = new Alert(AlertType.ERROR);
+                badCondition.setTitle("Breakpoint Condition");
+                badCondition.setHeaderText("Invalid condition");
+                badCondition.setContentText(e.getMessage());
+                badCondition.showAndWait();
+                return;
+            }
+
+            if (line.getBreakpoint()) {
+                cell.setGraphic(new Circle(4));
+            }
+        });
+
+        // Event handler for running until this line is reached.
+        runToLineItem.setOnAction(event -> {
+            x86ProgramLine line = cell.getItem();
+            runWithConfirmation(() -> activeSimulation.runToLine(line));
+        });
+
+        rightClickMenu.getItems().addAll(editItem, toggleBreakpointItem,
+                breakpointConditionItem, runToLineItem, deleteItem);
 
         cell.addEventFilter(MouseEvent.MOUSE_PRESSED, event -> {
             if (event.getButton() == MouseButton.SECONDARY && !cell.isEmpty()) {
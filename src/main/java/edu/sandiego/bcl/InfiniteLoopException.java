@@ -0,0 +1,35 @@
+package edu.sandiego.bcl;
+
+@SuppressWarnings("serial")
+
+/**
+ * Class representing a simulation being stopped because it reached a state
+ * it had already been in, meaning it would loop forever.
+ */
+public class InfiniteLoopException extends x86RuntimeException {
+
+	/**
+	 * The line where the repeated state was reached.
+	 */
+	private final int lineNum;
+
+	/**
+	 * Number of instructions in each iteration of the loop.
+	 */
+	private final long loopLength;
+
+	public InfiniteLoopException(int lineNum, long loopLength) {
+		super("Infinite loop detected at line " + lineNum);
+		this.lineNum = lineNum;
+		this.loopLength = loopLength;
+	}
+
+	public int getLineNum() { return this.lineNum; }
+
+	public long getLoopLength() { return this.loopLength; }
+
+	@Override
+	public String toString() {
+		return "InfiniteLoopException: " + super.getMessage();
+	}
+}
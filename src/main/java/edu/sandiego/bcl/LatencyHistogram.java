@@ -0,0 +1,146 @@
+package edu.sandiego.bcl;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations, with one bucket per power of two nanoseconds.
+ * Recording is cheap and safe from any number of threads, so this can be
+ * left on all the time.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Number of buckets. Bucket i holds durations in [2^(i-1), 2^i) ns, with
+     * bucket 0 holding durations of 0 ns.
+     */
+    static final int NUM_BUCKETS = 64;
+
+    /**
+     * Number of durations recorded in each bucket.
+     */
+    private final LongAdder[] buckets;
+
+    /**
+     * Sum of all recorded durations, in nanoseconds.
+     */
+    private final LongAdder totalNanos;
+
+    /**
+     * Longest recorded duration, in nanoseconds.
+     */
+    private final LongAccumulator maxNanos;
+
+    public LatencyHistogram() {
+        this.buckets = new LongAdder[NUM_BUCKETS];
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            this.buckets[i] = new LongAdder();
+        }
+        this.totalNanos = new LongAdder();
+        this.maxNanos = new LongAccumulator(Math::max, 0);
+    }
+
+    /**
+     * Records one duration.
+     *
+     * @param nanos The duration, in nanoseconds. Negative values are treated
+     * as 0.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        this.buckets[Math.min(64 - Long.numberOfLeadingZeros(nanos),
+                NUM_BUCKETS - 1)].increment();
+        this.totalNanos.add(nanos);
+        this.maxNanos.accumulate(nanos);
+    }
+
+    /**
+     * Clears all recorded durations.
+     */
+    public void reset() {
+        for (LongAdder b : this.buckets) {
+            b.reset();
+        }
+        this.totalNanos.reset();
+        this.maxNanos.reset();
+    }
+
+    /**
+     * @return A copy of the current contents of this histogram. If durations
+     * are being recorded at the same time, the copy may be off by those.
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[NUM_BUCKETS];
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts[i] = this.buckets[i].sum();
+        }
+        return new Snapshot(counts, this.totalNanos.sum(), this.maxNanos.get());
+    }
+
+    /**
+     * The contents of a histogram at one point in time.
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+
+        private Snapshot(long[] counts, long totalNanos, long maxNanos) {
+            this.counts = counts;
+            long c = 0;
+            for (long n : counts) {
+                c += n;
+            }
+            this.count = c;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        /**
+         * @return The number of durations that were recorded.
+         */
+        public long getCount() { return this.count; }
+
+        public long getTotalNanos() { return this.totalNanos; }
+
+        public long getMaxNanos() { return this.maxNanos; }
+
+        /**
+         * @return The average duration, or 0 if nothing was recorded.
+         */
+        public double getMeanNanos() {
+            return this.count == 0 ? 0 : (double) this.totalNanos / this.count;
+        }
+
+        /**
+         * Estimates a percentile of the recorded durations. The estimate is
+         * the upper bound of the bucket the percentile falls in, so it is at
+         * most twice the actual value.
+         *
+         * @param percentile The percentile to find, between 0 and 100.
+         * @return The estimated duration, or 0 if nothing was recorded.
+         */
+        public long getPercentileNanos(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("percentile must be between 0 and 100");
+            }
+            if (this.count == 0) {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(this.count * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                seen += this.counts[i];
+                if (seen >= rank) {
+                    long upper = i == 0 ? 0 : (i >= 63 ? Long.MAX_VALUE : (1L << i) - 1);
+                    return Math.min(upper, this.maxNanos);
+                }
+            }
+            return this.maxNanos;
+        }
+    }
+}
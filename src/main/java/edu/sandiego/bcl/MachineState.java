@@ -1,6 +1,7 @@
 package edu.sandiego.bcl;
 
 import java.util.Map;
+import java.util.Objects;
 import java.util.HashMap;
 import java.nio.ByteBuffer;
 import java.util.Optional;
@@ -12,6 +13,9 @@ import java.util.List;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Stack;
+import java.util.Set;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import javafx.scene.control.Tab;
 
 /**
@@ -52,6 +56,82 @@ public class MachineState {
      */
     private int callStackSize;
 
+    /**
+     * Number of bytes in memory, or -1 if it hasn't been calculated yet.
+     * States that are cloned are given this by the state they were cloned
+     * from, which only has to adjust it for the bytes that changed.
+     */
+    private long stackBytes = -1;
+
+    /**
+     * Rough number of bytes allocated for this state's memory that aren't
+     * shared with the state it was cloned from (i.e. a copy of the list of
+     * entries and any entries created by the clone), or -1 if this state
+     * wasn't cloned from another one.
+     */
+    private long newMemoryBytes = -1;
+
+    /**
+     * Part of the state's hash that comes from the registers. This is the XOR
+     * of the hashes of each register, so it can be updated in constant time
+     * when a single register changes.
+     */
+    private long registerHash;
+
+    /**
+     * Part of the state's hash that comes from memory. This is the XOR of the
+     * hashes of each byte in memory (with its address), so it can be updated
+     * by only looking at the bytes that change.
+     */
+    private long memoryHash;
+
+    /**
+     * Watchpoints checked when registers or memory are written.
+     */
+    private WatchpointSet watchpoints = WatchpointSet.EMPTY;
+
+    /**
+     * The last watchpoint triggered on the way to this state (possibly by an
+     * earlier instruction), or null if none has been.
+     */
+    private Watchpoint.Hit watchpointHit;
+
+    /**
+     * The innermost function call that hasn't returned, or null if there
+     * isn't one.
+     */
+    private CallFrame callFrame;
+
+    /**
+     * Names of the quad registers in the register file. Traces refer to
+     * registers by their index in this array, so it must not be reordered.
+     */
+    static final String[] QUAD_REGISTER_NAMES = {"rax", "rbx", "rcx",
+        "rdx", "rsi", "rdi", "rbp", "rsp", "r8", "r9", "r10", "r11", "r12",
+        "r13", "r14", "r15"};
+
+    /**
+     * Names of the status flags, used when hashing them.
+     */
+    private static final String[] FLAG_NAMES = {"zf", "sf", "of", "cf"};
+
+    /**
+     * Rough number of bytes taken up by a state, not counting its memory.
+     */
+    private static final long STATE_OVERHEAD_BYTES = 256;
+
+    /**
+     * Rough number of bytes taken up by each entry in memory, not counting
+     * the value stored in it.
+     */
+    private static final long STACK_ENTRY_OVERHEAD_BYTES = 96;
+
+    /**
+     * Number of bytes taken up by each reference in a copy of the list of
+     * entries in memory.
+     */
+    private static final long REFERENCE_BYTES = 8;
+
     /**
      * Create a new state with all registers (except %rsp) initialized to 0 but
      * no memory initialization. %rsp is initialized to 0x7FFFFFFF.
@@ -81,15 +161,47 @@ public class MachineState {
         for (String s : flagNames) {
             statusFlags.put(s, false);
         }
+
+        this.registerHash = hashRegisters(this.registers);
+        this.memoryHash = 0;
     }
 
     public MachineState(Map<String, RegisterState> reg, List<StackEntry> mem, List<Tab> tList, Map<String, Boolean> flags, int RIP, int cStack) {
+        this(reg, mem, tList, flags, RIP, cStack, hashRegisters(reg), hashMemory(mem));
+    }
+
+    /**
+     * Creates a state whose register and memory hashes have already been
+     * calculated (e.g. by updating the hashes of the state it was cloned from).
+     */
+    private MachineState(Map<String, RegisterState> reg, List<StackEntry> mem,
+            List<Tab> tList, Map<String, Boolean> flags, int RIP, int cStack,
+            long registerHash, long memoryHash) {
         this.registers = reg;
         this.memory = mem;
         this.tabList = tList;
         this.statusFlags = flags;
         this.rip = RIP;
         this.callStackSize = cStack;
+        this.registerHash = registerHash;
+        this.memoryHash = memoryHash;
+    }
+
+    /**
+     * Creates a state that is cloned from the given one, keeping its
+     * watchpoints.
+     */
+    private MachineState(MachineState from, Map<String, RegisterState> reg,
+            List<StackEntry> mem, Map<String, Boolean> flags, int RIP,
+            long registerHash, long memoryHash, Watchpoint.Hit watchpointHit,
+            long stackBytes, long newMemoryBytes) {
+        this(reg, mem, from.tabList, flags, RIP, from.callStackSize,
+                registerHash, memoryHash);
+        this.stackBytes = stackBytes;
+        this.newMemoryBytes = newMemoryBytes;
+        this.watchpoints = from.watchpoints;
+        this.watchpointHit = watchpointHit;
+        this.callFrame = from.callFrame;
     }
 
     // Getters for the status flags
@@ -129,8 +241,15 @@ public class MachineState {
         
         List<StackEntry> stackForClone = this.memory;
         Map<String, RegisterState> registersForClone = this.registers;
+        long memoryHashForClone = this.memoryHash;
+        long stackBytesForClone = this.getStackBytes();
+        long newMemoryBytes = 0;
+        Watchpoint.Hit hit = this.watchpointHit;
 
         if (newValueForStack.isPresent()) {
+            SimulatorEvents.MemoryWrite event = new SimulatorEvents.MemoryWrite();
+            event.begin();
+            
             // Limit writes to only valid memory locations (i.e. the stack).
             if (!isValidMemoryAccess(newValueStartingAddress, newValueSize)) {
                 throw new x86RuntimeException("Invalid write to 0x" 
@@ -153,6 +272,19 @@ public class MachineState {
                 long entryStartAddr = entry.getStartAddress();
                 long entryEndAddr = entry.getEndAddress();
                 
+                // Whatever part of the entry is overwritten no longer
+                // contributes to the hash or the number of bytes in memory.
+                long keptBytes = entryEndAddr - entryStartAddr + 1;
+                if (!(Long.compareUnsigned(newStartAddr, entryEndAddr) > 0
+                        || Long.compareUnsigned(newEndAddr, entryStartAddr) < 0)) {
+                    long overlapStartAddr = Math.max(newStartAddr, entryStartAddr);
+                    long overlapEndAddr = Math.min(newEndAddr, entryEndAddr);
+                    memoryHashForClone ^= hashMemoryRange(entry,
+                            overlapStartAddr, overlapEndAddr);
+                    stackBytesForClone -= overlapEndAddr - overlapStartAddr + 1;
+                    keptBytes -= overlapEndAddr - overlapStartAddr + 1;
+                }
+                
                 if (Long.compareUnsigned(newStartAddr, entryStartAddr) <= 0 
                         && Long.compareUnsigned(newEndAddr, entryEndAddr) >= 0) {
                     // The new StackEntry completely ensconces the old, so we'll
@@ -163,17 +295,39 @@ public class MachineState {
                     // The new entry is in the middle of an existing entry, so
                     // split that entry.
                     splitStackEntry(newStartAddr, newEndAddr, entry, stackForClone);
+                    newMemoryBytes += 2 * STACK_ENTRY_OVERHEAD_BYTES + keptBytes;
                 } else if (!(Long.compareUnsigned(newStartAddr, entryEndAddr) > 0
                         || Long.compareUnsigned(newEndAddr, entryStartAddr) < 0)) {
                     // There is overlap with top or bottom of an existing entry
                     // so shrink that entry.
                     shrinkStackEntry(newStartAddr, newEndAddr, entry, stackForClone);
+                    newMemoryBytes += STACK_ENTRY_OVERHEAD_BYTES + keptBytes;
                 }
             }
 
-            createAndAddStackEntry(newValueForStack.get(), newValueSize, 
-                    newValueStartingAddress, stackForClone);
+            StackEntry newEntry = createAndAddStackEntry(newValueForStack.get(),
+                    newValueSize, newValueStartingAddress, stackForClone);
+            memoryHashForClone ^= hashMemoryRange(newEntry, newStartAddr, newEndAddr);
+            stackBytesForClone += newValueSize;
+            newMemoryBytes += STACK_ENTRY_OVERHEAD_BYTES + newValueSize
+                    + stackForClone.size() * REFERENCE_BYTES;
+            
+            if (!this.watchpoints.isEmpty()) {
+                Watchpoint w = this.watchpoints.forMemory(newStartAddr, newEndAddr);
+                if (w != null) {
+                    hit = new Watchpoint.Hit(w, this.rip);
+                }
+            }
             stackForClone.sort(Comparator.comparing(StackEntry::getStartAddress));
+            
+            event.end();
+            if (event.shouldCommit()) {
+                event.address = newValueStartingAddress;
+                event.size = newValueSize;
+                event.entriesScanned = this.memory.size();
+                event.entriesCopied = stackForClone.size();
+                event.commit();
+            }
         }
         
         int newRipVal = this.rip;
@@ -181,8 +335,10 @@ public class MachineState {
 
         this.mergeFlagsInto(flagsForClone);
 
-        return new MachineState(registersForClone, stackForClone, this.tabList, 
-                flagsForClone, newRipVal, this.callStackSize);
+        SimulatorMetrics.get().recordClone(SimulatorMetrics.CloneKind.MEMORY);
+        return new MachineState(this, registersForClone, stackForClone,
+                flagsForClone, newRipVal, this.registerHash, memoryHashForClone,
+                hit, stackBytesForClone, newMemoryBytes);
     }
 
     /**
@@ -192,8 +348,9 @@ public class MachineState {
      * @param newValueSize The size (in bytes) of the new stack entry.
      * @param address Starting address of the new stack entry.
      * @param stack The stack to which the new entry will be added. 
+     * @return The new stack entry.
      */
-    private void createAndAddStackEntry(BigInteger newValue, int newValueSize,
+    private StackEntry createAndAddStackEntry(BigInteger newValue, int newValueSize,
             long address, List<StackEntry> stack) {
         // Note: Java stores values in big endian format while x86 requires
         // little endian. We'll work with the big endian and switch over only
@@ -226,6 +383,7 @@ public class MachineState {
         StackEntry entry = new StackEntry(address, address + newValueSize - 1,
                 fullArrayLittleEndian, rip);
         stack.add(entry);
+        return entry;
     }
 
     /**
@@ -432,7 +590,8 @@ public class MachineState {
      * for the incremented rip register.
      */
     public MachineState cloneWithIncrementedRIP() {
-        return new MachineState(this.registers, this.memory, this.tabList, this.statusFlags, rip + 1, this.callStackSize);
+        SimulatorMetrics.get().recordClone(SimulatorMetrics.CloneKind.RIP);
+        return new MachineState(this, this.registers, this.memory, this.statusFlags, rip + 1, this.registerHash, this.memoryHash, this.watchpointHit, this.getStackBytes(), 0);
     }
 
     /**
@@ -444,7 +603,8 @@ public class MachineState {
      * for updated rip register.
      */
     public MachineState cloneWithNewRIP(int newRIPVal) {
-        return new MachineState(this.registers, this.memory, this.tabList, this.statusFlags, newRIPVal, this.callStackSize);
+        SimulatorMetrics.get().recordClone(SimulatorMetrics.CloneKind.RIP);
+        return new MachineState(this, this.registers, this.memory, this.statusFlags, newRIPVal, this.registerHash, this.memoryHash, this.watchpointHit, this.getStackBytes(), 0);
     }
 
     public static byte[] getExtendedByteArray(BigInteger val, int origSize, int extendedSize, boolean zeroFill) {
@@ -496,6 +656,11 @@ public class MachineState {
             boolean incrementRIP) throws x86RuntimeException {
         Map<String, RegisterState> reg = this.registers;
         List<StackEntry> mem = this.memory;
+        long regHash = this.registerHash;
+        long memHash = this.memoryHash;
+        long stackBytesForClone = this.getStackBytes();
+        long newMemoryBytes = 0;
+        Watchpoint.Hit hit = this.watchpointHit;
         if (val.isPresent()) {
             // Enforce proper alignment of rsp (i.e. multiple of 8)
             if (regName.equals("rsp") && val.get().longValue() % 8 != 0) {
@@ -530,6 +695,12 @@ public class MachineState {
                 if (!toRemove.isEmpty()) {
                     mem = new ArrayList<>(this.memory);
                     mem.removeAll(toRemove);
+                    for (StackEntry se : toRemove) {
+                        memHash ^= hashMemoryRange(se, se.getStartAddress(),
+                                se.getEndAddress());
+                        stackBytesForClone -= se.getEndAddress() - se.getStartAddress() + 1;
+                    }
+                    newMemoryBytes += mem.size() * REFERENCE_BYTES;
                 }
             }
 
@@ -561,6 +732,15 @@ public class MachineState {
             }
 
             reg.put(quadName, new RegisterState(newValQuad, rip));
+            regHash ^= hashRegister(quadName, this.registers.get(quadName).getValue())
+                    ^ hashRegister(quadName, newValQuad);
+            
+            if (!this.watchpoints.isEmpty()) {
+                Watchpoint w = this.watchpoints.forRegister(quadName);
+                if (w != null) {
+                    hit = new Watchpoint.Hit(w, rip);
+                }
+            }
         }
         int newRipVal = rip;
 
@@ -570,7 +750,9 @@ public class MachineState {
 
         mergeFlagsInto(flags);
 
-        return new MachineState(reg, mem, this.tabList, flags, newRipVal, this.callStackSize);
+        SimulatorMetrics.get().recordClone(SimulatorMetrics.CloneKind.REGISTER);
+        return new MachineState(this, reg, mem, flags, newRipVal, regHash, memHash, hit,
+                stackBytesForClone, newMemoryBytes);
     }
 
     /**
@@ -601,6 +783,17 @@ public class MachineState {
         return rip;
     }
 
+    /**
+     * Gets the value of a quad register, without the overhead of looking up
+     * which part of the register file a name refers to.
+     *
+     * @param quadName Name of a quad register (e.g. "rax").
+     * @return The (signed) value of the register.
+     */
+    long getQuadRegisterValue(String quadName) {
+        return ByteBuffer.wrap(this.registers.get(quadName).getValue()).getLong();
+    }
+
     /**
      * Gets the value stored in the given register.
      */
@@ -793,6 +986,122 @@ public class MachineState {
         return memory;
     }
 
+    /**
+     * Finds the registers that were written to when going from the given state
+     * to this one. A register counts as written even if its value didn't
+     * change.
+     *
+     * @param previous The state this one was produced from.
+     * @return The names of the quad registers that were written to.
+     */
+    public List<String> getWrittenRegisters(MachineState previous) {
+        List<String> written = new ArrayList<>();
+        if (this.registers == previous.registers) {
+            return written;
+        }
+        for (String name : QUAD_REGISTER_NAMES) {
+            if (this.registers.get(name) != previous.registers.get(name)) {
+                written.add(name);
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Finds the memory that was written to when going from the given state to
+     * this one.
+     *
+     * @param previous The state this one was produced from.
+     * @return The entries of this state's memory that hold newly written
+     * values.
+     */
+    public List<StackEntry> getWrittenMemory(MachineState previous) {
+        List<StackEntry> written = new ArrayList<>();
+        if (this.memory == previous.memory) {
+            return written;
+        }
+
+        // Entries are never modified, so any entry we don't share with the
+        // previous state is new. Those left over from shrinking or splitting
+        // an old entry are strictly inside that entry and hold the same bytes,
+        // so they are skipped.
+        Set<StackEntry> current = Collections.newSetFromMap(new IdentityHashMap<>());
+        current.addAll(this.memory);
+        List<StackEntry> removed = new ArrayList<>();
+        for (StackEntry entry : previous.memory) {
+            if (!current.contains(entry)) {
+                removed.add(entry);
+            }
+        }
+
+        Set<StackEntry> old = Collections.newSetFromMap(new IdentityHashMap<>());
+        old.addAll(previous.memory);
+        for (StackEntry entry : this.memory) {
+            if (!old.contains(entry) && !isLeftOver(entry, removed)) {
+                written.add(entry);
+            }
+        }
+        return written;
+    }
+
+    /**
+     * @param entry A new memory entry.
+     * @param removed Entries that were removed from memory.
+     * @return True if the entry is what remains of one of the removed entries
+     * after part of it was overwritten.
+     */
+    private static boolean isLeftOver(StackEntry entry, List<StackEntry> removed) {
+        for (StackEntry prev : removed) {
+            if (prev.getOrigin() != entry.getOrigin()
+                    || Long.compareUnsigned(entry.getStartAddress(), prev.getStartAddress()) < 0
+                    || Long.compareUnsigned(entry.getEndAddress(), prev.getEndAddress()) > 0
+                    || (entry.getStartAddress() == prev.getStartAddress()
+                        && entry.getEndAddress() == prev.getEndAddress())) {
+                continue;
+            }
+            int offset = (int) (entry.getStartAddress() - prev.getStartAddress());
+            byte[] bytes = entry.getValueArr();
+            if (Arrays.equals(bytes, Arrays.copyOfRange(prev.getValueArr(),
+                    offset, offset + bytes.length))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The number of bytes of memory that have been written to.
+     */
+    public long getStackBytes() {
+        if (this.stackBytes < 0) {
+            long total = 0;
+            for (StackEntry e : this.memory) {
+                total += e.getEndAddress() - e.getStartAddress() + 1;
+            }
+            this.stackBytes = total;
+        }
+        return this.stackBytes;
+    }
+
+    /**
+     * Estimates the number of bytes needed to keep this state around, on top
+     * of the state it was cloned from. Memory entries are shared between
+     * states, so only the ones the clone created (and its copy of the list
+     * of entries, if it made one) are counted. The sizes of all the states in
+     * a history therefore add up to roughly the size of the whole history.
+     * A state that wasn't cloned is counted as sharing nothing.
+     *
+     * @return The estimated size of this state, in bytes.
+     */
+    public long getEstimatedSize() {
+        if (this.newMemoryBytes >= 0) {
+            return STATE_OVERHEAD_BYTES + this.newMemoryBytes;
+        }
+        return STATE_OVERHEAD_BYTES
+                + this.memory.size() * (STACK_ENTRY_OVERHEAD_BYTES + REFERENCE_BYTES)
+                + getStackBytes();
+    }
+
     /**
      * Returns a list of tabs.
      */
@@ -800,6 +1109,139 @@ public class MachineState {
         return tabList;
     }
 
+    /**
+     * Mixes the bits of the given value (using the SplitMix64 finalizer) so
+     * that similar inputs give very different hashes.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static long hashRegister(String quadName, byte[] value) {
+        long v = 0;
+        for (byte b : value) {
+            v = (v << 8) | (b & 0xFF);
+        }
+        return mix(mix(quadName.hashCode() + 0x9E3779B97F4A7C15L) ^ v);
+    }
+
+    private static long hashRegisters(Map<String, RegisterState> registers) {
+        long h = 0;
+        for (Map.Entry<String, RegisterState> e : registers.entrySet()) {
+            h ^= hashRegister(e.getKey(), e.getValue().getValue());
+        }
+        return h;
+    }
+
+    /**
+     * Hashes part of a stack entry, one byte at a time.
+     *
+     * @param entry The stack entry.
+     * @param start The first address to hash.
+     * @param end The last address (inclusive) to hash.
+     * @return The XOR of the hashes of each byte (and its address).
+     */
+    private static long hashMemoryRange(StackEntry entry, long start, long end) {
+        byte[] val = entry.getValueArr();
+        long h = 0;
+        // Loop over offsets, since the last address may be Long.MAX_VALUE.
+        int last = (int) (end - entry.getStartAddress());
+        for (int i = (int) (start - entry.getStartAddress()); i <= last; i++) {
+            long addr = entry.getStartAddress() + i;
+            h ^= mix(addr * 0x9E3779B97F4A7C15L + (val[i] & 0xFF) + 1);
+        }
+        return h;
+    }
+
+    private static long hashMemory(List<StackEntry> memory) {
+        long h = 0;
+        for (StackEntry e : memory) {
+            h ^= hashMemoryRange(e, e.getStartAddress(), e.getEndAddress());
+        }
+        return h;
+    }
+
+    /**
+     * Returns a hash of everything that affects how execution continues from
+     * this state: the registers, status flags, rip, call stack size, and the
+     * contents of memory. This takes constant time since the register and
+     * memory parts are updated as the state is cloned.
+     *
+     * @return The hash of this state.
+     */
+    public long getStateHash() {
+        long h = this.registerHash ^ this.memoryHash
+                ^ mix(0x1000000000000000L + this.rip)
+                ^ mix(0x2000000000000000L + this.callStackSize);
+        for (int i = 0; i < FLAG_NAMES.length; i++) {
+            if (Boolean.TRUE.equals(this.statusFlags.get(FLAG_NAMES[i]))) {
+                h ^= mix(0x3000000000000000L + i);
+            }
+        }
+        return h;
+    }
+
+    /**
+     * Checks whether this state is the same as the given one in every way that
+     * affects how execution continues (i.e. everything that is hashed by
+     * {@link #getStateHash()}).
+     *
+     * @param other The state to compare to.
+     * @return True if the states are the same, false otherwise.
+     */
+    public boolean hasSameStateAs(MachineState other) {
+        if (this.rip != other.rip
+                || this.callStackSize != other.callStackSize
+                || this.registerHash != other.registerHash
+                || this.memoryHash != other.memoryHash) {
+            return false;
+        }
+
+        for (String flag : FLAG_NAMES) {
+            if (!Objects.equals(this.statusFlags.get(flag), other.statusFlags.get(flag))) {
+                return false;
+            }
+        }
+
+        if (this.registers.size() != other.registers.size()) {
+            return false;
+        }
+        for (Map.Entry<String, RegisterState> e : this.registers.entrySet()) {
+            RegisterState r = other.registers.get(e.getKey());
+            if (r == null || !Arrays.equals(e.getValue().getValue(), r.getValue())) {
+                return false;
+            }
+        }
+
+        // The same bytes may be split into entries differently, so compare
+        // memory one byte at a time.
+        if (this.memory == other.memory) {
+            return true;
+        }
+        if (this.getStackBytes() != other.getStackBytes()) {
+            return false;
+        }
+        int j = 0;
+        int otherOffset = 0;
+        for (StackEntry e : this.memory) {
+            byte[] val = e.getValueArr();
+            for (int i = 0; i < val.length; i++) {
+                StackEntry o = other.memory.get(j);
+                if (e.getStartAddress() + i != o.getStartAddress() + otherOffset
+                        || val[i] != o.getValueArr()[otherOffset]) {
+                    return false;
+                }
+                if (++otherOffset == o.getValueArr().length) {
+                    j++;
+                    otherOffset = 0;
+                }
+            }
+        }
+        return true;
+    }
+
     public String toString() {
         String s = "Registers:\n";
         for (Map.Entry<String, RegisterState> entry : registers.entrySet()) {
@@ -829,6 +1271,32 @@ public class MachineState {
         return s;
     }
     
+    /**
+     * Creates a copy of this state that checks the given watchpoints when it
+     * (or any state cloned from it) is written to.
+     *
+     * @param watchpoints The watchpoints to check.
+     * @return A copy of this state.
+     */
+    MachineState cloneWithWatchpoints(WatchpointSet watchpoints) {
+        MachineState clone = new MachineState(this, this.registers, this.memory,
+                this.statusFlags, this.rip, this.registerHash, this.memoryHash,
+                this.watchpointHit, this.stackBytes, this.newMemoryBytes);
+        clone.watchpoints = watchpoints;
+        return clone;
+    }
+
+    WatchpointSet getWatchpoints() { return this.watchpoints; }
+
+    /**
+     * @return The last watchpoint triggered on the way to this state, which
+     * may have been triggered by an earlier instruction. Compare it with the
+     * previous state's hit to see if the last instruction triggered it.
+     */
+    public Optional<Watchpoint.Hit> getWatchpointHit() {
+        return Optional.ofNullable(this.watchpointHit);
+    }
+
     public void setRip(int i){
         if(i >= 0){
             this.rip = i;
@@ -836,11 +1304,34 @@ public class MachineState {
     }
     
     public void pushToCallStack(){
+        pushToCallStack(-1, -1, getQuadRegisterValue("rsp"));
+    }
+    
+    /**
+     * Records a function call on the call stack.
+     * 
+     * @param callLine The line with the call instruction, or -1 if the
+     * function wasn't called by the program.
+     * @param returnRip The line the function will return to.
+     * @param stackPointer Value of %rsp when the function is entered.
+     */
+    public void pushToCallStack(int callLine, int returnRip, long stackPointer){
         callStackSize++;
+        callFrame = new CallFrame(callLine, returnRip, stackPointer, callFrame);
     }
     
     public void popFromCallStack(){
         callStackSize--;
+        if (callFrame != null) {
+            callFrame = callFrame.getCallerOrNull();
+        }
+    }
+    
+    /**
+     * @return The innermost function call that hasn't returned yet, if any.
+     */
+    public Optional<CallFrame> getCallFrame() {
+        return Optional.ofNullable(callFrame);
     }
     
     public int getCallStackSize(){
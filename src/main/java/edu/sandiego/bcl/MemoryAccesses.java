@@ -0,0 +1,101 @@
+package edu.sandiego.bcl;
+
+import java.util.List;
+
+/**
+ * Works out the memory reads and writes an instruction makes, including the
+ * stack accesses of push, pop, call and ret, which don't appear as operands.
+ */
+class MemoryAccesses {
+
+    /**
+     * Receives each memory access of an instruction.
+     */
+    @FunctionalInterface
+    interface Visitor {
+        /**
+         * @param lineNum The line of the program that made the access.
+         * @param address The first address accessed.
+         * @param numBytes The number of bytes accessed.
+         * @param isWrite True if the access is a write.
+         */
+        void access(int lineNum, long address, int numBytes, boolean isWrite);
+    }
+
+    private MemoryAccesses() {
+    }
+
+    /**
+     * Passes each memory access made by executing a line to a visitor, in the
+     * order they are made.
+     *
+     * @param line The line being executed.
+     * @param before The state before the line was executed, which is used to
+     * work out the addresses accessed.
+     * @param visitor The visitor.
+     */
+    static void visit(x86ProgramLine line, MachineState before, Visitor visitor) {
+        if (!(line instanceof x86Instruction)) {
+            return;
+        }
+        x86Instruction instr = (x86Instruction) line;
+        int lineNum = line.getLineNum();
+        InstructionType type = instr.getType();
+        switch (type) {
+            case LEA:
+            case CLT:
+                return;
+            case PUSH:
+            case CALL: {
+                visitOperands(lineNum, instr, before, type, visitor);
+                int bytes = type == InstructionType.CALL ? 8
+                        : instr.getOperands().get(0).getOpSize().numBytes();
+                long rsp = before.getQuadRegisterValue("rsp");
+                visitor.access(lineNum, rsp - bytes, bytes, true);
+                return;
+            }
+            case POP: {
+                int bytes = instr.getOperands().get(0).getOpSize().numBytes();
+                visitor.access(lineNum, before.getQuadRegisterValue("rsp"), bytes, false);
+                visitOperands(lineNum, instr, before, type, visitor);
+                return;
+            }
+            case RET:
+                visitor.access(lineNum, before.getQuadRegisterValue("rsp"), 8, false);
+                return;
+            default:
+                visitOperands(lineNum, instr, before, type, visitor);
+        }
+    }
+
+    /**
+     * Passes accesses to the memory operands of an instruction to a visitor.
+     */
+    private static void visitOperands(int lineNum, x86Instruction instr,
+            MachineState before, InstructionType type, Visitor visitor) {
+        List<Operand> operands = instr.getOperands();
+        for (int i = 0; i < operands.size(); i++) {
+            if (!(operands.get(i) instanceof MemoryOperand)) {
+                continue;
+            }
+            MemoryOperand op = (MemoryOperand) operands.get(i);
+            long address = op.calculateAddress(before);
+            int bytes = op.getOpSize().numBytes();
+            boolean isDestination = i == operands.size() - 1
+                    && type != InstructionType.PUSH && type != InstructionType.IDIV
+                    && type != InstructionType.CALL && type != InstructionType.CMP
+                    && type != InstructionType.TEST;
+            if (!isDestination) {
+                visitor.access(lineNum, address, bytes, false);
+            } else if (type == InstructionType.MOV || type == InstructionType.MOVZ
+                    || type == InstructionType.MOVS || type == InstructionType.POP
+                    || type.name().startsWith("SET")) {
+                visitor.access(lineNum, address, bytes, true);
+            } else {
+                // e.g. add to memory, which reads then writes it
+                visitor.access(lineNum, address, bytes, false);
+                visitor.access(lineNum, address, bytes, true);
+            }
+        }
+    }
+}
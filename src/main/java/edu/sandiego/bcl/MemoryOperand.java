@@ -47,6 +47,16 @@ public class MemoryOperand extends Operand {
         this.offsetStr = offsetStr;
     }
 
+    public Optional<String> getBaseReg() { return this.baseReg; }
+
+    public Optional<String> getIndexReg() { return this.indexReg; }
+
+    public Optional<Integer> getScale() { return this.scale; }
+
+    public Optional<Integer> getOffset() { return this.offset; }
+
+    public String getOffsetStr() { return this.offsetStr; }
+
     /**
      * Calculate the effective address of the operand, given the specified
      * machine state.
@@ -0,0 +1,573 @@
+package edu.sandiego.bcl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts how many times each line of a program is executed, and which
+ * function each instruction was executed in, to show where a program spends
+ * its time.
+ *
+ * Lines are counted in a plain array. Functions are tracked with a tree of
+ * call paths (e.g. main, then main calling fact, then fact calling fact),
+ * which is only walked when a call or return is executed. This keeps the cost
+ * of profiling to a few increments per instruction, so it can be left on for
+ * full runs.
+ *
+ * The tree is used to produce a flat profile, a call graph with exclusive
+ * (i.e. in the function itself) and inclusive (i.e. including the functions
+ * it called) counts, and stacks in the collapsed format read by flame graph
+ * tools.
+ *
+ * Along with the counts, the cycles each instruction would take (according
+ * to a {@link CostModel}) are added up. The cost of each line is worked out
+ * once and kept in an array, so this doesn't allocate anything per
+ * instruction either. Conditional jumps are also counted by a
+ * {@link BranchStats}, whose results are included in the text output.
+ */
+public class Profiler {
+
+    /**
+     * A call path, i.e. a function along with the functions that called it.
+     */
+    private static class Node {
+        final String function;
+        final Node parent;
+        Map<String, Node> children;
+
+        /**
+         * Instructions executed with this as the call path.
+         */
+        long self;
+
+        /**
+         * Estimated cycles taken by the instructions executed with this as
+         * the call path.
+         */
+        long selfCycles;
+
+        /**
+         * Number of times this path was entered.
+         */
+        long calls;
+
+        Node(String function, Node parent) {
+            this.function = function;
+            this.parent = parent;
+        }
+
+        Node child(String function) {
+            if (this.children == null) {
+                this.children = new LinkedHashMap<>();
+            }
+            Node c = this.children.get(function);
+            if (c == null) {
+                c = new Node(function, this);
+                this.children.put(function, c);
+            }
+            return c;
+        }
+
+        List<Node> getChildren() {
+            return this.children == null ? Collections.emptyList()
+                    : new ArrayList<>(this.children.values());
+        }
+    }
+
+    /**
+     * Counts for one function.
+     */
+    public static class FunctionProfile {
+        private final String name;
+        private long exclusive;
+        private long inclusive;
+        private long calls;
+        private long exclusiveCycles;
+        private long inclusiveCycles;
+        private final Map<String, Long> calleeCalls = new LinkedHashMap<>();
+        private final Map<String, Long> calleeInclusive = new LinkedHashMap<>();
+
+        private FunctionProfile(String name) {
+            this.name = name;
+        }
+
+        public String getName() { return this.name; }
+
+        /**
+         * @return Instructions executed in this function itself.
+         */
+        public long getExclusiveCount() { return this.exclusive; }
+
+        /**
+         * @return Instructions executed in this function and the functions it
+         * called. Recursive calls are only counted once.
+         */
+        public long getInclusiveCount() { return this.inclusive; }
+
+        /**
+         * @return Estimated cycles taken by this function itself.
+         */
+        public long getExclusiveCycles() { return this.exclusiveCycles; }
+
+        /**
+         * @return Estimated cycles taken by this function and the functions
+         * it called.
+         */
+        public long getInclusiveCycles() { return this.inclusiveCycles; }
+
+        /**
+         * @return Number of times this function was called.
+         */
+        public long getCalls() { return this.calls; }
+
+        /**
+         * @return Number of times this function called each function.
+         */
+        public Map<String, Long> getCalleeCalls() {
+            return Collections.unmodifiableMap(this.calleeCalls);
+        }
+
+        /**
+         * @return Instructions executed in each function called by this one,
+         * including the functions they called.
+         */
+        public Map<String, Long> getCalleeInclusiveCounts() {
+            return Collections.unmodifiableMap(this.calleeInclusive);
+        }
+    }
+
+    /**
+     * Name used for the outermost function when the program doesn't start at
+     * a label.
+     */
+    static final String TOP_LEVEL_NAME = "(top)";
+
+    private final x86Program program;
+
+    /**
+     * Number of times each line was executed.
+     */
+    private long[] lineCounts;
+
+    private long totalCount;
+
+    private CostModel costModel = CostModel.DEFAULT;
+
+    /**
+     * Estimated cycles taken by each line.
+     */
+    private long[] lineCycles;
+
+    private long totalCycles;
+
+    /**
+     * Cost of each line (not counting the taken jump penalty), and the line it
+     * was worked out for. The cost is worked out again if the line at that
+     * position changes.
+     */
+    private int[] lineCosts;
+    private x86ProgramLine[] costedLines;
+
+    /**
+     * Whether each line (of costedLines) is a jump.
+     */
+    private boolean[] lineIsJump;
+
+    /**
+     * Outcomes and predictions of the conditional jumps executed.
+     */
+    private BranchStats branches = new BranchStats();
+
+    /**
+     * The outermost call path, i.e. the function the program started in.
+     */
+    private Node root;
+
+    /**
+     * The call path of the function currently being executed.
+     */
+    private Node current;
+
+    /**
+     * @param program The program being profiled.
+     */
+    public Profiler(x86Program program) {
+        this.program = program;
+        reset();
+    }
+
+    /**
+     * Forgets everything that has been counted.
+     */
+    public void reset() {
+        int size = Math.max(16, this.program.getNumLines());
+        this.lineCounts = new long[size];
+        this.lineCycles = new long[size];
+        this.lineCosts = new int[size];
+        this.costedLines = new x86ProgramLine[size];
+        this.lineIsJump = new boolean[size];
+        this.totalCount = 0;
+        this.totalCycles = 0;
+        this.root = null;
+        this.current = null;
+        this.branches.reset();
+    }
+
+    public CostModel getCostModel() { return this.costModel; }
+
+    /**
+     * Sets the model used to estimate cycles. This clears the profile, since
+     * the cycles counted so far came from the old model.
+     *
+     * @param costModel The cost model.
+     */
+    public void setCostModel(CostModel costModel) {
+        this.costModel = costModel;
+        reset();
+    }
+
+    /**
+     * @return The outcomes and predictions of the conditional jumps
+     * executed.
+     */
+    public BranchStats getBranchStats() { return this.branches; }
+
+    /**
+     * Sets the number of recent jump outcomes used by the gshare predictor.
+     * This clears the profile, since the predictions made so far used the
+     * old history.
+     *
+     * @param historyBits The number of outcomes.
+     */
+    public void setBranchHistoryBits(int historyBits) {
+        this.branches = new BranchStats(historyBits);
+        reset();
+    }
+
+    /**
+     * Makes room for counting the given line.
+     */
+    private void ensureCapacity(int lineNum) {
+        if (lineNum >= this.lineCounts.length) {
+            int size = Math.max(lineNum + 1, this.lineCounts.length * 2);
+            this.lineCounts = Arrays.copyOf(this.lineCounts, size);
+            this.lineCycles = Arrays.copyOf(this.lineCycles, size);
+            this.lineCosts = Arrays.copyOf(this.lineCosts, size);
+            this.costedLines = Arrays.copyOf(this.costedLines, size);
+            this.lineIsJump = Arrays.copyOf(this.lineIsJump, size);
+        }
+    }
+
+    /**
+     * @return The estimated cycles taken by executing the given line.
+     */
+    private int cyclesFor(x86ProgramLine line, int lineNum, MachineState before,
+            MachineState after) {
+        if (this.costedLines[lineNum] != line) {
+            this.lineCosts[lineNum] = this.costModel.getCycles(line);
+            this.lineIsJump[lineNum] = CostModel.isJump(line);
+            this.costedLines[lineNum] = line;
+        }
+        int cycles = this.lineCosts[lineNum];
+        if (this.lineIsJump[lineNum]
+                && after.getRipRegister() != before.getRipRegister() + 1) {
+            cycles += this.costModel.getTakenBranchCycles();
+        }
+        return cycles;
+    }
+
+    /**
+     * Counts an executed instruction.
+     *
+     * @param line The line that was executed.
+     * @param before The state before it was executed.
+     * @param after The state it produced.
+     */
+    public void record(x86ProgramLine line, MachineState before, MachineState after) {
+        int lineNum = line.getLineNum();
+        ensureCapacity(lineNum);
+        int cycles = cyclesFor(line, lineNum, before, after);
+        this.lineCounts[lineNum]++;
+        this.lineCycles[lineNum] += cycles;
+        this.totalCount++;
+        this.totalCycles += cycles;
+        this.branches.record(line, before);
+
+        if (this.current == null) {
+            this.root = new Node(line instanceof x86Label
+                    ? ((x86Label) line).getName() : TOP_LEVEL_NAME, null);
+            this.root.calls = 1;
+            this.current = this.root;
+        }
+        this.current.self++;
+        this.current.selfCycles += cycles;
+
+        int depthChange = after.getCallStackSize() - before.getCallStackSize();
+        if (depthChange > 0) {
+            this.current = this.current.child(calleeName(line));
+            this.current.calls++;
+        } else if (depthChange < 0 && this.current.parent != null) {
+            this.current = this.current.parent;
+        }
+    }
+
+    /**
+     * Takes back the count of an instruction (e.g. when stepping backward).
+     * This must be the last instruction recorded that hasn't been taken back.
+     *
+     * @param line The line that was executed.
+     * @param before The state before it was executed.
+     * @param after The state it produced.
+     */
+    public void undo(x86ProgramLine line, MachineState before, MachineState after) {
+        int lineNum = line.getLineNum();
+        if (this.current == null || lineNum >= this.lineCounts.length) {
+            return;
+        }
+        int cycles = cyclesFor(line, lineNum, before, after);
+        this.lineCounts[lineNum]--;
+        this.lineCycles[lineNum] -= cycles;
+        this.totalCount--;
+        this.totalCycles -= cycles;
+        this.branches.undo(line, before);
+
+        int depthChange = after.getCallStackSize() - before.getCallStackSize();
+        if (depthChange > 0 && this.current.parent != null) {
+            this.current.calls--;
+            this.current = this.current.parent;
+        } else if (depthChange < 0 && before.getCallFrame().isPresent()) {
+            int callLine = before.getCallFrame().get().getCallLine();
+            if (callLine >= 0 && callLine < this.program.getNumLines()) {
+                this.current = this.current.child(calleeName(this.program.getLine(callLine)));
+            }
+        }
+        this.current.self--;
+        this.current.selfCycles -= cycles;
+
+        if (this.totalCount == 0) {
+            this.root = null;
+            this.current = null;
+        }
+    }
+
+    /**
+     * @param call A call instruction.
+     * @return The name of the function it calls.
+     */
+    private static String calleeName(x86ProgramLine call) {
+        if (call instanceof x86UnaryInstruction) {
+            Operand target = ((x86UnaryInstruction) call).destination;
+            if (target instanceof LabelOperand) {
+                return ((LabelOperand) target).getName();
+            }
+            return "*" + target;
+        }
+        return "line " + call.getLineNum();
+    }
+
+    /**
+     * @return The total number of instructions counted.
+     */
+    public long getTotalCount() { return this.totalCount; }
+
+    /**
+     * @return The estimated number of cycles taken by all the instructions
+     * counted.
+     */
+    public long getTotalCycles() { return this.totalCycles; }
+
+    /**
+     * @param lineNum The line number.
+     * @return The estimated number of cycles taken by executing the line.
+     */
+    public long getLineCycles(int lineNum) {
+        return lineNum < this.lineCycles.length ? this.lineCycles[lineNum] : 0;
+    }
+
+    /**
+     * @param lineNum The line number.
+     * @return The number of times the line was executed.
+     */
+    public long getLineCount(int lineNum) {
+        return lineNum < this.lineCounts.length ? this.lineCounts[lineNum] : 0;
+    }
+
+    /**
+     * @return The counts for each function that was executed, with the
+     * functions that executed the most instructions themselves first.
+     */
+    public List<FunctionProfile> getFunctionProfiles() {
+        Map<String, FunctionProfile> profiles = new LinkedHashMap<>();
+        if (this.root == null) {
+            return new ArrayList<>();
+        }
+        Map<Node, long[]> totals = getSubtreeTotals();
+
+        // Number of times each function appears on the path to the current
+        // node, so that recursive calls are only counted once.
+        Map<String, Integer> active = new HashMap<>();
+        Deque<Node> toVisit = new ArrayDeque<>();
+        Deque<Boolean> entering = new ArrayDeque<>();
+        toVisit.push(this.root);
+        entering.push(true);
+        while (!toVisit.isEmpty()) {
+            Node n = toVisit.pop();
+            if (!entering.pop()) {
+                active.merge(n.function, -1, Integer::sum);
+                continue;
+            }
+
+            FunctionProfile p = profiles.computeIfAbsent(n.function, FunctionProfile::new);
+            p.exclusive += n.self;
+            p.exclusiveCycles += n.selfCycles;
+            p.calls += n.calls;
+            if (active.getOrDefault(n.function, 0) == 0) {
+                p.inclusive += totals.get(n)[0];
+                p.inclusiveCycles += totals.get(n)[1];
+            }
+            if (n.parent != null) {
+                FunctionProfile caller = profiles.get(n.parent.function);
+                caller.calleeCalls.merge(n.function, n.calls, Long::sum);
+                caller.calleeInclusive.merge(n.function, totals.get(n)[0], Long::sum);
+            }
+
+            active.merge(n.function, 1, Integer::sum);
+            toVisit.push(n);
+            entering.push(false);
+            List<Node> children = n.getChildren();
+            for (int i = children.size() - 1; i >= 0; i--) {
+                toVisit.push(children.get(i));
+                entering.push(true);
+            }
+        }
+
+        List<FunctionProfile> result = new ArrayList<>(profiles.values());
+        result.sort(Comparator.comparingLong(FunctionProfile::getExclusiveCount).reversed());
+        return result;
+    }
+
+    /**
+     * @return The number of instructions executed, and the cycles they took,
+     * in each call path, including those of the paths it leads to.
+     */
+    private Map<Node, long[]> getSubtreeTotals() {
+        // Children always come after their parent in this list, so going
+        // through it backwards visits children first.
+        List<Node> nodes = new ArrayList<>();
+        nodes.add(this.root);
+        for (int i = 0; i < nodes.size(); i++) {
+            nodes.addAll(nodes.get(i).getChildren());
+        }
+
+        Map<Node, long[]> totals = new HashMap<>();
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            Node n = nodes.get(i);
+            long[] total = {n.self, n.selfCycles};
+            for (Node c : n.getChildren()) {
+                total[0] += totals.get(c)[0];
+                total[1] += totals.get(c)[1];
+            }
+            totals.put(n, total);
+        }
+        return totals;
+    }
+
+    /**
+     * Formats the profile as text: the lines that were executed (most
+     * executed first), the functions, and the call graph.
+     *
+     * @return The profile.
+     */
+    public String toText() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Flat profile: ").append(this.totalCount)
+                .append(" instructions executed, about ").append(this.totalCycles)
+                .append(" cycles\n\n");
+        sb.append(String.format("%12s %7s %12s %6s  %s%n", "count", "%",
+                "cycles", "line", "instruction"));
+        List<Integer> lines = new ArrayList<>();
+        for (int i = 0; i < this.lineCounts.length; i++) {
+            if (this.lineCounts[i] > 0) {
+                lines.add(i);
+            }
+        }
+        lines.sort(Comparator.comparingLong((Integer i) -> this.lineCounts[i]).reversed());
+        for (int i : lines) {
+            String text = i < this.program.getNumLines()
+                    ? this.program.getLine(i).toString().trim() : "";
+            sb.append(String.format("%12d %7.2f %12d %6d  %s%n", this.lineCounts[i],
+                    percent(this.lineCounts[i]), this.lineCycles[i], i, text));
+        }
+
+        List<FunctionProfile> functions = getFunctionProfiles();
+        sb.append("\nFunctions\n\n");
+        sb.append(String.format("%12s %7s %12s %7s %12s %12s %8s  %s%n",
+                "exclusive", "%", "inclusive", "%", "excl cycles", "incl cycles",
+                "calls", "function"));
+        for (FunctionProfile p : functions) {
+            sb.append(String.format("%12d %7.2f %12d %7.2f %12d %12d %8d  %s%n",
+                    p.exclusive, percent(p.exclusive), p.inclusive,
+                    percent(p.inclusive), p.exclusiveCycles, p.inclusiveCycles,
+                    p.calls, p.name));
+        }
+
+        sb.append("\nCall graph\n");
+        for (FunctionProfile p : functions) {
+            sb.append("\n").append(p.name).append(" (inclusive ")
+                    .append(p.inclusive).append(")\n");
+            for (Map.Entry<String, Long> callee : p.calleeCalls.entrySet()) {
+                sb.append(String.format("    -> %s: %d calls, %d inclusive%n",
+                        callee.getKey(), callee.getValue(),
+                        p.calleeInclusive.get(callee.getKey())));
+            }
+        }
+
+        sb.append("\nBranches\n\n");
+        sb.append(this.branches.toText(this.program.getProgramLines()));
+        return sb.toString();
+    }
+
+    private double percent(long count) {
+        return this.totalCount == 0 ? 0 : 100.0 * count / this.totalCount;
+    }
+
+    /**
+     * Formats the profile as collapsed stacks: one line per call path, with
+     * the functions on the path separated by semicolons followed by the
+     * number of instructions executed in that path (e.g. "main;fact 12").
+     * This is the input format of flame graph tools.
+     *
+     * @return The profile.
+     */
+    public String toCollapsedStacks() {
+        StringBuilder sb = new StringBuilder();
+        if (this.root == null) {
+            return "";
+        }
+        Deque<Node> toVisit = new ArrayDeque<>();
+        Deque<String> paths = new ArrayDeque<>();
+        toVisit.push(this.root);
+        paths.push(this.root.function);
+        while (!toVisit.isEmpty()) {
+            Node n = toVisit.pop();
+            String path = paths.pop();
+            if (n.self > 0) {
+                sb.append(path).append(' ').append(n.self).append('\n');
+            }
+            List<Node> children = n.getChildren();
+            for (int i = children.size() - 1; i >= 0; i--) {
+                toVisit.push(children.get(i));
+                paths.push(path + ";" + children.get(i).function);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,35 @@
+package edu.sandiego.bcl;
+
+@SuppressWarnings("serial")
+
+/**
+ * Class representing a simulation being stopped because it went over one of
+ * the limits in its execution quota.
+ */
+public class QuotaExceededException extends x86RuntimeException {
+
+	/**
+	 * The limit that was exceeded.
+	 */
+	private final ExecutionQuota.Kind kind;
+
+	/**
+	 * The value of that limit.
+	 */
+	private final long limit;
+
+	public QuotaExceededException(String message, ExecutionQuota.Kind kind, long limit) {
+		super(message);
+		this.kind = kind;
+		this.limit = limit;
+	}
+
+	public ExecutionQuota.Kind getKind() { return this.kind; }
+
+	public long getLimit() { return this.limit; }
+
+	@Override
+	public String toString() {
+		return "QuotaExceededException: " + super.getMessage();
+	}
+}
@@ -25,6 +25,8 @@ public class RegOperand extends Operand {
         this.regName = regName;
     }
 
+    public String getRegName() { return this.regName; }
+
     @Override
     public BigInteger getValue(MachineState state) {
         return state.getRegisterValue(regName);
@@ -7,7 +7,11 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Flow;
+import java.util.function.BooleanSupplier;
 import javafx.collections.ObservableList;
 
 /**
@@ -44,12 +48,140 @@ public class Simulation {
      */
     private boolean stuckOnError;
     
+    /**
+     * Limits on how much this simulation may do.
+     */
+    private ExecutionQuota quota;
+    
+    /**
+     * Number of instructions executed since the simulation (re)started. This
+     * isn't decreased when stepping backwards.
+     */
+    private long numExecuted;
+    
+    /**
+     * Estimated number of bytes used by the states in our history.
+     */
+    private long historyBytes;
+    
+    /**
+     * Time (from System.nanoTime) when the simulation (re)started.
+     */
+    private long startTime;
+    
+    /**
+     * How often (in instructions) to check whether we've gone past the
+     * quota's time limit. This must be a power of 2.
+     */
+    private static final int DEADLINE_CHECK_INTERVAL = 1024;
+    
+    /**
+     * Maximum number of instructions executed by a single call to finish.
+     */
+    private static final int MAX_INSTRUCTIONS_PER_FINISH = 10000;
+    
+    /**
+     * Whether to stop when the simulation reaches a state it has already been
+     * in.
+     */
+    private boolean detectLoops = true;
+    
+    /**
+     * State that new states are compared with to find loops, using Brent's
+     * algorithm. This is null when there is no state to compare to.
+     */
+    private MachineState loopCheckState;
+    
+    /**
+     * Hash of loopCheckState.
+     */
+    private long loopCheckHash;
+    
+    /**
+     * Number of states compared with loopCheckState so far.
+     */
+    private long loopCheckLength;
+    
+    /**
+     * Number of states to compare with loopCheckState before moving it
+     * forward. This doubles each time it is moved.
+     */
+    private long loopCheckPower;
+    
+    /**
+     * Publishes what happens as the simulation runs.
+     */
+    private final SimulationEventPublisher events = new SimulationEventPublisher();
+    
+    /**
+     * When each register and memory location changed in our history. This
+     * follows stateHistory and only indexes the new states in it when it is
+     * queried, so running doesn't pay for it.
+     */
+    private TimeTravelIndex index;
+    
+    /**
+     * Counts of the lines and functions executed in our history.
+     */
+    private final Profiler profiler;
+    
+    /**
+     * Registers and memory to stop at when written.
+     */
+    private final List<Watchpoint> watchpoints = new ArrayList<>();
+    
+    /**
+     * The watchpoints, in the form checked by machine states.
+     */
+    private WatchpointSet watchpointSet = WatchpointSet.EMPTY;
+    
+    /**
+     * The watchpoint triggered by the last instruction, if it triggered one.
+     */
+    private Optional<Watchpoint.Hit> watchpointHit = Optional.empty();
+    
+    /**
+     * The data cache model given the memory accesses of our history, if
+     * there is one.
+     */
+    private Optional<CacheSimulator> cache = Optional.empty();
+    
+    /**
+     * True if the cache model hasn't been given our history yet because it
+     * was only just attached. It is run over the history when it is next
+     * used, and after that it is kept up to date as we step (taking back the
+     * accesses of each instruction we step back over).
+     */
+    private boolean cacheStale;
+    
+    /**
+     * The stack sanitizer checking our history, if there is one.
+     */
+    private Optional<StackSanitizer> sanitizer = Optional.empty();
+    
+    /**
+     * True if the sanitizer hasn't been given our history yet because it was
+     * only just attached. Like the cache model, it is run over the history
+     * when it is next used and kept up to date after that.
+     */
+    private boolean sanitizerStale;
+    
+    /**
+     * The problem the sanitizer found in the last instruction, if it found
+     * one.
+     */
+    private Optional<StackSanitizer.Issue> sanitizerIssue = Optional.empty();
+    
     public Simulation() {
         this.program = new x86Program();
         this.stateHistory = new ArrayList<>();
         this.stateHistory.add(new MachineState());
         this.regHistory = new ArrayList<>();
         this.stuckOnError = false;
+        this.quota = ExecutionQuota.UNLIMITED;
+        this.index = new TimeTravelIndex(this.stateHistory);
+        this.profiler = new Profiler(this.program);
+        this.resetQuotaUsage();
     }
     
     public Simulation(File assemblyFile) throws FileNotFoundException,
@@ -66,6 +198,10 @@ public class Simulation {
             regHistory.addAll(this.program.getLine(0).getUsedRegisters());
         }
         this.stuckOnError = false;
+        this.quota = ExecutionQuota.UNLIMITED;
+        this.index = new TimeTravelIndex(this.stateHistory);
+        this.profiler = new Profiler(this.program);
+        this.resetQuotaUsage();
     }
     
     public String getProgramFileName() { return this.program.getFileName(); }
@@ -111,6 +247,103 @@ public class Simulation {
         return this.program.hasFile();
     }
     
+    public ExecutionQuota getQuota() { return this.quota; }
+    
+    /**
+     * Sets the limits on how much this simulation may do. This also restarts
+     * the clock for the quota's time limit.
+     * 
+     * @param quota The new limits.
+     */
+    public void setQuota(ExecutionQuota quota) {
+        this.quota = quota;
+        this.startTime = System.nanoTime();
+    }
+    
+    /**
+     * @return The number of instructions executed since the simulation
+     * (re)started.
+     */
+    public long getNumExecuted() { return this.numExecuted; }
+    
+    /**
+     * @return The estimated number of bytes used by the simulation's history.
+     */
+    public long getHistoryBytes() { return this.historyBytes; }
+    
+    public boolean isDetectingLoops() { return this.detectLoops; }
+    
+    /**
+     * @param detectLoops Whether to stop when the simulation reaches a state
+     * it has already been in.
+     */
+    public void setDetectLoops(boolean detectLoops) {
+        this.detectLoops = detectLoops;
+        this.resetLoopCheck();
+    }
+    
+    /**
+     * Forgets the state used to find loops, e.g. because the simulation moved
+     * backwards.
+     */
+    private void resetLoopCheck() {
+        this.loopCheckState = null;
+        this.loopCheckLength = 0;
+        this.loopCheckPower = 1;
+    }
+    
+    /**
+     * Checks whether the given (new) state has been seen before.
+     * Since the simulation is deterministic, reaching the same state twice
+     * means it will repeat forever. Brent's algorithm is used so only one
+     * earlier state is compared against, and any loop is found within about
+     * twice its length.
+     * 
+     * @param state The newest state in the simulation.
+     * @throws InfiniteLoopException if the state was seen before.
+     */
+    private void checkForLoop(MachineState state) throws InfiniteLoopException {
+        long hash = state.getStateHash();
+        if (loopCheckState != null && hash == loopCheckHash
+                && state.hasSameStateAs(loopCheckState)) {
+            throw new InfiniteLoopException(state.getRipRegister(), loopCheckLength);
+        }
+        
+        if (loopCheckLength == loopCheckPower) {
+            loopCheckState = null;
+        }
+        if (loopCheckState == null) {
+            loopCheckState = state;
+            loopCheckHash = hash;
+            loopCheckPower *= 2;
+            loopCheckLength = 0;
+        }
+        loopCheckLength++;
+    }
+    
+    /**
+     * Resets everything counted against the quota.
+     */
+    private void resetQuotaUsage() {
+        this.numExecuted = 0;
+        this.historyBytes = 0;
+        for (MachineState state : this.stateHistory) {
+            this.historyBytes += state.getEstimatedSize();
+        }
+        this.startTime = System.nanoTime();
+        this.resetLoopCheck();
+        this.recordHistoryMetrics();
+    }
+    
+    /**
+     * Updates the simulator metrics that describe our history.
+     */
+    private void recordHistoryMetrics() {
+        SimulatorMetrics.get().recordHistory(
+                stateHistory.get(stateHistory.size() - 1).getStackEntries().size(),
+                stateHistory.size(), historyBytes);
+    }
+    
     /**
      * Restarts simulation back to its beginning state.
      */
@@ -127,6 +360,19 @@ public class Simulation {
         }
         
         this.stuckOnError = false;
+        this.watchpointHit = Optional.empty();
+        this.index = new TimeTravelIndex(this.stateHistory);
+        this.profiler.reset();
+        if (this.cache.isPresent()) {
+            this.cache.get().reset();
+            this.cacheStale = false;
+        }
+        if (this.sanitizer.isPresent()) {
+            this.sanitizer.get().reset();
+            this.sanitizerStale = false;
+        }
+        this.sanitizerIssue = Optional.empty();
+        this.resetQuotaUsage();
     }
     
     /**
@@ -164,16 +410,133 @@ public class Simulation {
      * because of a runtime exception.
      */
     public boolean finish() throws x86RuntimeException {
+        return runUntil(() -> false);
+    }
+    
+    /**
+     * Executes instructions until the given condition holds, the program
+     * finishes, or a breakpoint or watchpoint is hit. At least one
+     * instruction is executed (unless the program has already finished).
+     * 
+     * @param reached Checked after each instruction (while the program isn't
+     * finished) to see if we should stop.
+     * @return True if simulation stopped for one of the above reasons. False
+     * if it executed too many instructions without stopping.
+     */
+    private boolean runUntil(BooleanSupplier reached) throws x86RuntimeException {
         int numExecuted = 0; // number of instructions we have executed so far
+        boolean stopped = false;
+        boolean atBreakpoint = false;
         
-        while (!isFinished()
-                && (!currentLine.getBreakpoint() || numExecuted == 0)
-                && numExecuted < 100) {
+        while (!isFinished() && numExecuted < MAX_INSTRUCTIONS_PER_FINISH) {
             evalCurrentInstruction();
             numExecuted++;
+            
+            if (isFinished() || watchpointHit.isPresent()
+                    || sanitizerIssue.isPresent() || reached.getAsBoolean()) {
+                stopped = true;
+                break;
+            }
+            if (currentLine.shouldBreak(stateHistory.get(stateHistory.size() - 1))) {
+                atBreakpoint = true;
+                break;
+            }
+        }
+        
+        if (atBreakpoint && events.hasSubscribers()) {
+            events.publish(Collections.singletonList(
+                    new SimulationEvent.BreakpointHit(currentLine.getLineNum())));
         }
         
-        return isFinished() || currentLine.getBreakpoint();
+        return isFinished() || stopped || atBreakpoint;
+    }
+    
+    /**
+     * @return The number of function calls that haven't returned yet.
+     */
+    public int getCallDepth() {
+        return stateHistory.get(stateHistory.size() - 1).getCallStackSize();
+    }
+    
+    /**
+     * @return The function calls that haven't returned yet, innermost first.
+     */
+    public List<CallFrame> getCallStack() {
+        List<CallFrame> frames = new ArrayList<>();
+        Optional<CallFrame> frame = stateHistory.get(stateHistory.size() - 1).getCallFrame();
+        while (frame.isPresent()) {
+            frames.add(frame.get());
+            frame = frame.get().getCaller();
+        }
+        return frames;
+    }
+    
+    /**
+     * Executes instructions until the number of calls that haven't returned
+     * is at most the given depth (or a breakpoint or watchpoint is hit).
+     * 
+     * @param depth The call depth to run to.
+     * @return True if simulation stopped, false if it executed too many
+     * instructions without stopping (in which case this can be called again
+     * with the same depth to keep going).
+     * @throws edu.sandiego.bcl.x86RuntimeException if simulation had to halt
+     * because of a runtime exception.
+     */
+    public boolean runToDepth(int depth) throws x86RuntimeException {
+        return runUntil(() -> getCallDepth() <= depth);
+    }
+    
+    /**
+     * Executes the current instruction and, if it is a call, the whole
+     * function it calls.
+     * 
+     * @return True if simulation stopped, false if it executed too many
+     * instructions without stopping.
+     * @throws edu.sandiego.bcl.x86RuntimeException if simulation had to halt
+     * because of a runtime exception.
+     */
+    public boolean stepOver() throws x86RuntimeException {
+        if (isFinished()) {
+            return true;
+        }
+        if (!isAtCall()) {
+            evalCurrentInstruction();
+            return true;
+        }
+        return runToDepth(getCallDepth());
+    }
+    
+    /**
+     * Executes instructions until the current function returns.
+     * 
+     * @return True if simulation stopped, false if it executed too many
+     * instructions without stopping.
+     * @throws edu.sandiego.bcl.x86RuntimeException if simulation had to halt
+     * because of a runtime exception.
+     */
+    public boolean stepOut() throws x86RuntimeException {
+        return runToDepth(getCallDepth() - 1);
+    }
+    
+    /**
+     * Executes instructions until the given line is reached.
+     * 
+     * @param line The line to stop at.
+     * @return True if simulation stopped, false if it executed too many
+     * instructions without stopping.
+     * @throws edu.sandiego.bcl.x86RuntimeException if simulation had to halt
+     * because of a runtime exception.
+     */
+    public boolean runToLine(x86ProgramLine line) throws x86RuntimeException {
+        return runUntil(() -> currentLine == line);
+    }
+    
+    /**
+     * @return True if the current line is a call instruction.
+     */
+    public boolean isAtCall() {
+        return currentLine instanceof x86UnaryInstruction
+                && ((x86UnaryInstruction) currentLine).getType() == InstructionType.CALL;
     }
     
     /**
@@ -182,9 +545,65 @@ public class Simulation {
      */
     private void evalCurrentInstruction() throws x86RuntimeException {
         try {
+            checkInstructionQuota();
+            
             // evaluate the current instruction, adding its new state to our history
-            MachineState nextState = currentLine.eval(stateHistory.get(stateHistory.size() - 1));
+            MachineState prevState = stateHistory.get(stateHistory.size() - 1);
+            if (prevState.getWatchpoints() != watchpointSet) {
+                prevState = prevState.cloneWithWatchpoints(watchpointSet);
+            }
+            watchpointHit = Optional.empty();
+            sanitizerIssue = Optional.empty();
+            StackSanitizer.Issue issue = null;
+            if (sanitizer.isPresent()) {
+                // Problems are reported as they happen, so catch up first.
+                issue = getStackSanitizer().get().check(currentLine, prevState,
+                        stateHistory.size());
+            }
+            MachineState nextState;
+            try {
+                nextState = currentLine.eval(prevState);
+            } catch (x86RuntimeException e) {
+                // e.g. a use after pop fails as a read of uninitialized
+                // memory, so say why the memory isn't there.
+                if (issue != null) {
+                    throw new x86RuntimeException(issue + " (" + e.getMessage() + ")");
+                }
+                throw e;
+            }
+            checkStateQuota(nextState);
             stateHistory.add(nextState);
+            profiler.record(currentLine, prevState, nextState);
+            if (cache.isPresent() && !cacheStale) {
+                cache.get().record(currentLine, prevState);
+            }
+            if (sanitizer.isPresent()) {
+                sanitizer.get().record(currentLine, prevState, nextState, issue);
+            }
+            numExecuted++;
+            historyBytes += nextState.getEstimatedSize();
+            recordHistoryMetrics();
+            
+            if (events.hasSubscribers()) {
+                publishChanges(currentLine, prevState, nextState);
+            }
+            
+            if (nextState.getWatchpointHit().isPresent()
+                    && nextState.getWatchpointHit().get() != prevState.getWatchpointHit().orElse(null)) {
+                watchpointHit = nextState.getWatchpointHit();
+                if (events.hasSubscribers()) {
+                    events.publish(Collections.singletonList(
+                            new SimulationEvent.WatchpointHit(watchpointHit.get())));
+                }
+            }
+            
+            if (issue != null) {
+                sanitizerIssue = Optional.of(issue);
+                if (events.hasSubscribers()) {
+                    events.publish(Collections.singletonList(
+                            new SimulationEvent.SanitizerIssue(issue)));
+                }
+            }
 
             // select next instruction based on the updated value of the rip register
             if (isFinished()) {
@@ -193,13 +612,106 @@ public class Simulation {
             else {
                 currentLine = this.program.getLine(stateHistory.get(stateHistory.size() - 1).getRipRegister());
                 regHistory.addAll(currentLine.getUsedRegisters());
+                
+                if (detectLoops) {
+                    checkForLoop(nextState);
+                }
             } 
         } catch (x86RuntimeException e) {
             this.stuckOnError = true;
+            if (events.hasSubscribers()) {
+                events.publish(Collections.singletonList(
+                        new SimulationEvent.RuntimeError(currentLine.getLineNum(), e)));
+            }
             throw e;
         }
     }
     
+    /**
+     * Publishes the changes made by an instruction.
+     * 
+     * @param line The line that was executed.
+     * @param prevState The state before it was executed.
+     * @param nextState The state after it was executed.
+     */
+    private void publishChanges(x86ProgramLine line, MachineState prevState,
+            MachineState nextState) {
+        int lineNum = line.getLineNum();
+        List<SimulationEvent> changes = new ArrayList<>();
+        for (String reg : nextState.getWrittenRegisters(prevState)) {
+            changes.add(new SimulationEvent.RegisterWritten(lineNum, reg,
+                    prevState.getRegisterValue(reg), nextState.getRegisterValue(reg)));
+        }
+        for (StackEntry entry : nextState.getWrittenMemory(prevState)) {
+            changes.add(new SimulationEvent.MemoryWritten(lineNum,
+                    entry.getStartAddress(), entry.getValueArr().clone()));
+        }
+        if (prevState.getZeroFlag() != nextState.getZeroFlag()
+                || prevState.getSignFlag() != nextState.getSignFlag()
+                || prevState.getOverflowFlag() != nextState.getOverflowFlag()
+                || prevState.getCarryFlag() != nextState.getCarryFlag()) {
+            changes.add(new SimulationEvent.FlagsChanged(lineNum, prevState, nextState));
+        }
+        changes.add(new SimulationEvent.InstructionRetired(line, numExecuted));
+        events.publish(changes);
+    }
+    
+    /**
+     * Returns a publisher of everything that happens as this simulation runs:
+     * instructions retiring, registers and memory being written, flags
+     * changing, breakpoints being hit, and runtime errors.
+     * Events are only gathered while someone is subscribed. Subscribers are
+     * completed once the program is closed.
+     * 
+     * @return The publisher of this simulation's events.
+     */
+    public Flow.Publisher<List<SimulationEvent>> getEvents() {
+        return events;
+    }
+    
+    /**
+     * Checks that another instruction can be executed without going over the
+     * quota's instruction count or time limit.
+     * The time limit is only checked periodically so that checking it doesn't
+     * slow down simulation.
+     */
+    private void checkInstructionQuota() throws QuotaExceededException {
+        if (numExecuted >= quota.getMaxInstructions()) {
+            throw new QuotaExceededException("Instruction limit of "
+                    + quota.getMaxInstructions() + " reached.",
+                    ExecutionQuota.Kind.INSTRUCTIONS, quota.getMaxInstructions());
+        }
+        
+        if ((numExecuted & (DEADLINE_CHECK_INTERVAL - 1)) == 0
+                && quota.getTimeLimit().isPresent()) {
+            long limit = quota.getTimeLimit().get().toNanos();
+            if (System.nanoTime() - startTime >= limit) {
+                throw new QuotaExceededException("Time limit of "
+                        + quota.getTimeLimit().get().toMillis() + " ms reached.",
+                        ExecutionQuota.Kind.DEADLINE, limit);
+            }
+        }
+    }
+    
+    /**
+     * Checks that adding the given state to our history won't go over the
+     * quota's memory limits.
+     * 
+     * @param nextState The state about to be added.
+     */
+    private void checkStateQuota(MachineState nextState) throws QuotaExceededException {
+        if (nextState.getStackBytes() > quota.getMaxStackBytes()) {
+            throw new QuotaExceededException("Stack limit of "
+                    + quota.getMaxStackBytes() + " bytes reached.",
+                    ExecutionQuota.Kind.STACK_BYTES, quota.getMaxStackBytes());
+        }
+        if (historyBytes + nextState.getEstimatedSize() > quota.getMaxHistoryBytes()) {
+            throw new QuotaExceededException("History limit of "
+                    + quota.getMaxHistoryBytes() + " bytes reached.",
+                    ExecutionQuota.Kind.HISTORY_BYTES, quota.getMaxHistoryBytes());
+        }
+    }
+    
     /**
      * Undoes the previous instruction in our simulation.
      * If you are at the beginning of simulation, this has method has no effect.
@@ -209,16 +721,235 @@ public class Simulation {
         // of simulation. In this case, going backwards shouldn't do anything.
         if (stateHistory.size() == 1) {
             this.stuckOnError = false;
+            this.watchpointHit = Optional.empty();
+            this.sanitizerIssue = Optional.empty();
             return;
         }
         
-        stateHistory.remove(stateHistory.size() - 1);
+        SimulatorEvents.StepBackward event = new SimulatorEvents.StepBackward();
+        event.begin();
+        
+        MachineState undone = stateHistory.remove(stateHistory.size() - 1);
+        historyBytes -= undone.getEstimatedSize();
+        index.truncate(stateHistory.size() - 1);
         if (!this.program.isEmpty() && currentLine != null) {
             regHistory.removeAll(currentLine.getUsedRegisters());
         }
         currentLine = this.program.getLine(stateHistory.get(stateHistory.size() - 1).getRipRegister());
+        profiler.undo(currentLine, stateHistory.get(stateHistory.size() - 1), undone);
+        if (cache.isPresent() && !cacheStale) {
+            cache.get().undo();
+        }
+        if (sanitizer.isPresent() && !sanitizerStale) {
+            sanitizer.get().undo();
+        }
         
         this.stuckOnError = false;
+        this.watchpointHit = Optional.empty();
+        this.sanitizerIssue = Optional.empty();
+        this.resetLoopCheck();
+        this.recordHistoryMetrics();
+        
+        event.historyLength = stateHistory.size();
+        event.commit();
+    }
+    
+    /**
+     * Stops simulation whenever the given register or memory is written.
+     * 
+     * @param watchpoint The watchpoint to add.
+     */
+    public void addWatchpoint(Watchpoint watchpoint) {
+        this.watchpoints.add(watchpoint);
+        this.watchpointSet = new WatchpointSet(this.watchpoints);
+    }
+    
+    public void removeWatchpoint(Watchpoint watchpoint) {
+        this.watchpoints.remove(watchpoint);
+        this.watchpointSet = new WatchpointSet(this.watchpoints);
+    }
+    
+    public List<Watchpoint> getWatchpoints() {
+        return Collections.unmodifiableList(this.watchpoints);
+    }
+    
+    /**
+     * @return The watchpoint triggered by the last instruction executed, if
+     * any. When this is present, {@link #finish()} stopped because of it.
+     */
+    public Optional<Watchpoint.Hit> getWatchpointHit() { return this.watchpointHit; }
+    
+    /**
+     * @return Counts of the lines and functions executed to reach the current
+     * state.
+     */
+    public Profiler getProfiler() { return this.profiler; }
+    
+    /**
+     * Attaches a data cache model, which is given the memory accesses made
+     * so far and those made from now on.
+     * 
+     * @param cache The cache model.
+     */
+    public void setCacheSimulator(CacheSimulator cache) {
+        this.cache = Optional.of(cache);
+        this.cacheStale = true;
+    }
+    
+    /**
+     * Turns on sanitizer mode: the given sanitizer checks the instructions
+     * executed so far and those executed from now on, and running stops
+     * after an instruction it finds a problem with.
+     * 
+     * @param sanitizer The sanitizer.
+     */
+    public void setStackSanitizer(StackSanitizer sanitizer) {
+        this.sanitizer = Optional.of(sanitizer);
+        this.sanitizerStale = true;
+    }
+    
+    /**
+     * Turns off sanitizer mode.
+     */
+    public void removeStackSanitizer() {
+        this.sanitizer = Optional.empty();
+        this.sanitizerStale = false;
+        this.sanitizerIssue = Optional.empty();
+    }
+    
+    /**
+     * @return The stack sanitizer, with the problems found in the
+     * instructions executed to reach the current state, or empty if sanitizer
+     * mode is off.
+     */
+    public Optional<StackSanitizer> getStackSanitizer() {
+        if (this.sanitizer.isPresent() && this.sanitizerStale) {
+            StackSanitizer s = this.sanitizer.get();
+            s.reset();
+            for (int step = 1; step < this.stateHistory.size(); step++) {
+                MachineState before = this.stateHistory.get(step - 1);
+                x86ProgramLine line = this.program.getLine(before.getRipRegister());
+                s.record(line, before, this.stateHistory.get(step),
+                        s.check(line, before, step));
+            }
+            this.sanitizerStale = false;
+        }
+        return this.sanitizer;
+    }
+    
+    /**
+     * @return The problem the sanitizer found in the last instruction, if it
+     * found one.
+     */
+    public Optional<StackSanitizer.Issue> getSanitizerIssue() {
+        return this.sanitizerIssue;
+    }
+    
+    /**
+     * Detaches the data cache model.
+     */
+    public void removeCacheSimulator() {
+        this.cache = Optional.empty();
+        this.cacheStale = false;
+    }
+    
+    /**
+     * @return The data cache model, with the memory accesses made to reach
+     * the current state, or empty if there isn't one.
+     */
+    public Optional<CacheSimulator> getCacheSimulator() {
+        if (this.cache.isPresent() && this.cacheStale) {
+            CacheSimulator c = this.cache.get();
+            c.reset();
+            for (int step = 1; step < this.stateHistory.size(); step++) {
+                MachineState before = this.stateHistory.get(step - 1);
+                c.record(this.program.getLine(before.getRipRegister()), before);
+            }
+            this.cacheStale = false;
+        }
+        return this.cache;
+    }
+    
+    /**
+     * @return The number of instructions executed to reach the current state,
+     * i.e. the current step of the simulation.
+     */
+    public long getCurrentStep() { return this.stateHistory.size() - 1; }
+    
+    /**
+     * @return When each register and memory location changed, up to the
+     * current step. The index is built the first time it is queried and
+     * keeps up with the simulation after that.
+     */
+    public TimeTravelIndex getTimeTravelIndex() { return this.index; }
+    
+    /**
+     * Gets the state of the machine at an earlier step.
+     * 
+     * @param step The step, from 0 to {@link #getCurrentStep()}.
+     * @return The state after that many instructions were executed.
+     */
+    public MachineState getStateAt(long step) {
+        if (step < 0 || step > getCurrentStep()) {
+            throw new IllegalArgumentException("step must be between 0 and "
+                    + getCurrentStep());
+        }
+        return this.stateHistory.get((int) step);
+    }
+    
+    /**
+     * Moves the simulation to the given step. Going back just drops the
+     * states after that step, while going forward executes instructions until
+     * the step is reached or, as with {@link #finish}, the program finishes or
+     * a breakpoint or watchpoint is hit.
+     * 
+     * @param step The step to go to.
+     * @return True if simulation stopped for one of the above reasons. False
+     * if it executed too many instructions going forward, in which case it
+     * can be called again to keep going.
+     * @throws edu.sandiego.bcl.x86RuntimeException if simulation had to halt
+     * because of a runtime exception while going forward.
+     */
+    public boolean jumpToStep(long step) throws x86RuntimeException {
+        if (step < 0) {
+            throw new IllegalArgumentException("step must not be negative");
+        }
+        while (getCurrentStep() > step) {
+            stepBackward();
+        }
+        if (getCurrentStep() >= step || isFinished()) {
+            return true;
+        }
+        return runUntil(() -> getCurrentStep() >= step);
+    }
+    
+    /**
+     * Calls a function in the program once for each of the given argument
+     * vectors. Each call starts from the current state of the simulation
+     * (which isn't changed) and the calls are run in parallel.
+     * 
+     * @param functionLabel The name of the label at the start of the function.
+     * @param args The arguments for each call, which are passed in %rdi, %rsi,
+     * %rdx, %rcx, %r8, and %r9 (in that order).
+     * @param maxInstructions The maximum number of instructions each call may
+     * execute.
+     * @return The result of each call, in the same order as {@code args}. The
+     * return value of a call is available from its result's
+     * {@code getReturnValue()}.
+     * @throws IllegalArgumentException if there is no label with the given
+     * name or an argument vector has more than six values.
+     */
+    public List<BatchRunner.Result> runFunction(String functionLabel,
+            List<long[]> args, long maxInstructions) {
+        x86Label function = this.program.getLabel(functionLabel)
+                .orElseThrow(() -> new IllegalArgumentException(
+                        "No label named " + functionLabel));
+        
+        try (BatchRunner runner = new BatchRunner()) {
+            return runner.runFunction(this.program, function,
+                    stateHistory.get(this.stateHistory.size() - 1), args,
+                    maxInstructions);
+        }
     }
     
     /**
@@ -238,6 +969,23 @@ public class Simulation {
         }
     }
     
+    /**
+     * Inserts a line at the given position in the program associated with
+     * this simulation.
+     *
+     * @param index The position to insert the line at.
+     * @param lineText The line to be inserted into the program.
+     * @throws X86ParsingException if the given line cannot be parsed.
+     */
+    public void insertIntoProgram(int index, String lineText) throws X86ParsingException {
+        x86ProgramLine newLine = this.program.parseThenInsertLine(index, lineText);
+
+        if (this.program.getNumLines() == 1) {
+            regHistory.addAll(newLine.getUsedRegisters());
+            currentLine = newLine;
+        }
+    }
+
     /**
      * Removes the given program line from the program associated with this simulation.
      * 
@@ -258,6 +1006,16 @@ public class Simulation {
         this.program.replaceLine(existingLine, newLine);
     }
     
+    /**
+     * Closes the program associated with this simulation, discarding any
+     * unsaved changes. The simulation is done with after this, so anyone
+     * subscribed to its events is completed.
+     */
+    public void closeProgram() {
+        this.program.close();
+        this.events.close();
+    }
+    
     /**
      * Writes the program out to a file. The location of the file is based on where
      * it was last saved.
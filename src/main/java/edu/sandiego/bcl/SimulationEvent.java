@@ -0,0 +1,234 @@
+package edu.sandiego.bcl;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Something that happened while a simulation was running, as published by
+ * {@link Simulation#getEvents()}.
+ *
+ * Each kind of event is its own subclass, so subscribers can pick out the
+ * ones they care about with {@code instanceof}.
+ */
+public abstract class SimulationEvent {
+
+    /**
+     * Line number of the instruction the event came from.
+     */
+    private final int lineNum;
+
+    protected SimulationEvent(int lineNum) {
+        this.lineNum = lineNum;
+    }
+
+    public int getLineNum() { return this.lineNum; }
+
+    /**
+     * An instruction finished executing. This comes after any register,
+     * memory, or flag events the instruction caused.
+     */
+    public static class InstructionRetired extends SimulationEvent {
+        private final x86ProgramLine line;
+        private final long numExecuted;
+
+        InstructionRetired(x86ProgramLine line, long numExecuted) {
+            super(line.getLineNum());
+            this.line = line;
+            this.numExecuted = numExecuted;
+        }
+
+        public x86ProgramLine getLine() { return this.line; }
+
+        /**
+         * @return Number of instructions executed so far, including this one.
+         */
+        public long getNumExecuted() { return this.numExecuted; }
+
+        @Override
+        public String toString() {
+            return "retired " + this.line;
+        }
+    }
+
+    /**
+     * A register was written to. This is reported even if the value didn't
+     * change.
+     */
+    public static class RegisterWritten extends SimulationEvent {
+        private final String register;
+        private final BigInteger oldValue;
+        private final BigInteger newValue;
+
+        RegisterWritten(int lineNum, String register, BigInteger oldValue,
+                BigInteger newValue) {
+            super(lineNum);
+            this.register = register;
+            this.oldValue = oldValue;
+            this.newValue = newValue;
+        }
+
+        /**
+         * @return Name of the quad register that was written (e.g. "rax" when
+         * %eax was written).
+         */
+        public String getRegister() { return this.register; }
+
+        public BigInteger getOldValue() { return this.oldValue; }
+
+        public BigInteger getNewValue() { return this.newValue; }
+
+        @Override
+        public String toString() {
+            return "%" + this.register + ": 0x" + this.oldValue.toString(16)
+                    + " -> 0x" + this.newValue.toString(16);
+        }
+    }
+
+    /**
+     * A range of memory was written to.
+     */
+    public static class MemoryWritten extends SimulationEvent {
+        private final long startAddress;
+        private final byte[] bytes;
+
+        MemoryWritten(int lineNum, long startAddress, byte[] bytes) {
+            super(lineNum);
+            this.startAddress = startAddress;
+            this.bytes = bytes;
+        }
+
+        /**
+         * @return The lowest address that was written.
+         */
+        public long getStartAddress() { return this.startAddress; }
+
+        /**
+         * @return The highest address that was written.
+         */
+        public long getEndAddress() { return this.startAddress + this.bytes.length - 1; }
+
+        /**
+         * @return The bytes that were written, in little endian order.
+         */
+        public byte[] getBytes() { return Arrays.copyOf(this.bytes, this.bytes.length); }
+
+        @Override
+        public String toString() {
+            return "memory 0x" + Long.toHexString(this.startAddress) + " - 0x"
+                    + Long.toHexString(getEndAddress());
+        }
+    }
+
+    /**
+     * One or more of the status flags changed value.
+     */
+    public static class FlagsChanged extends SimulationEvent {
+        private final boolean zf, sf, of, cf;
+        private final boolean oldZf, oldSf, oldOf, oldCf;
+
+        FlagsChanged(int lineNum, MachineState oldState, MachineState newState) {
+            super(lineNum);
+            this.oldZf = oldState.getZeroFlag();
+            this.oldSf = oldState.getSignFlag();
+            this.oldOf = oldState.getOverflowFlag();
+            this.oldCf = oldState.getCarryFlag();
+            this.zf = newState.getZeroFlag();
+            this.sf = newState.getSignFlag();
+            this.of = newState.getOverflowFlag();
+            this.cf = newState.getCarryFlag();
+        }
+
+        public boolean getZeroFlag() { return this.zf; }
+
+        public boolean getSignFlag() { return this.sf; }
+
+        public boolean getOverflowFlag() { return this.of; }
+
+        public boolean getCarryFlag() { return this.cf; }
+
+        public boolean getOldZeroFlag() { return this.oldZf; }
+
+        public boolean getOldSignFlag() { return this.oldSf; }
+
+        public boolean getOldOverflowFlag() { return this.oldOf; }
+
+        public boolean getOldCarryFlag() { return this.oldCf; }
+
+        @Override
+        public String toString() {
+            return "flags: zf=" + this.zf + " sf=" + this.sf + " of=" + this.of
+                    + " cf=" + this.cf;
+        }
+    }
+
+    /**
+     * The simulation stopped at a line with a breakpoint.
+     */
+    public static class BreakpointHit extends SimulationEvent {
+        BreakpointHit(int lineNum) {
+            super(lineNum);
+        }
+
+        @Override
+        public String toString() {
+            return "breakpoint at line " + getLineNum();
+        }
+    }
+
+    /**
+     * An instruction wrote to a watched register or memory location.
+     */
+    public static class WatchpointHit extends SimulationEvent {
+        private final Watchpoint.Hit hit;
+
+        WatchpointHit(Watchpoint.Hit hit) {
+            super(hit.getLineNum());
+            this.hit = hit;
+        }
+
+        public Watchpoint getWatchpoint() { return this.hit.getWatchpoint(); }
+
+        @Override
+        public String toString() {
+            return this.hit.toString();
+        }
+    }
+
+    /**
+     * The stack sanitizer found a problem with an instruction.
+     */
+    public static class SanitizerIssue extends SimulationEvent {
+        private final StackSanitizer.Issue issue;
+
+        SanitizerIssue(StackSanitizer.Issue issue) {
+            super(issue.getLineNum());
+            this.issue = issue;
+        }
+
+        public StackSanitizer.Issue getIssue() { return this.issue; }
+
+        @Override
+        public String toString() {
+            return this.issue.toString();
+        }
+    }
+
+    /**
+     * The simulation stopped because of a runtime error.
+     */
+    public static class RuntimeError extends SimulationEvent {
+        private final x86RuntimeException error;
+
+        RuntimeError(int lineNum, x86RuntimeException error) {
+            super(lineNum);
+            this.error = error;
+        }
+
+        public x86RuntimeException getError() { return this.error; }
+
+        @Override
+        public String toString() {
+            return "error at line " + getLineNum() + ": " + this.error.getMessage();
+        }
+    }
+}
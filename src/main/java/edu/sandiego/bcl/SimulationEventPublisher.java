@@ -0,0 +1,231 @@
+package edu.sandiego.bcl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the events of a simulation to any number of subscribers.
+ *
+ * Publishing never blocks: events are queued separately for each subscriber
+ * and delivered on an executor as the subscriber requests them. Each item
+ * delivered is a batch of all the events that were waiting (up to
+ * {@link #MAX_BATCH_SIZE}), so a subscriber that falls behind gets fewer,
+ * larger batches rather than slowing down the simulation. Since the queues
+ * are unbounded, a subscriber that stops requesting items should cancel its
+ * subscription.
+ */
+public class SimulationEventPublisher implements Flow.Publisher<List<SimulationEvent>>,
+        AutoCloseable {
+
+    /**
+     * Largest number of events delivered in a single batch.
+     */
+    public static final int MAX_BATCH_SIZE = 4096;
+
+    /**
+     * Executor that delivers events to subscribers.
+     */
+    private final Executor executor;
+
+    /**
+     * Subscriptions that haven't been cancelled or completed.
+     */
+    private final CopyOnWriteArrayList<EventSubscription> subscriptions;
+
+    /**
+     * Whether this publisher has been closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Creates a publisher that delivers events on the common fork-join pool.
+     */
+    public SimulationEventPublisher() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param executor Executor used to deliver events to subscribers.
+     */
+    public SimulationEventPublisher(Executor executor) {
+        this.executor = executor;
+        this.subscriptions = new CopyOnWriteArrayList<>();
+        this.closed = false;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super List<SimulationEvent>> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        EventSubscription s = new EventSubscription(subscriber);
+        if (this.closed) {
+            s.complete();
+        } else {
+            this.subscriptions.add(s);
+        }
+        s.signal();
+    }
+
+    /**
+     * @return True if anyone is subscribed to this publisher.
+     */
+    public boolean hasSubscribers() {
+        return !this.subscriptions.isEmpty();
+    }
+
+    /**
+     * Queues events for every current subscriber.
+     *
+     * @param events The events, in the order they happened.
+     */
+    void publish(List<SimulationEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        for (EventSubscription s : this.subscriptions) {
+            s.offer(events);
+        }
+    }
+
+    /**
+     * Completes every subscription once its remaining events are delivered.
+     * Anyone subscribing afterwards is completed right away.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        for (EventSubscription s : this.subscriptions) {
+            s.complete();
+        }
+        this.subscriptions.clear();
+    }
+
+    /**
+     * A single subscriber's subscription, with its own queue of events.
+     */
+    private class EventSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super List<SimulationEvent>> subscriber;
+
+        /**
+         * Events not yet delivered.
+         */
+        private final ConcurrentLinkedQueue<SimulationEvent> pending;
+
+        /**
+         * Number of batches requested but not yet delivered.
+         */
+        private final AtomicLong demand;
+
+        /**
+         * Number of times delivery was signalled since it last ran. Delivery
+         * only runs when this goes from 0 to 1, so only one thread ever calls
+         * the subscriber at a time.
+         */
+        private final AtomicInteger signals;
+
+        private volatile boolean cancelled;
+        private volatile boolean completed;
+        private volatile IllegalArgumentException badRequest;
+
+        /**
+         * Whether onSubscribe has been called. Only used by delivery.
+         */
+        private boolean subscribed;
+
+        EventSubscription(Flow.Subscriber<? super List<SimulationEvent>> subscriber) {
+            this.subscriber = subscriber;
+            this.pending = new ConcurrentLinkedQueue<>();
+            this.demand = new AtomicLong();
+            this.signals = new AtomicInteger();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                this.badRequest = new IllegalArgumentException(
+                        "number of items requested must be positive");
+            } else {
+                this.demand.accumulateAndGet(n,
+                        (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+            }
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            this.cancelled = true;
+            subscriptions.remove(this);
+            this.pending.clear();
+        }
+
+        void offer(List<SimulationEvent> events) {
+            if (!this.cancelled) {
+                this.pending.addAll(events);
+                signal();
+            }
+        }
+
+        void complete() {
+            this.completed = true;
+            signal();
+        }
+
+        void signal() {
+            if (this.signals.getAndIncrement() == 0) {
+                executor.execute(this::deliver);
+            }
+        }
+
+        /**
+         * Calls the subscriber with everything it is due.
+         */
+        private void deliver() {
+            int missed = 1;
+            do {
+                if (!this.subscribed) {
+                    this.subscribed = true;
+                    this.subscriber.onSubscribe(this);
+                }
+
+                if (!this.cancelled && this.badRequest != null) {
+                    cancel();
+                    this.subscriber.onError(this.badRequest);
+                }
+
+                while (!this.cancelled && this.demand.get() > 0
+                        && !this.pending.isEmpty()) {
+                    List<SimulationEvent> batch = new ArrayList<>();
+                    SimulationEvent e;
+                    while (batch.size() < MAX_BATCH_SIZE
+                            && (e = this.pending.poll()) != null) {
+                        batch.add(e);
+                    }
+                    if (this.demand.get() != Long.MAX_VALUE) {
+                        this.demand.decrementAndGet();
+                    }
+                    try {
+                        this.subscriber.onNext(batch);
+                    } catch (RuntimeException ex) {
+                        cancel();
+                        this.subscriber.onError(ex);
+                    }
+                }
+
+                if (!this.cancelled && this.completed && this.pending.isEmpty()) {
+                    cancel();
+                    this.subscriber.onComplete();
+                }
+
+                missed = this.signals.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package edu.sandiego.bcl;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder events for the main phases of the simulator, so that a
+ * recording can be read in terms of lines, instructions, and states rather
+ * than just Java methods.
+ *
+ * None of these events are recorded unless they are enabled, e.g. with the
+ * settings in {@code jfr/below-c-level.jfc}. When disabled, creating and
+ * committing one costs next to nothing.
+ */
+public final class SimulatorEvents {
+
+    private SimulatorEvents() {
+    }
+
+    /**
+     * Parsing of a single line of assembly.
+     */
+    @Name("edu.sandiego.bcl.ParseLine")
+    @Label("Parse Line")
+    @Category({"Below C-Level", "Parser"})
+    @StackTrace(false)
+    public static class ParseLine extends Event {
+        @Label("Line Text")
+        public String text;
+
+        @Label("Cache Hit")
+        @Description("Whether the decoded line was found in the parse cache")
+        public boolean cacheHit;
+    }
+
+    /**
+     * Evaluation of a single instruction.
+     */
+    @Name("edu.sandiego.bcl.Eval")
+    @Label("Evaluate Instruction")
+    @Category({"Below C-Level", "Simulation"})
+    @StackTrace(false)
+    public static class Eval extends Event {
+        @Label("Instruction Type")
+        public String instructionType;
+
+        @Label("Line Number")
+        public int lineNum;
+    }
+
+    /**
+     * Creation of a new machine state with updated memory.
+     */
+    @Name("edu.sandiego.bcl.MemoryWrite")
+    @Label("Memory Write")
+    @Category({"Below C-Level", "Simulation"})
+    @StackTrace(false)
+    public static class MemoryWrite extends Event {
+        @Label("Address")
+        public long address;
+
+        @Label("Size")
+        @DataAmount
+        public int size;
+
+        @Label("Entries Scanned")
+        @Description("Number of existing memory entries checked for overlap")
+        public int entriesScanned;
+
+        @Label("Entries Copied")
+        @Description("Number of memory entries copied into the new state")
+        public int entriesCopied;
+    }
+
+    /**
+     * Undoing the previous instruction of a simulation.
+     */
+    @Name("edu.sandiego.bcl.StepBackward")
+    @Label("Step Backward")
+    @Category({"Below C-Level", "Simulation"})
+    public static class StepBackward extends Event {
+        @Label("History Length")
+        @Description("Number of states in the history after stepping back")
+        public int historyLength;
+    }
+
+    /**
+     * Refreshing the simulator's UI after the simulation changed.
+     */
+    @Name("edu.sandiego.bcl.UiRefresh")
+    @Label("UI Refresh")
+    @Category({"Below C-Level", "UI"})
+    public static class UiRefresh extends Event {
+        @Label("Registers Shown")
+        public int registers;
+
+        @Label("Stack Entries Shown")
+        public int stackEntries;
+    }
+}
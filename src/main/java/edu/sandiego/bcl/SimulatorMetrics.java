@@ -0,0 +1,303 @@
+package edu.sandiego.bcl;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and timings for the simulator's hot paths: executing
+ * instructions, parsing lines, creating machine states, and refreshing the
+ * UI.
+ *
+ * There is a single, process-wide set of metrics. Counters are striped
+ * (using {@link LongAdder}s) so that updating them from many threads at once
+ * stays cheap; they are always on.
+ * The metrics can be read with {@link #snapshot()}, or over JMX once
+ * {@link #registerMBean()} has been called.
+ */
+public class SimulatorMetrics implements SimulatorMetricsMXBean {
+
+    /**
+     * Name the metrics are registered under with JMX.
+     */
+    public static final String OBJECT_NAME = "edu.sandiego.bcl:type=SimulatorMetrics";
+
+    /**
+     * The kinds of changes that create a new machine state.
+     */
+    public enum CloneKind {
+        REGISTER,
+        MEMORY,
+        RIP
+    }
+
+    private static final SimulatorMetrics INSTANCE = new SimulatorMetrics();
+
+    /**
+     * Number of instructions executed, indexed by instruction type ordinal.
+     */
+    private final LongAdder[] instructionCounts;
+
+    /**
+     * Number of states created, indexed by clone kind ordinal.
+     */
+    private final LongAdder[] cloneCounts;
+
+    /**
+     * Time taken to parse each line.
+     */
+    private final LatencyHistogram parseTimes;
+
+    /**
+     * Time taken by each refresh of the simulator's UI.
+     */
+    private final LatencyHistogram uiRefreshTimes;
+
+    /**
+     * Gauges describing the most recently updated simulation.
+     */
+    private volatile long liveMemoryEntries;
+    private volatile long historyLength;
+    private volatile long historyBytes;
+
+    private SimulatorMetrics() {
+        this.instructionCounts = new LongAdder[InstructionType.values().length];
+        for (int i = 0; i < this.instructionCounts.length; i++) {
+            this.instructionCounts[i] = new LongAdder();
+        }
+        this.cloneCounts = new LongAdder[CloneKind.values().length];
+        for (int i = 0; i < this.cloneCounts.length; i++) {
+            this.cloneCounts[i] = new LongAdder();
+        }
+        this.parseTimes = new LatencyHistogram();
+        this.uiRefreshTimes = new LatencyHistogram();
+    }
+
+    /**
+     * @return The process-wide metrics.
+     */
+    public static SimulatorMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server, if they haven't
+     * been already.
+     *
+     * @throws JMException if the metrics couldn't be registered.
+     */
+    public static void registerMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            // Already registered, which is what we wanted.
+        }
+    }
+
+    public void recordInstruction(InstructionType type) {
+        this.instructionCounts[type.ordinal()].increment();
+    }
+
+    public void recordClone(CloneKind kind) {
+        this.cloneCounts[kind.ordinal()].increment();
+    }
+
+    public void recordParse(long nanos) {
+        this.parseTimes.record(nanos);
+    }
+
+    public void recordUiRefresh(long nanos) {
+        this.uiRefreshTimes.record(nanos);
+    }
+
+    /**
+     * Updates the gauges that describe a simulation.
+     *
+     * @param memoryEntries Number of memory entries in its current state.
+     * @param length Number of states in its history.
+     * @param bytes Estimated size of its history.
+     */
+    public void recordHistory(long memoryEntries, long length, long bytes) {
+        this.liveMemoryEntries = memoryEntries;
+        this.historyLength = length;
+        this.historyBytes = bytes;
+    }
+
+    /**
+     * @return A copy of the current values of all the metrics.
+     */
+    public Snapshot snapshot() {
+        Map<InstructionType, Long> instructions = new EnumMap<>(InstructionType.class);
+        for (InstructionType t : InstructionType.values()) {
+            instructions.put(t, this.instructionCounts[t.ordinal()].sum());
+        }
+        Map<CloneKind, Long> clones = new EnumMap<>(CloneKind.class);
+        for (CloneKind k : CloneKind.values()) {
+            clones.put(k, this.cloneCounts[k.ordinal()].sum());
+        }
+        X86ParseCache cache = X86Parser.getDecodeCache();
+        return new Snapshot(instructions, clones, this.parseTimes.snapshot(),
+                this.uiRefreshTimes.snapshot(), cache.getHits(),
+                cache.getMisses(), this.liveMemoryEntries, this.historyLength,
+                this.historyBytes);
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder a : this.instructionCounts) {
+            a.reset();
+        }
+        for (LongAdder a : this.cloneCounts) {
+            a.reset();
+        }
+        this.parseTimes.reset();
+        this.uiRefreshTimes.reset();
+    }
+
+    @Override
+    public long getInstructionsExecuted() {
+        long total = 0;
+        for (LongAdder a : this.instructionCounts) {
+            total += a.sum();
+        }
+        return total;
+    }
+
+    @Override
+    public Map<String, Long> getInstructionCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (InstructionType t : InstructionType.values()) {
+            long n = this.instructionCounts[t.ordinal()].sum();
+            if (n > 0) {
+                counts.put(t.name(), n);
+            }
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getStateCloneCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (CloneKind k : CloneKind.values()) {
+            counts.put(k.name(), this.cloneCounts[k.ordinal()].sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public long getLinesParsed() { return this.parseTimes.snapshot().getCount(); }
+
+    @Override
+    public double getParseMeanMicros() {
+        return this.parseTimes.snapshot().getMeanNanos() / 1000;
+    }
+
+    @Override
+    public double getParseP99Micros() {
+        return this.parseTimes.snapshot().getPercentileNanos(99) / 1000.0;
+    }
+
+    @Override
+    public double getParseMaxMicros() {
+        return this.parseTimes.snapshot().getMaxNanos() / 1000.0;
+    }
+
+    @Override
+    public long getParseCacheHits() { return X86Parser.getDecodeCache().getHits(); }
+
+    @Override
+    public long getParseCacheMisses() { return X86Parser.getDecodeCache().getMisses(); }
+
+    @Override
+    public long getLiveMemoryEntries() { return this.liveMemoryEntries; }
+
+    @Override
+    public long getHistoryLength() { return this.historyLength; }
+
+    @Override
+    public long getHistoryBytes() { return this.historyBytes; }
+
+    @Override
+    public long getUiRefreshes() { return this.uiRefreshTimes.snapshot().getCount(); }
+
+    @Override
+    public double getUiRefreshMeanMicros() {
+        return this.uiRefreshTimes.snapshot().getMeanNanos() / 1000;
+    }
+
+    @Override
+    public double getUiRefreshP99Micros() {
+        return this.uiRefreshTimes.snapshot().getPercentileNanos(99) / 1000.0;
+    }
+
+    @Override
+    public double getUiRefreshMaxMicros() {
+        return this.uiRefreshTimes.snapshot().getMaxNanos() / 1000.0;
+    }
+
+    /**
+     * The values of all the metrics at one point in time.
+     */
+    public static class Snapshot {
+        private final Map<InstructionType, Long> instructionCounts;
+        private final Map<CloneKind, Long> cloneCounts;
+        private final LatencyHistogram.Snapshot parseTimes;
+        private final LatencyHistogram.Snapshot uiRefreshTimes;
+        private final long parseCacheHits;
+        private final long parseCacheMisses;
+        private final long liveMemoryEntries;
+        private final long historyLength;
+        private final long historyBytes;
+
+        private Snapshot(Map<InstructionType, Long> instructionCounts,
+                Map<CloneKind, Long> cloneCounts,
+                LatencyHistogram.Snapshot parseTimes,
+                LatencyHistogram.Snapshot uiRefreshTimes, long parseCacheHits,
+                long parseCacheMisses, long liveMemoryEntries,
+                long historyLength, long historyBytes) {
+            this.instructionCounts = Collections.unmodifiableMap(instructionCounts);
+            this.cloneCounts = Collections.unmodifiableMap(cloneCounts);
+            this.parseTimes = parseTimes;
+            this.uiRefreshTimes = uiRefreshTimes;
+            this.parseCacheHits = parseCacheHits;
+            this.parseCacheMisses = parseCacheMisses;
+            this.liveMemoryEntries = liveMemoryEntries;
+            this.historyLength = historyLength;
+            this.historyBytes = historyBytes;
+        }
+
+        public Map<InstructionType, Long> getInstructionCounts() { return this.instructionCounts; }
+
+        public long getInstructionCount(InstructionType type) {
+            return this.instructionCounts.get(type);
+        }
+
+        public Map<CloneKind, Long> getCloneCounts() { return this.cloneCounts; }
+
+        public long getCloneCount(CloneKind kind) {
+            return this.cloneCounts.get(kind);
+        }
+
+        public LatencyHistogram.Snapshot getParseTimes() { return this.parseTimes; }
+
+        public LatencyHistogram.Snapshot getUiRefreshTimes() { return this.uiRefreshTimes; }
+
+        public long getParseCacheHits() { return this.parseCacheHits; }
+
+        public long getParseCacheMisses() { return this.parseCacheMisses; }
+
+        public long getLiveMemoryEntries() { return this.liveMemoryEntries; }
+
+        public long getHistoryLength() { return this.historyLength; }
+
+        public long getHistoryBytes() { return this.historyBytes; }
+    }
+}
@@ -0,0 +1,71 @@
+package edu.sandiego.bcl;
+
+import java.util.Map;
+
+/**
+ * Management interface for the simulator's runtime metrics, so they can be
+ * watched from tools like JConsole or VisualVM.
+ * All durations are in microseconds.
+ */
+public interface SimulatorMetricsMXBean {
+
+    /**
+     * @return Total number of instructions executed.
+     */
+    long getInstructionsExecuted();
+
+    /**
+     * @return Number of instructions executed, by instruction type.
+     * Types that were never executed are left out.
+     */
+    Map<String, Long> getInstructionCounts();
+
+    /**
+     * @return Number of machine states created, by what was changed
+     * (REGISTER, MEMORY, or RIP).
+     */
+    Map<String, Long> getStateCloneCounts();
+
+    long getLinesParsed();
+
+    double getParseMeanMicros();
+
+    double getParseP99Micros();
+
+    double getParseMaxMicros();
+
+    long getParseCacheHits();
+
+    long getParseCacheMisses();
+
+    /**
+     * @return Number of memory entries in the current state of the most
+     * recently updated simulation.
+     */
+    long getLiveMemoryEntries();
+
+    /**
+     * @return Number of states in the history of the most recently updated
+     * simulation.
+     */
+    long getHistoryLength();
+
+    /**
+     * @return Estimated size of the history of the most recently updated
+     * simulation.
+     */
+    long getHistoryBytes();
+
+    long getUiRefreshes();
+
+    double getUiRefreshMeanMicros();
+
+    double getUiRefreshP99Micros();
+
+    double getUiRefreshMaxMicros();
+
+    /**
+     * Clears all counters and histograms.
+     */
+    void reset();
+}
@@ -0,0 +1,372 @@
+package edu.sandiego.bcl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Checks a program for common kinds of stack misuse:
+ * <ul>
+ * <li>use after pop: reading a stack slot that was written, then freed by
+ * moving %rsp above it, and then not written again.</li>
+ * <li>out-of-frame writes: a function that set up %rbp as its frame pointer
+ * writing at or above %rbp, i.e. over the saved %rbp, the return address, or
+ * its caller's frame.</li>
+ * <li>misaligned calls: calling a function when %rsp isn't a multiple of 16,
+ * as the x86-64 calling convention requires.</li>
+ * </ul>
+ *
+ * The state of each stack byte is kept in a shadow bitmap (one bit for
+ * written, one for freed), indexed by the distance of the byte from the top
+ * of the stack. Checking or recording an access only touches the one or two
+ * words of the bitmap that cover it, and moving %rsp up updates the bitmap a
+ * word at a time. Only the top MAX_TRACKED_BYTES of the address space are
+ * shadowed, so accesses further down (e.g. after %rsp is moved to a low
+ * address) aren't checked. Recording also logs the old value of each word it changes,
+ * so recorded instructions can be taken back one at a time (e.g. when
+ * stepping backward).
+ */
+public class StackSanitizer {
+
+    /**
+     * Highest stack address, which is shadowed by bit 0.
+     */
+    private static final long STACK_TOP = Long.MAX_VALUE;
+
+    /**
+     * Number of bytes below STACK_TOP that are shadowed. The bitmaps only
+     * grow as deep as the stack is used, up to 8 MB each.
+     */
+    private static final long MAX_TRACKED_BYTES = 64L << 20;
+
+    /**
+     * A problem found by the sanitizer.
+     */
+    public static class Issue {
+
+        /**
+         * The kinds of problems that are found.
+         */
+        public enum Kind {
+            USE_AFTER_POP,
+            OUT_OF_FRAME_WRITE,
+            MISALIGNED_CALL
+        }
+
+        private final Kind kind;
+        private final long step;
+        private final int lineNum;
+        private final long address;
+
+        Issue(Kind kind, long step, int lineNum, long address) {
+            this.kind = kind;
+            this.step = step;
+            this.lineNum = lineNum;
+            this.address = address;
+        }
+
+        public Kind getKind() { return this.kind; }
+
+        /**
+         * @return The step at which the problem happened, i.e. the problem
+         * is in the instruction that produced that step's state.
+         */
+        public long getStep() { return this.step; }
+
+        public int getLineNum() { return this.lineNum; }
+
+        /**
+         * @return The address accessed, or the value of %rsp for a
+         * misaligned call.
+         */
+        public long getAddress() { return this.address; }
+
+        @Override
+        public String toString() {
+            String hex = "0x" + Long.toHexString(this.address).toUpperCase();
+            switch (this.kind) {
+                case USE_AFTER_POP:
+                    return "Line " + this.lineNum + " read " + hex
+                            + ", which was popped off the stack";
+                case OUT_OF_FRAME_WRITE:
+                    return "Line " + this.lineNum + " wrote to " + hex
+                            + ", outside of its function's frame";
+                default:
+                    return "Line " + this.lineNum + " made a call with %rsp = "
+                            + hex + ", which isn't a multiple of 16";
+            }
+        }
+    }
+
+    /**
+     * Bit for each stack byte that is set if the byte was written (and
+     * hasn't been freed since).
+     */
+    private long[] written;
+
+    /**
+     * Bit for each stack byte that is set if the byte was written and then
+     * freed by %rsp moving above it.
+     */
+    private long[] freed;
+
+    private final List<Issue> issues = new ArrayList<>();
+
+    /**
+     * The words changed by recording, 3 values for each: the index of the
+     * word, and its old values in written and freed.
+     */
+    private long[] undoLog;
+    private int undoLogSize;
+
+    /**
+     * Where in the undo log the changes of each recorded instruction start,
+     * and how many issues had been found before it.
+     */
+    private int[] recordStarts;
+    private int[] recordIssues;
+    private int numRecords;
+
+    /**
+     * The first issue found by the current check, and the step it is for.
+     */
+    private Issue found;
+    private long checkStep;
+    private MachineState checkState;
+
+    private final MemoryAccesses.Visitor checker = this::checkAccess;
+    private final MemoryAccesses.Visitor recorder = this::recordAccess;
+
+    public StackSanitizer() {
+        reset();
+    }
+
+    /**
+     * Forgets the state of the stack and the issues found.
+     */
+    public void reset() {
+        this.written = new long[16];
+        this.freed = new long[16];
+        this.issues.clear();
+        this.undoLog = new long[48];
+        this.undoLogSize = 0;
+        this.recordStarts = new int[16];
+        this.recordIssues = new int[16];
+        this.numRecords = 0;
+    }
+
+    /**
+     * @return The issues found so far, in the order they were found.
+     */
+    public List<Issue> getIssues() {
+        return Collections.unmodifiableList(this.issues);
+    }
+
+    /**
+     * Checks a line for stack misuse before it is executed.
+     *
+     * @param line The line about to be executed.
+     * @param before The state it will be executed in.
+     * @param step The step its state will be.
+     * @return The first problem found, or null if there isn't one.
+     */
+    public Issue check(x86ProgramLine line, MachineState before, long step) {
+        this.found = null;
+        this.checkStep = step;
+        this.checkState = before;
+        if (line instanceof x86Instruction
+                && ((x86Instruction) line).getType() == InstructionType.CALL) {
+            long rsp = before.getQuadRegisterValue("rsp");
+            if (rsp % 16 != 0) {
+                this.found = new Issue(Issue.Kind.MISALIGNED_CALL, step,
+                        line.getLineNum(), rsp);
+            }
+        }
+        if (this.found == null) {
+            MemoryAccesses.visit(line, before, this.checker);
+        }
+        this.checkState = null;
+        return this.found;
+    }
+
+    private void checkAccess(int lineNum, long address, int numBytes, boolean isWrite) {
+        if (this.found != null) {
+            return;
+        }
+        if (!isWrite) {
+            if (anySet(this.freed, address, numBytes)) {
+                this.found = new Issue(Issue.Kind.USE_AFTER_POP, this.checkStep,
+                        lineNum, address);
+            }
+            return;
+        }
+
+        // Only functions that set up a frame pointer in the usual way
+        // (i.e. push %rbp then mov %rsp, %rbp) are checked.
+        CallFrame frame = this.checkState.getCallFrame().orElse(null);
+        if (frame == null) {
+            return;
+        }
+        long rbp = this.checkState.getQuadRegisterValue("rbp");
+        if (rbp == frame.getStackPointer() - 8 && address + numBytes - 1 >= rbp) {
+            this.found = new Issue(Issue.Kind.OUT_OF_FRAME_WRITE, this.checkStep,
+                    lineNum, address);
+        }
+    }
+
+    /**
+     * Updates the shadow of the stack after a line was executed.
+     *
+     * @param line The line that was executed.
+     * @param before The state before it was executed.
+     * @param after The state it produced.
+     * @param issue The issue found when checking the line, or null if there
+     * wasn't one.
+     */
+    public void record(x86ProgramLine line, MachineState before,
+            MachineState after, Issue issue) {
+        if (this.numRecords == this.recordStarts.length) {
+            this.recordStarts = Arrays.copyOf(this.recordStarts, 2 * this.numRecords);
+            this.recordIssues = Arrays.copyOf(this.recordIssues, 2 * this.numRecords);
+        }
+        this.recordStarts[this.numRecords] = this.undoLogSize;
+        this.recordIssues[this.numRecords] = this.issues.size();
+        this.numRecords++;
+        if (issue != null) {
+            this.issues.add(issue);
+        }
+        MemoryAccesses.visit(line, before, this.recorder);
+        long oldRsp = before.getQuadRegisterValue("rsp");
+        long newRsp = after.getQuadRegisterValue("rsp");
+        if (newRsp > oldRsp) {
+            pop(oldRsp, newRsp);
+        }
+    }
+
+    /**
+     * Takes back the changes made by recording an instruction, and any issue
+     * found in it. This must be the last instruction recorded that hasn't
+     * been taken back.
+     */
+    public void undo() {
+        if (this.numRecords == 0) {
+            return;
+        }
+        this.numRecords--;
+        int start = this.recordStarts[this.numRecords];
+        while (this.undoLogSize > start) {
+            long oldFreed = this.undoLog[--this.undoLogSize];
+            long oldWritten = this.undoLog[--this.undoLogSize];
+            int word = (int) this.undoLog[--this.undoLogSize];
+            this.written[word] = oldWritten;
+            this.freed[word] = oldFreed;
+        }
+        int numIssues = this.recordIssues[this.numRecords];
+        while (this.issues.size() > numIssues) {
+            this.issues.remove(this.issues.size() - 1);
+        }
+    }
+
+    private void recordAccess(int lineNum, long address, int numBytes, boolean isWrite) {
+        if (!isWrite || !isTracked(address, numBytes)) {
+            return;
+        }
+        long first = STACK_TOP - (address + numBytes - 1);
+        long end = first + numBytes;
+        ensureCapacity(end);
+        for (long bit = first; bit < end; ) {
+            int word = (int) (bit >>> 6);
+            long wordEnd = Math.min(end, ((long) word + 1) << 6);
+            long mask = rangeMask(bit, wordEnd);
+            logWord(word);
+            this.written[word] |= mask;
+            this.freed[word] &= ~mask;
+            bit = wordEnd;
+        }
+    }
+
+    /**
+     * Logs a word of the bitmaps before it is changed.
+     */
+    private void logWord(int word) {
+        if (this.undoLogSize + 3 > this.undoLog.length) {
+            this.undoLog = Arrays.copyOf(this.undoLog, 2 * this.undoLog.length);
+        }
+        this.undoLog[this.undoLogSize++] = word;
+        this.undoLog[this.undoLogSize++] = this.written[word];
+        this.undoLog[this.undoLogSize++] = this.freed[word];
+    }
+
+    /**
+     * @return True if the given addresses are all shadowed by the bitmaps.
+     */
+    private static boolean isTracked(long address, int numBytes) {
+        return address >= STACK_TOP - MAX_TRACKED_BYTES + 1
+                && address <= STACK_TOP - (numBytes - 1);
+    }
+
+    /**
+     * Frees the stack between two values of %rsp.
+     */
+    private void pop(long oldRsp, long newRsp) {
+        // Bits for addresses oldRsp to newRsp - 1 (higher addresses have
+        // lower bits), leaving out any below the shadowed part of the stack.
+        long lowest = STACK_TOP - MAX_TRACKED_BYTES + 1;
+        if (newRsp <= lowest) {
+            return;
+        }
+        long first = STACK_TOP - (newRsp - 1);
+        long end = Math.min(STACK_TOP - Math.max(oldRsp, lowest) + 1,
+                (long) this.written.length * 64);
+        for (long bit = first; bit < end; ) {
+            int word = (int) (bit >>> 6);
+            long wordEnd = Math.min(end, ((long) word + 1) << 6);
+            long mask = rangeMask(bit, wordEnd);
+            logWord(word);
+            this.freed[word] |= this.written[word] & mask;
+            this.written[word] &= ~mask;
+            bit = wordEnd;
+        }
+    }
+
+    /**
+     * @return A mask of the bits in a word from bit first to bit end - 1,
+     * which must be in the same word (or end at the start of the next).
+     */
+    private static long rangeMask(long first, long end) {
+        int lo = (int) (first & 63);
+        int n = (int) (end - first);
+        long bits = n == 64 ? -1L : (1L << n) - 1;
+        return bits << lo;
+    }
+
+    private void ensureCapacity(long bits) {
+        int words = (int) ((bits + 63) >>> 6);
+        if (words > this.written.length) {
+            int size = Math.max(words, this.written.length * 2);
+            this.written = Arrays.copyOf(this.written, size);
+            this.freed = Arrays.copyOf(this.freed, size);
+        }
+    }
+
+    /**
+     * @return True if any of the bits for the given addresses are set.
+     */
+    private static boolean anySet(long[] bitmap, long address, int numBytes) {
+        if (!isTracked(address, numBytes)) {
+            return false;
+        }
+        long first = STACK_TOP - (address + numBytes - 1);
+        long end = Math.min(first + numBytes, (long) bitmap.length * 64);
+        for (long bit = first; bit < end; ) {
+            int word = (int) (bit >>> 6);
+            long wordEnd = Math.min(end, ((long) word + 1) << 6);
+            if ((bitmap[word] & rangeMask(bit, wordEnd)) != 0) {
+                return true;
+            }
+            bit = wordEnd;
+        }
+        return false;
+    }
+}
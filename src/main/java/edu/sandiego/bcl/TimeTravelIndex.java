@@ -0,0 +1,298 @@
+package edu.sandiego.bcl;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+
+/**
+ * Keeps track of when each register and memory location changed during a
+ * run, so that questions about the past can be answered without stepping
+ * back through it: the value of a register at any step, or the last step
+ * that wrote to an address.
+ *
+ * Step 0 is the state before anything was executed, and step n is the state
+ * after n instructions were executed. For each quad register, the index keeps
+ * the steps where it was written along with the value written. For memory, it
+ * keeps the steps where each 8-byte word was written, along with which bytes
+ * of the word were written. Queries are answered with a binary search over
+ * these steps.
+ *
+ * An index can either be given each step as it happens, or follow a list of
+ * states (such as a simulation's history) and only index the new states in
+ * it when it is queried. Following a list means nothing has to be done on
+ * each step of a run that never asks about the past.
+ */
+public class TimeTravelIndex {
+
+    /**
+     * The steps where something was written, in increasing order, along with
+     * a value for each step.
+     */
+    private static class ChangeList {
+        private long[] steps = new long[4];
+        private long[] values = new long[4];
+        private int size = 0;
+
+        void add(long step, long value) {
+            if (this.size == this.steps.length) {
+                this.steps = Arrays.copyOf(this.steps, this.size * 2);
+                this.values = Arrays.copyOf(this.values, this.size * 2);
+            }
+            this.steps[this.size] = step;
+            this.values[this.size] = value;
+            this.size++;
+        }
+
+        /**
+         * @return The index of the last change at or before the given step,
+         * or -1 if there isn't one.
+         */
+        int lastAtOrBefore(long step) {
+            int lo = 0;
+            int hi = this.size - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (this.steps[mid] <= step) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return hi;
+        }
+    }
+
+    /**
+     * Index of each quad register.
+     */
+    private static final Map<String, Integer> registerIndex = new HashMap<>();
+
+    static {
+        for (int i = 0; i < MachineState.QUAD_REGISTER_NAMES.length; i++) {
+            registerIndex.put(MachineState.QUAD_REGISTER_NAMES[i], i);
+        }
+    }
+
+    /**
+     * Values of the registers at step 0.
+     */
+    private final long[] initialRegisters;
+
+    /**
+     * Writes to each register. The values are the values written.
+     */
+    private final ChangeList[] registerChanges;
+
+    /**
+     * Writes to each 8-byte word of memory, keyed by the word's address. The
+     * values are masks of the bytes that were written (bit i is the byte at
+     * the word's address plus i).
+     */
+    private final Map<Long, ChangeList> memoryChanges;
+
+    /**
+     * Every change list that was added to, in the order they were added to,
+     * so that changes can be undone.
+     */
+    private final List<ChangeList> journal;
+
+    private long numSteps;
+
+    /**
+     * The states this index follows (where state n is step n), or null if
+     * steps are recorded one at a time.
+     */
+    private final List<MachineState> history;
+
+    /**
+     * @param initial The state at step 0.
+     */
+    public TimeTravelIndex(MachineState initial) {
+        this(initial, null);
+    }
+
+    /**
+     * Creates an index that follows the given list of states, indexing any
+     * states that were added to it when it is queried. If states are removed
+     * from the end of the list, {@link #truncate} must be called before any
+     * are added back.
+     *
+     * @param history The states, where state n is step n. This must contain
+     * at least step 0.
+     */
+    TimeTravelIndex(List<MachineState> history) {
+        this(history.get(0), history);
+    }
+
+    private TimeTravelIndex(MachineState initial, List<MachineState> history) {
+        this.initialRegisters = new long[MachineState.QUAD_REGISTER_NAMES.length];
+        this.registerChanges = new ChangeList[this.initialRegisters.length];
+        for (int i = 0; i < this.initialRegisters.length; i++) {
+            this.initialRegisters[i] = initial.getRegisterValue(
+                    MachineState.QUAD_REGISTER_NAMES[i]).longValue();
+            this.registerChanges[i] = new ChangeList();
+        }
+        this.memoryChanges = new HashMap<>();
+        this.journal = new ArrayList<>();
+        this.numSteps = 0;
+        this.history = history;
+    }
+
+    /**
+     * Indexes any states that were added to the history since the last
+     * query.
+     */
+    private void catchUp() {
+        if (this.history == null) {
+            return;
+        }
+        for (int i = (int) this.numSteps + 1; i < this.history.size(); i++) {
+            recordStep(this.history.get(i - 1), this.history.get(i));
+        }
+    }
+
+    /**
+     * @return The number of steps recorded, i.e. the last step that can be
+     * asked about.
+     */
+    public long getNumSteps() {
+        catchUp();
+        return this.numSteps;
+    }
+
+    /**
+     * Adds the next step to the index.
+     *
+     * @param before The state at the previous step.
+     * @param after The state produced by executing one instruction.
+     */
+    public void recordStep(MachineState before, MachineState after) {
+        long step = this.numSteps + 1;
+
+        for (String name : after.getWrittenRegisters(before)) {
+            ChangeList changes = this.registerChanges[registerIndex.get(name)];
+            changes.add(step, after.getRegisterValue(name).longValue());
+            this.journal.add(changes);
+        }
+
+        for (StackEntry entry : after.getWrittenMemory(before)) {
+            long start = entry.getStartAddress();
+            int length = entry.getValueArr().length;
+
+            // Loop over offsets within the entry rather than addresses, since
+            // the top slot ends at Long.MAX_VALUE.
+            for (int offset = 0; offset < length; ) {
+                long word = (start + offset) & ~7L;
+                long mask = 0;
+                for (int i = (int) (start + offset - word); i < 8 && offset < length;
+                        i++, offset++) {
+                    mask |= 1L << i;
+                }
+                ChangeList changes = this.memoryChanges.computeIfAbsent(word,
+                        w -> new ChangeList());
+                changes.add(step, mask);
+                this.journal.add(changes);
+            }
+        }
+
+        this.numSteps = step;
+    }
+
+    /**
+     * Forgets every step after the given one (e.g. after stepping backward).
+     *
+     * @param step The last step to keep.
+     */
+    public void truncate(long step) {
+        if (step < 0) {
+            throw new IllegalArgumentException("step must not be negative");
+        }
+        while (!this.journal.isEmpty()) {
+            ChangeList changes = this.journal.get(this.journal.size() - 1);
+            if (changes.steps[changes.size - 1] <= step) {
+                break;
+            }
+            changes.size--;
+            this.journal.remove(this.journal.size() - 1);
+        }
+        this.numSteps = Math.min(this.numSteps, step);
+    }
+
+    /**
+     * Gets the value a register had at the given step.
+     *
+     * @param quadName Name of a quad register (e.g. "rax").
+     * @param step The step, from 0 to {@link #getNumSteps()}.
+     * @return The (signed) value of the register.
+     */
+    public BigInteger getRegisterValue(String quadName, long step) {
+        int r = indexOf(quadName);
+        catchUp();
+        checkStep(step);
+        ChangeList changes = this.registerChanges[r];
+        int i = changes.lastAtOrBefore(step);
+        return BigInteger.valueOf(i == -1 ? this.initialRegisters[r] : changes.values[i]);
+    }
+
+    /**
+     * Finds the last step, at or before the given one, that wrote to a
+     * register.
+     *
+     * @param quadName Name of a quad register (e.g. "rax").
+     * @param step The step to look back from.
+     * @return The step of the last write, or empty if the register hadn't been
+     * written yet.
+     */
+    public OptionalLong getLastRegisterWrite(String quadName, long step) {
+        int r = indexOf(quadName);
+        catchUp();
+        checkStep(step);
+        ChangeList changes = this.registerChanges[r];
+        int i = changes.lastAtOrBefore(step);
+        return i == -1 ? OptionalLong.empty() : OptionalLong.of(changes.steps[i]);
+    }
+
+    /**
+     * Finds the last step, at or before the given one, that wrote to a byte
+     * of memory.
+     *
+     * @param address The address of the byte.
+     * @param step The step to look back from.
+     * @return The step of the last write, or empty if the byte hadn't been
+     * written yet.
+     */
+    public OptionalLong getLastMemoryWrite(long address, long step) {
+        catchUp();
+        checkStep(step);
+        ChangeList changes = this.memoryChanges.get(address & ~7L);
+        if (changes == null) {
+            return OptionalLong.empty();
+        }
+        long bit = 1L << (address & 7);
+        for (int i = changes.lastAtOrBefore(step); i >= 0; i--) {
+            if ((changes.values[i] & bit) != 0) {
+                return OptionalLong.of(changes.steps[i]);
+            }
+        }
+        return OptionalLong.empty();
+    }
+
+    private static int indexOf(String quadName) {
+        Integer r = registerIndex.get(quadName);
+        if (r == null) {
+            throw new IllegalArgumentException("Not a quad register: " + quadName);
+        }
+        return r;
+    }
+
+    private void checkStep(long step) {
+        if (step < 0 || step > this.numSteps) {
+            throw new IllegalArgumentException("step must be between 0 and "
+                    + this.numSteps);
+        }
+    }
+}
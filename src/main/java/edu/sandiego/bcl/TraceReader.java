@@ -0,0 +1,217 @@
+package edu.sandiego.bcl;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads a trace written by {@link TraceRecorder}.
+ *
+ * The file is memory mapped, so only the parts that are looked at are read
+ * from disk. Any step can be looked up by decoding forward from the keyframe
+ * before it, which is at most {@link TraceRecorder#KEYFRAME_INTERVAL}
+ * records.
+ */
+public class TraceReader implements AutoCloseable {
+
+    /**
+     * One step of a trace.
+     */
+    public static class Step {
+        private final long stepNum;
+        private final int lineNum;
+        private final List<SimulationEvent.RegisterWritten> registerWrites;
+        private final List<SimulationEvent.MemoryWritten> memoryWrites;
+        private final byte flags;
+        private final long[] registers;
+
+        private Step(long stepNum, int lineNum,
+                List<SimulationEvent.RegisterWritten> registerWrites,
+                List<SimulationEvent.MemoryWritten> memoryWrites, byte flags,
+                long[] registers) {
+            this.stepNum = stepNum;
+            this.lineNum = lineNum;
+            this.registerWrites = Collections.unmodifiableList(registerWrites);
+            this.memoryWrites = Collections.unmodifiableList(memoryWrites);
+            this.flags = flags;
+            this.registers = registers;
+        }
+
+        public long getStepNum() { return this.stepNum; }
+
+        /**
+         * @return The line that was executed in this step.
+         */
+        public int getLineNum() { return this.lineNum; }
+
+        public List<SimulationEvent.RegisterWritten> getRegisterWrites() {
+            return this.registerWrites;
+        }
+
+        public List<SimulationEvent.MemoryWritten> getMemoryWrites() {
+            return this.memoryWrites;
+        }
+
+        public boolean getZeroFlag() { return (this.flags & 1) != 0; }
+
+        public boolean getSignFlag() { return (this.flags & 2) != 0; }
+
+        public boolean getOverflowFlag() { return (this.flags & 4) != 0; }
+
+        public boolean getCarryFlag() { return (this.flags & 8) != 0; }
+
+        /**
+         * @param quadName Name of a quad register (e.g. "rax").
+         * @return The value of the register after this step.
+         */
+        public BigInteger getRegisterValue(String quadName) {
+            int i = Arrays.asList(MachineState.QUAD_REGISTER_NAMES).indexOf(quadName);
+            if (i == -1) {
+                throw new IllegalArgumentException("Not a quad register: " + quadName);
+            }
+            return BigInteger.valueOf(this.registers[i]);
+        }
+    }
+
+    private final FileChannel channel;
+    private final MappedByteBuffer data;
+    private final long numSteps;
+    private final int keyframeInterval;
+
+    /**
+     * Position of the index in the file.
+     */
+    private final int indexOffset;
+
+    /**
+     * Opens a trace file.
+     *
+     * @param file The trace file.
+     * @throws IOException if the file couldn't be read or isn't a complete
+     * trace.
+     */
+    public TraceReader(File file) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = this.channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Trace is too large to map: " + size + " bytes");
+            }
+            if (size < TraceRecorder.HEADER_SIZE + TraceRecorder.FOOTER_SIZE) {
+                throw new IOException("Trace is truncated");
+            }
+            this.data = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            if (this.data.getInt(0) != TraceRecorder.MAGIC
+                    || this.data.getInt((int) size - 4) != TraceRecorder.MAGIC) {
+                throw new IOException("Not a complete trace file");
+            }
+            if (this.data.getInt(4) != TraceRecorder.VERSION) {
+                throw new IOException("Unsupported trace version "
+                        + this.data.getInt(4));
+            }
+            this.keyframeInterval = this.data.getInt(8);
+
+            int footer = (int) size - TraceRecorder.FOOTER_SIZE;
+            this.indexOffset = (int) this.data.getLong(footer);
+            this.numSteps = this.data.getLong(footer + 8);
+            int numKeyframes = this.data.getInt(footer + 16);
+            if (this.indexOffset + (long) numKeyframes * TraceRecorder.KEYFRAME_SIZE
+                    != footer) {
+                throw new IOException("Trace index is corrupt");
+            }
+        } catch (IOException e) {
+            this.channel.close();
+            throw e;
+        }
+    }
+
+    public long getNumSteps() { return this.numSteps; }
+
+    /**
+     * Decodes the given step.
+     *
+     * @param stepNum The step to get, starting from 0.
+     * @return The step.
+     */
+    public Step getStep(long stepNum) {
+        if (stepNum < 0 || stepNum >= this.numSteps) {
+            throw new IndexOutOfBoundsException("Step " + stepNum + " of "
+                    + this.numSteps);
+        }
+
+        // Start from the keyframe just before the step.
+        long keyframe = stepNum / this.keyframeInterval;
+        ByteBuffer index = this.data.duplicate();
+        index.position(this.indexOffset + (int) keyframe * TraceRecorder.KEYFRAME_SIZE);
+        int recordOffset = (int) index.getLong();
+        int prevLine = index.getInt();
+        long prevAddress = index.getLong();
+        byte flags = index.get();
+        long[] registers = new long[MachineState.QUAD_REGISTER_NAMES.length];
+        for (int i = 0; i < registers.length; i++) {
+            registers[i] = index.getLong();
+        }
+
+        ByteBuffer records = this.data.duplicate();
+        records.position(recordOffset);
+        for (long s = keyframe * this.keyframeInterval; ; s++) {
+            boolean wanted = s == stepNum;
+            List<SimulationEvent.RegisterWritten> regWrites =
+                    wanted ? new ArrayList<>() : null;
+            List<SimulationEvent.MemoryWritten> memWrites =
+                    wanted ? new ArrayList<>() : null;
+
+            byte header = records.get();
+            flags = (byte) (header & 0x0F);
+            int lineNum = (int) (prevLine + 1 + TraceRecorder.getVarLong(records));
+            prevLine = lineNum;
+
+            int numRegs = (header >> 4) & 0x07;
+            for (int r = 0; r < numRegs; r++) {
+                int i = records.get();
+                long old = registers[i];
+                registers[i] += TraceRecorder.getVarLong(records);
+                if (wanted) {
+                    regWrites.add(new SimulationEvent.RegisterWritten(lineNum,
+                            MachineState.QUAD_REGISTER_NAMES[i],
+                            BigInteger.valueOf(old), BigInteger.valueOf(registers[i])));
+                }
+            }
+
+            if ((header & 0x80) != 0) {
+                long numWrites = TraceRecorder.getVarLong(records);
+                for (long w = 0; w < numWrites; w++) {
+                    prevAddress += TraceRecorder.getVarLong(records);
+                    int size = (int) TraceRecorder.getVarLong(records);
+                    if (wanted) {
+                        byte[] bytes = new byte[size];
+                        records.get(bytes);
+                        memWrites.add(new SimulationEvent.MemoryWritten(lineNum,
+                                prevAddress, bytes));
+                    } else {
+                        records.position(records.position() + size);
+                    }
+                }
+            }
+
+            if (wanted) {
+                return new Step(stepNum, lineNum, regWrites, memWrites, flags,
+                        registers);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+}
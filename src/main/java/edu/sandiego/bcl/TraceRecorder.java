@@ -0,0 +1,310 @@
+package edu.sandiego.bcl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a compact binary trace of a run to a file, one record per
+ * instruction executed, so that long runs can be kept (and shared) without
+ * holding on to all of their states. Traces are read with
+ * {@link TraceReader}.
+ *
+ * The file starts with a header (magic number, format version, and keyframe
+ * interval), followed by the records, an index of keyframes, and a footer
+ * giving the position of the index and the number of steps.
+ * All fixed-size numbers are big endian.
+ *
+ * Each record starts with a byte holding the status flags after the step
+ * (bits 0-3 are zf, sf, of, and cf), the number of registers written (bits
+ * 4-6), and whether memory was written (bit 7). This is followed by the
+ * line number, each register written (its index and value), and each memory
+ * write (address, size, and bytes). Line numbers, register values, and
+ * addresses are stored as variable-length differences from the previous
+ * ones, so most records only take a few bytes.
+ *
+ * Every {@link #KEYFRAME_INTERVAL} steps, the full register file is written to
+ * the index so that a reader can jump to any step by decoding at most that
+ * many records.
+ */
+public class TraceRecorder implements AutoCloseable {
+
+    static final int MAGIC = 0x42434C54; // "BCLT"
+    static final int VERSION = 1;
+
+    /**
+     * Number of steps between keyframes.
+     */
+    public static final int KEYFRAME_INTERVAL = 4096;
+
+    /**
+     * Size of the header, in bytes.
+     */
+    static final int HEADER_SIZE = 16;
+
+    /**
+     * Size of the footer, in bytes.
+     */
+    static final int FOOTER_SIZE = 24;
+
+    /**
+     * Size of each keyframe in the index, in bytes: the record's offset, the
+     * previous line number, the previous memory address, the flags, and the
+     * registers.
+     */
+    static final int KEYFRAME_SIZE = 8 + 4 + 8 + 1
+            + 8 * MachineState.QUAD_REGISTER_NAMES.length;
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * Index of each register in the trace.
+     */
+    private static final Map<String, Integer> registerIndex = new HashMap<>();
+
+    static {
+        for (int i = 0; i < MachineState.QUAD_REGISTER_NAMES.length; i++) {
+            registerIndex.put(MachineState.QUAD_REGISTER_NAMES[i], i);
+        }
+    }
+
+    private final FileChannel channel;
+
+    /**
+     * Records waiting to be written to the file.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Space for the record currently being written.
+     */
+    private ByteBuffer record;
+
+    /**
+     * Keyframes written so far.
+     */
+    private final ByteArrayOutputStream indexBytes;
+    private final DataOutputStream index;
+
+    /**
+     * Values of the registers after the last step.
+     */
+    private final long[] registers;
+
+    /**
+     * Status flags after the last step (in the same format as records).
+     */
+    private byte flags;
+
+    /**
+     * Line number of the last step.
+     */
+    private int prevLine;
+
+    /**
+     * Address of the last memory write.
+     */
+    private long prevAddress;
+
+    /**
+     * Offset in the file where the next record will go.
+     */
+    private long offset;
+
+    private long numSteps;
+
+    /**
+     * Creates a new trace file, replacing any existing file.
+     *
+     * @param file The file to write to.
+     * @param initial The state the run starts from.
+     * @throws IOException if the file couldn't be created.
+     */
+    public TraceRecorder(File file, MachineState initial) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        this.record = ByteBuffer.allocate(256);
+        this.indexBytes = new ByteArrayOutputStream();
+        this.index = new DataOutputStream(this.indexBytes);
+
+        this.registers = new long[MachineState.QUAD_REGISTER_NAMES.length];
+        for (int i = 0; i < this.registers.length; i++) {
+            this.registers[i] = initial.getRegisterValue(
+                    MachineState.QUAD_REGISTER_NAMES[i]).longValue();
+        }
+        this.flags = flagsOf(initial);
+        this.prevLine = initial.getRipRegister() - 1;
+        this.prevAddress = this.registers[registerIndex.get("rsp")];
+
+        this.buffer.putInt(MAGIC);
+        this.buffer.putInt(VERSION);
+        this.buffer.putInt(KEYFRAME_INTERVAL);
+        this.buffer.putInt(0);
+        this.offset = HEADER_SIZE;
+        this.numSteps = 0;
+    }
+
+    /**
+     * @return The flags of the given state, in the format used by records.
+     */
+    static byte flagsOf(MachineState state) {
+        return (byte) ((state.getZeroFlag() ? 1 : 0)
+                | (state.getSignFlag() ? 2 : 0)
+                | (state.getOverflowFlag() ? 4 : 0)
+                | (state.getCarryFlag() ? 8 : 0));
+    }
+
+    /**
+     * Adds a step to the trace.
+     *
+     * @param lineNum The line that was executed.
+     * @param before The state before the line was executed.
+     * @param after The state the line produced.
+     * @throws IOException if the trace couldn't be written.
+     */
+    public void record(int lineNum, MachineState before, MachineState after)
+            throws IOException {
+        if (this.numSteps % KEYFRAME_INTERVAL == 0) {
+            writeKeyframe();
+        }
+
+        List<String> regs = after.getWrittenRegisters(before);
+        List<StackEntry> writes = after.getWrittenMemory(before);
+        this.flags = flagsOf(after);
+
+        int needed = 32 + regs.size() * 11;
+        for (StackEntry e : writes) {
+            needed += 24 + e.getValueArr().length;
+        }
+        if (this.record.capacity() < needed) {
+            this.record = ByteBuffer.allocate(needed);
+        }
+        this.record.clear();
+
+        this.record.put((byte) (this.flags | (regs.size() << 4)
+                | (writes.isEmpty() ? 0 : 0x80)));
+        putVarLong(this.record, lineNum - (this.prevLine + 1L));
+        this.prevLine = lineNum;
+
+        for (String name : regs) {
+            int i = registerIndex.get(name);
+            long value = after.getRegisterValue(name).longValue();
+            this.record.put((byte) i);
+            putVarLong(this.record, value - this.registers[i]);
+            this.registers[i] = value;
+        }
+
+        if (!writes.isEmpty()) {
+            putVarLong(this.record, writes.size());
+            for (StackEntry e : writes) {
+                byte[] bytes = e.getValueArr();
+                putVarLong(this.record, e.getStartAddress() - this.prevAddress);
+                putVarLong(this.record, bytes.length);
+                this.record.put(bytes);
+                this.prevAddress = e.getStartAddress();
+            }
+        }
+
+        this.record.flip();
+        if (this.buffer.remaining() < this.record.remaining()) {
+            flush();
+        }
+        this.offset += this.record.remaining();
+        if (this.buffer.remaining() < this.record.remaining()) {
+            writeFully(this.record);
+        } else {
+            this.buffer.put(this.record);
+        }
+        this.numSteps++;
+    }
+
+    /**
+     * Adds the current registers (i.e. those before the next step) to the
+     * index.
+     */
+    private void writeKeyframe() throws IOException {
+        this.index.writeLong(this.offset);
+        this.index.writeInt(this.prevLine);
+        this.index.writeLong(this.prevAddress);
+        this.index.writeByte(this.flags);
+        for (long r : this.registers) {
+            this.index.writeLong(r);
+        }
+    }
+
+    /**
+     * @return The number of steps recorded so far.
+     */
+    public long getNumSteps() { return this.numSteps; }
+
+    /**
+     * Writes a signed number using a zig-zag, variable-length encoding (7 bits
+     * per byte, least significant first), so that small numbers of either
+     * sign only take one byte.
+     */
+    static void putVarLong(ByteBuffer b, long value) {
+        long v = (value << 1) ^ (value >> 63);
+        while ((v & ~0x7FL) != 0) {
+            b.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        b.put((byte) v);
+    }
+
+    /**
+     * Reads a number written by {@link #putVarLong(ByteBuffer, long)}.
+     */
+    static long getVarLong(ByteBuffer b) {
+        long v = 0;
+        int shift = 0;
+        byte cur;
+        do {
+            cur = b.get();
+            v |= (long) (cur & 0x7F) << shift;
+            shift += 7;
+        } while ((cur & 0x80) != 0);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private void flush() throws IOException {
+        this.buffer.flip();
+        writeFully(this.buffer);
+        this.buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) {
+            this.channel.write(b);
+        }
+    }
+
+    /**
+     * Writes the index and footer, then closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            this.index.flush();
+            writeFully(ByteBuffer.wrap(this.indexBytes.toByteArray()));
+
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+            footer.putLong(this.offset);
+            footer.putLong(this.numSteps);
+            footer.putInt(this.indexBytes.size() / KEYFRAME_SIZE);
+            footer.putInt(MAGIC);
+            footer.flip();
+            writeFully(footer);
+        } finally {
+            this.channel.close();
+        }
+    }
+}
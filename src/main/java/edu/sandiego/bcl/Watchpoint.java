@@ -0,0 +1,166 @@
+package edu.sandiego.bcl;
+
+import java.util.Optional;
+
+/**
+ * A register or range of memory that should stop the simulation when it is
+ * written to.
+ *
+ * Watchpoints are checked by the methods of {@link MachineState} that write
+ * registers and memory, so a run only pays for them when a watched location
+ * is actually written. A write triggers the watchpoint even if it doesn't
+ * change the value.
+ */
+public class Watchpoint {
+
+    /**
+     * The quad register being watched, if this watches a register.
+     */
+    private final Optional<String> register;
+
+    /**
+     * The first and last (i.e. inclusive) addresses being watched, if this
+     * watches memory.
+     */
+    private final long startAddress;
+    private final long endAddress;
+
+    private Watchpoint(Optional<String> register, long startAddress, long endAddress) {
+        this.register = register;
+        this.startAddress = startAddress;
+        this.endAddress = endAddress;
+    }
+
+    /**
+     * Creates a watchpoint on a register. Watching part of a register (e.g.
+     * %eax) watches the whole quad register (e.g. %rax).
+     *
+     * @param regName The name of the register, without the %.
+     * @return The watchpoint.
+     * @throws X86ParsingException if the name isn't a register.
+     */
+    public static Watchpoint onRegister(String regName) throws X86ParsingException {
+        X86Parser.getRegisterSize(regName);
+        return new Watchpoint(Optional.of(MachineState.getQuadName(regName)), 0, 0);
+    }
+
+    /**
+     * Creates a watchpoint on a range of memory.
+     *
+     * @param startAddress The lowest address to watch.
+     * @param size The number of bytes to watch.
+     * @return The watchpoint.
+     */
+    public static Watchpoint onMemory(long startAddress, int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be positive");
+        }
+        return new Watchpoint(Optional.empty(), startAddress, startAddress + size - 1);
+    }
+
+    /**
+     * Creates a watchpoint from a description of what to watch: either a
+     * register (e.g. "%rax") or an address, optionally followed by the number
+     * of bytes to watch (e.g. "0x7FFFFFFFFFFFFFF0" or "0x7FFFFFFFFFFFFFF0:4").
+     * When no size is given, 8 bytes are watched.
+     *
+     * @param text The description.
+     * @return The watchpoint.
+     * @throws X86ParsingException if the description isn't valid.
+     */
+    public static Watchpoint parse(String text) throws X86ParsingException {
+        String s = text.trim();
+        if (s.startsWith("%")) {
+            try {
+                return onRegister(s.substring(1));
+            } catch (X86ParsingException e) {
+                throw new X86ParsingException(e.getMessage(), 0, text.length());
+            }
+        }
+
+        int colon = s.indexOf(':');
+        String addressText = colon == -1 ? s : s.substring(0, colon).trim();
+        int size = 8;
+        try {
+            if (colon != -1) {
+                size = Integer.parseInt(s.substring(colon + 1).trim());
+            }
+        } catch (NumberFormatException e) {
+            throw new X86ParsingException("Invalid size.", 0, text.length());
+        }
+        if (size <= 0) {
+            throw new X86ParsingException("Size must be positive.", 0, text.length());
+        }
+
+        try {
+            long address;
+            if (addressText.startsWith("0x") || addressText.startsWith("0X")) {
+                address = Long.parseUnsignedLong(addressText.substring(2), 16);
+            } else {
+                address = Long.parseLong(addressText);
+            }
+            return onMemory(address, size);
+        } catch (NumberFormatException e) {
+            throw new X86ParsingException("Expected a register or an address.",
+                    0, text.length());
+        }
+    }
+
+    /**
+     * @return The name of the quad register being watched, or empty if this
+     * watches memory.
+     */
+    public Optional<String> getRegister() { return this.register; }
+
+    public long getStartAddress() { return this.startAddress; }
+
+    /**
+     * @return The last address being watched.
+     */
+    public long getEndAddress() { return this.endAddress; }
+
+    /**
+     * @param start The first address written.
+     * @param end The last address written.
+     * @return True if this watches memory and the write overlaps it.
+     */
+    boolean overlaps(long start, long end) {
+        return !this.register.isPresent()
+                && Long.compareUnsigned(start, this.endAddress) <= 0
+                && Long.compareUnsigned(end, this.startAddress) >= 0;
+    }
+
+    @Override
+    public String toString() {
+        if (this.register.isPresent()) {
+            return "%" + this.register.get();
+        }
+        return "0x" + Long.toHexString(this.startAddress).toUpperCase()
+                + ":" + (this.endAddress - this.startAddress + 1);
+    }
+
+    /**
+     * A write that triggered a watchpoint.
+     */
+    public static class Hit {
+        private final Watchpoint watchpoint;
+        private final int lineNum;
+
+        Hit(Watchpoint watchpoint, int lineNum) {
+            this.watchpoint = watchpoint;
+            this.lineNum = lineNum;
+        }
+
+        public Watchpoint getWatchpoint() { return this.watchpoint; }
+
+        /**
+         * @return The line that did the write.
+         */
+        public int getLineNum() { return this.lineNum; }
+
+        @Override
+        public String toString() {
+            return "watchpoint " + this.watchpoint + " written at line " + this.lineNum;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package edu.sandiego.bcl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The watchpoints that a machine state checks when it is written to.
+ * Sets are never modified, so they can be shared by every state (and every
+ * thread) that uses them.
+ */
+class WatchpointSet {
+
+    /**
+     * The set with no watchpoints.
+     */
+    static final WatchpointSet EMPTY = new WatchpointSet(new ArrayList<>());
+
+    /**
+     * Register watchpoints, keyed by the quad register they watch.
+     */
+    private final Map<String, Watchpoint> registers;
+
+    /**
+     * Memory watchpoints.
+     */
+    private final Watchpoint[] memory;
+
+    WatchpointSet(Collection<Watchpoint> watchpoints) {
+        this.registers = new HashMap<>();
+        List<Watchpoint> mem = new ArrayList<>();
+        for (Watchpoint w : watchpoints) {
+            if (w.getRegister().isPresent()) {
+                this.registers.put(w.getRegister().get(), w);
+            } else {
+                mem.add(w);
+            }
+        }
+        this.memory = mem.toArray(new Watchpoint[0]);
+    }
+
+    boolean isEmpty() {
+        return this.registers.isEmpty() && this.memory.length == 0;
+    }
+
+    /**
+     * @param quadName The quad register being written.
+     * @return The watchpoint on that register, or null if there isn't one.
+     */
+    Watchpoint forRegister(String quadName) {
+        return this.registers.get(quadName);
+    }
+
+    /**
+     * @param start The first address being written.
+     * @param end The last address being written.
+     * @return A watchpoint on memory in that range, or null if there isn't
+     * one.
+     */
+    Watchpoint forMemory(long start, long end) {
+        for (Watchpoint w : this.memory) {
+            if (w.overlaps(start, end)) {
+                return w;
+            }
+        }
+        return null;
+    }
+}
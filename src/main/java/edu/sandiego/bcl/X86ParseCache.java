@@ -0,0 +1,144 @@
+package edu.sandiego.bcl;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of decoded lines, keyed by normalized line text.
+ * This is safe to share between threads (and parsers).
+ *
+ * Only lines that decoded successfully are cached, since parsing errors depend
+ * on the exact positions of characters in the original text.
+ */
+public class X86ParseCache {
+
+    /**
+     * Number of entries kept by default.
+     */
+    public static final int DEFAULT_CAPACITY = 16384;
+
+    /**
+     * Maximum number of entries in the cache.
+     */
+    private final int capacity;
+
+    /**
+     * Map from normalized line text to the decoded form of that line.
+     */
+    private final ConcurrentHashMap<String, x86DecodedLine> decodedFromText;
+
+    /**
+     * Number of lookups that found a cached line.
+     */
+    private final LongAdder hits;
+
+    /**
+     * Number of lookups that did not find a cached line.
+     */
+    private final LongAdder misses;
+
+    public X86ParseCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.decodedFromText = new ConcurrentHashMap<>();
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+    }
+
+    /**
+     * @param key A normalized line (see {@link #normalize(String)}).
+     * @return The decoded form of the line, or null if it isn't cached.
+     */
+    public x86DecodedLine get(String key) {
+        x86DecodedLine d = this.decodedFromText.get(key);
+        if (d != null) {
+            this.hits.increment();
+        } else {
+            this.misses.increment();
+        }
+        return d;
+    }
+
+    /**
+     * Adds a decoded line to the cache. If the cache is full, about a quarter
+     * of the existing entries are evicted first.
+     *
+     * @param key A normalized line (see {@link #normalize(String)}).
+     * @param decoded The decoded form of the line.
+     */
+    public void put(String key, x86DecodedLine decoded) {
+        if (this.decodedFromText.size() >= this.capacity) {
+            int toRemove = this.decodedFromText.size() - (this.capacity * 3 / 4);
+            Iterator<String> it = this.decodedFromText.keySet().iterator();
+            while (toRemove > 0 && it.hasNext()) {
+                it.next();
+                it.remove();
+                toRemove--;
+            }
+        }
+        this.decodedFromText.put(key, decoded);
+    }
+
+    public int size() { return this.decodedFromText.size(); }
+
+    public long getHits() { return this.hits.sum(); }
+
+    public long getMisses() { return this.misses.sum(); }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public void clear() {
+        this.decodedFromText.clear();
+    }
+
+    private static boolean isWhitespace(char c) {
+        // Same characters as \s in the parser's regular expressions.
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B'
+                || c == '\f' || c == '\r';
+    }
+
+    /**
+     * Normalizes a line so that lines that only differ in whitespace outside
+     * of the comment are given the same key.
+     * The parser ignores leading whitespace and treats any other run of
+     * whitespace the same as a single space, so lines with the same key always
+     * decode the same way.
+     *
+     * @param line The line to normalize.
+     * @return The normalized line.
+     */
+    public static String normalize(String line) {
+        int commentStart = line.indexOf('#');
+        int codeEnd = commentStart == -1 ? line.length() : commentStart;
+
+        StringBuilder sb = new StringBuilder(line.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < codeEnd; i++) {
+            char c = line.charAt(i);
+            if (isWhitespace(c)) {
+                pendingSpace = sb.length() > 0;
+            } else {
+                if (pendingSpace) {
+                    sb.append(' ');
+                    pendingSpace = false;
+                }
+                sb.append(c);
+            }
+        }
+
+        // Whether there are operands depends on whitespace after the
+        // instruction name, so trailing whitespace is kept (as one space).
+        if (pendingSpace) {
+            sb.append(' ');
+        }
+
+        if (commentStart != -1) {
+            sb.append(line, commentStart, line.length());
+        }
+        return sb.toString();
+    }
+}
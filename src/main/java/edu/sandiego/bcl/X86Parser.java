@@ -85,6 +85,12 @@ public class X86Parser {
      */
     private OperandGetter operandGetter;
 
+    /**
+     * Cache of decoded lines, shared by all parsers.
+     */
+    private static final X86ParseCache decodeCache =
+            new X86ParseCache(X86ParseCache.DEFAULT_CAPACITY);
+
     public X86Parser(){
         this.currLineNum = 0;
         this.labelFromName = new HashMap<>();
@@ -473,7 +479,8 @@ public class X86Parser {
                                                 labelMatcher.start(), 
                                                 labelMatcher.end());
             
-            op = new LabelOperand(labelName, labelFromName.get(labelName));
+            // This is bound to the actual label when the line is built.
+            op = new LabelOperand(labelName, null);
         }
         assert op != null;
         return op;
@@ -583,12 +590,46 @@ public class X86Parser {
 
     /**
      * Create an x86-64 instruction by parsing a given string.
+     * Lines that have been decoded before (by any parser) are looked up in a
+     * cache rather than being decoded again.
      *
      * @param instr A string representation of the instruction.
      * @return The parsed line.
      * @throws X86ParsingException There was a problem parsing the line.
      */
     public x86ProgramLine parseLine(String instr) throws X86ParsingException {
+        long startTime = System.nanoTime();
+        SimulatorEvents.ParseLine event = new SimulatorEvents.ParseLine();
+        event.begin();
+        try {
+            String key = X86ParseCache.normalize(instr);
+            x86DecodedLine decoded = decodeCache.get(key);
+            event.cacheHit = decoded != null;
+            if (decoded == null) {
+                decoded = decodeLine(instr);
+                decodeCache.put(key, decoded);
+            }
+            return buildLine(decoded, instr);
+        } finally {
+            SimulatorMetrics.get().recordParse(System.nanoTime() - startTime);
+            event.end();
+            if (event.shouldCommit()) {
+                event.text = instr;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Decodes the given string into the parts of an x86-64 line.
+     * This only checks things that depend on the text of the line, so it
+     * doesn't use (or change) the state of this parser.
+     *
+     * @param instr A string representation of the line.
+     * @return The decoded line.
+     * @throws X86ParsingException There was a problem parsing the line.
+     */
+    private x86DecodedLine decodeLine(String instr) throws X86ParsingException {
         Matcher commentMatcher = Pattern.compile("(?<other>[^#]*)(?<comment>#.*)").matcher(instr);
         
         x86Comment c = null;
@@ -600,7 +641,7 @@ public class X86Parser {
         }
         
         if(instr.matches("\\s*")){
-            return new x86BlankLine(currLineNum++, c);
+            return x86DecodedLine.blank(c);
         }
         
         Matcher instMatcher = Pattern.compile("\\s*(?<inst>\\p{Alpha}+)(\\s+(?<operands>.*))?").matcher(instr);
@@ -704,29 +745,11 @@ public class X86Parser {
                                 instr.length());
                     }
                     
-                    return new x86BinaryInstruction(instrType,
-                            operands.get(0),
-                            operands.get(1),
-                            instrSize,
-                            currLineNum++,
-                            c);
+                    return x86DecodedLine.instruction(instrType, instrSize,
+                            operands, c);
                 } else if (instrType.numOperands() == 1) {
-                    x86UnaryInstruction inst = new x86UnaryInstruction(instrType,
-                            operands.get(0), instrSize, currLineNum++, c,
-                            this.operandGetter);
-
-                    if (operands.get(0) instanceof LabelOperand) {
-                        LabelOperand lo = (LabelOperand) operands.get(0);
-                        String loName = lo.getName();
-                        if (labelUsersFromName.containsKey(loName)) {
-                            labelUsersFromName.get(loName).add(inst);
-                        } else {
-                            List<x86Instruction> l = new ArrayList<>();
-                            l.add(inst);
-                            labelUsersFromName.put(loName, l);
-                        }
-                    }
-                    return inst;
+                    return x86DecodedLine.instruction(instrType, instrSize,
+                            operands, c);
                 }
                 throw new X86ParsingException("I am confusion", instMatcher.start("operands"), instrName.length());
             } else {
@@ -736,8 +759,8 @@ public class X86Parser {
                                 instMatcher.end("inst"),
                                 instr.length());
                 // nullary skullduggery
-                return new x86NullaryInstruction(instrType, instrSize,
-                        currLineNum++, c, this.operandGetter);
+                return x86DecodedLine.instruction(instrType, instrSize,
+                        new ArrayList<>(), c);
             }
         } else {
             // This line contains a label
@@ -748,26 +771,134 @@ public class X86Parser {
                                                 labelMatcher.start("label"), 
                                                 labelMatcher.end("label"));
 
-            // Make sure this label doesn't already exist
-            if (labelFromName.containsKey(labelName)) {
-                System.out.println("Duplicate label: " + labelName);
-                throw new X86ParsingException("Duplicate label name",
-                        labelMatcher.start("label"),
-                        labelMatcher.end("label"));
-            }
-
-            x86Label l = new x86Label(labelName, currLineNum++, c);
-            labelFromName.put(labelName, l);
-            if (labelUsersFromName.containsKey(labelName)) {
-                labelUsersFromName.get(labelName).forEach((inst) -> {
-                    inst.updateLabels(labelName, l);
-                });
-            }
-            return l;
+            return x86DecodedLine.label(labelName, c);
         } 
         // TODO: allow lines that contain both a label and an instruction?
     }
 
+    /**
+     * Creates a program line from a decoded line, giving it the next line
+     * number and connecting it to the labels this parser knows about.
+     *
+     * @param decoded The decoded line.
+     * @param instr The string the line was decoded from (or null if it isn't
+     * known, e.g. when the line was loaded from a cache).
+     * @return The new line.
+     * @throws X86ParsingException if the line is a label that already exists.
+     */
+    x86ProgramLine buildLine(x86DecodedLine decoded, String instr)
+            throws X86ParsingException {
+        x86Comment c = decoded.getComment();
+        x86ProgramLine line;
+
+        switch (decoded.getKind()) {
+            case BLANK:
+                line = new x86BlankLine(currLineNum, c);
+                break;
+
+            case LABEL:
+                String labelName = decoded.getLabelName();
+
+                // Make sure this label doesn't already exist
+                if (labelFromName.containsKey(labelName)) {
+                    int start = instr == null ? 0 : instr.indexOf(labelName);
+                    throw new X86ParsingException("Duplicate label name",
+                            start, start + labelName.length());
+                }
+
+                x86Label l = new x86Label(labelName, currLineNum, c);
+                labelFromName.put(labelName, l);
+                if (labelUsersFromName.containsKey(labelName)) {
+                    labelUsersFromName.get(labelName).forEach((inst) -> {
+                        inst.updateLabels(labelName, l);
+                    });
+                }
+                line = l;
+                break;
+
+            case NULLARY:
+                line = new x86NullaryInstruction(decoded.getType(),
+                        decoded.getSize(), currLineNum, c, this.operandGetter);
+                break;
+
+            case UNARY:
+                Operand dest = bindLabel(decoded.getOperands().get(0));
+                x86UnaryInstruction inst = new x86UnaryInstruction(decoded.getType(),
+                        dest, decoded.getSize(), currLineNum, c,
+                        this.operandGetter);
+
+                if (dest instanceof LabelOperand) {
+                    String loName = ((LabelOperand) dest).getName();
+                    if (labelUsersFromName.containsKey(loName)) {
+                        labelUsersFromName.get(loName).add(inst);
+                    } else {
+                        List<x86Instruction> users = new ArrayList<>();
+                        users.add(inst);
+                        labelUsersFromName.put(loName, users);
+                    }
+                }
+                line = inst;
+                break;
+
+            case BINARY:
+                line = new x86BinaryInstruction(decoded.getType(),
+                        bindLabel(decoded.getOperands().get(0)),
+                        bindLabel(decoded.getOperands().get(1)),
+                        decoded.getSize(), currLineNum, c);
+                break;
+
+            default:
+                throw new RuntimeException("unsupported line kind: " + decoded.getKind());
+        }
+
+        currLineNum++;
+        line.decoded = decoded;
+        return line;
+    }
+
+    /**
+     * Label operands in decoded lines are shared, so each instruction that
+     * uses one needs its own copy that refers to this parser's labels.
+     *
+     * @param op An operand from a decoded line.
+     * @return The same operand, or a bound copy if it is a label operand.
+     */
+    private Operand bindLabel(Operand op) {
+        if (op instanceof LabelOperand) {
+            String name = ((LabelOperand) op).getName();
+            return new LabelOperand(name, labelFromName.get(name));
+        }
+        return op;
+    }
+
+    /**
+     * Parses all of the given lines, continuing past any lines that cannot be
+     * parsed.
+     * Lines that contain errors are skipped, so they won't be given a line
+     * number, but the error reported for them will contain their index in
+     * {@code lines}.
+     *
+     * @param lines The lines to parse.
+     * @return The lines that were parsed along with all of the errors found.
+     */
+    public x86ParseResult parseLines(List<String> lines) {
+        List<x86ProgramLine> parsedLines = new ArrayList<>(lines.size());
+        List<X86ParsingException> errors = new ArrayList<>();
+
+        int lineIndex = 0;
+        for (String line : lines) {
+            try {
+                parsedLines.add(this.parseLine(line));
+            } catch (X86ParsingException e) {
+                errors.add(new X86ParsingException(e.getMessage(),
+                        e.getStartIndex(), e.getEndIndex(), lineIndex));
+            }
+            lineIndex++;
+        }
+
+        return new x86ParseResult(parsedLines, errors);
+    }
+
     /**
      * Resets the parser back to its starting state.
      */
@@ -795,6 +926,13 @@ public class X86Parser {
         labelFromName.remove(labelName);
     }
     
+    /**
+     * @return The cache of decoded lines shared by all parsers.
+     */
+    public static X86ParseCache getDecodeCache() {
+        return decodeCache;
+    }
+    
     public Optional<x86ProgramLine> getFirstLineOfMain(){
         x86Label l = labelFromName.get("main");
         if (l != null) {
@@ -804,6 +942,14 @@ public class X86Parser {
         }
     } 
     
+    /**
+     * @param name The name of a label.
+     * @return The label with the given name, if it has been parsed.
+     */
+    public Optional<x86Label> getLabel(String name) {
+        return Optional.ofNullable(labelFromName.get(name));
+    }
+    
     /**
      * Returns a list of operand requirements for an instruction of the given type
      * with the given operand sizes.
@@ -15,17 +15,31 @@ public class X86ParsingException extends Exception {
          * The index in the string where the error ended.
          */
 	private final int endIndex;
+        
+        /**
+         * The line (in the file being parsed) where the error occurred, or -1
+         * if the error isn't associated with a specific line.
+         */
+        private final int lineNum;
 
 	public X86ParsingException(String message, int start, int end) {
+		this(message, start, end, -1);
+	}
+
+	public X86ParsingException(String message, int start, int end, int lineNum) {
 		super(message);
 		this.startIndex = start;
 		this.endIndex = end;
+		this.lineNum = lineNum;
 	}
 
 	@Override
 	public String toString() { 
-		return "X86ParsingException: " + super.getMessage() + " (start = " +
-				this.startIndex + ", end = " + this.endIndex + ")";
+		String s = "X86ParsingException: " + super.getMessage() + " (";
+		if (this.lineNum >= 0) {
+			s += "line = " + this.lineNum + ", ";
+		}
+		return s + "start = " + this.startIndex + ", end = " + this.endIndex + ")";
 	}
 
 	@Override
@@ -35,5 +49,5 @@ public class X86ParsingException extends Exception {
 
 	public int getStartIndex() { return this.startIndex; }
 	public int getEndIndex() { return this.endIndex; }
+	public int getLineNum() { return this.lineNum; }
 }
-
@@ -1,6 +1,8 @@
 package edu.sandiego.bcl;
 
 import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Optional;
@@ -558,7 +560,19 @@ public class x86BinaryInstruction extends x86Instruction {
 
     @Override
     public MachineState eval(MachineState state) throws x86RuntimeException {
-        return operation.apply(state, this.source, this.destination);
+        SimulatorMetrics.get().recordInstruction(this.type);
+        SimulatorEvents.Eval event = new SimulatorEvents.Eval();
+        event.begin();
+        try {
+            return operation.apply(state, this.source, this.destination);
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.instructionType = this.type.name();
+                event.lineNum = getLineNum();
+                event.commit();
+            }
+        }
     }
 
     @Override
@@ -576,7 +590,12 @@ public class x86BinaryInstruction extends x86Instruction {
     }
 
     @Override
-    public String toString() {
+    public List<Operand> getOperands() {
+        return Arrays.asList(source, destination);
+    }
+
+    @Override
+    public String getSourceText() {
         String instrTypeStr = getInstructionTypeString();
 
         // MOVS and MOVZ have two size suffices: instrTypeStr will already have 
@@ -589,13 +608,18 @@ public class x86BinaryInstruction extends x86Instruction {
                     + instrTypeStr.charAt(instrTypeStr.length() - 1);
         }
 
-        String s = lineNum + ": \t" + instrTypeStr + " " + source.toString() + ", " + destination.toString();
+        String s = "\t" + instrTypeStr + " " + source.toString() + ", " + destination.toString();
         if (comment.isPresent()) {
             s += " " + comment.get().toString();
         }
         return s;
     }
 
+    @Override
+    public String toString() {
+        return getLineNum() + ": " + getSourceText();
+    }
+
     @Override
     public String getDescriptionString() {
         String sourceDesc = source.getDescriptionString();
@@ -31,14 +31,19 @@ public class x86BlankLine extends x86ProgramLine {
     }
     
     @Override
-    public String toString(){
-        String s = lineNum + ": ";
+    public String getSourceText(){
+        String s = "";
         if(comment.isPresent()){
             s += comment.get().toString();
         }
             return s;
     }
 
+    @Override
+    public String toString(){
+        return getLineNum() + ": " + getSourceText();
+    }
+
     @Override
     public String getDescriptionString() {
         if (comment.isPresent()) {
@@ -0,0 +1,126 @@
+package edu.sandiego.bcl;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The decoded form of a line of x86 code: what kind of line it is, along with
+ * its instruction type, size, operands, and comment.
+ *
+ * Unlike an x86ProgramLine, this does not depend on where the line is in a
+ * program (or which program it is in) so it is immutable and can be shared by
+ * every line that has the same text.
+ * Label operands in a decoded line are never bound to a label; the parser
+ * creates bound copies of them whenever it builds a line from this.
+ */
+public class x86DecodedLine {
+
+    /**
+     * The different kinds of lines.
+     */
+    public enum Kind {
+        BLANK,
+        LABEL,
+        NULLARY,
+        UNARY,
+        BINARY
+    }
+
+    /**
+     * The kind of line this is.
+     */
+    private final Kind kind;
+
+    /**
+     * The type of instruction (or null if this isn't an instruction).
+     */
+    private final InstructionType type;
+
+    /**
+     * The size of the instruction (or null if this isn't an instruction).
+     */
+    private final OpSize size;
+
+    /**
+     * The operands of the instruction, in the order they appeared.
+     */
+    private final List<Operand> operands;
+
+    /**
+     * The name of the label (or null if this isn't a label).
+     */
+    private final String labelName;
+
+    /**
+     * The comment on this line (or null if there isn't one).
+     */
+    private final x86Comment comment;
+
+    private x86DecodedLine(Kind kind, InstructionType type, OpSize size,
+            List<Operand> operands, String labelName, x86Comment comment) {
+        this.kind = kind;
+        this.type = type;
+        this.size = size;
+        this.operands = Collections.unmodifiableList(operands);
+        this.labelName = labelName;
+        this.comment = comment;
+    }
+
+    /**
+     * @param comment The comment on the line (or null if none).
+     * @return A decoded line with nothing but (optionally) a comment.
+     */
+    public static x86DecodedLine blank(x86Comment comment) {
+        return new x86DecodedLine(Kind.BLANK, null, null,
+                Collections.emptyList(), null, comment);
+    }
+
+    /**
+     * @param name The name of the label.
+     * @param comment The comment on the line (or null if none).
+     * @return A decoded line with a label.
+     */
+    public static x86DecodedLine label(String name, x86Comment comment) {
+        return new x86DecodedLine(Kind.LABEL, null, null,
+                Collections.emptyList(), name, comment);
+    }
+
+    /**
+     * @param type The type of the instruction.
+     * @param size The size of the instruction.
+     * @param operands The instruction's operands (0, 1, or 2 of them).
+     * @param comment The comment on the line (or null if none).
+     * @return A decoded line with an instruction.
+     */
+    public static x86DecodedLine instruction(InstructionType type, OpSize size,
+            List<Operand> operands, x86Comment comment) {
+        Kind k;
+        switch (operands.size()) {
+            case 0:
+                k = Kind.NULLARY;
+                break;
+            case 1:
+                k = Kind.UNARY;
+                break;
+            case 2:
+                k = Kind.BINARY;
+                break;
+            default:
+                throw new RuntimeException("unsupported number of operands: "
+                        + operands.size());
+        }
+        return new x86DecodedLine(k, type, size, operands, null, comment);
+    }
+
+    public Kind getKind() { return this.kind; }
+
+    public InstructionType getType() { return this.type; }
+
+    public OpSize getSize() { return this.size; }
+
+    public List<Operand> getOperands() { return this.operands; }
+
+    public String getLabelName() { return this.labelName; }
+
+    public x86Comment getComment() { return this.comment; }
+}
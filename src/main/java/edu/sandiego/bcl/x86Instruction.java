@@ -4,6 +4,8 @@ import java.util.Map;
 import java.util.HashMap;
 import java.util.function.Predicate;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.math.BigInteger;
 
 /**
@@ -74,6 +76,14 @@ public abstract class x86Instruction extends x86ProgramLine {
 
     public abstract void updateLabels(String labelName, x86Label label);
 
+    /**
+     * @return The operands of this instruction, with the source (if any)
+     * first.
+     */
+    public List<Operand> getOperands() {
+        return Collections.emptyList();
+    }
+
     @Override
     public abstract String toString();
 
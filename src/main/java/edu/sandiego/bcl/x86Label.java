@@ -32,14 +32,19 @@ public class x86Label extends x86ProgramLine {
     }
 
     @Override
-    public String toString() {
-        String s = lineNum + ": " + name + ":";
+    public String getSourceText() {
+        String s = name + ":";
         if(comment.isPresent()){
             s += " " + comment.get().toString();
         }
         return s;
     }
 
+    @Override
+    public String toString() {
+        return getLineNum() + ": " + getSourceText();
+    }
+
     @Override
     public MachineState eval(MachineState state) {
          return state.cloneWithIncrementedRIP();
@@ -119,17 +119,34 @@ public class x86NullaryInstruction extends x86Instruction {
     public void updateLabels(String labelName, x86Label label) {}
     
     @Override
-    public String toString() {
-        String s = lineNum + ": \t" + getInstructionTypeString();
+    public String getSourceText() {
+        String s = "\t" + getInstructionTypeString();
         if(comment.isPresent()){
             s += comment.get().toString();
         }
         return s;
     }
 
+    @Override
+    public String toString() {
+        return getLineNum() + ": " + getSourceText();
+    }
+
     @Override
     public MachineState eval(MachineState state) throws x86RuntimeException {
-        return operation.apply(state); // the journey is the destination
+        SimulatorMetrics.get().recordInstruction(this.type);
+        SimulatorEvents.Eval event = new SimulatorEvents.Eval();
+        event.begin();
+        try {
+            return operation.apply(state); // the journey is the destination
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.instructionType = this.type.name();
+                event.lineNum = getLineNum();
+                event.commit();
+            }
+        }
     }
 
     @Override
@@ -0,0 +1,34 @@
+package edu.sandiego.bcl;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of parsing a whole program without stopping at the first error.
+ * This contains every line that was successfully parsed along with every
+ * parsing error that was encountered.
+ */
+public class x86ParseResult {
+    /**
+     * The lines that were successfully parsed, in the order they appeared.
+     */
+    private final List<x86ProgramLine> lines;
+
+    /**
+     * The errors that were encountered, in the order they appeared. Each of
+     * these has its line number set.
+     */
+    private final List<X86ParsingException> errors;
+
+    public x86ParseResult(List<x86ProgramLine> lines,
+            List<X86ParsingException> errors) {
+        this.lines = Collections.unmodifiableList(lines);
+        this.errors = Collections.unmodifiableList(errors);
+    }
+
+    public List<x86ProgramLine> getLines() { return this.lines; }
+
+    public List<X86ParsingException> getErrors() { return this.errors; }
+
+    public boolean hasErrors() { return !this.errors.isEmpty(); }
+}
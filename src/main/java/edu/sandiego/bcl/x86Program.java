@@ -9,11 +9,11 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
-import javafx.collections.FXCollections;
+import java.util.concurrent.atomic.AtomicInteger;
 import javafx.collections.ObservableList;
 import javafx.scene.control.Alert;
 
@@ -26,7 +26,7 @@ public class x86Program {
     /**
      * The lines in the program.
      */
-    ObservableList<x86ProgramLine> programLines;
+    x86ProgramLineList programLines;
     
     /**
      * The parser used to add or modify this program.
@@ -53,17 +53,38 @@ public class x86Program {
     /**
      * Next number to give to a new program that isn't backed by a specific file.
      */
-    private static int nextUntitledNumber = 0;
+    private static final AtomicInteger nextUntitledNumber = new AtomicInteger();
+    
+    /**
+     * Journal of edits made since the program was last saved. This is only
+     * present for programs that have a file and are journaled.
+     */
+    private Optional<x86ProgramJournal> journal;
+    
+    /**
+     * Whether edits to this program are journaled, so that they can be
+     * recovered after a crash.
+     */
+    private boolean isJournaled;
+    
+    /**
+     * Something that writes a record to a journal.
+     */
+    @FunctionalInterface
+    private interface JournalRecorder {
+        void record(x86ProgramJournal j) throws IOException;
+    }
     
     /**
      * Constructors a blank program.
      */
     public x86Program() {
-        this.programLines = FXCollections.observableArrayList();
+        this.programLines = new x86ProgramLineList();
         this.parser = new X86Parser();
-        this.fileName = "untitled-" + nextUntitledNumber;
-        nextUntitledNumber++;
+        this.fileName = "untitled-" + nextUntitledNumber.getAndIncrement();
         this.file = Optional.empty();
+        this.journal = Optional.empty();
+        this.isJournaled = true;
         this.isUnsaved = true;
     }
     
@@ -79,12 +100,32 @@ public class x86Program {
     public x86Program(File assemblyFile) throws FileNotFoundException, 
                                                 IOException,
                                                 X86ParsingException {
-        this.programLines = FXCollections.observableArrayList();
+        this(assemblyFile, true);
+    }
+    
+    /**
+     * Creates a new program based on the program stored in the given file.
+     * Programs that are only going to be run (e.g. when grading a batch of
+     * submissions) don't need a journal, since they aren't edited.
+     * 
+     * @param assemblyFile File containing assembly code to be parsed.
+     * @param journaled Whether to recover edits from, and keep, a journal of
+     * unsaved edits.
+     * @throws FileNotFoundException if the file to read from does not exist.
+     * @throws IOException if there was a problem reading from the file.
+     * @throws X86ParsingException if there was an error while parsing a line in
+     * the file.
+     */
+    public x86Program(File assemblyFile, boolean journaled) 
+            throws FileNotFoundException, IOException, X86ParsingException {
+        this.programLines = new x86ProgramLineList();
         this.parser = new X86Parser();
         this.fileName = assemblyFile.getName();
         this.file = Optional.of(assemblyFile);
+        this.journal = Optional.empty();
+        this.isJournaled = journaled;
         this.loadFromFile();
-        this.isUnsaved = false;
+        this.isUnsaved = journaled && this.recoverFromJournal();
     }
     
     public ObservableList<x86ProgramLine> getProgramLines() {
@@ -121,6 +162,27 @@ public class x86Program {
         x86ProgramLine x = this.parser.parseLine(unparsedLine);
         this.programLines.add(x);
         this.isUnsaved = true;
+        int index = this.programLines.size() - 1;
+        this.recordEdit(j -> j.recordInsert(index, unparsedLine));
+        return x;
+    }
+    
+    /**
+     * Parses the given line and inserts it at the given position in this
+     * program. Lines at or after that position will move down by one.
+     * 
+     * @param index The position to insert the line at.
+     * @param unparsedLine The line to parse.
+     * @return The new line that was created.
+     * @throws X86ParsingException if there was a problem parsing the line.
+     */
+    public x86ProgramLine parseThenInsertLine(int index, String unparsedLine) 
+            throws X86ParsingException {
+        x86ProgramLine x = this.parser.parseLine(unparsedLine);
+        this.programLines.add(index, x);
+        this.parser.setCurrLineNum(this.programLines.size());
+        this.isUnsaved = true;
+        this.recordEdit(j -> j.recordInsert(index, unparsedLine));
         return x;
     }
     
@@ -137,18 +199,24 @@ public class x86Program {
      */
     public boolean writeToFile() {    
         if (file.isPresent()) {
-            try (FileWriter fw = new FileWriter(file.get())) {
-                for (x86ProgramLine line : this.programLines) {
-                    // TODO: make an x86ProgramLine method that
-                    fw.write(line.toString()
-                            .substring(line.toString().indexOf(":") + 2) 
-                            + "\n");
-                }
+            try {
+                x86ProgramWriter.write(this.programLines, file.get().toPath());
                 this.isUnsaved = false;
             } catch (IOException ex) {
                 System.out.println("Unable to save to file.");
                 return false;
             }
+            x86ProgramCache.write(file.get(), this.programLines);
+            
+            // The saved file now has every edit so start a new journal.
+            this.deleteJournal();
+            if (this.isJournaled) {
+                try {
+                    this.journal = Optional.of(x86ProgramJournal.create(file.get()));
+                } catch (IOException ex) {
+                    System.out.println("Unable to create edit journal.");
+                }
+            }
             return true;
         }
         else {
@@ -169,13 +237,12 @@ public class x86Program {
             throws FileNotFoundException, IOException, X86ParsingException {
         assert this.programLines.isEmpty();
         
+        if (file.isPresent() && this.loadFromCache()) {
+            return;
+        }
+        
         if (file.isPresent()) {            
-            ArrayList<String> fileLines = new ArrayList<>();
-            BufferedReader br = new BufferedReader(new FileReader(file.get()));
-            String l;
-            while ((l = br.readLine()) != null) {
-                fileLines.add(l.trim());
-            }
+            List<String> fileLines = readLines(file.get());
 
             for (String line : fileLines) {
                 try {
@@ -191,9 +258,82 @@ public class x86Program {
                     throw e;
                 }
             }
+            
+            // Only reached when there wasn't a usable cache, so a program
+            // that is loaded again and again only writes its cache once.
+            x86ProgramCache.write(file.get(), this.programLines);
         }
     }
     
+    /**
+     * Tries to load the program from the pre-parsed cache of its file.
+     * If the cache is missing or out of date, this has no effect.
+     * 
+     * @return True if the program was loaded from the cache, False otherwise.
+     */
+    private boolean loadFromCache() {
+        Optional<x86ProgramCache> cache = x86ProgramCache.load(file.get());
+        if (!cache.isPresent()) {
+            return false;
+        }
+        
+        try {
+            int i = 0;
+            for (x86DecodedLine decoded : cache.get().getLines()) {
+                x86ProgramLine line = this.parser.buildLine(decoded, null);
+                if (cache.get().hasBreakpoint(i)) {
+                    line.toggleBreakpoint();
+                }
+                this.programLines.add(line);
+                i++;
+            }
+            return true;
+        } catch (X86ParsingException e) {
+            // The cache didn't match what the parser expects so start over
+            // and parse the file itself.
+            this.programLines.clear();
+            this.parser.clear();
+            return false;
+        }
+    }
+    
+    /**
+     * Reads all the lines from the given file, trimming whitespace from the
+     * start and end of each line.
+     * 
+     * @param assemblyFile The file to read from.
+     * @return The (trimmed) lines in the file.
+     * @throws FileNotFoundException if the file does not exist.
+     * @throws IOException if there was an error while reading from the file.
+     */
+    private static List<String> readLines(File assemblyFile) 
+            throws FileNotFoundException, IOException {
+        List<String> fileLines = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(assemblyFile))) {
+            String l;
+            while ((l = br.readLine()) != null) {
+                fileLines.add(l.trim());
+            }
+        }
+        return fileLines;
+    }
+    
+    /**
+     * Parses every line in the given file, collecting all the parsing errors
+     * rather than stopping at the first one.
+     * Unlike loading a program, this has no effect on the UI so it is suitable
+     * for checking many files in one go.
+     * 
+     * @param assemblyFile File containing assembly code to be parsed.
+     * @return The lines that were parsed and the errors that were encountered.
+     * @throws FileNotFoundException if the file to read from does not exist.
+     * @throws IOException if there was a problem reading from the file.
+     */
+    public static x86ParseResult parseFile(File assemblyFile) 
+            throws FileNotFoundException, IOException {
+        return new X86Parser().parseLines(readLines(assemblyFile));
+    }
+    
     /**
      * Remove the given line from this program.
      * 
@@ -205,13 +345,14 @@ public class x86Program {
             this.parser.removeLabel(l.getName());
         }
 
-        this.programLines.remove(line);
-        int i = 0;
-        for (x86ProgramLine l : this.programLines) {
-            l.setLineNum(i);
-            i++;
+        // Line numbers are derived from positions so nothing else needs to be
+        // renumbered.
+        int index = this.programLines.indexOf(line);
+        if (index != -1) {
+            this.programLines.remove(index);
+            this.recordEdit(j -> j.recordRemove(index));
         }
-        this.parser.setCurrLineNum(i);
+        this.parser.setCurrLineNum(this.programLines.size());
         this.isUnsaved = true;
     }
     
@@ -229,23 +370,142 @@ public class x86Program {
             this.parser.removeLabel(l.getName());
         }
         x86ProgramLine x = this.parser.parseLine(newLine);
+        this.parser.setCurrLineNum(this.programLines.size());
 
-        // Find where the existing instruction was and replace
-        // it with the new instruction.
-        int i = 0;
-        for (x86ProgramLine line : this.programLines) {
-            if (line == oldLine) {
-                parser.setCurrLineNum(x.getLineNum());
-                x.setLineNum(i);
-                this.programLines.remove(oldLine);
-                this.programLines.add(i, x);
-                this.isUnsaved = true;
+        int i = this.programLines.indexOf(oldLine);
+        if (i != -1) {
+            this.programLines.set(i, x);
+            this.isUnsaved = true;
+            this.recordEdit(j -> j.recordReplace(i, newLine));
+        }
+    }
+    
+    /**
+     * Writes a record of an edit to the journal (if there is one), compacting
+     * the journal if it has gotten too large.
+     * Journaling is only a safety net so if it fails the journal is dropped
+     * rather than failing the edit.
+     * 
+     * @param recorder Writes the record for the edit.
+     */
+    private void recordEdit(JournalRecorder recorder) {
+        if (!this.journal.isPresent()) {
+            return;
+        }
+        
+        x86ProgramJournal j = this.journal.get();
+        try {
+            recorder.record(j);
+            if (j.needsCompaction(this.programLines.size())) {
+                j.compact(this.programLines);
+            }
+        } catch (IOException ex) {
+            System.out.println("Unable to write to edit journal.");
+            this.journal = Optional.empty();
+            try {
+                j.close();
+            } catch (IOException closeEx) {
+                // Nothing else we can do.
+            }
+        }
+    }
+    
+    /**
+     * Replays any edits from the journal of this program's file that were
+     * made after the file was last saved (e.g. because the simulator crashed
+     * before they were saved), then starts a journal for this program.
+     * 
+     * @return True if any edits were recovered, False otherwise.
+     */
+    private boolean recoverFromJournal() {
+        int numApplied = 0;
+        try {
+            for (x86ProgramJournal.Edit edit : x86ProgramJournal.recover(file.get())) {
+                this.applyEdit(edit);
+                numApplied++;
+            }
+        } catch (X86ParsingException | IndexOutOfBoundsException ex) {
+            // Edits after this one no longer make sense, so stop here.
+        }
+        
+        try {
+            // Recovered edits are kept (as a snapshot) in case we crash again
+            // before they are saved.
+            this.journal = Optional.of(x86ProgramJournal.create(file.get(),
+                    numApplied > 0 ? this.programLines : null));
+        } catch (IOException ex) {
+            System.out.println("Unable to create edit journal.");
+        }
+        return numApplied > 0;
+    }
+    
+    /**
+     * Applies an edit recovered from a journal to this program.
+     * 
+     * @param edit The edit to apply.
+     * @throws X86ParsingException if the edit contains a line that can't be
+     * parsed.
+     */
+    private void applyEdit(x86ProgramJournal.Edit edit) throws X86ParsingException {
+        switch (edit.getType()) {
+            case INSERT:
+                this.parseThenInsertLine(edit.getIndex(), edit.getText());
                 break;
+            case REMOVE:
+                this.removeLine(this.programLines.get(edit.getIndex()));
+                break;
+            case REPLACE:
+                this.replaceLine(this.programLines.get(edit.getIndex()), edit.getText());
+                break;
+            case SNAPSHOT:
+                this.programLines.clear();
+                this.parser.clear();
+                String[] lines = edit.getText().split("\n", -1);
+                for (int i = 0; i < edit.getIndex(); i++) {
+                    this.parseThenAddLine(lines[i]);
+                }
+                break;
+        }
+    }
+    
+    /**
+     * Deletes this program's journal (if it has one).
+     */
+    private void deleteJournal() {
+        if (this.journal.isPresent()) {
+            try {
+                this.journal.get().delete();
+            } catch (IOException ex) {
+                System.out.println("Unable to delete edit journal.");
             }
-            i++;
+            this.journal = Optional.empty();
         }
     }
     
+    /**
+     * Closes this program, throwing away any unsaved edits (including those
+     * in its journal).
+     */
+    public void close() {
+        this.deleteJournal();
+    }
+    
+    /**
+     * @param name The name of a label.
+     * @return The label in this program with the given name, if there is one.
+     */
+    public Optional<x86Label> getLabel(String name) {
+        return parser.getLabel(name);
+    }
+    
+    /**
+     * Gets the program ready to be simulated by multiple threads at once.
+     * The program must not be edited while those simulations are running.
+     */
+    void prepareForConcurrentReads() {
+        this.programLines.prepareForConcurrentReads();
+    }
+    
     /**
      * Returns the line that marks the beginning of the program.
      * This will be either the line with the "main" label or, if that label
@@ -0,0 +1,453 @@
+package edu.sandiego.bcl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A pre-parsed copy of a program, stored in a compact binary file (with a
+ * .bclc extension) in the user's cache directory.
+ *
+ * The cache file records the SHA-256 hash of the source it was created from,
+ * so it is only used when the source hasn't changed since. Loading one skips
+ * the parser's regular expressions entirely, making it much faster to reopen
+ * large programs.
+ *
+ * The file contains a header (magic number, format version, a fingerprint of
+ * the instruction and size enums, and the source hash), a table of strings,
+ * and then each of the lines. All numbers are big endian.
+ */
+public class x86ProgramCache {
+
+    /**
+     * Extension added to the name of the source file.
+     */
+    public static final String EXTENSION = ".bclc";
+
+    /**
+     * System property that overrides the directory cache files are kept in.
+     */
+    public static final String CACHE_DIR_PROPERTY = "bcl.cacheDir";
+
+    private static final int MAGIC = 0x42434C43; // "BCLC"
+    private static final int VERSION = 1;
+
+    // Tags used to identify the type of each operand.
+    private static final byte CONSTANT_OPERAND = 'C';
+    private static final byte REGISTER_OPERAND = 'R';
+    private static final byte MEMORY_OPERAND = 'M';
+    private static final byte LABEL_OPERAND = 'L';
+
+    /**
+     * The decoded lines in the program.
+     */
+    private final List<x86DecodedLine> lines;
+
+    /**
+     * Whether each line had a breakpoint set.
+     */
+    private final boolean[] breakpoints;
+
+    private x86ProgramCache(List<x86DecodedLine> lines, boolean[] breakpoints) {
+        this.lines = lines;
+        this.breakpoints = breakpoints;
+    }
+
+    public List<x86DecodedLine> getLines() { return this.lines; }
+
+    public boolean hasBreakpoint(int lineNum) { return this.breakpoints[lineNum]; }
+
+    /**
+     * Returns the directory that cache files (and other files the simulator
+     * keeps about programs, like edit journals) are stored in.
+     * This is the bcl.cacheDir system property if it is set, otherwise a
+     * BelowCLevel directory in $XDG_CACHE_HOME (or ~/.cache), so that
+     * nothing is added to the directories programs are loaded from.
+     *
+     * @return The cache directory, which may not exist yet.
+     */
+    public static File getCacheDirectory() {
+        String dir = System.getProperty(CACHE_DIR_PROPERTY);
+        if (dir != null && !dir.isEmpty()) {
+            return new File(dir);
+        }
+        String xdg = System.getenv("XDG_CACHE_HOME");
+        File base = xdg != null && !xdg.isEmpty()
+                ? new File(xdg)
+                : new File(System.getProperty("user.home"), ".cache");
+        return new File(base, "BelowCLevel");
+    }
+
+    /**
+     * Returns a file in the cache directory for the given source file with
+     * the given extension.
+     * The name includes a hash of the source's absolute path so that sources
+     * with the same name in different directories don't share a file.
+     *
+     * @param source A program's source file.
+     * @param extension The extension to add to the file's name.
+     * @return The file in the cache directory.
+     */
+    static File getFileInCacheDirectory(File source, String extension) {
+        byte[] pathHash = newDigest().digest(
+                source.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+        StringBuilder name = new StringBuilder(source.getName()).append('-');
+        for (int i = 0; i < 8; i++) {
+            name.append(String.format("%02x", pathHash[i]));
+        }
+        return new File(getCacheDirectory(), name.append(extension).toString());
+    }
+
+    /**
+     * @param source A program's source file.
+     * @return The file where the cache for that program is stored.
+     */
+    public static File getCacheFile(File source) {
+        return getFileInCacheDirectory(source, EXTENSION);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256.
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Computes the SHA-256 hash of the contents of the given file.
+     * The file is read through a small buffer rather than mapped, so it isn't
+     * held open (which would stop it being replaced on some platforms) once
+     * this returns.
+     *
+     * @param f The file to hash.
+     * @return The hash of the file.
+     * @throws IOException if there was an error reading the file.
+     */
+    public static byte[] hashFile(File f) throws IOException {
+        MessageDigest md = newDigest();
+        byte[] buf = new byte[8192];
+        try (InputStream in = Files.newInputStream(f.toPath())) {
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                md.update(buf, 0, n);
+            }
+        }
+        return md.digest();
+    }
+
+    /**
+     * @return A number that changes whenever the line kinds, instruction
+     * types, or sizes change, since the cache stores their ordinals.
+     */
+    private static int getEnumFingerprint() {
+        List<Enum<?>> values = new ArrayList<>();
+        values.addAll(Arrays.asList(x86DecodedLine.Kind.values()));
+        values.addAll(Arrays.asList(InstructionType.values()));
+        values.addAll(Arrays.asList(OpSize.values()));
+
+        int fingerprint = 1;
+        for (Enum<?> e : values) {
+            fingerprint = 31 * fingerprint + e.name().hashCode();
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Loads the cached copy of the given program, if there is an up to date
+     * one. Any problem with the cache file (e.g. it is missing, stale, or
+     * corrupt) results in an empty Optional rather than an exception, so
+     * callers can simply fall back to parsing the source.
+     *
+     * @param source The program's source file.
+     * @return The cached program, or an empty Optional if none could be used.
+     */
+    public static Optional<x86ProgramCache> load(File source) {
+        File cacheFile = getCacheFile(source);
+        if (!cacheFile.isFile()) {
+            return Optional.empty();
+        }
+
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(cacheFile.toPath()));
+
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION
+                    || buf.getInt() != getEnumFingerprint()) {
+                return Optional.empty();
+            }
+
+            byte[] hash = new byte[buf.getInt()];
+            buf.get(hash);
+            if (!Arrays.equals(hash, hashFile(source))) {
+                return Optional.empty();
+            }
+
+            String[] strings = new String[buf.getInt()];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[buf.getInt()];
+                buf.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            int numLines = buf.getInt();
+            List<x86DecodedLine> lines = new ArrayList<>(numLines);
+            boolean[] breakpoints = new boolean[numLines];
+            for (int i = 0; i < numLines; i++) {
+                breakpoints[i] = buf.get() != 0;
+                lines.add(readLine(buf, strings));
+            }
+
+            return Optional.of(new x86ProgramCache(lines, breakpoints));
+        } catch (IOException | BufferUnderflowException
+                | IndexOutOfBoundsException | IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+
+    private static String readString(ByteBuffer buf, String[] strings) {
+        int i = buf.getInt();
+        return i == -1 ? null : strings[i];
+    }
+
+    private static x86DecodedLine readLine(ByteBuffer buf, String[] strings) {
+        x86DecodedLine.Kind kind = x86DecodedLine.Kind.values()[buf.get()];
+        String comment = readString(buf, strings);
+        x86Comment c = comment == null ? null : new x86Comment(comment);
+
+        if (kind == x86DecodedLine.Kind.BLANK) {
+            return x86DecodedLine.blank(c);
+        } else if (kind == x86DecodedLine.Kind.LABEL) {
+            return x86DecodedLine.label(readString(buf, strings), c);
+        }
+
+        InstructionType type = InstructionType.values()[buf.get()];
+        OpSize size = OpSize.values()[buf.get()];
+        int numOperands = buf.get();
+        List<Operand> operands = new ArrayList<>(numOperands);
+        for (int i = 0; i < numOperands; i++) {
+            operands.add(readOperand(buf, strings));
+        }
+        return x86DecodedLine.instruction(type, size, operands, c);
+    }
+
+    private static Operand readOperand(ByteBuffer buf, String[] strings) {
+        byte tag = buf.get();
+        OpSize size = OpSize.values()[buf.get()];
+        switch (tag) {
+            case CONSTANT_OPERAND:
+                long val = buf.getLong();
+                int base = buf.get();
+                return new ConstantOperand(val, size, base, readString(buf, strings));
+            case REGISTER_OPERAND:
+                return new RegOperand(readString(buf, strings), size);
+            case MEMORY_OPERAND:
+                String baseReg = readString(buf, strings);
+                String indexReg = readString(buf, strings);
+                int scale = buf.get();
+                boolean hasOffset = buf.get() != 0;
+                int offset = buf.getInt();
+                return new MemoryOperand(baseReg, indexReg,
+                        scale == 0 ? null : scale,
+                        hasOffset ? offset : null,
+                        size, readString(buf, strings));
+            case LABEL_OPERAND:
+                return new LabelOperand(readString(buf, strings), null);
+            default:
+                throw new IllegalArgumentException("unknown operand tag: " + tag);
+        }
+    }
+
+    /**
+     * Writes a cache file for the given program, based on the current
+     * contents of its source file.
+     * Nothing is written if any of the lines weren't created by the parser.
+     * The cache is written to a temporary file which then replaces the old
+     * one, so a program being loaded at the same time never sees a partial
+     * cache file.
+     *
+     * @param source The program's source file.
+     * @param programLines The lines of the program.
+     * @return True if the cache file was written, False otherwise.
+     */
+    public static boolean write(File source, List<x86ProgramLine> programLines) {
+        List<x86DecodedLine> decodedLines = new ArrayList<>(programLines.size());
+        for (x86ProgramLine line : programLines) {
+            if (!line.getDecodedLine().isPresent()) {
+                return false;
+            }
+            decodedLines.add(line.getDecodedLine().get());
+        }
+
+        // Gather up all the strings so each is only written once.
+        Map<String, Integer> stringIndices = new LinkedHashMap<>();
+        for (x86DecodedLine d : decodedLines) {
+            addString(stringIndices, d.getComment() == null ? null : d.getComment().toString());
+            addString(stringIndices, d.getLabelName());
+            for (Operand op : d.getOperands()) {
+                for (String s : getOperandStrings(op)) {
+                    addString(stringIndices, s);
+                }
+            }
+        }
+
+        Path cachePath = getCacheFile(source).toPath();
+        Path temp = null;
+        try {
+            Files.createDirectories(cachePath.getParent());
+            temp = Files.createTempFile(cachePath.getParent(),
+                    "." + cachePath.getFileName().toString(), ".tmp");
+            try (FileChannel ch = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        Channels.newOutputStream(ch)));
+                writeCache(out, hashFile(source), decodedLines, programLines,
+                        stringIndices);
+                out.flush();
+                ch.force(true);
+            }
+
+            try {
+                Files.move(temp, cachePath, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, cachePath, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            // The cache is only an optimization, so don't leave a partial one
+            // behind.
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ex) {
+                    // Nothing more we can do.
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private static void writeCache(DataOutputStream out, byte[] hash,
+            List<x86DecodedLine> decodedLines, List<x86ProgramLine> programLines,
+            Map<String, Integer> stringIndices) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(getEnumFingerprint());
+        out.writeInt(hash.length);
+        out.write(hash);
+
+        out.writeInt(stringIndices.size());
+        for (String s : stringIndices.keySet()) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        out.writeInt(decodedLines.size());
+        for (int i = 0; i < decodedLines.size(); i++) {
+            out.writeByte(programLines.get(i).getBreakpoint() ? 1 : 0);
+            writeLine(out, decodedLines.get(i), stringIndices);
+        }
+    }
+
+    private static void addString(Map<String, Integer> stringIndices, String s) {
+        if (s != null && !stringIndices.containsKey(s)) {
+            stringIndices.put(s, stringIndices.size());
+        }
+    }
+
+    private static List<String> getOperandStrings(Operand op) {
+        List<String> strings = new ArrayList<>();
+        if (op instanceof ConstantOperand) {
+            strings.add(((ConstantOperand) op).getStringRep());
+        } else if (op instanceof RegOperand) {
+            strings.add(((RegOperand) op).getRegName());
+        } else if (op instanceof MemoryOperand) {
+            MemoryOperand mo = (MemoryOperand) op;
+            mo.getBaseReg().ifPresent(strings::add);
+            mo.getIndexReg().ifPresent(strings::add);
+            strings.add(mo.getOffsetStr());
+        } else if (op instanceof LabelOperand) {
+            strings.add(((LabelOperand) op).getName());
+        }
+        return strings;
+    }
+
+    private static void writeString(DataOutputStream out, String s,
+            Map<String, Integer> stringIndices) throws IOException {
+        out.writeInt(s == null ? -1 : stringIndices.get(s));
+    }
+
+    private static void writeLine(DataOutputStream out, x86DecodedLine d,
+            Map<String, Integer> stringIndices) throws IOException {
+        out.writeByte(d.getKind().ordinal());
+        writeString(out, d.getComment() == null ? null : d.getComment().toString(),
+                stringIndices);
+
+        if (d.getKind() == x86DecodedLine.Kind.BLANK) {
+            return;
+        } else if (d.getKind() == x86DecodedLine.Kind.LABEL) {
+            writeString(out, d.getLabelName(), stringIndices);
+            return;
+        }
+
+        out.writeByte(d.getType().ordinal());
+        out.writeByte(d.getSize().ordinal());
+        out.writeByte(d.getOperands().size());
+        for (Operand op : d.getOperands()) {
+            writeOperand(out, op, stringIndices);
+        }
+    }
+
+    private static void writeOperand(DataOutputStream out, Operand op,
+            Map<String, Integer> stringIndices) throws IOException {
+        if (op instanceof ConstantOperand) {
+            ConstantOperand co = (ConstantOperand) op;
+            out.writeByte(CONSTANT_OPERAND);
+            out.writeByte(op.getOpSize().ordinal());
+            out.writeLong(co.getConstant());
+            out.writeByte(co.getBase());
+            writeString(out, co.getStringRep(), stringIndices);
+        } else if (op instanceof RegOperand) {
+            out.writeByte(REGISTER_OPERAND);
+            out.writeByte(op.getOpSize().ordinal());
+            writeString(out, ((RegOperand) op).getRegName(), stringIndices);
+        } else if (op instanceof MemoryOperand) {
+            MemoryOperand mo = (MemoryOperand) op;
+            out.writeByte(MEMORY_OPERAND);
+            out.writeByte(op.getOpSize().ordinal());
+            writeString(out, mo.getBaseReg().orElse(null), stringIndices);
+            writeString(out, mo.getIndexReg().orElse(null), stringIndices);
+            out.writeByte(mo.getScale().orElse(0));
+            out.writeByte(mo.getOffset().isPresent() ? 1 : 0);
+            out.writeInt(mo.getOffset().orElse(0));
+            writeString(out, mo.getOffsetStr(), stringIndices);
+        } else if (op instanceof LabelOperand) {
+            out.writeByte(LABEL_OPERAND);
+            out.writeByte(op.getOpSize().ordinal());
+            writeString(out, ((LabelOperand) op).getName(), stringIndices);
+        } else {
+            throw new RuntimeException("unsupported operand: " + op.getClass());
+        }
+    }
+}
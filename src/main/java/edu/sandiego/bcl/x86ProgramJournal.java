@@ -0,0 +1,497 @@
+package edu.sandiego.bcl;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of the edits made to a program since it was last
+ * saved. The journal is stored in the user's cache directory (with a .bclj
+ * extension, see {@link x86ProgramCache#getCacheDirectory()}) so that unsaved
+ * edits can be recovered after a crash by replaying the journal on top of the
+ * saved file, without cluttering the directory the program is in.
+ *
+ * The journal starts with a header containing the SHA-256 hash of the saved
+ * file it applies to. Each edit is then stored as a record containing its
+ * length, the edit itself, and a CRC32 checksum so that a partially written
+ * record (e.g. from a crash) can be detected and ignored.
+ *
+ * To keep autosaving cheap, records are appended to the journal as they happen
+ * but are only forced to disk in batches. A batch is forced once it is large
+ * or old enough, or by a timer if no more edits are made, so the last edits
+ * before the user stops typing are never left unsynced. Once the journal contains many more
+ * edits than the program has lines, it is compacted into a single snapshot of
+ * the program.
+ */
+public class x86ProgramJournal implements Closeable {
+
+    /**
+     * Extension added to the name of the source file.
+     */
+    public static final String EXTENSION = ".bclj";
+
+    private static final int MAGIC = 0x42434C4A; // "BCLJ"
+    private static final int VERSION = 1;
+
+    /**
+     * Maximum number of records written before they are forced to disk.
+     */
+    private static final int MAX_UNSYNCED_RECORDS = 64;
+
+    /**
+     * Maximum time (in ms) records may go without being forced to disk.
+     */
+    private static final long MAX_UNSYNCED_MILLIS = 1000;
+
+    /**
+     * Minimum number of records before the journal will be compacted.
+     */
+    private static final int MIN_RECORDS_TO_COMPACT = 1024;
+
+    /**
+     * Runs the syncs of journals whose last records were left unsynced.
+     */
+    private static final ScheduledExecutorService SYNCER = makeSyncer();
+
+    /**
+     * The types of edits that are recorded.
+     */
+    public enum EditType {
+        INSERT,
+        REMOVE,
+        REPLACE,
+
+        /**
+         * Replaces the whole program with the given lines.
+         */
+        SNAPSHOT
+    }
+
+    /**
+     * A single edit made to a program.
+     */
+    public static class Edit {
+        private final EditType type;
+        private final int index;
+        private final String text;
+
+        public Edit(EditType type, int index, String text) {
+            this.type = type;
+            this.index = index;
+            this.text = text;
+        }
+
+        public EditType getType() { return this.type; }
+
+        /**
+         * @return The index of the line that was edited (or, for a snapshot,
+         * the number of lines).
+         */
+        public int getIndex() { return this.index; }
+
+        /**
+         * @return The text of the new line (or, for a snapshot, all of the
+         * lines, each followed by a newline). This is empty for removals.
+         */
+        public String getText() { return this.text; }
+    }
+
+    /**
+     * The source file that this is a journal for.
+     */
+    private final File source;
+
+    /**
+     * Channel used to append records.
+     */
+    private FileChannel channel;
+
+    /**
+     * Number of records in the journal.
+     */
+    private int numRecords;
+
+    /**
+     * Number of records that haven't been forced to disk yet.
+     */
+    private int numUnsynced;
+
+    /**
+     * Time (from System.currentTimeMillis) of the last time records were
+     * forced to disk.
+     */
+    private long lastSyncTime;
+
+    /**
+     * The scheduled sync of the records that haven't been forced to disk, or
+     * null if there isn't one.
+     */
+    private ScheduledFuture<?> pendingSync;
+
+    private x86ProgramJournal(File source, FileChannel channel) {
+        this.source = source;
+        this.channel = channel;
+        this.numRecords = 0;
+        this.numUnsynced = 0;
+        this.lastSyncTime = System.currentTimeMillis();
+    }
+
+    private static ScheduledExecutorService makeSyncer() {
+        ScheduledThreadPoolExecutor syncer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "journal-sync");
+            t.setDaemon(true);
+            return t;
+        });
+        syncer.setRemoveOnCancelPolicy(true);
+        return syncer;
+    }
+
+    /**
+     * @param source A program's source file.
+     * @return The file where the journal for that program is stored.
+     */
+    public static File getJournalFile(File source) {
+        return x86ProgramCache.getFileInCacheDirectory(source, EXTENSION);
+    }
+
+    /**
+     * Creates a new, empty journal for the given source file, replacing any
+     * existing journal.
+     *
+     * @param source The program's (saved) source file.
+     * @return The new journal.
+     * @throws IOException if there was an error creating the journal.
+     */
+    public static x86ProgramJournal create(File source) throws IOException {
+        return create(source, null);
+    }
+
+    /**
+     * Creates a new journal for the given source file that starts with a
+     * snapshot of the given lines, replacing any existing journal.
+     *
+     * @param source The program's (saved) source file.
+     * @param lines The current lines of the program, or null if the program
+     * hasn't been changed since it was saved.
+     * @return The new journal.
+     * @throws IOException if there was an error creating the journal.
+     */
+    public static x86ProgramJournal create(File source, List<x86ProgramLine> lines)
+            throws IOException {
+        writeJournal(source, lines);
+        FileChannel ch = FileChannel.open(getJournalFile(source).toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        x86ProgramJournal j = new x86ProgramJournal(source, ch);
+        j.numRecords = lines == null ? 0 : 1;
+        return j;
+    }
+
+    /**
+     * Writes a journal that contains only a header and (optionally) a snapshot.
+     * This is written to a temporary file which then replaces the old journal,
+     * so a crash while doing this never loses the old journal's edits.
+     *
+     * @param source The program's (saved) source file.
+     * @param lines The lines to put in the snapshot, or null for no snapshot.
+     * @throws IOException if there was an error writing the journal.
+     */
+    private static void writeJournal(File source, List<x86ProgramLine> lines)
+            throws IOException {
+        Path journalPath = getJournalFile(source).toPath();
+        Files.createDirectories(journalPath.toAbsolutePath().getParent());
+        Path temp = Files.createTempFile(journalPath.toAbsolutePath().getParent(),
+                "." + journalPath.getFileName().toString(), ".tmp");
+        boolean moved = false;
+        try {
+            try (FileChannel ch = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                writeFully(ch, makeHeader(source));
+                if (lines != null) {
+                    StringBuilder sb = new StringBuilder();
+                    for (x86ProgramLine line : lines) {
+                        sb.append(line.getSourceText()).append('\n');
+                    }
+                    // The index is the number of lines so that an empty
+                    // program can be told apart from a single blank line.
+                    writeFully(ch, makeRecord(EditType.SNAPSHOT, lines.size(),
+                            sb.toString()));
+                }
+                ch.force(true);
+            }
+
+            try {
+                Files.move(temp, journalPath, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, journalPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+            moved = true;
+        } finally {
+            if (!moved) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    // The original error is the one worth reporting.
+                }
+            }
+        }
+    }
+
+    private static ByteBuffer makeHeader(File source) throws IOException {
+        byte[] hash = x86ProgramCache.hashFile(source);
+        ByteBuffer header = ByteBuffer.allocate(12 + hash.length);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(hash.length);
+        header.put(hash);
+        header.flip();
+        return header;
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+    }
+
+    /**
+     * Reads the edits that were recorded for the given source file.
+     * Reading stops at the first record that is incomplete or corrupt, since
+     * that (and anything after it) was not fully written.
+     * If the journal doesn't exist or was made for a different version of the
+     * source file, there is nothing to recover.
+     *
+     * @param source The program's (saved) source file.
+     * @return The edits to apply to the saved program, in order.
+     */
+    public static List<Edit> recover(File source) {
+        File journalFile = getJournalFile(source);
+        if (!journalFile.isFile()) {
+            return Collections.emptyList();
+        }
+
+        List<Edit> edits = new ArrayList<>();
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(journalFile.toPath()));
+
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                return Collections.emptyList();
+            }
+            byte[] hash = new byte[buf.getInt()];
+            buf.get(hash);
+            if (!Arrays.equals(hash, x86ProgramCache.hashFile(source))) {
+                return Collections.emptyList();
+            }
+
+            CRC32 crc = new CRC32();
+            while (buf.remaining() >= 4) {
+                int length = buf.getInt();
+                if (length < 5 || buf.remaining() < length + 8) {
+                    break;
+                }
+
+                ByteBuffer payload = buf.slice();
+                payload.limit(length);
+                buf.position(buf.position() + length);
+
+                crc.reset();
+                crc.update(payload.duplicate());
+                if (buf.getLong() != crc.getValue()) {
+                    break;
+                }
+
+                int type = payload.get();
+                if (type < 0 || type >= EditType.values().length) {
+                    break;
+                }
+                int index = payload.getInt();
+                byte[] text = new byte[payload.remaining()];
+                payload.get(text);
+                edits.add(new Edit(EditType.values()[type], index,
+                        new String(text, StandardCharsets.UTF_8)));
+            }
+        } catch (IOException | BufferUnderflowException e) {
+            // Keep whatever we were able to read.
+        }
+        return edits;
+    }
+
+    /**
+     * Records that a line was inserted.
+     *
+     * @param index The index of the new line.
+     * @param text The text of the new line.
+     * @throws IOException if the record couldn't be written.
+     */
+    public void recordInsert(int index, String text) throws IOException {
+        append(EditType.INSERT, index, text);
+    }
+
+    /**
+     * Records that a line was removed.
+     *
+     * @param index The index of the removed line.
+     * @throws IOException if the record couldn't be written.
+     */
+    public void recordRemove(int index) throws IOException {
+        append(EditType.REMOVE, index, "");
+    }
+
+    /**
+     * Records that a line was replaced.
+     *
+     * @param index The index of the replaced line.
+     * @param text The text of the new line.
+     * @throws IOException if the record couldn't be written.
+     */
+    public void recordReplace(int index, String text) throws IOException {
+        append(EditType.REPLACE, index, text);
+    }
+
+    private static ByteBuffer makeRecord(EditType type, int index, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        int length = 5 + bytes.length;
+        ByteBuffer record = ByteBuffer.allocate(4 + length + 8);
+        record.putInt(length);
+        record.put((byte) type.ordinal());
+        record.putInt(index);
+        record.put(bytes);
+
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, length);
+        record.putLong(crc.getValue());
+        record.flip();
+        return record;
+    }
+
+    private synchronized void append(EditType type, int index, String text)
+            throws IOException {
+        writeFully(this.channel, makeRecord(type, index, text));
+        this.numRecords++;
+        this.numUnsynced++;
+
+        if (this.numUnsynced >= MAX_UNSYNCED_RECORDS
+                || System.currentTimeMillis() - this.lastSyncTime >= MAX_UNSYNCED_MILLIS) {
+            this.sync();
+        } else if (this.pendingSync == null) {
+            this.pendingSync = SYNCER.schedule(this::syncPending,
+                    MAX_UNSYNCED_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Forces the records written so far to disk, if they haven't been
+     * already. This is run by the timer, so there is nobody to report an
+     * error to; the records will be forced by the next sync or close.
+     */
+    private synchronized void syncPending() {
+        this.pendingSync = null;
+        if (this.numUnsynced > 0 && this.channel.isOpen()) {
+            try {
+                this.sync();
+            } catch (IOException e) {
+                // Tried again by the next sync.
+            }
+        }
+    }
+
+    /**
+     * Forces all the records written so far to disk.
+     *
+     * @throws IOException if there was an error writing to disk.
+     */
+    public synchronized void sync() throws IOException {
+        if (this.numUnsynced > 0) {
+            this.channel.force(false);
+            this.numUnsynced = 0;
+        }
+        this.lastSyncTime = System.currentTimeMillis();
+        cancelPendingSync();
+    }
+
+    private void cancelPendingSync() {
+        if (this.pendingSync != null) {
+            this.pendingSync.cancel(false);
+            this.pendingSync = null;
+        }
+    }
+
+    /**
+     * @return The number of records that haven't been forced to disk yet.
+     */
+    public synchronized int getNumUnsynced() { return this.numUnsynced; }
+
+    /**
+     * @param numLines The number of lines currently in the program.
+     * @return True if the journal has grown large enough that it should be
+     * compacted.
+     */
+    public boolean needsCompaction(int numLines) {
+        return this.numRecords >= Math.max(MIN_RECORDS_TO_COMPACT, 2 * numLines);
+    }
+
+    /**
+     * Replaces all the records in the journal with a single snapshot of the
+     * given lines.
+     *
+     * @param lines The current lines of the program.
+     * @throws IOException if there was an error writing the new journal.
+     */
+    public synchronized void compact(List<x86ProgramLine> lines) throws IOException {
+        cancelPendingSync();
+        this.channel.close();
+        writeJournal(this.source, lines);
+        this.channel = FileChannel.open(getJournalFile(this.source).toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.numRecords = 1;
+        this.numUnsynced = 0;
+        this.lastSyncTime = System.currentTimeMillis();
+    }
+
+    public synchronized int getNumRecords() { return this.numRecords; }
+
+    public File getSource() { return this.source; }
+
+    /**
+     * Forces any remaining records to disk and closes the journal.
+     *
+     * @throws IOException if there was an error writing to disk.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            this.sync();
+        } finally {
+            this.channel.close();
+        }
+    }
+
+    /**
+     * Closes and deletes the journal, e.g. because its edits have been saved
+     * or discarded.
+     *
+     * @throws IOException if there was an error deleting the journal.
+     */
+    public synchronized void delete() throws IOException {
+        cancelPendingSync();
+        this.channel.close();
+        Files.deleteIfExists(getJournalFile(this.source).toPath());
+    }
+}
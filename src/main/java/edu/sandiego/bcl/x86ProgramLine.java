@@ -25,12 +25,39 @@ public abstract class x86ProgramLine {
      */
     protected boolean hasBreakpoint;
     
+    /**
+     * Condition that must hold for the breakpoint to stop simulation.
+     */
+    protected Optional<BreakpointCondition> breakpointCondition = Optional.empty();
+    
     /**
      * Optional comment.
      */
     protected Optional<x86Comment> comment;
     
+    /**
+     * The position of this line in the program it belongs to, or null if it
+     * isn't part of a program.
+     */
+    x86ProgramLineList.Node position;
+    
+    /**
+     * The decoded form this line was built from, or null if the line wasn't
+     * created by the parser.
+     */
+    x86DecodedLine decoded;
+    
+    /**
+     * Returns the line number of this line. When the line is part of a program,
+     * this is derived from its position so it stays correct as other lines are
+     * inserted or removed.
+     * 
+     * @return The line number of this line.
+     */
     public int getLineNum() {
+        if (position != null) {
+            return position.index();
+        }
         return lineNum;
     }
 
@@ -39,6 +66,14 @@ public abstract class x86ProgramLine {
             this.lineNum = lineNum;
     }
     
+    /**
+     * @return The decoded form of this line, which may be shared with other
+     * lines that have the same text.
+     */
+    public Optional<x86DecodedLine> getDecodedLine() {
+        return Optional.ofNullable(decoded);
+    }
+    
     public boolean getBreakpoint(){
         return hasBreakpoint;
     }
@@ -64,6 +99,44 @@ public abstract class x86ProgramLine {
         hasBreakpoint = !hasBreakpoint;
     }
     
+    public Optional<BreakpointCondition> getBreakpointCondition() {
+        return breakpointCondition;
+    }
+    
+    /**
+     * Sets the condition for this line's breakpoint, setting the breakpoint
+     * if the line doesn't have one.
+     * 
+     * @param condition The condition, or empty to always stop at the
+     * breakpoint.
+     */
+    public void setBreakpointCondition(Optional<BreakpointCondition> condition) {
+        breakpointCondition = condition;
+        if (condition.isPresent()) {
+            hasBreakpoint = true;
+        }
+    }
+    
+    /**
+     * Checks whether simulation should stop at this line.
+     * 
+     * @param state The state before this line is executed.
+     * @return True if this line has a breakpoint and its condition (if any)
+     * holds.
+     */
+    public boolean shouldBreak(MachineState state) {
+        return hasBreakpoint && (!breakpointCondition.isPresent()
+                || breakpointCondition.get().test(state));
+    }
+    
+    /**
+     * Returns the text of this line as it should appear in a source file,
+     * i.e. without the line number shown in the program listing.
+     * 
+     * @return The source text of this line.
+     */
+    public abstract String getSourceText();
+    
     /**
      * Constructs a string that provides an explanation of the line of code does
      * and/or means.
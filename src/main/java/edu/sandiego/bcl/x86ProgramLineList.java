@@ -0,0 +1,394 @@
+package edu.sandiego.bcl;
+
+import javafx.collections.ModifiableObservableListBase;
+
+/**
+ * An observable list of program lines where the line number of each line is
+ * derived from its position in the list.
+ *
+ * The lines are stored in an order-statistic tree (a treap whose nodes track
+ * the size of their subtree) so inserting, removing, replacing, and finding the
+ * index of a line all take O(log n) time. Because line numbers are never
+ * stored, nothing needs to be renumbered when the list changes and anything
+ * that refers to a line (e.g. a label operand) stays valid.
+ *
+ * Each change fires a single, fine-grained change event (e.g. one removal)
+ * rather than a notification that the whole list was replaced.
+ */
+public class x86ProgramLineList extends ModifiableObservableListBase<x86ProgramLine> {
+
+    /**
+     * A node in the tree, which marks the position of a single line.
+     */
+    static final class Node {
+        x86ProgramLine line;
+        Node left;
+        Node right;
+        Node parent;
+
+        /**
+         * Number of nodes in the subtree rooted at this node.
+         */
+        int size;
+
+        /**
+         * Random priority used to keep the tree balanced (max heap order).
+         */
+        final int priority;
+
+        /**
+         * The list this node belongs to, or null if it was removed.
+         */
+        x86ProgramLineList owner;
+
+        /**
+         * Index of this node, only valid while its owner has a snapshot.
+         */
+        int snapshotIndex;
+
+        Node(x86ProgramLine line, int priority, x86ProgramLineList owner) {
+            this.line = line;
+            this.priority = priority;
+            this.owner = owner;
+            this.size = 1;
+        }
+
+        /**
+         * @return The index of this node in its list.
+         */
+        int index() {
+            return this.owner.indexOfNode(this);
+        }
+    }
+
+    /**
+     * Root of the tree (null when the list is empty).
+     */
+    private Node root;
+
+    /**
+     * State of the pseudo-random generator used for node priorities.
+     */
+    private int seed;
+
+    /**
+     * An array copy of the lines in the list, used to make lookups O(1) when
+     * the list hasn't changed in a while (e.g. during simulation). This is
+     * null whenever it is out of date.
+     */
+    private x86ProgramLine[] snapshot;
+
+    /**
+     * Number of lookups done since the list was last modified.
+     */
+    private int lookupsSinceChange;
+
+    public x86ProgramLineList() {
+        this.root = null;
+        this.seed = 0x2545F491;
+        this.snapshot = null;
+        this.lookupsSinceChange = 0;
+    }
+
+    private static int size(Node n) {
+        return n == null ? 0 : n.size;
+    }
+
+    private static void updateSize(Node n) {
+        n.size = size(n.left) + size(n.right) + 1;
+    }
+
+    private int nextPriority() {
+        // xorshift32
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        return seed;
+    }
+
+    /**
+     * Notes that a lookup occurred, building a snapshot once enough lookups
+     * have happened to pay for it.
+     */
+    private void countLookup() {
+        if (snapshot == null
+                && ++lookupsSinceChange > (size(root) / 8) + 16) {
+            buildSnapshot();
+        }
+    }
+
+    private void buildSnapshot() {
+        x86ProgramLine[] lines = new x86ProgramLine[size(root)];
+        int i = 0;
+
+        // iterative in-order traversal
+        Node curr = root;
+        Node prev = null;
+        while (curr != null) {
+            if (prev == curr.parent) {
+                if (curr.left != null) {
+                    prev = curr;
+                    curr = curr.left;
+                    continue;
+                }
+                prev = null; // fall through to visiting curr
+            }
+            if (prev == curr.left) {
+                curr.snapshotIndex = i;
+                lines[i++] = curr.line;
+                if (curr.right != null) {
+                    prev = curr;
+                    curr = curr.right;
+                    continue;
+                }
+            }
+            prev = curr;
+            curr = curr.parent;
+        }
+        this.snapshot = lines;
+    }
+
+    /**
+     * Builds the snapshot now (if it isn't already built) so that lookups no
+     * longer change the list. After this, the list can safely be read from
+     * multiple threads, as long as it isn't modified.
+     */
+    void prepareForConcurrentReads() {
+        if (snapshot == null) {
+            buildSnapshot();
+        }
+    }
+
+    private void invalidateSnapshot() {
+        this.snapshot = null;
+        this.lookupsSinceChange = 0;
+    }
+
+    private Node nodeAt(int index) {
+        if (index < 0 || index >= size(root)) {
+            throw new IndexOutOfBoundsException("Index: " + index
+                    + ", Size: " + size(root));
+        }
+        Node curr = root;
+        while (true) {
+            int leftSize = size(curr.left);
+            if (index < leftSize) {
+                curr = curr.left;
+            } else if (index == leftSize) {
+                return curr;
+            } else {
+                index -= leftSize + 1;
+                curr = curr.right;
+            }
+        }
+    }
+
+    /**
+     * Finds the index of the given node by walking up to the root.
+     *
+     * @param n A node in this list.
+     * @return The index of that node.
+     */
+    int indexOfNode(Node n) {
+        if (snapshot != null) {
+            return n.snapshotIndex;
+        }
+        countLookup();
+        int index = size(n.left);
+        while (n.parent != null) {
+            if (n == n.parent.right) {
+                index += size(n.parent.left) + 1;
+            }
+            n = n.parent;
+        }
+        return index;
+    }
+
+    /**
+     * Rotates the given node above its parent.
+     *
+     * @param n The node to rotate up.
+     */
+    private void rotateUp(Node n) {
+        Node p = n.parent;
+        Node g = p.parent;
+
+        if (n == p.left) {
+            p.left = n.right;
+            if (n.right != null) n.right.parent = p;
+            n.right = p;
+        } else {
+            p.right = n.left;
+            if (n.left != null) n.left.parent = p;
+            n.left = p;
+        }
+        p.parent = n;
+        n.parent = g;
+
+        if (g == null) {
+            root = n;
+        } else if (g.left == p) {
+            g.left = n;
+        } else {
+            g.right = n;
+        }
+
+        updateSize(p);
+        updateSize(n);
+    }
+
+    @Override
+    public x86ProgramLine get(int index) {
+        if (snapshot != null) {
+            return snapshot[index];
+        }
+        countLookup();
+        return nodeAt(index).line;
+    }
+
+    @Override
+    public int size() {
+        return size(root);
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        if (o instanceof x86ProgramLine) {
+            Node n = ((x86ProgramLine) o).position;
+            if (n != null && n.owner == this) {
+                return indexOfNode(n);
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        // A line can only be in one position, so the first is also the last.
+        return indexOf(o);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) != -1;
+    }
+
+    @Override
+    protected void doAdd(int index, x86ProgramLine line) {
+        if (index < 0 || index > size(root)) {
+            throw new IndexOutOfBoundsException("Index: " + index
+                    + ", Size: " + size(root));
+        }
+        attach(line);
+        invalidateSnapshot();
+
+        Node n = new Node(line, nextPriority(), this);
+        line.position = n;
+
+        if (root == null) {
+            root = n;
+            return;
+        }
+
+        // Insert as a leaf then rotate up until the heap order is restored.
+        Node curr = root;
+        while (true) {
+            curr.size++;
+            int leftSize = size(curr.left);
+            if (index <= leftSize) {
+                if (curr.left == null) {
+                    curr.left = n;
+                    break;
+                }
+                curr = curr.left;
+            } else {
+                index -= leftSize + 1;
+                if (curr.right == null) {
+                    curr.right = n;
+                    break;
+                }
+                curr = curr.right;
+            }
+        }
+        n.parent = curr;
+
+        while (n.parent != null && n.priority > n.parent.priority) {
+            rotateUp(n);
+        }
+    }
+
+    @Override
+    protected x86ProgramLine doSet(int index, x86ProgramLine line) {
+        Node n = nodeAt(index);
+        x86ProgramLine old = n.line;
+        if (old == line) {
+            return old;
+        }
+        attach(line);
+        invalidateSnapshot();
+
+        detach(old, index);
+        n.line = line;
+        line.position = n;
+        return old;
+    }
+
+    @Override
+    protected x86ProgramLine doRemove(int index) {
+        Node n = nodeAt(index);
+        invalidateSnapshot();
+
+        // Rotate the node down until it has at most one child...
+        while (n.left != null && n.right != null) {
+            Node child = n.left.priority > n.right.priority ? n.left : n.right;
+            rotateUp(child);
+        }
+
+        // ... then splice it out of the tree.
+        Node child = n.left != null ? n.left : n.right;
+        Node p = n.parent;
+        if (child != null) {
+            child.parent = p;
+        }
+        if (p == null) {
+            root = child;
+        } else {
+            if (p.left == n) {
+                p.left = child;
+            } else {
+                p.right = child;
+            }
+            for (Node a = p; a != null; a = a.parent) {
+                a.size--;
+            }
+        }
+
+        n.left = n.right = n.parent = null;
+        n.owner = null;
+        detach(n.line, index);
+        return n.line;
+    }
+
+    /**
+     * Makes sure the given line can be added to this list.
+     *
+     * @param line The line that will be added.
+     */
+    private static void attach(x86ProgramLine line) {
+        if (line.position != null) {
+            throw new IllegalArgumentException("Line is already part of a program.");
+        }
+    }
+
+    /**
+     * Disconnects a line from its position. The line keeps the line number it
+     * had when it was removed.
+     *
+     * @param line The line being removed from the list.
+     * @param index The index the line was at.
+     */
+    private static void detach(x86ProgramLine line, int index) {
+        line.position = null;
+        line.setLineNum(index);
+    }
+}
@@ -0,0 +1,103 @@
+package edu.sandiego.bcl;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+
+/**
+ * Writes the source text of a program to a file.
+ *
+ * The text is streamed straight from the program's lines through a buffered
+ * channel into a temporary file in the same directory as the destination.
+ * Once everything has been written and flushed to disk, the temporary file is
+ * moved over the destination. This means a crash in the middle of saving will
+ * never leave behind a truncated program.
+ */
+public class x86ProgramWriter {
+
+    /**
+     * Size (in chars) of the buffer used while writing.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Writes the source text of the given lines to the given file, replacing
+     * its contents.
+     *
+     * @param lines The lines to write, in order.
+     * @param destination The file to write to.
+     * @throws IOException if there was an error writing the file. When this
+     * happens the destination is left unchanged.
+     */
+    public static void write(Iterable<x86ProgramLine> lines, Path destination)
+            throws IOException {
+        Path dir = destination.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(dir,
+                "." + destination.getFileName().toString(), ".tmp");
+
+        boolean moved = false;
+        try {
+            try (FileChannel ch = FileChannel.open(temp,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                // Uses the same charset that files are read with.
+                Writer w = new BufferedWriter(Channels.newWriter(ch,
+                        Charset.defaultCharset().newEncoder(), -1), BUFFER_SIZE);
+                for (x86ProgramLine line : lines) {
+                    w.write(line.getSourceText());
+                    w.write('\n');
+                }
+                w.flush();
+                ch.force(true);
+            }
+            copyPermissions(destination, temp);
+
+            try {
+                Files.move(temp, destination, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, destination, StandardCopyOption.REPLACE_EXISTING);
+            }
+            moved = true;
+        } finally {
+            // Clean up whatever went wrong, including errors getting a
+            // line's text.
+            if (!moved) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    // The original error is the one worth reporting.
+                }
+            }
+        }
+    }
+
+    /**
+     * Temporary files are only readable by their owner, so give the new file
+     * the same permissions as the one it replaces (or the usual permissions
+     * for a new file).
+     *
+     * @param from The file whose permissions should be kept.
+     * @param to The file to update.
+     */
+    private static void copyPermissions(Path from, Path to) {
+        try {
+            Set<PosixFilePermission> perms = Files.exists(from)
+                    ? Files.getPosixFilePermissions(from)
+                    : PosixFilePermissions.fromString("rw-r--r--");
+            Files.setPosixFilePermissions(to, perms);
+        } catch (UnsupportedOperationException | IOException e) {
+            // Not a POSIX file system, so there is nothing to copy.
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package edu.sandiego.bcl;
 
 import java.math.BigInteger;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Optional;
@@ -325,6 +327,17 @@ public class x86UnaryInstruction extends x86Instruction {
         }
     }
 
+    /**
+     * Checks the condition of a jump or set without executing it.
+     *
+     * @param state The state in which to check the condition.
+     * @return True if the condition holds (which it always does for jmp and
+     * for instructions without a condition).
+     */
+    boolean conditionHolds(MachineState state) {
+        return !this.conditionCheck.isPresent() || this.conditionCheck.get().test(state);
+    }
+
     /**
      * Jumps to a destination, storing the location of the next instruction (i.e.
      * the return address) onto the stack.
@@ -350,13 +363,31 @@ public class x86UnaryInstruction extends x86Instruction {
 
         // return new state with rip set to beginning of callee
         MachineState mS = dest.updateState(tmp, Optional.of(dest.getValue(state)), flags, false);
-        mS.pushToCallStack();
+        mS.pushToCallStack(state.getRipRegister(), rA,
+                mS.getQuadRegisterValue("rsp"));
         return mS;
     }
 
     @Override
     public MachineState eval(MachineState state) throws x86RuntimeException {
-        return operation.apply(state, this.destination);
+        SimulatorMetrics.get().recordInstruction(this.type);
+        SimulatorEvents.Eval event = new SimulatorEvents.Eval();
+        event.begin();
+        try {
+            return operation.apply(state, this.destination);
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.instructionType = this.type.name();
+                event.lineNum = getLineNum();
+                event.commit();
+            }
+        }
+    }
+
+    @Override
+    public List<Operand> getOperands() {
+        return Collections.singletonList(destination);
     }
 
     @Override
@@ -386,14 +417,19 @@ public class x86UnaryInstruction extends x86Instruction {
     }
 
     @Override
-    public String toString() {
-        String s = lineNum + ": \t" + getInstructionTypeString() + " " + destination.toString();
+    public String getSourceText() {
+        String s = "\t" + getInstructionTypeString() + " " + destination.toString();
         if (comment.isPresent()) {
             s += " " + comment.get().toString();
         }
         return s;
     }
 
+    @Override
+    public String toString() {
+        return getLineNum() + ": " + getSourceText();
+    }
+
     @Override
     public String getDescriptionString() {
         String destDesc = destination.getDescriptionString();
@@ -4,6 +4,8 @@ module edu.sandiego.bcl {
 	requires javafx.web;
         requires generex;
         requires java.string.similarity;
+        requires java.management;
+        requires jdk.jfr;
 
 	opens edu.sandiego.bcl to javafx.fxml;
 	exports edu.sandiego.bcl;
@@ -0,0 +1,173 @@
+package edu.sandiego.bcl;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import static edu.sandiego.bcl.TestPrograms.makeProgram;
+import static edu.sandiego.bcl.TestPrograms.makeSimulation;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the BatchRunner class.
+ */
+public class BatchRunnerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    public BatchRunnerTest() {
+    }
+
+    private static MachineState makeInput(long rdi, long rsi) throws Exception {
+        return new MachineState()
+                .cloneWithUpdatedRegister("rdi", Optional.of(BigInteger.valueOf(rdi)),
+                        new HashMap<>(), false)
+                .cloneWithUpdatedRegister("rsi", Optional.of(BigInteger.valueOf(rsi)),
+                        new HashMap<>(), false);
+    }
+
+    /**
+     * Programs loaded for a batch shouldn't have edit journals.
+     */
+    @Test
+    public void testLoadProgramsWithoutJournal() throws Exception {
+        System.out.println("load programs without journal");
+        File source = folder.newFile("sub.s");
+        Files.write(source.toPath(), Arrays.asList("main:", "movq %rdi, %rax", "retq"));
+
+        List<x86Program> programs = BatchRunner.loadPrograms(Arrays.asList(source));
+        assertEquals(3, programs.get(0).getNumLines());
+        assertFalse(x86ProgramJournal.getJournalFile(source).exists());
+
+        List<BatchRunner.Result> results;
+        try (BatchRunner runner = new BatchRunner(1)) {
+            results = runner.runAll(programs, Arrays.asList(makeInput(7, 0)), 100);
+        }
+        assertEquals(BigInteger.valueOf(7),
+                results.get(0).getFinalState().getRegisterValue("rax"));
+        assertFalse(x86ProgramJournal.getJournalFile(source).exists());
+    }
+
+    /**
+     * Every program should be run with every input, without changing the
+     * inputs.
+     */
+    @Test
+    public void testRunAll() throws Exception {
+        System.out.println("run all");
+        List<x86Program> programs = Arrays.asList(
+                makeProgram("main:", "movq %rdi, %rax", "addq %rsi, %rax", "retq"),
+                makeProgram("# subtracts", "main:", "movq %rdi, %rax",
+                        "subq %rsi, %rax", "retq"));
+
+        List<MachineState> inputs = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            inputs.add(makeInput(i, 2 * i + 1));
+        }
+
+        List<BatchRunner.Result> results;
+        try (BatchRunner runner = new BatchRunner(4)) {
+            results = runner.runAll(programs, inputs, 100);
+        }
+
+        assertEquals(100, results.size());
+        for (BatchRunner.Result r : results) {
+            int i = r.getInputIndex();
+            assertEquals(BatchRunner.Status.COMPLETED, r.getStatus());
+            assertEquals(4, r.getNumExecuted()); // includes the main label
+            long expected = r.getProgramIndex() == 0 ? i + (2 * i + 1) : i - (2 * i + 1);
+            assertEquals(BigInteger.valueOf(expected),
+                    r.getFinalState().getRegisterValue("rax"));
+        }
+
+        for (MachineState input : inputs) {
+            assertEquals(0, input.getRipRegister());
+            assertEquals(0, input.getCallStackSize());
+        }
+    }
+
+    /**
+     * Runs that go on too long or hit an error should be reported as such,
+     * and every result should be passed to the callback.
+     */
+    @Test
+    public void testBudgetAndErrors() throws Exception {
+        System.out.println("budget and errors");
+        List<x86Program> programs = Arrays.asList(
+                makeProgram("main:", "loop:", "incq %rax", "jmp loop"),
+                makeProgram("movq (%rdi), %rax"));
+        List<MachineState> inputs = Arrays.asList(makeInput(0, 0));
+
+        AtomicInteger numResults = new AtomicInteger();
+        List<BatchRunner.Result> results = new ArrayList<>();
+        try (BatchRunner runner = new BatchRunner()) {
+            runner.submit(programs, inputs, 1000, r -> {
+                numResults.incrementAndGet();
+                synchronized (results) {
+                    results.add(r);
+                }
+            }).join();
+        }
+
+        assertEquals(2, numResults.get());
+        for (BatchRunner.Result r : results) {
+            if (r.getProgramIndex() == 0) {
+                assertEquals(BatchRunner.Status.BUDGET_EXHAUSTED, r.getStatus());
+                assertEquals(1000, r.getNumExecuted());
+                assertFalse(r.getError().isPresent());
+            } else {
+                assertEquals(BatchRunner.Status.RUNTIME_ERROR, r.getStatus());
+                assertEquals(0, r.getNumExecuted());
+                assertTrue(r.getError().isPresent());
+            }
+        }
+    }
+    /**
+     * Running a function should give its return value for each argument
+     * vector.
+     */
+    @Test
+    public void testRunFunction() throws Exception {
+        System.out.println("run function");
+        Simulation sim = makeSimulation("main:", "movq $3, %rdi", "callq mul",
+                "retq", "mul:", "movq %rdi, %rax", "imulq %rsi, %rax",
+                "addq %rdx, %rax", "retq", "spin:", "jmp spin");
+
+        List<long[]> args = new ArrayList<>();
+        for (long i = 0; i < 1000; i++) {
+            args.add(new long[]{i, i - 500, 7});
+        }
+
+        List<BatchRunner.Result> results = sim.runFunction("mul", args, 100);
+        assertEquals(args.size(), results.size());
+        for (int i = 0; i < results.size(); i++) {
+            BatchRunner.Result r = results.get(i);
+            assertEquals(i, r.getInputIndex());
+            assertEquals(BatchRunner.Status.COMPLETED, r.getStatus());
+            assertEquals(BigInteger.valueOf((long) i * (i - 500) + 7),
+                    r.getReturnValue());
+        }
+
+        // The simulation itself shouldn't have moved.
+        assertTrue(sim.isAtBeginning());
+
+        results = sim.runFunction("spin", Arrays.asList(new long[0]), 50);
+        assertEquals(BatchRunner.Status.BUDGET_EXHAUSTED, results.get(0).getStatus());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRunMissingFunction() throws Exception {
+        System.out.println("run missing function");
+        Simulation sim = makeSimulation("retq");
+        sim.runFunction("nope", Arrays.asList(new long[]{1}), 10);
+    }
+}
@@ -0,0 +1,129 @@
+package edu.sandiego.bcl;
+
+import static edu.sandiego.bcl.TestPrograms.makeSimulation;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests for the BranchStats class.
+ */
+public class BranchStatsTest {
+
+    public BranchStatsTest() {
+    }
+
+    /**
+     * A loop that runs 4 times.
+     */
+    private static Simulation makeLoop() throws Exception {
+        return makeSimulation(
+                "main:",            // 0
+                "movq $4, %rcx",    // 1
+                "loop:",            // 2
+                "decq %rcx",        // 3
+                "jne loop",         // 4
+                "retq");            // 5
+    }
+
+    /**
+     * Counts the odd numbers from 32 down to 1 with a branch that alternates
+     * between taken and not taken.
+     */
+    private static Simulation makeAlternating() throws Exception {
+        return makeSimulation(
+                "main:",            // 0
+                "movq $32, %rcx",   // 1
+                "loop:",            // 2
+                "testq $1, %rcx",   // 3
+                "je skip",          // 4
+                "incq %rax",        // 5
+                "skip:",            // 6
+                "decq %rcx",        // 7
+                "jne loop",         // 8
+                "retq");            // 9
+    }
+
+    @Test
+    public void testLoop() throws Exception {
+        System.out.println("loop");
+        Simulation sim = makeLoop();
+        assertTrue(sim.finish());
+
+        BranchStats branches = sim.getProfiler().getBranchStats();
+        assertEquals(4, branches.getTotalBranches());
+        assertEquals(3, branches.getTakenCount(4));
+        assertEquals(1, branches.getNotTakenCount(4));
+        assertEquals(0, branches.getTakenCount(3));
+
+        // Backward, so always predicted taken.
+        assertEquals(1, branches.getMispredictions(4, BranchStats.Predictor.STATIC));
+        // Wrong on the first and last times.
+        assertEquals(2, branches.getMispredictions(4, BranchStats.Predictor.ONE_BIT));
+        assertEquals(2, branches.getMispredictions(4, BranchStats.Predictor.TWO_BIT));
+        // Each time has a different history, so only the last (not taken) is
+        // predicted correctly.
+        assertEquals(3, branches.getMispredictions(4, BranchStats.Predictor.GSHARE));
+        assertEquals(3, branches.getTotalMispredictions(BranchStats.Predictor.GSHARE));
+    }
+
+    @Test
+    public void testAlternating() throws Exception {
+        System.out.println("alternating");
+        Simulation sim = makeAlternating();
+        assertTrue(sim.finish());
+
+        BranchStats branches = sim.getProfiler().getBranchStats();
+        assertEquals(16, branches.getTakenCount(4));
+        assertEquals(16, branches.getNotTakenCount(4));
+        assertTrue(branches.getMispredictions(4, BranchStats.Predictor.ONE_BIT) >= 30);
+        assertTrue(branches.getMispredictions(4, BranchStats.Predictor.GSHARE)
+                < branches.getMispredictions(4, BranchStats.Predictor.TWO_BIT));
+        assertTrue(branches.getMispredictions(4, BranchStats.Predictor.GSHARE) <= 4);
+
+        String csv = branches.toCsv();
+        assertTrue(csv.startsWith("line,taken,not_taken,mispredicted_static,"));
+        assertTrue(csv.contains("\n4,16,16,"));
+        assertTrue(sim.getProfiler().toText().contains("GSHARE"));
+    }
+
+    @Test
+    public void testUndo() throws Exception {
+        System.out.println("undo");
+        Simulation expected = makeAlternating();
+        expected.jumpToStep(40);
+        BranchStats e = expected.getProfiler().getBranchStats();
+
+        Simulation sim = makeAlternating();
+        assertTrue(sim.finish());
+        sim.jumpToStep(40);
+        BranchStats b = sim.getProfiler().getBranchStats();
+
+        assertEquals(e.getTotalBranches(), b.getTotalBranches());
+        assertEquals(e.toCsv(), b.toCsv());
+        for (BranchStats.Predictor p : BranchStats.Predictor.values()) {
+            assertEquals(e.getTotalMispredictions(p), b.getTotalMispredictions(p));
+        }
+
+        // The predictors are back in the same state, so they predict the
+        // rest the same way.
+        assertTrue(expected.finish());
+        assertTrue(sim.finish());
+        assertEquals(e.toCsv(), b.toCsv());
+    }
+
+    @Test
+    public void testHistoryBits() throws Exception {
+        System.out.println("history bits");
+        Simulation sim = makeLoop();
+        sim.getProfiler().setBranchHistoryBits(2);
+        assertEquals(2, sim.getProfiler().getBranchStats().getHistoryBits());
+        assertTrue(sim.finish());
+        assertEquals(4, sim.getProfiler().getBranchStats().getTotalBranches());
+
+        try {
+            new BranchStats(0);
+            fail("0 history bits were accepted");
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package edu.sandiego.bcl;
+
+import java.math.BigInteger;
+import java.util.Optional;
+import static edu.sandiego.bcl.TestPrograms.makeSimulation;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests for the BreakpointCondition class.
+ */
+public class BreakpointConditionTest {
+
+    public BreakpointConditionTest() {
+    }
+
+    private static MachineState stateWith(long rax, long stackValue) throws Exception {
+        MachineState state = new MachineState();
+        state = state.cloneWithUpdatedRegister("rax", Optional.of(BigInteger.valueOf(rax)),
+                new java.util.HashMap<>(), false);
+        state = state.cloneWithUpdatedRegister("rsp",
+                Optional.of(state.getRegisterValue("rsp").subtract(BigInteger.valueOf(16))),
+                new java.util.HashMap<>(), false);
+        long rsp = state.getRegisterValue("rsp").longValue();
+        state = state.cloneWithUpdatedMemory(Optional.of(BigInteger.valueOf(stackValue)),
+                rsp, 8, new java.util.HashMap<>(), false);
+        state = state.cloneWithUpdatedMemory(Optional.of(BigInteger.valueOf(-3)),
+                rsp + 8, 8, new java.util.HashMap<>(), false);
+        return state.cloneWithUpdatedRegister("rbx", Optional.of(BigInteger.valueOf(rsp + 16)),
+                new java.util.HashMap<>(), false);
+    }
+
+    @Test
+    public void testConditions() throws Exception {
+        System.out.println("conditions");
+        MachineState state = stateWith(11, 0);
+
+        assertTrue(BreakpointCondition.parse("%rax > 10 && (%rsp) == 0").test(state));
+        assertFalse(BreakpointCondition.parse("%rax > 11 && (%rsp) == 0").test(state));
+        assertTrue(BreakpointCondition.parse("%rax == 0xB || %rcx").test(state));
+        assertTrue(BreakpointCondition.parse("8(%rsp) == -3").test(state));
+        assertTrue(BreakpointCondition.parse("-8(%rbx) + 1 == -2").test(state));
+        assertTrue(BreakpointCondition.parse("(%rax - 1) * 2 == 20").test(state));
+        assertTrue(BreakpointCondition.parse("!(%eax < 0) && -%rax == -11").test(state));
+        assertTrue(BreakpointCondition.parse("%al").test(state));
+
+        // Reading outside of the stack makes the condition false.
+        assertFalse(BreakpointCondition.parse("(%rcx) == 0").test(state));
+        assertFalse(BreakpointCondition.parse("-8(%rsp) == 0 || 1").test(state));
+    }
+
+    @Test
+    public void testParseErrors() throws Exception {
+        System.out.println("parse errors");
+        for (String bad : new String[]{"%rax >", "%rax == 1)", "(%rax", "%foo == 1",
+                "%rax $ 1", ""}) {
+            try {
+                BreakpointCondition.parse(bad);
+                fail("expected \"" + bad + "\" to be rejected");
+            } catch (X86ParsingException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * A conditional breakpoint should only stop when its condition holds.
+     */
+    @Test
+    public void testConditionalBreakpoint() throws Exception {
+        System.out.println("conditional breakpoint");
+        Simulation sim = makeSimulation(new String[]{"main:", "movq $0, %rax", "loop:",
+                "incq %rax", "cmpq $100, %rax", "jne loop", "retq"});
+        sim.getProgramLines().get(3).setBreakpointCondition(
+                Optional.of(BreakpointCondition.parse("%rax == 41")));
+        assertTrue(sim.getProgramLines().get(3).getBreakpoint());
+
+        assertTrue(sim.finish());
+        assertFalse(sim.isFinished());
+        assertEquals(3, sim.getCurrentLine().getLineNum());
+        assertEquals(41, sim.getStateAt(sim.getCurrentStep()).getRegisterValue("rax").intValue());
+
+        assertTrue(sim.finish());
+        assertTrue(sim.isFinished());
+    }
+}
@@ -0,0 +1,183 @@
+package edu.sandiego.bcl;
+
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests for the CacheSimulator class.
+ */
+public class CacheSimulatorTest {
+
+    public CacheSimulatorTest() {
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        System.out.println("hits and misses");
+        // 2 sets of 2 lines of 16 bytes
+        CacheSimulator cache = new CacheSimulator(64, 16, 2,
+                CacheSimulator.Replacement.LRU);
+        assertEquals(2, cache.getNumSets());
+
+        cache.access(0, 0x100, 8, false);   // miss
+        cache.access(0, 0x108, 8, false);   // hit, same line
+        cache.access(1, 0x10C, 8, true);    // spans 2 lines: hit, then miss
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(1, cache.getWriteMisses());
+        assertEquals(1, cache.getLineHits(0));
+        assertEquals(1, cache.getLineMisses(0));
+        assertEquals(0.5, cache.getLineMissRate(1), 1e-9);
+        assertEquals(0, cache.getLineMissRate(5), 1e-9);
+
+        cache.reset();
+        cache.access(0, 0x100, 8, false);
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testReplacement() {
+        System.out.println("replacement");
+        // Blocks 0x000, 0x100 and 0x200 all map to set 0 of a 2-way cache.
+        CacheSimulator lru = new CacheSimulator(64, 16, 2,
+                CacheSimulator.Replacement.LRU);
+        CacheSimulator fifo = new CacheSimulator(64, 16, 2,
+                CacheSimulator.Replacement.FIFO);
+        for (CacheSimulator c : new CacheSimulator[]{lru, fifo}) {
+            c.access(0, 0x000, 1, false);
+            c.access(0, 0x100, 1, false);
+            c.access(0, 0x000, 1, false);   // hit; LRU now evicts 0x100
+            c.access(0, 0x200, 1, false);   // miss
+            c.access(1, 0x000, 1, false);
+        }
+        assertEquals(1, lru.getLineHits(1));
+        assertEquals(1, fifo.getLineMisses(1));
+    }
+
+    @Test
+    public void testInvalidSizes() {
+        System.out.println("invalid sizes");
+        try {
+            new CacheSimulator(100, 16, 2, CacheSimulator.Replacement.LRU);
+            fail("size that isn't a power of two was accepted");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            new CacheSimulator(64, 16, 3, CacheSimulator.Replacement.LRU);
+            fail("associativity that doesn't divide the lines was accepted");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    /**
+     * Fills a 64-byte aligned array on the stack, then sums it, accessing every
+     * stride bytes.
+     */
+    private static Simulation makeSimulation(int stride) throws Exception {
+        return TestPrograms.makeSimulation(new String[]{
+            "main:",                        // 0
+            "movq %rsp, %rbp",              // 1
+            "subq $512, %rsp",              // 2
+            "andq $-64, %rsp",              // 3
+            "movq %rsp, %rbx",              // 4
+            "movq $0, %rcx",                // 5
+            "fill:",                        // 6
+            "movq %rcx, (%rbx,%rcx)",       // 7
+            "addq $" + stride + ", %rcx",   // 8
+            "cmpq $512, %rcx",              // 9
+            "jl fill",                      // 10
+            "movq $0, %rax",                // 11
+            "movq $0, %rcx",                // 12
+            "sum:",                         // 13
+            "addq (%rbx,%rcx), %rax",       // 14
+            "addq $" + stride + ", %rcx",   // 15
+            "cmpq $512, %rcx",              // 16
+            "jl sum",                       // 17
+            "movq %rbp, %rsp",              // 18
+            "retq"});                       // 19
+    }
+
+    @Test
+    public void testSimulation() throws Exception {
+        System.out.println("simulation");
+        Simulation sim = makeSimulation(8);
+        sim.setCacheSimulator(new CacheSimulator(1024, 64, 2,
+                CacheSimulator.Replacement.LRU));
+        assertTrue(sim.finish());
+
+        CacheSimulator cache = sim.getCacheSimulator().get();
+        // Filling touches 8 cache lines, each with 1 miss then 7 hits. They
+        // all fit in the cache, so summing only hits.
+        assertEquals(8, cache.getLineMisses(7));
+        assertEquals(56, cache.getLineHits(7));
+        assertEquals(0, cache.getLineMisses(14));
+        assertEquals(64, cache.getLineHits(14));
+        assertEquals(0, cache.getLineHits(15) + cache.getLineMisses(15));
+        // retq reads the stack
+        assertEquals(1, cache.getLineHits(19) + cache.getLineMisses(19));
+        assertTrue(cache.toText(sim.getProgramLines()).contains("addq"));
+    }
+
+    @Test
+    public void testStepBackward() throws Exception {
+        System.out.println("step backward");
+        Simulation sim = makeSimulation(64);
+        assertTrue(sim.finish());
+        sim.setCacheSimulator(new CacheSimulator(256, 64, 1,
+                CacheSimulator.Replacement.FIFO));
+        long misses = sim.getCacheSimulator().get().getMisses();
+        assertTrue(misses > 0);
+
+        sim.jumpToStep(sim.getCurrentStep() / 2);
+        long halfway = sim.getCacheSimulator().get().getMisses();
+        assertTrue(halfway < misses);
+
+        assertTrue(sim.finish());
+        assertEquals(misses, sim.getCacheSimulator().get().getMisses());
+
+        sim.removeCacheSimulator();
+        assertFalse(sim.getCacheSimulator().isPresent());
+    }
+
+    /**
+     * Stepping backward should take back each instruction's accesses,
+     * including the lines it evicted, so that going forward again gives the
+     * same counts.
+     */
+    @Test
+    public void testUndo() throws Exception {
+        System.out.println("undo");
+        for (CacheSimulator.Replacement r : CacheSimulator.Replacement.values()) {
+            Simulation sim = makeSimulation(64);
+            // Small enough that filling the array evicts lines.
+            sim.setCacheSimulator(new CacheSimulator(256, 64, 2, r));
+            CacheSimulator cache = sim.getCacheSimulator().get();
+
+            List<long[]> counts = new ArrayList<>();
+            counts.add(new long[]{0, 0, 0});
+            while (!sim.isFinished()) {
+                sim.stepForward();
+                counts.add(new long[]{cache.getHits(), cache.getMisses(),
+                    cache.getWriteMisses()});
+            }
+            assertTrue(cache.getMisses() > 8);
+
+            // Go back to each step and then run to the end again. If the
+            // evicted lines weren't put back, the second run would hit
+            // differently.
+            long[] last = counts.get(counts.size() - 1);
+            for (int step = counts.size() - 2; step >= 0; step--) {
+                sim.jumpToStep(step);
+                assertSame(cache, sim.getCacheSimulator().get());
+                assertArrayEquals(counts.get(step), new long[]{cache.getHits(),
+                    cache.getMisses(), cache.getWriteMisses()});
+                assertTrue(sim.finish());
+                assertArrayEquals(last, new long[]{cache.getHits(),
+                    cache.getMisses(), cache.getWriteMisses()});
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package edu.sandiego.bcl;
+
+import java.util.List;
+import static edu.sandiego.bcl.TestPrograms.makeSimulation;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests for the shadow call stack and the ways of stepping that use it.
+ */
+public class CallFrameTest {
+
+    public CallFrameTest() {
+    }
+
+    /**
+     * Computes 5! with a recursive helper.
+     */
+    private static Simulation makeFactorial() throws Exception {
+        return makeSimulation(new String[]{
+            "main:",                    // 0
+            "movq $5, %rdi",            // 1
+            "callq fact",               // 2
+            "movq %rax, %rbx",          // 3
+            "retq",                     // 4
+            "fact:",                    // 5
+            "movq $1, %rax",            // 6
+            "cmpq $1, %rdi",            // 7
+            "jle done",                 // 8
+            "pushq %rdi",               // 9
+            "decq %rdi",                // 10
+            "callq fact",               // 11
+            "popq %rdi",                // 12
+            "imulq %rdi, %rax",         // 13
+            "done:",                    // 14
+            "retq"});                   // 15
+    }
+
+    @Test
+    public void testCallStack() throws Exception {
+        System.out.println("call stack");
+        Simulation sim = makeFactorial();
+        sim.runToLine(sim.getProgramLines().get(6));
+        assertEquals(1, sim.getCallDepth());
+        sim.runToLine(sim.getProgramLines().get(6));
+        sim.runToLine(sim.getProgramLines().get(6));
+
+        List<CallFrame> stack = sim.getCallStack();
+        assertEquals(3, stack.size());
+        assertEquals(11, stack.get(0).getCallLine());
+        assertEquals(12, stack.get(0).getReturnRip());
+        assertEquals(2, stack.get(2).getCallLine());
+        assertEquals(3, stack.get(2).getReturnRip());
+
+        // Each frame's %rsp is below its caller's (by the return address and
+        // the saved %rdi).
+        assertEquals(16, stack.get(1).getStackPointer() - stack.get(0).getStackPointer());
+        assertEquals(new MachineState().getRegisterValue("rsp").longValue() - 8,
+                stack.get(2).getStackPointer());
+    }
+
+    @Test
+    public void testStepOver() throws Exception {
+        System.out.println("step over");
+        Simulation sim = makeFactorial();
+        sim.stepOver();
+        sim.stepOver();
+        assertTrue(sim.isAtCall());
+        assertTrue(sim.stepOver());
+        assertEquals(3, sim.getCurrentLine().getLineNum());
+        assertEquals(0, sim.getCallDepth());
+        assertEquals(120, sim.getStateAt(sim.getCurrentStep()).getRegisterValue("rax").intValue());
+    }
+
+    @Test
+    public void testStepOverStopsAtBreakpoint() throws Exception {
+        System.out.println("step over stops at breakpoint");
+        Simulation sim = makeFactorial();
+        sim.getProgramLines().get(13).toggleBreakpoint();
+        sim.runToLine(sim.getProgramLines().get(2));
+        assertTrue(sim.stepOver());
+        assertEquals(13, sim.getCurrentLine().getLineNum());
+    }
+
+    @Test
+    public void testStepOut() throws Exception {
+        System.out.println("step out");
+        Simulation sim = makeFactorial();
+        sim.runToLine(sim.getProgramLines().get(14));
+        assertEquals(5, sim.getCallDepth());
+
+        // Stepping out of the innermost call returns to the recursive call site.
+        assertTrue(sim.stepOut());
+        assertEquals(4, sim.getCallDepth());
+        assertEquals(12, sim.getCurrentLine().getLineNum());
+
+        // Stepping out of the rest in one go.
+        assertTrue(sim.runToDepth(0));
+        assertEquals(3, sim.getCurrentLine().getLineNum());
+        assertTrue(sim.getCallStack().isEmpty());
+
+        // Stepping out of main finishes the program.
+        assertTrue(sim.stepOut());
+        assertTrue(sim.isFinished());
+    }
+}
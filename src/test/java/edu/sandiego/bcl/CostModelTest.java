@@ -0,0 +1,133 @@
+package edu.sandiego.bcl;
+
+import static edu.sandiego.bcl.TestPrograms.makeSimulation;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests for the CostModel class.
+ */
+public class CostModelTest {
+
+    public CostModelTest() {
+    }
+
+    private static x86ProgramLine parse(String line) throws Exception {
+        return makeSimulation(line).getProgramLines().get(0);
+    }
+
+    @Test
+    public void testDefaultCosts() throws Exception {
+        System.out.println("default costs");
+        CostModel model = CostModel.DEFAULT;
+        assertEquals(1, model.getCycles(parse("addq %rax, %rbx")));
+        assertEquals(1, model.getCycles(parse("movq $4, %rax")));
+        assertEquals(3, model.getCycles(parse("imulq %rdi, %rax")));
+        assertEquals(40, model.getCycles(parse("idivq %rcx")));
+        assertEquals(5, model.getCycles(parse("movq %rax, -8(%rsp)")));
+        assertEquals(1, model.getCycles(parse("leaq 8(%rax,%rax,2), %rax")));
+        assertEquals(0, model.getCycles(parse("main:")));
+        assertEquals(2, model.getTakenBranchCycles());
+        assertTrue(CostModel.isJump(parse("jne main")));
+        assertFalse(CostModel.isJump(parse("cmpq $1, %rdi")));
+    }
+
+    @Test
+    public void testWithCycles() throws Exception {
+        System.out.println("with cycles");
+        CostModel model = CostModel.DEFAULT
+                .withBaseCycles(InstructionType.IMUL, 10)
+                .withOperandCycles(CostModel.OperandKind.MEMORY, 100)
+                .withTakenBranchCycles(0);
+        assertEquals(10, model.getCycles(parse("imulq %rdi, %rax")));
+        assertEquals(101, model.getCycles(parse("leaq 8(%rax), %rax")));
+        assertEquals(0, model.getTakenBranchCycles());
+
+        // The original is unchanged.
+        assertEquals(3, CostModel.DEFAULT.getBaseCycles(InstructionType.IMUL));
+        assertEquals(0, CostModel.DEFAULT.getOperandCycles(InstructionType.LEA,
+                CostModel.OperandKind.MEMORY));
+
+        try {
+            model.withTakenBranchCycles(-1);
+            fail("negative cycles were accepted");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void testCompareVersions() throws Exception {
+        System.out.println("compare versions");
+        Simulation imul = makeSimulation("main:", "movq $5, %rax",
+                "imulq $3, %rax", "retq");
+        Simulation lea = makeSimulation("main:", "movq $5, %rax",
+                "leaq (%rax,%rax,2), %rax", "retq");
+        assertTrue(imul.finish());
+        assertTrue(lea.finish());
+        assertEquals(15, imul.getStateAt(imul.getCurrentStep()).getRegisterValue("rax").longValue());
+        assertEquals(15, lea.getStateAt(lea.getCurrentStep()).getRegisterValue("rax").longValue());
+
+        // Same number of instructions, but imul takes longer.
+        assertEquals(imul.getProfiler().getTotalCount(),
+                lea.getProfiler().getTotalCount());
+        assertEquals(1 + 3 + 6, imul.getProfiler().getTotalCycles());
+        assertEquals(1 + 1 + 6, lea.getProfiler().getTotalCycles());
+    }
+
+    @Test
+    public void testTakenBranches() throws Exception {
+        System.out.println("taken branches");
+        Simulation sim = makeSimulation("main:", "movq $2, %rcx", "loop:",
+                "decq %rcx", "jne loop", "retq");
+        assertTrue(sim.finish());
+
+        Profiler profiler = sim.getProfiler();
+        // Taken once, then falls through.
+        assertEquals(2, profiler.getLineCount(4));
+        assertEquals(1 + 2 + 1, profiler.getLineCycles(4));
+        assertEquals(1 + 2 * 1 + 4 + 6, profiler.getTotalCycles());
+
+        Profiler.FunctionProfile main = profiler.getFunctionProfiles().get(0);
+        assertEquals(profiler.getTotalCycles(), main.getExclusiveCycles());
+        assertEquals(profiler.getTotalCycles(), main.getInclusiveCycles());
+    }
+
+    @Test
+    public void testFunctionCycles() throws Exception {
+        System.out.println("function cycles");
+        Simulation sim = makeSimulation("main:", "movq $2, %rcx", "callq f",
+                "retq", "f:", "idivq %rcx", "retq");
+        assertTrue(sim.finish());
+
+        Profiler profiler = sim.getProfiler();
+        Profiler.FunctionProfile main = null;
+        Profiler.FunctionProfile f = null;
+        for (Profiler.FunctionProfile p : profiler.getFunctionProfiles()) {
+            if (p.getName().equals("main")) {
+                main = p;
+            } else if (p.getName().equals("f")) {
+                f = p;
+            }
+        }
+        assertNotNull(main);
+        assertNotNull(f);
+        assertEquals(1 + 6 + 6, main.getExclusiveCycles());
+        assertEquals(40 + 6, f.getExclusiveCycles());
+        assertEquals(1 + 6 + 6 + 40 + 6, main.getInclusiveCycles());
+    }
+
+    @Test
+    public void testUndo() throws Exception {
+        System.out.println("undo");
+        Simulation sim = makeSimulation("main:", "movq $2, %rcx", "loop:",
+                "decq %rcx", "jne loop", "retq");
+        sim.jumpToStep(5);
+        long cycles = sim.getProfiler().getTotalCycles();
+        assertEquals(1 + 1 + 3, cycles);
+
+        assertTrue(sim.finish());
+        sim.jumpToStep(5);
+        assertEquals(cycles, sim.getProfiler().getTotalCycles());
+        assertEquals(3, sim.getProfiler().getLineCycles(4));
+    }
+}
@@ -0,0 +1,170 @@
+package edu.sandiego.bcl;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Optional;
+import static edu.sandiego.bcl.TestPrograms.makeProgram;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests for the DifferentialRunner class.
+ */
+public class DifferentialRunnerTest {
+
+    public DifferentialRunnerTest() {
+    }
+
+    /**
+     * Sums the squares of 0 through 9, calling sq for each.
+     */
+    private static x86Program reference() throws Exception {
+        return makeProgram("main:", "movq $0, %rbx", "movq $0, %r12", "loop:",
+                "movq %rbx, %rdi", "callq sq", "addq %rax, %r12", "incq %rbx",
+                "cmpq $10, %rbx", "jne loop", "movq %r12, %rax", "retq",
+                "sq:", "movq %rdi, %rax", "imulq %rdi, %rax", "retq");
+    }
+
+    /**
+     * Programs that only differ in ways that can't be seen at checkpoints
+     * should not diverge.
+     */
+    @Test
+    public void testNoDivergence() throws Exception {
+        System.out.println("no divergence");
+        x86Program submission = makeProgram("main:", "movq $0, %rbx", "movq $0, %r12",
+                "loop:", "movq %rbx, %rdi", "callq sq", "addq %rax, %r12", "incq %rbx",
+                "cmpq $10, %rbx", "jne loop", "movq %r12, %rax", "retq",
+                "sq:", "movq %rdi, %rcx", "imulq %rcx, %rcx", "movq %rcx, %rax",
+                "retq");
+
+        DifferentialRunner runner = new DifferentialRunner(reference(), submission);
+        assertEquals(Optional.empty(), runner.run(new MachineState(), 100000));
+    }
+
+    /**
+     * A wrong return value should be reported at the return where it first
+     * happens, with both states.
+     */
+    @Test
+    public void testWrongReturnValue() throws Exception {
+        System.out.println("wrong return value");
+        // This version of sq is wrong for numbers bigger than 3.
+        x86Program submission = makeProgram("main:", "movq $0, %rbx", "movq $0, %r12",
+                "loop:", "movq %rbx, %rdi", "callq sq", "addq %rax, %r12", "incq %rbx",
+                "cmpq $10, %rbx", "jne loop", "movq %r12, %rax", "retq",
+                "sq:", "movq %rdi, %rax", "imulq %rdi, %rax", "cmpq $9, %rax",
+                "jle done", "decq %rax", "done:", "retq");
+
+        DifferentialRunner runner = new DifferentialRunner(reference(), submission);
+        Optional<DifferentialRunner.Divergence> d = runner.run(new MachineState(), 100000);
+        assertTrue(d.isPresent());
+
+        DifferentialRunner.Checkpoint expected = d.get().getExpected();
+        DifferentialRunner.Checkpoint actual = d.get().getActual();
+        assertEquals(DifferentialRunner.CheckpointKind.RETURN, expected.getKind());
+        assertEquals(DifferentialRunner.CheckpointKind.RETURN, actual.getKind());
+        assertEquals(BigInteger.valueOf(16), expected.getState().getRegisterValue("rax"));
+        assertEquals(BigInteger.valueOf(15), actual.getState().getRegisterValue("rax"));
+        assertEquals(BigInteger.valueOf(4), actual.getState().getRegisterValue("rbx"));
+        assertEquals(1, d.get().getDifferences().size());
+        assertTrue(d.get().getDifferences().get(0).startsWith("%rax"));
+    }
+
+    /**
+     * Calling a different function, or stopping with an error, should be a
+     * divergence.
+     */
+    @Test
+    public void testDifferentControlFlow() throws Exception {
+        System.out.println("different control flow");
+        x86Program submission = makeProgram("main:", "movq $0, %rbx", "movq $0, %r12",
+                "loop:", "movq %rbx, %rdi", "callq cube", "addq %rax, %r12",
+                "incq %rbx", "cmpq $10, %rbx", "jne loop", "movq %r12, %rax", "retq",
+                "cube:", "movq %rdi, %rax", "imulq %rdi, %rax", "imulq %rdi, %rax",
+                "retq");
+
+        DifferentialRunner runner = new DifferentialRunner(reference(), submission);
+        Optional<DifferentialRunner.Divergence> d = runner.run(new MachineState(), 100000);
+        assertTrue(d.isPresent());
+        assertEquals("sq", d.get().getExpected().getName());
+        assertEquals("cube", d.get().getActual().getName());
+
+        // A submission that never finishes should stop at the limit.
+        x86Program spin = makeProgram("main:", "movq $0, %rbx", "movq $0, %r12",
+                "spin:", "jmp spin");
+        d = new DifferentialRunner(reference(), spin).run(new MachineState(), 1000);
+        assertTrue(d.isPresent());
+        assertEquals(DifferentialRunner.CheckpointKind.END, d.get().getActual().getKind());
+        assertTrue(d.get().getActual().getError().get() instanceof QuotaExceededException);
+    }
+
+    /**
+     * A store into the caller's frame through a pointer argument should be
+     * compared when the function returns.
+     */
+    @Test
+    public void testWrongStore() throws Exception {
+        System.out.println("wrong store");
+        String[] caller = {"main:", "subq $16, %rsp", "movq $0, 8(%rsp)",
+                "leaq 8(%rsp), %rdi", "movq $7, %rsi", "callq store", "addq $16, %rsp",
+                "retq"};
+        x86Program reference = makeProgram(concat(caller,
+                "store:", "movq %rsi, (%rdi)", "retq"));
+        x86Program submission = makeProgram(concat(caller,
+                "store:", "movl %esi, (%rdi)", "movl $1, 4(%rdi)", "retq"));
+
+        Optional<DifferentialRunner.Divergence> d = new DifferentialRunner(reference,
+                submission).run(new MachineState(), 1000);
+        assertTrue(d.isPresent());
+        assertEquals(DifferentialRunner.CheckpointKind.RETURN, d.get().getExpected().getKind());
+        assertEquals(1, d.get().getDifferences().size());
+        assertTrue(d.get().getDifferences().get(0).startsWith("memory at 0x"));
+
+        // Storing the same value a different way is fine.
+        x86Program same = makeProgram(concat(caller,
+                "store:", "movl %esi, (%rdi)", "movl $0, 4(%rdi)", "retq"));
+        assertEquals(Optional.empty(),
+                new DifferentialRunner(reference, same).run(new MachineState(), 1000));
+    }
+
+    /**
+     * Registers a function only uses as scratch space aren't arguments, so
+     * whatever the caller left in them shouldn't cause a divergence.
+     */
+    @Test
+    public void testScratchRegistersNotCompared() throws Exception {
+        System.out.println("scratch registers not compared");
+        // The reference uses %rcx for scratch and passes %rsi through to add.
+        x86Program reference = makeProgram("main:", "movq $1, %rcx", "movq $2, %rdi",
+                "movq $3, %rsi", "callq f", "retq",
+                "f:", "movq %rdi, %rcx", "imulq %rcx, %rcx", "movq %rcx, %rdi",
+                "callq add", "retq",
+                "add:", "xorl %eax, %eax", "addq %rdi, %rax", "addq %rsi, %rax", "retq");
+        x86Program submission = makeProgram("main:", "movq $9, %rcx", "movq $2, %rdi",
+                "movq $3, %rsi", "callq f", "retq",
+                "f:", "movq %rdi, %rcx", "imulq %rcx, %rcx", "movq %rcx, %rdi",
+                "callq add", "retq",
+                "add:", "xorl %eax, %eax", "addq %rdi, %rax", "addq %rsi, %rax", "retq");
+        assertEquals(Optional.empty(),
+                new DifferentialRunner(reference, submission).run(new MachineState(), 1000));
+
+        // Changing the argument f passes through should still be caught.
+        x86Program wrongArg = makeProgram("main:", "movq $1, %rcx", "movq $2, %rdi",
+                "movq $4, %rsi", "callq f", "retq",
+                "f:", "movq %rdi, %rcx", "imulq %rcx, %rcx", "movq %rcx, %rdi",
+                "callq add", "retq",
+                "add:", "xorl %eax, %eax", "addq %rdi, %rax", "addq %rsi, %rax", "retq");
+        Optional<DifferentialRunner.Divergence> d = new DifferentialRunner(reference,
+                wrongArg).run(new MachineState(), 1000);
+        assertTrue(d.isPresent());
+        assertEquals("f", d.get().getExpected().getName());
+        assertTrue(d.get().getDifferences().get(0).startsWith("%rsi"));
+    }
+
+    private static String[] concat(String[] first, String... rest) {
+        String[] all = Arrays.copyOf(first, first.length + rest.length);
+        System.arraycopy(rest, 0, all, first.length, rest.length);
+        return all;
+    }
+}
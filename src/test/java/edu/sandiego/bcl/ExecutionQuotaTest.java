@@ -0,0 +1,141 @@
+package edu.sandiego.bcl;
+
+import java.time.Duration;
+import static edu.sandiego.bcl.TestPrograms.makeSimulation;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests for enforcing an ExecutionQuota in a Simulation.
+ */
+public class ExecutionQuotaTest {
+
+    public ExecutionQuotaTest() {
+    }
+
+    /**
+     * Runs the simulation until it finishes or hits an error.
+     *
+     * @return The error that stopped the simulation.
+     */
+    private static x86RuntimeException runUntilError(Simulation sim) {
+        try {
+            while (!sim.finish()) { }
+        } catch (x86RuntimeException e) {
+            return e;
+        }
+        fail("simulation finished without an error");
+        return null;
+    }
+
+    @Test
+    public void testInstructionLimit() throws Exception {
+        System.out.println("instruction limit");
+        Simulation sim = makeSimulation("loop:", "incq %rax", "jmp loop");
+        sim.setQuota(ExecutionQuota.UNLIMITED.withMaxInstructions(500));
+
+        x86RuntimeException e = runUntilError(sim);
+        assertTrue(e instanceof QuotaExceededException);
+        assertEquals(ExecutionQuota.Kind.INSTRUCTIONS, ((QuotaExceededException) e).getKind());
+        assertEquals(500, sim.getNumExecuted());
+        assertTrue(sim.getStuckOnError());
+
+        // Restarting should give the simulation a fresh allowance.
+        sim.restart();
+        assertEquals(0, sim.getNumExecuted());
+        sim.stepForward();
+    }
+
+    @Test
+    public void testStackLimit() throws Exception {
+        System.out.println("stack limit");
+        Simulation sim = makeSimulation("loop:", "pushq %rax", "jmp loop");
+        sim.setQuota(ExecutionQuota.UNLIMITED.withMaxStackBytes(80));
+
+        QuotaExceededException e = (QuotaExceededException) runUntilError(sim);
+        assertEquals(ExecutionQuota.Kind.STACK_BYTES, e.getKind());
+        assertEquals(80, e.getLimit());
+        assertEquals(80, sim.getStackEntries().stream()
+                .mapToLong(se -> se.getEndAddress() - se.getStartAddress() + 1).sum());
+    }
+
+    @Test
+    public void testHistoryLimit() throws Exception {
+        System.out.println("history limit");
+        Simulation sim = makeSimulation("loop:", "incq %rax", "jmp loop");
+        sim.setQuota(ExecutionQuota.UNLIMITED.withMaxHistoryBytes(100000));
+
+        QuotaExceededException e = (QuotaExceededException) runUntilError(sim);
+        assertEquals(ExecutionQuota.Kind.HISTORY_BYTES, e.getKind());
+        assertTrue(sim.getHistoryBytes() <= 100000);
+
+        // Stepping back frees up history.
+        long before = sim.getHistoryBytes();
+        sim.stepBackward();
+        assertTrue(sim.getHistoryBytes() < before);
+        sim.stepForward();
+    }
+
+    /**
+     * Each step should only be charged for the memory it allocates, so
+     * instructions that don't write memory cost the same however big the
+     * stack is.
+     */
+    @Test
+    public void testHistoryGrowsLinearly() throws Exception {
+        System.out.println("history grows linearly");
+        Simulation sim = makeSimulation("movq $1000, %rcx", "fill:", "pushq %rax",
+                "decq %rcx", "jne fill", "spin:", "incq %rax", "jmp spin");
+
+        long start = sim.getHistoryBytes();
+        sim.stepForward();
+        long smallStackStep = sim.getHistoryBytes() - start;
+
+        while (sim.getStackEntries().size() < 1000) {
+            sim.stepForward();
+        }
+        sim.stepForward();
+        sim.stepForward();
+        sim.stepForward();
+        start = sim.getHistoryBytes();
+        sim.stepForward();
+        assertEquals(smallStackStep, sim.getHistoryBytes() - start);
+
+        // A push copies the list of entries but not the entries themselves.
+        sim.restart();
+        while (sim.getStackEntries().size() < 1000) {
+            sim.stepForward();
+        }
+        assertTrue(sim.getHistoryBytes() < 1000L * 1000 * 100);
+    }
+
+    /**
+     * The number of bytes in memory should be kept up to date as entries are
+     * overwritten, split, and freed.
+     */
+    @Test
+    public void testStackBytes() throws Exception {
+        System.out.println("stack bytes");
+        Simulation sim = makeSimulation("pushq %rax", "pushq %rbx",
+                "movb $1, 3(%rsp)", "movl $2, 8(%rsp)", "movw $3, 6(%rsp)",
+                "addq $8, %rsp", "addq $8, %rsp");
+        for (int i = 0; i < 7; i++) {
+            sim.stepForward();
+            MachineState state = sim.getStateAt(sim.getCurrentStep());
+            assertEquals(sim.getStackEntries().stream()
+                    .mapToLong(se -> se.getEndAddress() - se.getStartAddress() + 1).sum(),
+                    state.getStackBytes());
+        }
+        assertEquals(0, sim.getStateAt(sim.getCurrentStep()).getStackBytes());
+    }
+
+    @Test
+    public void testTimeLimit() throws Exception {
+        System.out.println("time limit");
+        Simulation sim = makeSimulation("loop:", "incq %rax", "jmp loop");
+        sim.setQuota(ExecutionQuota.UNLIMITED.withTimeLimit(Duration.ofMillis(50)));
+
+        QuotaExceededException e = (QuotaExceededException) runUntilError(sim);
+        assertEquals(ExecutionQuota.Kind.DEADLINE, e.getKind());
+    }
+}
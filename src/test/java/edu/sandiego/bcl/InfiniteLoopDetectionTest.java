@@ -0,0 +1,113 @@
+package edu.sandiego.bcl;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import static edu.sandiego.bcl.TestPrograms.makeSimulation;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests for state hashing and infinite loop detection.
+ */
+public class InfiniteLoopDetectionTest {
+
+    public InfiniteLoopDetectionTest() {
+    }
+
+    private static MachineState rehash(MachineState s) {
+        Map<String, Boolean> flags = new HashMap<>();
+        flags.put("zf", s.getZeroFlag());
+        flags.put("sf", s.getSignFlag());
+        flags.put("of", s.getOverflowFlag());
+        flags.put("cf", s.getCarryFlag());
+        Map<String, RegisterState> regs = new HashMap<>();
+        for (String r : new String[]{"rax", "rbx", "rcx", "rdx", "rsi", "rdi",
+                "rbp", "rsp", "r8", "r9", "r10", "r11", "r12", "r13", "r14", "r15"}) {
+            byte[] val = s.getRegisterValue(r).toByteArray();
+            regs.put(r, new RegisterState(
+                    MachineState.getExtendedByteArray(s.getRegisterValue(r), val.length, 8, false), -1));
+        }
+        return new MachineState(regs, s.getStackEntries(), s.getTabs(), flags,
+                s.getRipRegister(), s.getCallStackSize());
+    }
+
+    /**
+     * The incrementally updated hash should match one calculated from scratch.
+     */
+    @Test
+    public void testIncrementalHash() throws Exception {
+        System.out.println("incremental hash");
+        Map<String, Boolean> noFlags = new HashMap<>();
+        MachineState s = new MachineState();
+        s = s.cloneWithUpdatedRegister("rsp",
+                Optional.of(s.getRegisterValue("rsp").subtract(BigInteger.valueOf(32))),
+                new HashMap<>(), true);
+        long rsp = s.getRegisterValue("rsp").longValue();
+        s = s.cloneWithUpdatedMemory(Optional.of(BigInteger.valueOf(-2)), rsp, 8, new HashMap<>(), true);
+        s = s.cloneWithUpdatedMemory(Optional.of(BigInteger.valueOf(0x1234)), rsp + 2, 2, new HashMap<>(), true);
+        s = s.cloneWithUpdatedMemory(Optional.of(BigInteger.valueOf(77)), rsp + 8, 8, new HashMap<>(), true);
+        s = s.cloneWithUpdatedMemory(Optional.of(BigInteger.valueOf(5)), rsp + 4, 4, new HashMap<>(), true);
+        s = s.cloneWithUpdatedRegister("eax", Optional.of(BigInteger.valueOf(-1)), new HashMap<>(), true);
+        s = s.cloneWithUpdatedRegister("bl", Optional.of(BigInteger.valueOf(3)), new HashMap<>(), true);
+        Map<String, Boolean> zf = new HashMap<>();
+        zf.put("zf", true);
+        s = s.cloneWithUpdatedRegister("rcx", Optional.empty(), zf, true);
+        assertEquals(rehash(s).getStateHash(), s.getStateHash());
+        assertTrue(s.hasSameStateAs(rehash(s)));
+
+        // Popping the stack removes memory, which should also be reflected.
+        s = s.cloneWithUpdatedRegister("rsp", Optional.of(BigInteger.valueOf(rsp + 8)), noFlags, true);
+        assertEquals(rehash(s).getStateHash(), s.getStateHash());
+
+        MachineState other = s.cloneWithUpdatedMemory(Optional.of(BigInteger.ONE), rsp + 8, 8, new HashMap<>(), false);
+        assertNotEquals(s.getStateHash(), other.getStateHash());
+        assertFalse(s.hasSameStateAs(other));
+    }
+
+    /**
+     * Writing to the very top of memory shouldn't overflow the address when
+     * hashing or comparing.
+     */
+    @Test
+    public void testHashTopOfMemory() throws Exception {
+        System.out.println("hash top of memory");
+        MachineState s = new MachineState();
+        long rsp = s.getRegisterValue("rsp").longValue();
+        s = s.cloneWithUpdatedMemory(Optional.of(BigInteger.TEN), rsp, 8, new HashMap<>(), true);
+        assertEquals(rehash(s).getStateHash(), s.getStateHash());
+        assertTrue(s.hasSameStateAs(rehash(s)));
+    }
+
+    /**
+     * A program that gets stuck should be stopped at the line that loops.
+     */
+    @Test
+    public void testLoopDetected() throws Exception {
+        System.out.println("loop detected");
+        Simulation sim = makeSimulation("movq $3, %rax", "loop:", "decq %rax",
+                "cmpq $0, %rax", "jge loop", "movq $0, %rbx", "stuck:", "jmp stuck");
+        try {
+            while (!sim.finish()) { }
+            fail("loop wasn't detected");
+        } catch (InfiniteLoopException e) {
+            assertTrue(e.getLineNum() >= 6);
+            assertEquals(2, e.getLoopLength());
+            assertTrue(sim.getNumExecuted() < 40);
+        }
+    }
+
+    /**
+     * A long running (but finite) program shouldn't be stopped.
+     */
+    @Test
+    public void testLongLoopFinishes() throws Exception {
+        System.out.println("long loop finishes");
+        Simulation sim = makeSimulation("movq $50000, %rax", "loop:",
+                "pushq %rax", "popq %rbx", "decq %rax", "jne loop");
+        while (!sim.finish()) { }
+        assertTrue(sim.isFinished());
+        assertFalse(sim.getStuckOnError());
+    }
+}
@@ -0,0 +1,132 @@
+package edu.sandiego.bcl;
+
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests for the Profiler class.
+ */
+public class ProfilerTest {
+
+    public ProfilerTest() {
+    }
+
+    /**
+     * Calls a loop three times, then computes 3! with a recursive helper.
+     */
+    private static Simulation makeSimulation() throws Exception {
+        return TestPrograms.makeSimulation(new String[]{
+            "main:",                    // 0
+            "movq $3, %rdi",            // 1
+            "callq count",              // 2
+            "callq fact",               // 3
+            "retq",                     // 4
+            "count:",                   // 5
+            "decq %rdi",                // 6
+            "jne count",                // 7
+            "movq $3, %rdi",            // 8
+            "retq",                     // 9
+            "fact:",                    // 10
+            "movq $1, %rax",            // 11
+            "cmpq $1, %rdi",            // 12
+            "jle done",                 // 13
+            "pushq %rdi",               // 14
+            "decq %rdi",                // 15
+            "callq fact",               // 16
+            "popq %rdi",                // 17
+            "imulq %rdi, %rax",         // 18
+            "done:",                    // 19
+            "retq"});                   // 20
+    }
+
+    private static Profiler.FunctionProfile find(List<Profiler.FunctionProfile> profiles,
+            String name) {
+        for (Profiler.FunctionProfile p : profiles) {
+            if (p.getName().equals(name)) {
+                return p;
+            }
+        }
+        fail("no profile for " + name);
+        return null;
+    }
+
+    @Test
+    public void testCounts() throws Exception {
+        System.out.println("counts");
+        Simulation sim = makeSimulation();
+        assertTrue(sim.finish());
+        assertTrue(sim.isFinished());
+
+        Profiler profiler = sim.getProfiler();
+        assertEquals(sim.getCurrentStep(), profiler.getTotalCount());
+        assertEquals(3, profiler.getLineCount(6));
+        assertEquals(3, profiler.getLineCount(11));
+        assertEquals(2, profiler.getLineCount(16));
+        assertEquals(1, profiler.getLineCount(0));
+
+        List<Profiler.FunctionProfile> profiles = profiler.getFunctionProfiles();
+        Profiler.FunctionProfile main = find(profiles, "main");
+        Profiler.FunctionProfile count = find(profiles, "count");
+        Profiler.FunctionProfile fact = find(profiles, "fact");
+
+        // count: label, then 3 times through (decq, jne, and the label
+        // again for the first 2), then movq and retq.
+        assertEquals(1 + 3 * 2 + 2 + 2, count.getExclusiveCount());
+        assertEquals(count.getExclusiveCount(), count.getInclusiveCount());
+        assertEquals(1, count.getCalls());
+
+        assertEquals(3, fact.getCalls());
+        assertEquals(fact.getExclusiveCount(), fact.getInclusiveCount());
+        assertEquals(5, main.getExclusiveCount());
+        assertEquals(profiler.getTotalCount(), main.getInclusiveCount());
+        assertEquals(Long.valueOf(1), main.getCalleeCalls().get("fact"));
+        assertEquals(Long.valueOf(2), fact.getCalleeCalls().get("fact"));
+        assertEquals(Long.valueOf(fact.getInclusiveCount()),
+                main.getCalleeInclusiveCounts().get("fact"));
+    }
+
+    @Test
+    public void testCollapsedStacks() throws Exception {
+        System.out.println("collapsed stacks");
+        Simulation sim = makeSimulation();
+        sim.finish();
+
+        long total = 0;
+        boolean sawDeepest = false;
+        for (String line : sim.getProfiler().toCollapsedStacks().split("\n")) {
+            int space = line.lastIndexOf(' ');
+            total += Long.parseLong(line.substring(space + 1));
+            sawDeepest |= line.substring(0, space).equals("main;fact;fact;fact");
+        }
+        assertEquals(sim.getProfiler().getTotalCount(), total);
+        assertTrue(sawDeepest);
+
+        String text = sim.getProfiler().toText();
+        assertTrue(text.contains("Call graph"));
+        assertTrue(text.contains("-> fact: 1 calls"));
+    }
+
+    /**
+     * Stepping backward should take back exactly what was counted.
+     */
+    @Test
+    public void testStepBackward() throws Exception {
+        System.out.println("step backward");
+        Simulation sim = makeSimulation();
+        sim.runToLine(sim.getProgramLines().get(17));
+        String before = sim.getProfiler().toCollapsedStacks();
+        long beforeCount = sim.getProfiler().getTotalCount();
+
+        sim.finish();
+        sim.jumpToStep(beforeCount);
+        assertEquals(beforeCount, sim.getProfiler().getTotalCount());
+        assertEquals(before, sim.getProfiler().toCollapsedStacks());
+
+        sim.jumpToStep(0);
+        assertEquals(0, sim.getProfiler().getTotalCount());
+        assertEquals("", sim.getProfiler().toCollapsedStacks());
+        sim.finish();
+        assertEquals(sim.getCurrentStep(), sim.getProfiler().getTotalCount());
+    }
+}
@@ -0,0 +1,352 @@
+package edu.sandiego.bcl;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import org.junit.AfterClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+import static edu.sandiego.bcl.TestPrograms.makeProgram;
+import static edu.sandiego.bcl.TestPrograms.makeSimulation;
+import static org.junit.Assert.*;
+
+/**
+ * Checks how loading and simulating scale as programs and runs get larger.
+ *
+ * Each test generates programs of increasing size, measures them, and fails
+ * if any measurement is over its budget. Budgets and maximum sizes can be
+ * changed with system properties (see the constants below). All
+ * measurements are written to a JSON report, even when a budget is exceeded.
+ *
+ * The default time budgets are about twice the worst measurement of a full
+ * run, so that a slower machine still passes but a change in how anything
+ * scales doesn't. The history budget doesn't depend on the size of the run,
+ * since a history that grows faster than the number of instructions is what
+ * it is there to catch.
+ *
+ * testRecursionDepth currently fails: each state keeps its own list of stack
+ * entries, so the history grows with the square of the recursion depth
+ * (3268 bytes per instruction 1000 deep, and 18K 10000 deep).
+ */
+@Category(ScalabilityTests.class)
+public class ScalabilityTest {
+
+    /**
+     * Maximum time (in microseconds) to load each line of a program. Loading
+     * took up to 85 us/line when measured.
+     */
+    private static final double LOAD_MICROS_PER_LINE =
+            doubleProperty("bcl.budget.loadMicrosPerLine", 200);
+
+    /**
+     * Minimum number of instructions simulated per second. The slowest runs
+     * measured (the shortest run and the deepest recursion) did about 11000
+     * per second.
+     */
+    private static final double MIN_INSTRUCTIONS_PER_SECOND =
+            doubleProperty("bcl.budget.instructionsPerSecond", 5000);
+
+    /**
+     * Maximum (estimated) history size per executed instruction, in bytes.
+     * This should stay the same no matter how deep the stack gets, so a
+     * history that grows quadratically will go over it. The default is about
+     * twice the size measured for a recursion 100 deep (568 bytes).
+     */
+    private static final double HISTORY_BYTES_PER_INSTRUCTION =
+            doubleProperty("bcl.budget.historyBytesPerInstruction", 1024);
+
+    /**
+     * Maximum time (in seconds) for any single run. Runs are stopped once
+     * they go past this so that quadratic behavior can't hang the suite.
+     */
+    private static final long MAX_SECONDS_PER_RUN =
+            (long) doubleProperty("bcl.budget.maxSecondsPerRun", 120);
+
+    private static final int MAX_LINES =
+            (int) doubleProperty("bcl.scalability.maxLines", 1e6);
+    private static final int MAX_DEPTH =
+            (int) doubleProperty("bcl.scalability.maxDepth", 1e5);
+    private static final long MAX_RUN_LENGTH =
+            (long) doubleProperty("bcl.scalability.maxRunLength", 1e7);
+
+    /**
+     * Where the report is written.
+     */
+    private static final Path REPORT = Paths.get(System.getProperty(
+            "bcl.scalability.report", "target/scalability-report.json"));
+
+    /**
+     * One JSON object per measurement.
+     */
+    private static final List<String> results = new ArrayList<>();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    public ScalabilityTest() {
+    }
+
+    private static double doubleProperty(String name, double defaultValue) {
+        String value = System.getProperty(name);
+        return value == null || value.isEmpty() ? defaultValue : Double.parseDouble(value);
+    }
+
+    /**
+     * Starts measuring the peak heap size from the current heap size.
+     */
+    private static void resetPeakHeap() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * @return The peak heap size (in bytes) since resetPeakHeap was called.
+     */
+    private static long getPeakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * Records a measurement in the report.
+     *
+     * @param test Name of the test.
+     * @param size The size of the program or run.
+     * @param fields Alternating names and values of the things measured.
+     */
+    private static void record(String test, long size, Object... fields) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"test\": \"").append(test).append("\", \"size\": ").append(size);
+        for (int i = 0; i < fields.length; i += 2) {
+            sb.append(", \"").append(fields[i]).append("\": ");
+            Object value = fields[i + 1];
+            if (value instanceof Number || value instanceof Boolean) {
+                sb.append(String.format(Locale.ROOT, "%s", value));
+            } else {
+                sb.append('"').append(String.valueOf(value).replace("\"", "'")).append('"');
+            }
+        }
+        sb.append('}');
+        synchronized (results) {
+            results.add(sb.toString());
+        }
+    }
+
+    @AfterClass
+    public static void writeReport() throws IOException {
+        if (REPORT.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(REPORT.toAbsolutePath().getParent());
+        }
+        StringBuilder sb = new StringBuilder("{\n  \"budgets\": {");
+        sb.append(String.format(Locale.ROOT,
+                "\"loadMicrosPerLine\": %s, \"instructionsPerSecond\": %s, "
+                + "\"historyBytesPerInstruction\": %s, \"maxSecondsPerRun\": %d},\n",
+                LOAD_MICROS_PER_LINE, MIN_INSTRUCTIONS_PER_SECOND,
+                HISTORY_BYTES_PER_INSTRUCTION, MAX_SECONDS_PER_RUN));
+        sb.append("  \"results\": [\n    ");
+        sb.append(String.join(",\n    ", results));
+        sb.append("\n  ]\n}\n");
+        Files.write(REPORT, sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Generates a program with the given number of lines. The program is
+     * made of blocks containing a label, a comment, a blank line, and a mix
+     * of instructions (including a jump back to the label).
+     */
+    private File generateProgram(String name, int numLines) throws IOException {
+        List<String> lines = new ArrayList<>(numLines);
+        List<String> block = Arrays.asList(
+                "# block %d", "L%d:", "\tmovq $%d, %%rax", "\taddq %%rbx, %%rax",
+                "\tleaq 8(%%rsp,%%rcx,4), %%rdx", "\tcmpq $0, %%rax",
+                "\tje L%d", "", "\tpushq %%rax", "\tpopq %%rbx");
+        for (int i = 0; lines.size() < numLines; i++) {
+            for (String template : block) {
+                if (lines.size() == numLines) {
+                    break;
+                }
+                lines.add(String.format(template, i, i));
+            }
+        }
+        File f = folder.newFile(name + "-" + numLines + ".s");
+        Files.write(f.toPath(), lines);
+        return f;
+    }
+
+    /**
+     * Loading should take time proportional to the number of lines, both
+     * when parsing and when using the pre-parsed cache.
+     */
+    @Test
+    public void testLoadTime() throws Exception {
+        System.out.println("load time");
+        List<String> failures = new ArrayList<>();
+
+        // Warm up loading so the smallest program isn't measuring the JIT.
+        for (int i = 0; i < 5; i++) {
+            new x86Program(generateProgram("warmup" + i, 1000)).close();
+        }
+
+        for (int numLines = 1000; numLines <= MAX_LINES; numLines *= 10) {
+            File source = generateProgram("generated", numLines);
+
+            resetPeakHeap();
+            long start = System.nanoTime();
+            x86Program parsed = new x86Program(source);
+            long parseNanos = System.nanoTime() - start;
+            assertEquals(numLines, parsed.getNumLines());
+            parsed.close();
+
+            start = System.nanoTime();
+            x86Program cached = new x86Program(source);
+            long cachedNanos = System.nanoTime() - start;
+            assertEquals(numLines, cached.getNumLines());
+            long peakHeap = getPeakHeap();
+            cached.close();
+
+            double microsPerLine = parseNanos / 1000.0 / numLines;
+            boolean ok = microsPerLine <= LOAD_MICROS_PER_LINE;
+            record("load", numLines, "parseMillis", parseNanos / 1e6,
+                    "cachedLoadMillis", cachedNanos / 1e6,
+                    "microsPerLine", microsPerLine, "peakHeapBytes", peakHeap,
+                    "withinBudget", ok);
+            if (!ok) {
+                failures.add(numLines + " lines took " + microsPerLine + " us/line");
+            }
+        }
+        assertTrue(failures.toString(), failures.isEmpty());
+    }
+
+    /**
+     * Deep recursion should keep a steady speed and a history whose size
+     * grows linearly with the number of instructions.
+     */
+    @Test
+    public void testRecursionDepth() throws Exception {
+        System.out.println("recursion depth");
+        List<String> failures = new ArrayList<>();
+
+        // Warm up the simulator so the smallest run isn't measuring the JIT.
+        for (int i = 0; i < 5; i++) {
+            Simulation sim = makeRecursion(100);
+            while (!sim.finish()) { }
+        }
+
+        for (int depth = 100; depth <= MAX_DEPTH; depth *= 10) {
+            Simulation sim = makeRecursion(depth);
+
+            // About 7 instructions per level.
+            long expected = 7L * depth + 10;
+            sim.setQuota(ExecutionQuota.UNLIMITED
+                    .withMaxHistoryBytes((long) (HISTORY_BYTES_PER_INSTRUCTION * expected))
+                    .withTimeLimit(Duration.ofSeconds(MAX_SECONDS_PER_RUN)));
+
+            failures.addAll(measureRun("recursion", depth, sim));
+        }
+        assertTrue(failures.toString(), failures.isEmpty());
+    }
+
+    /**
+     * @return A simulation of a function that recurses to the given depth.
+     */
+    private static Simulation makeRecursion(int depth) throws X86ParsingException {
+        Simulation sim = makeSimulation("main:", "movq $" + depth + ", %rdi",
+                "callq f", "retq", "f:", "cmpq $0, %rdi", "je base",
+                "pushq %rdi", "decq %rdi", "callq f", "popq %rdi", "retq",
+                "base:", "retq");
+        return sim;
+    }
+
+    /**
+     * Runs the simulation to the end, recording how it went.
+     *
+     * @return Descriptions of any budgets that were exceeded.
+     */
+    private static List<String> measureRun(String test, long size, Simulation sim) {
+        List<String> failures = new ArrayList<>();
+        resetPeakHeap();
+        long start = System.nanoTime();
+        String error = "";
+        try {
+            while (!sim.finish()) { }
+        } catch (x86RuntimeException e) {
+            error = e.getMessage();
+            failures.add(test + " " + size + ": " + error);
+        }
+        long nanos = System.nanoTime() - start;
+
+        double perSecond = sim.getNumExecuted() / (nanos / 1e9);
+        double historyPerInstruction = sim.getHistoryBytes()
+                / (double) Math.max(1, sim.getNumExecuted());
+        record(test, size, "instructions", sim.getNumExecuted(),
+                "millis", nanos / 1e6, "instructionsPerSecond", perSecond,
+                "historyBytes", sim.getHistoryBytes(),
+                "historyBytesPerInstruction", historyPerInstruction,
+                "peakHeapBytes", getPeakHeap(), "error", error);
+
+        if (error.isEmpty() && perSecond < MIN_INSTRUCTIONS_PER_SECOND) {
+            failures.add(test + " " + size + " ran at " + perSecond + " instructions/s");
+        }
+        return failures;
+    }
+
+    /**
+     * Long runs should keep a steady speed. These are run without keeping a
+     * history (which would need gigabytes for the longest runs).
+     */
+    @Test
+    public void testRunLength() throws Exception {
+        System.out.println("run length");
+        List<String> failures = new ArrayList<>();
+
+        for (long length = 10000; length <= MAX_RUN_LENGTH; length *= 10) {
+            // Each iteration of the loop is 6 lines (including the label).
+            x86Program program = makeProgram("main:", "movq $" + (length / 6) + ", %rcx",
+                    "loop:", "addq %rcx, %rax", "pushq %rax", "popq %rdx",
+                    "decq %rcx", "jne loop", "retq");
+
+            resetPeakHeap();
+            long start = System.nanoTime();
+            BatchRunner.Result r;
+            try (BatchRunner runner = new BatchRunner(1)) {
+                r = runner.runAll(Arrays.asList(program),
+                        Arrays.asList(new MachineState()), 2 * length).get(0);
+            }
+            long nanos = System.nanoTime() - start;
+
+            double perSecond = r.getNumExecuted() / (nanos / 1e9);
+            record("runLength", length, "instructions", r.getNumExecuted(),
+                    "millis", nanos / 1e6, "instructionsPerSecond", perSecond,
+                    "peakHeapBytes", getPeakHeap(), "status", r.getStatus());
+
+            if (r.getStatus() != BatchRunner.Status.COMPLETED) {
+                failures.add("run of " + length + " ended with " + r.getStatus());
+            } else if (perSecond < MIN_INSTRUCTIONS_PER_SECOND) {
+                failures.add("run of " + length + " ran at " + perSecond + " instructions/s");
+            }
+        }
+        assertTrue(failures.toString(), failures.isEmpty());
+    }
+}
@@ -0,0 +1,9 @@
+package edu.sandiego.bcl;
+
+/**
+ * JUnit category for slow tests that check how the simulator scales with
+ * program size and run length. These only run with the "scalability" Maven
+ * profile (i.e. mvn test -Pscalability).
+ */
+public interface ScalabilityTests {
+}
@@ -0,0 +1,215 @@
+package edu.sandiego.bcl;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import static edu.sandiego.bcl.TestPrograms.makeSimulation;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests for the SimulationEvent and SimulationEventPublisher classes.
+ */
+public class SimulationEventTest {
+
+    public SimulationEventTest() {
+    }
+
+    /**
+     * Subscriber that collects every event it is sent.
+     */
+    private static class Collector implements Flow.Subscriber<List<SimulationEvent>> {
+        final List<SimulationEvent> events = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        final long batchSize;
+        volatile Flow.Subscription subscription;
+        volatile int numBatches = 0;
+
+        Collector(long batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription s) {
+            this.subscription = s;
+            if (this.batchSize > 0) {
+                s.request(this.batchSize);
+            }
+        }
+
+        @Override
+        public void onNext(List<SimulationEvent> batch) {
+            synchronized (this.events) {
+                this.events.addAll(batch);
+            }
+            this.numBatches++;
+            if (this.batchSize != Long.MAX_VALUE) {
+                this.subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            this.done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            this.done.countDown();
+        }
+
+        <T extends SimulationEvent> List<T> ofType(Class<T> type) {
+            List<T> matching = new ArrayList<>();
+            synchronized (this.events) {
+                for (SimulationEvent e : this.events) {
+                    if (type.isInstance(e)) {
+                        matching.add(type.cast(e));
+                    }
+                }
+            }
+            return matching;
+        }
+    }
+
+    /**
+     * Each instruction should publish what it changed, followed by the
+     * instruction being retired.
+     */
+    @Test
+    public void testSimulationEvents() throws Exception {
+        System.out.println("simulation events");
+        Simulation sim = makeSimulation("main:", "movq $5, %rax", "subq $16, %rsp",
+                "movq $-1, (%rsp)", "movl $0, 4(%rsp)", "cmpq $5, %rax",
+                "movq (%rbx), %rcx");
+
+        Collector collector = new Collector(Long.MAX_VALUE);
+        sim.getEvents().subscribe(collector);
+        try {
+            sim.finish();
+            fail("expected a runtime error");
+        } catch (x86RuntimeException e) {
+            // expected, since %rbx doesn't point to the stack
+        }
+
+        // Wait for the error, which is the last event.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (collector.ofType(SimulationEvent.RuntimeError.class).isEmpty()) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+
+        List<SimulationEvent.InstructionRetired> retired =
+                collector.ofType(SimulationEvent.InstructionRetired.class);
+        assertEquals(6, retired.size());
+        assertEquals(6, retired.get(5).getNumExecuted());
+
+        List<SimulationEvent.RegisterWritten> regs =
+                collector.ofType(SimulationEvent.RegisterWritten.class);
+        assertEquals("rax", regs.get(0).getRegister());
+        assertEquals(BigInteger.ZERO, regs.get(0).getOldValue());
+        assertEquals(BigInteger.valueOf(5), regs.get(0).getNewValue());
+        assertEquals("rsp", regs.get(1).getRegister());
+
+        // The partial overwrite should only report the four bytes written.
+        List<SimulationEvent.MemoryWritten> writes =
+                collector.ofType(SimulationEvent.MemoryWritten.class);
+        assertEquals(2, writes.size());
+        assertEquals(8, writes.get(0).getBytes().length);
+        assertEquals(4, writes.get(1).getBytes().length);
+        assertEquals(writes.get(0).getStartAddress() + 4, writes.get(1).getStartAddress());
+        assertEquals(4, writes.get(1).getLineNum());
+
+        List<SimulationEvent.FlagsChanged> flags =
+                collector.ofType(SimulationEvent.FlagsChanged.class);
+        assertEquals(1, flags.size());
+        assertTrue(flags.get(0).getZeroFlag());
+        assertFalse(flags.get(0).getOldZeroFlag());
+
+        assertEquals(6, collector.ofType(SimulationEvent.RuntimeError.class)
+                .get(0).getLineNum());
+    }
+
+    /**
+     * A breakpoint should be reported when finish stops at it.
+     */
+    @Test
+    public void testBreakpointEvent() throws Exception {
+        System.out.println("breakpoint event");
+        Simulation sim = makeSimulation("main:", "incq %rax", "incq %rax", "retq");
+        sim.getProgramLines().get(2).toggleBreakpoint();
+
+        Collector collector = new Collector(Long.MAX_VALUE);
+        sim.getEvents().subscribe(collector);
+        assertTrue(sim.finish());
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (collector.ofType(SimulationEvent.BreakpointHit.class).isEmpty()) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+        assertEquals(2, collector.ofType(SimulationEvent.BreakpointHit.class)
+                .get(0).getLineNum());
+    }
+
+    /**
+     * Closing the program should complete subscribers, after they are sent
+     * the events that were already published.
+     */
+    @Test
+    public void testCloseProgramCompletesSubscribers() throws Exception {
+        System.out.println("close program completes subscribers");
+        Simulation sim = makeSimulation("main:", "incq %rax", "retq");
+
+        Collector collector = new Collector(Long.MAX_VALUE);
+        sim.getEvents().subscribe(collector);
+        sim.stepForward();
+        sim.stepForward();
+        sim.closeProgram();
+
+        assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+        assertEquals(2, collector.ofType(SimulationEvent.InstructionRetired.class).size());
+
+        // Subscribing after the program is closed completes right away.
+        Collector late = new Collector(Long.MAX_VALUE);
+        sim.getEvents().subscribe(late);
+        assertTrue(late.done.await(10, TimeUnit.SECONDS));
+        assertTrue(late.events.isEmpty());
+    }
+
+    /**
+     * A subscriber that asks for one batch at a time should still get every
+     * event, in order, without the publisher waiting for it.
+     */
+    @Test
+    public void testSlowSubscriberGetsBatches() throws Exception {
+        System.out.println("slow subscriber gets batches");
+        SimulationEventPublisher publisher = new SimulationEventPublisher();
+        Collector collector = new Collector(0); // nothing requested yet
+        publisher.subscribe(collector);
+
+        int numEvents = 20000;
+        for (int i = 0; i < numEvents; i++) {
+            publisher.publish(Arrays.asList(new SimulationEvent.BreakpointHit(i)));
+        }
+        publisher.close();
+
+        // Everything published so far should be delivered in a few batches.
+        while (collector.subscription == null) {
+            Thread.sleep(10);
+        }
+        collector.subscription.request(1);
+
+        assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+        assertEquals(numEvents, collector.events.size());
+        for (int i = 0; i < numEvents; i++) {
+            assertEquals(i, collector.events.get(i).getLineNum());
+        }
+        assertEquals((numEvents + SimulationEventPublisher.MAX_BATCH_SIZE - 1)
+                / SimulationEventPublisher.MAX_BATCH_SIZE, collector.numBatches);
+        assertFalse(publisher.hasSubscribers());
+    }
+}
@@ -0,0 +1,111 @@
+package edu.sandiego.bcl;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static edu.sandiego.bcl.TestPrograms.makeSimulation;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the SimulatorEvents class.
+ */
+public class SimulatorEventsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    public SimulatorEventsTest() {
+    }
+
+    /**
+     * Running a simulation while recording with the bundled settings should
+     * produce events for each phase.
+     */
+    @Test
+    public void testRecording() throws Exception {
+        System.out.println("recording");
+        Configuration config;
+        try (Reader r = new InputStreamReader(
+                getClass().getResourceAsStream("/jfr/below-c-level.jfc"),
+                StandardCharsets.UTF_8)) {
+            config = Configuration.create(r);
+        }
+
+        Path file = folder.newFile("bcl.jfr").toPath();
+        try (Recording recording = new Recording(config)) {
+            // Record every instruction, not just the slow ones.
+            recording.enable(SimulatorEvents.Eval.class).withoutThreshold();
+            recording.enable(SimulatorEvents.MemoryWrite.class).withoutThreshold();
+            recording.start();
+
+            Simulation sim = makeSimulation("main:", "pushq %rbx", "popq %rbx",
+                    "retq");
+            sim.finish();
+            sim.stepBackward();
+
+            recording.stop();
+            recording.dump(file);
+        }
+
+        Map<String, Integer> counts = new HashMap<>();
+        boolean sawPush = false;
+        for (RecordedEvent e : RecordingFile.readAllEvents(file)) {
+            String name = e.getEventType().getName();
+            counts.merge(name, 1, Integer::sum);
+            if (name.equals("edu.sandiego.bcl.Eval")
+                    && e.getString("instructionType").equals("PUSH")) {
+                assertEquals(1, e.getInt("lineNum"));
+                sawPush = true;
+            }
+        }
+
+        assertTrue(sawPush);
+        assertEquals(3, (int) counts.get("edu.sandiego.bcl.Eval"));
+        assertTrue(counts.get("edu.sandiego.bcl.ParseLine") >= 4);
+        assertTrue(counts.get("edu.sandiego.bcl.MemoryWrite") >= 1);
+        assertEquals(1, (int) counts.get("edu.sandiego.bcl.StepBackward"));
+    }
+
+    /**
+     * Eval events should give a line's current number, which changes when
+     * lines are inserted before it.
+     */
+    @Test
+    public void testLineNumAfterInsert() throws Exception {
+        System.out.println("line number after insert");
+        Path file = folder.newFile("insert.jfr").toPath();
+        try (Recording recording = new Recording()) {
+            recording.enable(SimulatorEvents.Eval.class).withoutThreshold();
+            recording.start();
+
+            Simulation sim = makeSimulation("movq $1, %rax", "pushq %rax",
+                    "retq");
+            sim.insertIntoProgram(0, "movq $2, %rbx");
+            sim.insertIntoProgram(0, "main:");
+            assertEquals(2, sim.getProgramLines().get(2).getLineNum());
+            assertTrue(sim.finish());
+
+            recording.stop();
+            recording.dump(file);
+        }
+
+        Map<String, Integer> lineNums = new HashMap<>();
+        for (RecordedEvent e : RecordingFile.readAllEvents(file)) {
+            if (e.getEventType().getName().equals("edu.sandiego.bcl.Eval")) {
+                lineNums.put(e.getString("instructionType"), e.getInt("lineNum"));
+            }
+        }
+        assertEquals(Integer.valueOf(3), lineNums.get("PUSH"));
+        assertEquals(Integer.valueOf(4), lineNums.get("RET"));
+    }
+}
@@ -0,0 +1,105 @@
+package edu.sandiego.bcl;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import static edu.sandiego.bcl.TestPrograms.makeSimulation;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests for the SimulatorMetrics and LatencyHistogram classes.
+ * The metrics are shared by the whole process, so these only check how much
+ * they changed.
+ */
+public class SimulatorMetricsTest {
+
+    public SimulatorMetricsTest() {
+    }
+
+    /**
+     * Running a simulation should be reflected in the counters and gauges.
+     */
+    @Test
+    public void testSimulationCounters() throws Exception {
+        System.out.println("simulation counters");
+        SimulatorMetrics.Snapshot before = SimulatorMetrics.get().snapshot();
+
+        Simulation sim = makeSimulation("main:", "movq $3, %rcx", "loop:",
+                "pushq %rcx", "popq %rdx", "decq %rcx", "jne loop", "retq");
+        sim.finish();
+        assertTrue(sim.isFinished());
+
+        SimulatorMetrics.Snapshot after = SimulatorMetrics.get().snapshot();
+        assertEquals(3, after.getInstructionCount(InstructionType.PUSH)
+                - before.getInstructionCount(InstructionType.PUSH));
+        assertEquals(3, after.getInstructionCount(InstructionType.JNE)
+                - before.getInstructionCount(InstructionType.JNE));
+        assertEquals(1, after.getInstructionCount(InstructionType.RET)
+                - before.getInstructionCount(InstructionType.RET));
+        assertTrue(after.getCloneCount(SimulatorMetrics.CloneKind.MEMORY)
+                - before.getCloneCount(SimulatorMetrics.CloneKind.MEMORY) >= 3);
+        assertTrue(after.getCloneCount(SimulatorMetrics.CloneKind.REGISTER)
+                > before.getCloneCount(SimulatorMetrics.CloneKind.REGISTER));
+        assertTrue(after.getParseTimes().getCount() - before.getParseTimes().getCount() >= 8);
+
+        // main label, movq, 3 * 5 loop lines, retq
+        assertEquals(19, after.getHistoryLength());
+        assertEquals(sim.getHistoryBytes(), after.getHistoryBytes());
+        assertEquals(0, after.getLiveMemoryEntries());
+
+        sim.stepBackward();
+        assertEquals(18, SimulatorMetrics.get().snapshot().getHistoryLength());
+    }
+
+    /**
+     * The metrics should be readable over JMX once registered.
+     */
+    @Test
+    public void testMBean() throws Exception {
+        System.out.println("mbean");
+        SimulatorMetrics.registerMBean();
+        SimulatorMetrics.registerMBean(); // registering twice is fine
+
+        new X86Parser().parseLine("addq %rax, %rbx");
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(SimulatorMetrics.OBJECT_NAME);
+        assertTrue((Long) server.getAttribute(name, "LinesParsed") > 0);
+        assertTrue((Long) server.getAttribute(name, "ParseCacheHits")
+                + (Long) server.getAttribute(name, "ParseCacheMisses") > 0);
+        assertNotNull(server.getAttribute(name, "InstructionCounts"));
+        assertNotNull(server.getAttribute(name, "StateCloneCounts"));
+
+        Map<String, Long> clones = SimulatorMetrics.get().getStateCloneCounts();
+        assertEquals(SimulatorMetrics.CloneKind.values().length, clones.size());
+    }
+
+    /**
+     * Percentiles should be estimated to within a factor of two.
+     */
+    @Test
+    public void testHistogram() {
+        System.out.println("histogram");
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.snapshot().getPercentileNanos(50));
+
+        for (int i = 1; i <= 1000; i++) {
+            h.record(i * 1000);
+        }
+        h.record(-5);
+
+        LatencyHistogram.Snapshot s = h.snapshot();
+        assertEquals(1001, s.getCount());
+        assertEquals(1000000, s.getMaxNanos());
+
+        long p50 = s.getPercentileNanos(50);
+        assertTrue(p50 >= 500000 && p50 < 1000000);
+        assertEquals(1000000, s.getPercentileNanos(100));
+        assertEquals(0, s.getPercentileNanos(0));
+
+        h.reset();
+        assertEquals(0, h.snapshot().getCount());
+    }
+}
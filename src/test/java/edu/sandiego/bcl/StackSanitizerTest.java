@@ -0,0 +1,207 @@
+package edu.sandiego.bcl;
+
+import static edu.sandiego.bcl.TestPrograms.makeSimulation;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests for the StackSanitizer class.
+ */
+public class StackSanitizerTest {
+
+    public StackSanitizerTest() {
+    }
+
+    /**
+     * Calls a function that sets up a frame pointer, then overwrites its
+     * return address.
+     */
+    private static Simulation makeFrameSmasher() throws Exception {
+        return makeSimulation(
+                "main:",                // 0
+                "subq $8, %rsp",        // 1
+                "callq f",              // 2
+                "addq $8, %rsp",        // 3
+                "retq",                 // 4
+                "f:",                   // 5
+                "pushq %rbp",           // 6
+                "movq %rsp, %rbp",      // 7
+                "subq $16, %rsp",       // 8
+                "movq $2, -8(%rbp)",    // 9
+                "movq $1, 8(%rbp)",     // 10
+                "addq $16, %rsp",       // 11
+                "popq %rbp",            // 12
+                "retq");                // 13
+    }
+
+    @Test
+    public void testMisalignedCall() throws Exception {
+        System.out.println("misaligned call");
+        Simulation sim = makeSimulation("main:", "callq f", "retq", "f:", "retq");
+        sim.setStackSanitizer(new StackSanitizer());
+        assertTrue(sim.finish());
+        assertFalse(sim.isFinished());
+
+        StackSanitizer.Issue issue = sim.getSanitizerIssue().get();
+        assertEquals(StackSanitizer.Issue.Kind.MISALIGNED_CALL, issue.getKind());
+        assertEquals(1, issue.getLineNum());
+        assertEquals(2, issue.getStep());
+        assertEquals(0x7FFFFFFFFFFFFFF8L, issue.getAddress());
+
+        // Running again carries on from the problem.
+        assertTrue(sim.finish());
+        assertTrue(sim.isFinished());
+        assertEquals(1, sim.getStackSanitizer().get().getIssues().size());
+
+        Simulation aligned = makeSimulation("main:", "subq $8, %rsp", "callq f",
+                "addq $8, %rsp", "retq", "f:", "retq");
+        aligned.setStackSanitizer(new StackSanitizer());
+        assertTrue(aligned.finish());
+        assertTrue(aligned.isFinished());
+        assertTrue(aligned.getStackSanitizer().get().getIssues().isEmpty());
+    }
+
+    @Test
+    public void testUseAfterPop() throws Exception {
+        System.out.println("use after pop");
+        String[] program = {
+            "main:",                    // 0
+            "movq $5, %rax",            // 1
+            "pushq %rax",               // 2
+            "popq %rbx",                // 3
+            "subq $8, %rsp",            // 4
+            "movq (%rsp), %rcx",        // 5
+            "addq $8, %rsp",            // 6
+            "retq"};                    // 7
+
+        Simulation sim = makeSimulation(program);
+        sim.setStackSanitizer(new StackSanitizer());
+        try {
+            sim.finish();
+            fail("use after pop wasn't reported");
+        } catch (x86RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith(
+                    "Line 5 read 0x7FFFFFFFFFFFFFF0, which was popped"));
+        }
+
+        // Without the sanitizer it is just a read of uninitialized memory.
+        Simulation plain = makeSimulation(program);
+        try {
+            plain.finish();
+            fail("read of uninitialized memory wasn't reported");
+        } catch (x86RuntimeException e) {
+            assertFalse(e.getMessage().contains("popped"));
+        }
+
+        // Writing the slot again makes it fine to read.
+        program[4] = "pushq %rax";
+        Simulation rewritten = makeSimulation(program);
+        rewritten.setStackSanitizer(new StackSanitizer());
+        assertTrue(rewritten.finish());
+        assertTrue(rewritten.isFinished());
+        assertTrue(rewritten.getStackSanitizer().get().getIssues().isEmpty());
+    }
+
+    @Test
+    public void testOutOfFrameWrite() throws Exception {
+        System.out.println("out of frame write");
+        Simulation sim = makeFrameSmasher();
+        sim.setStackSanitizer(new StackSanitizer());
+        assertTrue(sim.finish());
+
+        StackSanitizer.Issue issue = sim.getSanitizerIssue().get();
+        assertEquals(StackSanitizer.Issue.Kind.OUT_OF_FRAME_WRITE, issue.getKind());
+        assertEquals(10, issue.getLineNum());
+        assertEquals(sim.getCurrentStep(), issue.getStep());
+        assertEquals(1, sim.getStackSanitizer().get().getIssues().size());
+
+        // Going back forgets the issue, and going forward finds it again.
+        sim.stepBackward();
+        assertFalse(sim.getSanitizerIssue().isPresent());
+        assertTrue(sim.getStackSanitizer().get().getIssues().isEmpty());
+        assertTrue(sim.finish());
+        assertEquals(10, sim.getSanitizerIssue().get().getLineNum());
+        assertEquals(1, sim.getStackSanitizer().get().getIssues().size());
+    }
+
+    /**
+     * Stepping backward over a pop should make the popped slot live again.
+     */
+    @Test
+    public void testStepBackwardOverPop() throws Exception {
+        System.out.println("step backward over pop");
+        Simulation sim = makeSimulation(
+                "main:",                // 0
+                "pushq %rax",           // 1
+                "popq %rbx",            // 2
+                "subq $8, %rsp",        // 3
+                "movq (%rsp), %rcx",    // 4
+                "addq $8, %rsp",        // 5
+                "retq");                // 6
+        sim.setStackSanitizer(new StackSanitizer());
+        StackSanitizer sanitizer = sim.getStackSanitizer().get();
+        x86ProgramLine read = sim.getProgramLines().get(4);
+
+        sim.jumpToStep(4);
+        assertEquals(StackSanitizer.Issue.Kind.USE_AFTER_POP,
+                sanitizer.check(read, sim.getStateAt(4), 5).getKind());
+
+        // Back to just after the push, where the slot at %rsp is fine to read.
+        sim.stepBackward();
+        sim.stepBackward();
+        assertSame(sanitizer, sim.getStackSanitizer().get());
+        assertNull(sanitizer.check(read, sim.getStateAt(2), 3));
+
+        // Going forward again finds the use after pop.
+        try {
+            sim.finish();
+            fail("use after pop wasn't reported");
+        } catch (x86RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("popped"));
+        }
+    }
+
+    /**
+     * Moving %rsp to a low address takes the stack out of the part that is
+     * shadowed, which shouldn't stop the program from running.
+     */
+    @Test
+    public void testRelocatedStack() throws Exception {
+        System.out.println("relocated stack");
+        Simulation sim = makeSimulation(
+                "main:",                // 0
+                "movq %rsp, %rbp",      // 1
+                "movq $4096, %rsp",     // 2
+                "movq %rax, (%rsp)",    // 3
+                "pushq %rax",           // 4
+                "popq %rbx",            // 5
+                "movq (%rsp), %rcx",    // 6
+                "movq %rbp, %rsp",      // 7
+                "retq");                // 8
+        sim.setStackSanitizer(new StackSanitizer());
+        assertTrue(sim.finish());
+        assertTrue(sim.isFinished());
+        assertTrue(sim.getStackSanitizer().get().getIssues().isEmpty());
+
+        sim.jumpToStep(4);
+        assertEquals(4, sim.getCurrentStep());
+        assertTrue(sim.finish());
+        assertTrue(sim.isFinished());
+    }
+
+    @Test
+    public void testTurnedOnLater() throws Exception {
+        System.out.println("turned on later");
+        Simulation sim = makeFrameSmasher();
+        sim.jumpToStep(11);
+        assertEquals(11, sim.getCurrentStep());
+
+        sim.setStackSanitizer(new StackSanitizer());
+        assertEquals(1, sim.getStackSanitizer().get().getIssues().size());
+        assertEquals(StackSanitizer.Issue.Kind.OUT_OF_FRAME_WRITE,
+                sim.getStackSanitizer().get().getIssues().get(0).getKind());
+
+        sim.removeStackSanitizer();
+        assertFalse(sim.getStackSanitizer().isPresent());
+    }
+}
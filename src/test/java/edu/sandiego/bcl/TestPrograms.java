@@ -0,0 +1,34 @@
+package edu.sandiego.bcl;
+
+/**
+ * Builds programs and simulations from lines of source, for tests.
+ */
+final class TestPrograms {
+
+    private TestPrograms() {
+    }
+
+    /**
+     * @param lines The lines of the program.
+     * @return A simulation of the program, at its first line.
+     */
+    static Simulation makeSimulation(String... lines) throws X86ParsingException {
+        Simulation sim = new Simulation();
+        for (String line : lines) {
+            sim.appendToProgram(line);
+        }
+        return sim;
+    }
+
+    /**
+     * @param lines The lines of the program.
+     * @return The parsed program.
+     */
+    static x86Program makeProgram(String... lines) throws X86ParsingException {
+        x86Program program = new x86Program();
+        for (String line : lines) {
+            program.parseThenAddLine(line);
+        }
+        return program;
+    }
+}
@@ -0,0 +1,123 @@
+package edu.sandiego.bcl;
+
+import java.util.OptionalLong;
+import static edu.sandiego.bcl.TestPrograms.makeSimulation;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests for the TimeTravelIndex class.
+ */
+public class TimeTravelIndexTest {
+
+    public TimeTravelIndexTest() {
+    }
+
+    /**
+     * The index should give the same register values as the states in the
+     * simulation's history, at every step.
+     */
+    @Test
+    public void testRegisterValues() throws Exception {
+        System.out.println("register values");
+        Simulation sim = makeSimulation("main:", "movq $20, %rcx", "loop:",
+                "pushq %rcx", "popq %rdx", "addq %rdx, %rax", "decq %rcx",
+                "jne loop", "retq");
+        sim.finish();
+        assertTrue(sim.isFinished());
+
+        TimeTravelIndex index = sim.getTimeTravelIndex();
+        assertEquals(sim.getCurrentStep(), index.getNumSteps());
+        for (long step = 0; step <= sim.getCurrentStep(); step++) {
+            MachineState state = sim.getStateAt(step);
+            for (String reg : MachineState.QUAD_REGISTER_NAMES) {
+                assertEquals(reg + " at step " + step,
+                        state.getRegisterValue(reg), index.getRegisterValue(reg, step));
+            }
+        }
+
+        assertEquals(OptionalLong.of(2), index.getLastRegisterWrite("rcx", 2));
+        assertEquals(OptionalLong.empty(), index.getLastRegisterWrite("rbx", 10));
+    }
+
+    /**
+     * The last write to a byte should account for writes that only cover part
+     * of a word.
+     */
+    @Test
+    public void testLastMemoryWrite() throws Exception {
+        System.out.println("last memory write");
+        Simulation sim = makeSimulation("main:", "subq $16, %rsp",
+                "movq $-1, (%rsp)", "movl $0, 4(%rsp)", "movq $1, %rax", "retq");
+        sim.finish();
+
+        long rsp = sim.getStateAt(2).getRegisterValue("rsp").longValue();
+        TimeTravelIndex index = sim.getTimeTravelIndex();
+
+        // movq is step 3 and movl is step 4 (the label is step 1).
+        assertEquals(OptionalLong.of(3), index.getLastMemoryWrite(rsp, index.getNumSteps()));
+        assertEquals(OptionalLong.of(4), index.getLastMemoryWrite(rsp + 4, index.getNumSteps()));
+        assertEquals(OptionalLong.of(3), index.getLastMemoryWrite(rsp + 4, 3));
+        assertEquals(OptionalLong.empty(), index.getLastMemoryWrite(rsp + 4, 2));
+        assertEquals(OptionalLong.empty(), index.getLastMemoryWrite(rsp + 8, index.getNumSteps()));
+    }
+
+    /**
+     * Stepping backward and jumping should keep the index in line with the
+     * simulation.
+     */
+    @Test
+    public void testJumpToStep() throws Exception {
+        System.out.println("jump to step");
+        Simulation sim = makeSimulation("main:", "movq $1, %rax", "pushq %rax",
+                "movq $2, %rax", "pushq %rax", "movq $3, %rax", "retq");
+
+        sim.jumpToStep(5);
+        assertEquals(5, sim.getCurrentStep());
+        assertEquals(5, sim.getCurrentLine().getLineNum());
+
+        sim.jumpToStep(2);
+        TimeTravelIndex index = sim.getTimeTravelIndex();
+        assertEquals(2, index.getNumSteps());
+        assertEquals(sim.getStateAt(2).getRegisterValue("rax"), index.getRegisterValue("rax", 2));
+        long rsp = sim.getStateAt(2).getRegisterValue("rsp").longValue();
+        assertEquals(OptionalLong.empty(), index.getLastMemoryWrite(rsp - 8, 2));
+
+        // Going forward again should record the new steps.
+        sim.jumpToStep(100);
+        assertTrue(sim.isFinished());
+        assertEquals(OptionalLong.of(3), index.getLastMemoryWrite(rsp - 8, index.getNumSteps()));
+        assertEquals(OptionalLong.of(6), index.getLastRegisterWrite("rax", index.getNumSteps()));
+
+        sim.restart();
+        assertEquals(0, sim.getTimeTravelIndex().getNumSteps());
+    }
+
+    /**
+     * The top slot of the stack ends at the very top of the address space,
+     * which shouldn't stop it from being indexed.
+     */
+    @Test
+    public void testTopSlot() throws Exception {
+        System.out.println("top slot");
+        Simulation sim = makeSimulation("main:", "movq $5, (%rsp)", "movb $6, 7(%rsp)",
+                "retq");
+        sim.jumpToStep(3);
+
+        TimeTravelIndex index = sim.getTimeTravelIndex();
+        long top = sim.getStateAt(0).getRegisterValue("rsp").longValue();
+        assertEquals(0x7FFFFFFFFFFFFFF8L, top);
+        assertEquals(OptionalLong.of(2), index.getLastMemoryWrite(top, 3));
+        assertEquals(OptionalLong.of(3), index.getLastMemoryWrite(Long.MAX_VALUE, 3));
+        assertEquals(OptionalLong.of(2), index.getLastMemoryWrite(Long.MAX_VALUE, 2));
+        assertEquals(OptionalLong.empty(), index.getLastMemoryWrite(top, 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testStepOutOfRange() throws Exception {
+        System.out.println("step out of range");
+        Simulation sim = makeSimulation("main:", "movq $1, %rax", "retq");
+        sim.stepForward();
+        sim.getTimeTravelIndex().getRegisterValue("rax", 2);
+    }
+}
@@ -0,0 +1,123 @@
+package edu.sandiego.bcl;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static edu.sandiego.bcl.TestPrograms.makeProgram;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the TraceRecorder and TraceReader classes.
+ */
+public class TraceRecorderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    public TraceRecorderTest() {
+    }
+
+    /**
+     * Every step of the trace should match the state produced by running the
+     * same program one instruction at a time.
+     */
+    @Test
+    public void testMatchesExecution() throws Exception {
+        System.out.println("matches execution");
+        x86Program program = makeProgram("main:", "movq $1000, %rcx", "loop:",
+                "pushq %rcx", "movl $-1, 4(%rsp)", "popq %rdx", "addq %rdx, %rax",
+                "cmpq $500, %rcx", "decq %rcx", "jne loop", "retq");
+
+        File traceFile = folder.newFile("run.bclt");
+        BatchRunner.Result result = BatchRunner.runWithTrace(program,
+                new MachineState(), 1000000, traceFile);
+        assertEquals(BatchRunner.Status.COMPLETED, result.getStatus());
+
+        MachineState state = new MachineState().cloneWithNewRIP(
+                program.getBeginningOfProgram().getLineNum());
+        try (TraceReader trace = new TraceReader(traceFile)) {
+            assertEquals(result.getNumExecuted(), trace.getNumSteps());
+
+            for (long step = 0; step < trace.getNumSteps(); step++) {
+                x86ProgramLine line = program.getLine(state.getRipRegister());
+                state = line.eval(state);
+                if (step % 7 != 0 && step != trace.getNumSteps() - 1) {
+                    continue;
+                }
+
+                TraceReader.Step s = trace.getStep(step);
+                assertEquals(line.getLineNum(), s.getLineNum());
+                assertEquals(state.getZeroFlag(), s.getZeroFlag());
+                assertEquals(state.getCarryFlag(), s.getCarryFlag());
+                for (String reg : MachineState.QUAD_REGISTER_NAMES) {
+                    assertEquals(reg + " at step " + step,
+                            state.getRegisterValue(reg), s.getRegisterValue(reg));
+                }
+            }
+
+            // The movl only writes the upper half of the pushed value.
+            TraceReader.Step movl = trace.getStep(4);
+            assertEquals(4, movl.getLineNum());
+            List<SimulationEvent.MemoryWritten> writes = movl.getMemoryWrites();
+            assertEquals(1, writes.size());
+            assertArrayEquals(new byte[]{-1, -1, -1, -1}, writes.get(0).getBytes());
+
+            TraceReader.Step push = trace.getStep(3);
+            assertEquals("rsp", push.getRegisterWrites().get(0).getRegister());
+            assertEquals(BigInteger.valueOf(8), push.getRegisterWrites().get(0)
+                    .getOldValue().subtract(push.getRegisterWrites().get(0).getNewValue()));
+            assertEquals(8, push.getMemoryWrites().get(0).getBytes().length);
+        }
+    }
+
+    /**
+     * Long traces should be small and quick to seek in.
+     */
+    @Test
+    public void testCompactAndSeekable() throws Exception {
+        System.out.println("compact and seekable");
+        x86Program program = makeProgram("main:", "movq $50000, %rcx", "loop:",
+                "pushq %rcx", "popq %rdx", "addq %rdx, %rax", "decq %rcx",
+                "jne loop", "retq");
+
+        File traceFile = folder.newFile("long.bclt");
+        BatchRunner.Result result = BatchRunner.runWithTrace(program,
+                new MachineState(), 10000000, traceFile);
+        long steps = result.getNumExecuted();
+        assertTrue(steps > 250000);
+
+        // Most steps take a few bytes; pushes also store the 8 bytes written.
+        double bytesPerStep = (double) traceFile.length() / steps;
+        assertTrue("bytes per step: " + bytesPerStep, bytesPerStep < 8);
+
+        try (TraceReader trace = new TraceReader(traceFile)) {
+            assertEquals(steps, trace.getNumSteps());
+            assertEquals(result.getReturnValue(),
+                    trace.getStep(steps - 1).getRegisterValue("rax"));
+
+            // Warm up, then look up steps all over the trace.
+            for (int i = 0; i < 1000; i++) {
+                trace.getStep((i * 7919L) % steps);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < 1000; i++) {
+                TraceReader.Step s = trace.getStep((i * 104729L) % steps);
+                assertTrue(s.getLineNum() >= 0);
+            }
+            double millisPerSeek = (System.nanoTime() - start) / 1e6 / 1000;
+            assertTrue("ms per seek: " + millisPerSeek, millisPerSeek < 5);
+        }
+    }
+
+    @Test(expected = java.io.IOException.class)
+    public void testIncompleteTrace() throws Exception {
+        System.out.println("incomplete trace");
+        File traceFile = folder.newFile("bad.bclt");
+        java.nio.file.Files.write(traceFile.toPath(), Arrays.asList("not a trace"));
+        new TraceReader(traceFile);
+    }
+}
@@ -0,0 +1,105 @@
+package edu.sandiego.bcl;
+
+import java.util.Optional;
+import static edu.sandiego.bcl.TestPrograms.makeSimulation;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests for the Watchpoint class and how Simulation stops at watchpoints.
+ */
+public class WatchpointTest {
+
+    public WatchpointTest() {
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        System.out.println("parse");
+        Watchpoint reg = Watchpoint.parse("%eax");
+        assertEquals(Optional.of("rax"), reg.getRegister());
+
+        Watchpoint mem = Watchpoint.parse(" 0x7FFFFFFFFFFFFFF0:4 ");
+        assertFalse(mem.getRegister().isPresent());
+        assertEquals(0x7FFFFFFFFFFFFFF0L, mem.getStartAddress());
+        assertEquals(0x7FFFFFFFFFFFFFF3L, mem.getEndAddress());
+        assertEquals("0x7FFFFFFFFFFFFFF0:4", mem.toString());
+
+        assertEquals(8, Watchpoint.parse("16").getEndAddress() - 16 + 1);
+    }
+
+    @Test(expected = X86ParsingException.class)
+    public void testParseBadRegister() throws Exception {
+        System.out.println("parse bad register");
+        Watchpoint.parse("%rxx");
+    }
+
+    /**
+     * Running should stop right after the instruction that writes a watched
+     * register.
+     */
+    @Test
+    public void testRegisterWatchpoint() throws Exception {
+        System.out.println("register watchpoint");
+        Simulation sim = makeSimulation("main:", "movq $5, %rax", "movl $7, %ebx",
+                "incq %rax", "movb $1, %bl", "retq");
+        sim.addWatchpoint(Watchpoint.onRegister("rbx"));
+
+        assertTrue(sim.finish());
+        assertTrue(sim.getWatchpointHit().isPresent());
+        assertEquals(2, sim.getWatchpointHit().get().getLineNum());
+        assertEquals(3, sim.getCurrentLine().getLineNum());
+
+        // Writing part of the register also triggers it.
+        assertTrue(sim.finish());
+        assertEquals(4, sim.getWatchpointHit().get().getLineNum());
+
+        // With no more writes, we run to the end.
+        assertTrue(sim.finish());
+        assertFalse(sim.getWatchpointHit().isPresent());
+        assertTrue(sim.isFinished());
+    }
+
+    /**
+     * Only writes that overlap the watched memory should stop simulation.
+     */
+    @Test
+    public void testMemoryWatchpoint() throws Exception {
+        System.out.println("memory watchpoint");
+        Simulation sim = makeSimulation("main:", "subq $16, %rsp",
+                "movq $1, 8(%rsp)", "movl $2, (%rsp)", "movl $3, 4(%rsp)",
+                "addq $16, %rsp", "retq");
+        long rsp = new MachineState().getRegisterValue("rsp").longValue() - 16;
+        sim.addWatchpoint(Watchpoint.onMemory(rsp + 4, 4));
+
+        assertTrue(sim.finish());
+        assertEquals(4, sim.getWatchpointHit().get().getLineNum());
+
+        sim.restart();
+        sim.removeWatchpoint(sim.getWatchpoints().get(0));
+        assertTrue(sim.finish());
+        assertTrue(sim.isFinished());
+        assertFalse(sim.getWatchpointHit().isPresent());
+    }
+
+    /**
+     * A watchpoint added partway through should apply from then on.
+     */
+    @Test
+    public void testAddWhileRunning() throws Exception {
+        System.out.println("add while running");
+        Simulation sim = makeSimulation("main:", "movq $1, %rcx", "movq $2, %rcx",
+                "retq");
+        sim.stepForward();
+        sim.stepForward();
+        sim.addWatchpoint(Watchpoint.onRegister("rcx"));
+        assertTrue(sim.finish());
+        assertEquals(2, sim.getWatchpointHit().get().getLineNum());
+
+        // Going back and running again should hit the same write.
+        sim.stepBackward();
+        assertFalse(sim.getWatchpointHit().isPresent());
+        sim.finish();
+        assertEquals(2, sim.getWatchpointHit().get().getLineNum());
+    }
+}
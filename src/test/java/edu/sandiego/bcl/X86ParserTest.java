@@ -6,6 +6,10 @@
 package edu.sandiego.bcl;
 
 import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 import java.util.Scanner;
 import org.junit.AfterClass;
@@ -117,6 +121,96 @@ public class X86ParserTest {
         s.close();
     }
 
+    /**
+     * Test of parseLines method, of class X86Parser.
+     * Every invalid line should be reported, not just the first.
+     */
+    @Test
+    public void testParseLinesCollectsAllErrors() throws Exception {
+        System.out.println("parseLines (Collect All Errors)");
+        List<String> lines = Files.readAllLines(
+                Paths.get("src/test/resources/invalid-instructions.s"));
+
+        X86Parser instance = new X86Parser();
+        x86ParseResult result = instance.parseLines(lines);
+        assertTrue(result.getLines().isEmpty());
+        assertEquals(lines.size(), result.getErrors().size());
+        for (int i = 0; i < lines.size(); i++) {
+            assertEquals(i, result.getErrors().get(i).getLineNum());
+        }
+    }
+
+    /**
+     * Test of parseLines method, of class X86Parser.
+     * Valid lines around an invalid one should still be parsed.
+     */
+    @Test
+    public void testParseLinesMixed() throws Exception {
+        System.out.println("parseLines (Mixed)");
+        X86Parser instance = new X86Parser();
+        x86ParseResult result = instance.parseLines(Arrays.asList(
+                "pushq %rbp", "addq $5, %rex", "popq %rbp", "assq $5, %rax"));
+
+        assertEquals(2, result.getLines().size());
+        assertEquals("1: \tpopq %rbp", result.getLines().get(1).toString());
+        assertEquals(2, result.getErrors().size());
+
+        X86ParsingException first = result.getErrors().get(0);
+        assertEquals(1, first.getLineNum());
+        assertEquals(10, first.getStartIndex());
+        assertEquals(13, first.getEndIndex());
+        assertEquals(3, result.getErrors().get(1).getLineNum());
+    }
+
+    /**
+     * Test of parseLine method, of class X86Parser.
+     * Lines with the same text should share their decoded form, but not their
+     * label operands.
+     */
+    @Test
+    public void testParseLineSharesDecodedForm() throws Exception {
+        System.out.println("parseLine (Shared Decoded Form)");
+        X86Parser first = new X86Parser();
+        X86Parser second = new X86Parser();
+
+        x86ProgramLine a = first.parseLine("movq %rsp, %rbp");
+        x86ProgramLine b = second.parseLine("  movq\t%rsp,   %rbp");
+        assertNotSame(a, b);
+        assertSame(a.getDecodedLine().get(), b.getDecodedLine().get());
+        assertEquals("0: \tmovq %rsp, %rbp", b.toString());
+
+        x86UnaryInstruction firstJump = (x86UnaryInstruction) first.parseLine("jmp foo");
+        second.parseLine("foo:");
+        x86UnaryInstruction secondJump = (x86UnaryInstruction) second.parseLine("jmp foo");
+        assertSame(firstJump.getDecodedLine().get(), secondJump.getDecodedLine().get());
+        assertNotSame(firstJump.destination, secondJump.destination);
+
+        // Trailing whitespace changes how the line is parsed so it can't be
+        // ignored.
+        assertNotEquals(X86ParseCache.normalize("retq"),
+                X86ParseCache.normalize("retq "));
+        assertEquals(X86ParseCache.normalize("retq # hi"),
+                X86ParseCache.normalize("\tretq  # hi"));
+    }
+
+    /**
+     * Test of parseLine method, of class X86Parser.
+     * A cached label should still be reported as a duplicate at the right spot.
+     */
+    @Test
+    public void testParseLineDuplicateLabel() throws Exception {
+        System.out.println("parseLine (Duplicate Label)");
+        X86Parser instance = new X86Parser();
+        instance.parseLine("foo:");
+        try {
+            instance.parseLine("  foo:");
+            fail("X86ParsingException not thrown for duplicate label");
+        } catch (X86ParsingException ex) {
+            assertEquals(2, ex.getStartIndex());
+            assertEquals(5, ex.getEndIndex());
+        }
+    }
+
     /**
      * Test of getFirstLineOfMain method, of class X86Parser.
      */
@@ -0,0 +1,164 @@
+package edu.sandiego.bcl;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the x86ProgramCache class.
+ */
+public class x86ProgramCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String oldCacheDir;
+
+    public x86ProgramCacheTest() {
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        oldCacheDir = System.getProperty(x86ProgramCache.CACHE_DIR_PROPERTY);
+        System.setProperty(x86ProgramCache.CACHE_DIR_PROPERTY,
+                folder.newFolder("cache").getPath());
+    }
+
+    @After
+    public void tearDown() {
+        if (oldCacheDir == null) {
+            System.clearProperty(x86ProgramCache.CACHE_DIR_PROPERTY);
+        } else {
+            System.setProperty(x86ProgramCache.CACHE_DIR_PROPERTY, oldCacheDir);
+        }
+    }
+
+    private File writeProgram(List<String> lines) throws Exception {
+        File f = folder.newFile("prog.s");
+        Files.write(f.toPath(), lines);
+        return f;
+    }
+
+    /**
+     * A program loaded from the cache should be the same as the parsed one,
+     * including breakpoints.
+     */
+    @Test
+    public void testRoundTrip() throws Exception {
+        System.out.println("cache round trip");
+        List<String> lines = new ArrayList<>(Arrays.asList(
+                "main:", "# setup", "pushq %rbp", "movq %rsp, %rbp",
+                "movl $0x10, -4(%rbp, %rax, 4) # store", "", "jmp main",
+                "cmovl %eax, %ebx", "leaq (, %rdi, 8), %rax", "retq"));
+        lines.addAll(Files.readAllLines(
+                Paths.get("src/test/resources/all-instructions.s")));
+        File source = writeProgram(lines);
+
+        x86Program parsed = new x86Program(source);
+        assertTrue(x86ProgramCache.getCacheFile(source).exists());
+        assertTrue(x86ProgramCache.load(source).isPresent());
+
+        parsed.getLine(2).toggleBreakpoint();
+        assertTrue(parsed.writeToFile());
+
+        x86Program cached = new x86Program(source);
+        assertEquals(parsed.getNumLines(), cached.getNumLines());
+        for (int i = 0; i < parsed.getNumLines(); i++) {
+            assertEquals(parsed.getLine(i).toString(), cached.getLine(i).toString());
+            assertEquals(parsed.getLine(i).getBreakpoint(),
+                    cached.getLine(i).getBreakpoint());
+        }
+        assertTrue(cached.getLine(2).getBreakpoint());
+        assertEquals(cached.getLine(0), cached.getBeginningOfProgram());
+    }
+
+    /**
+     * Changing the source should make the cache stale.
+     */
+    @Test
+    public void testStaleCache() throws Exception {
+        System.out.println("stale cache");
+        File source = writeProgram(Arrays.asList("pushq %rbp", "popq %rbp"));
+        new x86Program(source);
+        assertTrue(x86ProgramCache.load(source).isPresent());
+
+        Files.write(source.toPath(), Arrays.asList("pushq %rbx", "popq %rbx"));
+        assertFalse(x86ProgramCache.load(source).isPresent());
+
+        x86Program reloaded = new x86Program(source);
+        assertEquals("0: \tpushq %rbx", reloaded.getLine(0).toString());
+    }
+
+    /**
+     * A corrupt cache should be ignored.
+     */
+    @Test
+    public void testCorruptCache() throws Exception {
+        System.out.println("corrupt cache");
+        File source = writeProgram(Arrays.asList("incq %rax", "foo:"));
+        new x86Program(source);
+
+        File cacheFile = x86ProgramCache.getCacheFile(source);
+        byte[] contents = Files.readAllBytes(cacheFile.toPath());
+        Files.write(cacheFile.toPath(),
+                Arrays.copyOf(contents, contents.length - 3));
+        assertFalse(x86ProgramCache.load(source).isPresent());
+
+        x86Program reloaded = new x86Program(source);
+        assertEquals("1: foo:", reloaded.getLine(1).toString());
+    }
+
+    /**
+     * The cache should be kept in the cache directory rather than next to the
+     * source, and sources with the same name shouldn't share a cache.
+     */
+    @Test
+    public void testCacheLocation() throws Exception {
+        System.out.println("cache location");
+        File source = writeProgram(Arrays.asList("incq %rax"));
+        File other = new File(folder.newFolder("other"), "prog.s");
+        Files.write(other.toPath(), Arrays.asList("decq %rax"));
+
+        new x86Program(source);
+        new x86Program(other);
+
+        File cacheFile = x86ProgramCache.getCacheFile(source);
+        assertEquals(x86ProgramCache.getCacheDirectory(), cacheFile.getParentFile());
+        assertNotEquals(cacheFile, x86ProgramCache.getCacheFile(other));
+        assertFalse(new File(source.getPath() + x86ProgramCache.EXTENSION).exists());
+        assertEquals("0: \tdecq %rax", new x86Program(other).getLine(0).toString());
+    }
+
+    /**
+     * Loading a program from an up to date cache shouldn't write the cache
+     * again, and writing one shouldn't leave any temporary files behind.
+     */
+    @Test
+    public void testCacheOnlyWrittenOnMiss() throws Exception {
+        System.out.println("cache only written on miss");
+        File source = writeProgram(Arrays.asList("pushq %rbp", "popq %rbp"));
+        new x86Program(source);
+
+        File cacheFile = x86ProgramCache.getCacheFile(source);
+        FileTime old = FileTime.fromMillis(0);
+        Files.setLastModifiedTime(cacheFile.toPath(), old);
+        new x86Program(source);
+        assertEquals(old, Files.getLastModifiedTime(cacheFile.toPath()));
+
+        Files.write(source.toPath(), Arrays.asList("pushq %rbx", "popq %rbx"));
+        new x86Program(source);
+        assertNotEquals(old, Files.getLastModifiedTime(cacheFile.toPath()));
+        assertEquals(0, cacheFile.getParentFile().list(
+                (dir, name) -> name.endsWith(".tmp")).length);
+    }
+}
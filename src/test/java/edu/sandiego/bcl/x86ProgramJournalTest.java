@@ -0,0 +1,236 @@
+package edu.sandiego.bcl;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the x86ProgramJournal class.
+ */
+public class x86ProgramJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String oldCacheDir;
+
+    public x86ProgramJournalTest() {
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        oldCacheDir = System.getProperty(x86ProgramCache.CACHE_DIR_PROPERTY);
+        System.setProperty(x86ProgramCache.CACHE_DIR_PROPERTY,
+                folder.newFolder("cache").getPath());
+    }
+
+    @After
+    public void tearDown() {
+        if (oldCacheDir == null) {
+            System.clearProperty(x86ProgramCache.CACHE_DIR_PROPERTY);
+        } else {
+            System.setProperty(x86ProgramCache.CACHE_DIR_PROPERTY, oldCacheDir);
+        }
+    }
+
+    private File writeProgram(String... lines) throws Exception {
+        File f = folder.newFile("prog.s");
+        Files.write(f.toPath(), Arrays.asList(lines));
+        return f;
+    }
+
+    private static List<String> getLines(x86Program p) {
+        List<String> lines = new ArrayList<>();
+        for (x86ProgramLine line : p.getProgramLines()) {
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+
+    /**
+     * Unsaved edits should be recovered when the program is opened again
+     * (without it having been closed).
+     */
+    @Test
+    public void testRecoverEdits() throws Exception {
+        System.out.println("recover edits");
+        File source = writeProgram("main:", "pushq %rbp", "popq %rbp", "retq");
+
+        x86Program p = new x86Program(source);
+        p.parseThenInsertLine(2, "movq %rsp, %rbp");
+        p.removeLine(p.getLine(1));
+        p.replaceLine(p.getLine(2), "popq %rbx");
+        p.parseThenAddLine("# done");
+        List<String> expected = getLines(p);
+
+        // Simulate a crash by simply opening the file again.
+        x86Program recovered = new x86Program(source);
+        assertTrue(recovered.isUnsaved());
+        assertEquals(expected, getLines(recovered));
+
+        // Recovering again should give the same result.
+        assertEquals(expected, getLines(new x86Program(source)));
+    }
+
+    /**
+     * Saving should clear the journal.
+     */
+    @Test
+    public void testSaveResetsJournal() throws Exception {
+        System.out.println("save resets journal");
+        File source = writeProgram("incq %rax");
+
+        x86Program p = new x86Program(source);
+        p.parseThenAddLine("decq %rax");
+        assertTrue(p.writeToFile());
+        p.parseThenAddLine("negq %rax");
+        List<String> expected = getLines(p);
+
+        x86Program reopened = new x86Program(source);
+        assertEquals(expected, getLines(reopened));
+        assertEquals(1, x86ProgramJournal.recover(source).size());
+
+        reopened.close();
+        assertFalse(x86ProgramJournal.getJournalFile(source).exists());
+        assertEquals(2, new x86Program(source).getNumLines());
+    }
+
+    /**
+     * A partially written record should be ignored.
+     */
+    @Test
+    public void testTornRecord() throws Exception {
+        System.out.println("torn record");
+        File source = writeProgram("incq %rax");
+
+        x86Program p = new x86Program(source);
+        p.parseThenAddLine("decq %rax");
+        List<String> expected = getLines(p);
+        p.parseThenAddLine("negq %rax");
+
+        // Chop off the end of the last record.
+        File journalFile = x86ProgramJournal.getJournalFile(source);
+        byte[] contents = Files.readAllBytes(journalFile.toPath());
+        Files.write(journalFile.toPath(), Arrays.copyOf(contents, contents.length - 2),
+                StandardOpenOption.TRUNCATE_EXISTING);
+
+        assertEquals(expected, getLines(new x86Program(source)));
+    }
+
+    /**
+     * Lots of edits should cause the journal to be compacted.
+     */
+    @Test
+    public void testCompaction() throws Exception {
+        System.out.println("compaction");
+        File source = writeProgram("", "# start");
+
+        x86Program p = new x86Program(source);
+        for (int i = 0; i < 3000; i++) {
+            p.parseThenInsertLine(1, "addq $" + i + ", %rax");
+            if (i % 10 != 0) {
+                p.removeLine(p.getLine(2));
+            }
+        }
+        List<String> expected = getLines(p);
+
+        assertTrue(x86ProgramJournal.recover(source).size() < 1024);
+        assertEquals(x86ProgramJournal.EditType.SNAPSHOT,
+                x86ProgramJournal.recover(source).get(0).getType());
+        assertEquals(expected, getLines(new x86Program(source)));
+    }
+
+    /**
+     * The journal should be kept in the cache directory, leaving only the
+     * source in the program's directory.
+     */
+    @Test
+    public void testJournalLocation() throws Exception {
+        System.out.println("journal location");
+        File source = writeProgram("incq %rax");
+
+        x86Program p = new x86Program(source);
+        p.parseThenAddLine("decq %rax");
+        File journalFile = x86ProgramJournal.getJournalFile(source);
+        assertTrue(journalFile.exists());
+        assertEquals(x86ProgramCache.getCacheDirectory(), journalFile.getParentFile());
+        assertArrayEquals(new String[] {"prog.s"},
+                source.getParentFile().list((dir, name) -> !name.equals("cache")));
+    }
+
+    /**
+     * The last edits before the user stops editing should be forced to disk
+     * by the timer, without waiting for more edits.
+     */
+    @Test
+    public void testIdleSync() throws Exception {
+        System.out.println("idle sync");
+        File source = writeProgram("incq %rax");
+
+        try (x86ProgramJournal journal = x86ProgramJournal.create(source)) {
+            journal.sync();
+            journal.recordInsert(1, "decq %rax");
+            assertEquals(1, journal.getNumUnsynced());
+
+            long deadline = System.currentTimeMillis() + 10000;
+            while (journal.getNumUnsynced() > 0
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(0, journal.getNumUnsynced());
+            assertEquals(1, x86ProgramJournal.recover(source).size());
+        }
+    }
+
+    /**
+     * An error getting a line's text for a snapshot shouldn't leave a
+     * temporary file in the cache directory.
+     */
+    @Test
+    public void testSnapshotErrorLeavesNoTempFile() throws Exception {
+        System.out.println("snapshot error leaves no temp file");
+        File source = writeProgram("incq %rax");
+
+        x86ProgramLine bad = new x86Label("main", 0, null) {
+            @Override
+            public String getSourceText() {
+                throw new IllegalStateException("no text");
+            }
+        };
+        try {
+            x86ProgramJournal.create(source, Arrays.asList(bad));
+            fail("error getting the line's text was lost");
+        } catch (IllegalStateException e) {
+            assertEquals("no text", e.getMessage());
+        }
+        assertArrayEquals(new String[0],
+                x86ProgramCache.getCacheDirectory().list((dir, name) -> name.endsWith(".tmp")));
+    }
+
+    /**
+     * Programs loaded without a journal shouldn't create or recover one.
+     */
+    @Test
+    public void testUnjournaledProgram() throws Exception {
+        System.out.println("unjournaled program");
+        File source = writeProgram("incq %rax");
+
+        x86Program p = new x86Program(source);
+        p.parseThenAddLine("decq %rax");
+
+        x86Program unjournaled = new x86Program(source, false);
+        assertEquals(1, unjournaled.getNumLines());
+        assertFalse(unjournaled.isUnsaved());
+        unjournaled.parseThenAddLine("negq %rax");
+        assertEquals(1, x86ProgramJournal.recover(source).size());
+    }
+}
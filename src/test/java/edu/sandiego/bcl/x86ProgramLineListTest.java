@@ -0,0 +1,124 @@
+package edu.sandiego.bcl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import javafx.collections.ListChangeListener;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the x86ProgramLineList class.
+ */
+public class x86ProgramLineListTest {
+
+    public x86ProgramLineListTest() {
+    }
+
+    /**
+     * Line numbers should always match positions, no matter the order of
+     * insertions and removals.
+     */
+    @Test
+    public void testLineNumbersFollowPositions() throws Exception {
+        System.out.println("line numbers follow positions");
+        X86Parser parser = new X86Parser();
+        x86ProgramLineList instance = new x86ProgramLineList();
+        List<x86ProgramLine> expected = new ArrayList<>();
+        Random rand = new Random(42);
+
+        for (int i = 0; i < 2000; i++) {
+            int op = rand.nextInt(4);
+            if (op < 2 || expected.isEmpty()) {
+                x86ProgramLine line = parser.parseLine("addq $" + i + ", %rax");
+                int index = rand.nextInt(expected.size() + 1);
+                instance.add(index, line);
+                expected.add(index, line);
+            } else if (op == 2) {
+                int index = rand.nextInt(expected.size());
+                x86ProgramLine removed = instance.remove(index);
+                assertSame(expected.remove(index), removed);
+                assertEquals(index, removed.getLineNum());
+                assertFalse(instance.contains(removed));
+            } else {
+                int index = rand.nextInt(expected.size());
+                x86ProgramLine line = parser.parseLine("subq $" + i + ", %rbx");
+                instance.set(index, line);
+                expected.set(index, line);
+            }
+
+            if (i % 100 == 0) {
+                checkPositions(expected, instance);
+            }
+        }
+        checkPositions(expected, instance);
+
+        // Lots of lookups without changes switches to the array snapshot.
+        for (int n = 0; n < 3; n++) {
+            checkPositions(expected, instance);
+        }
+    }
+
+    private void checkPositions(List<x86ProgramLine> expected,
+            x86ProgramLineList instance) {
+        assertEquals(expected.size(), instance.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSame(expected.get(i), instance.get(i));
+            assertEquals(i, expected.get(i).getLineNum());
+            assertEquals(i, instance.indexOf(expected.get(i)));
+        }
+    }
+
+    /**
+     * Jump targets should stay correct when lines are inserted before the
+     * label.
+     */
+    @Test
+    public void testLabelTargetAfterInsert() throws Exception {
+        System.out.println("label target after insert");
+        x86Program program = new x86Program();
+        program.parseThenAddLine("jmp foo");
+        program.parseThenAddLine("foo:");
+        x86ProgramLine label = program.getLine(1);
+
+        program.parseThenInsertLine(0, "pushq %rbp");
+        program.parseThenInsertLine(1, "movq %rsp, %rbp");
+        assertEquals(3, label.getLineNum());
+        assertEquals("3: foo:", label.toString());
+
+        program.removeLine(program.getLine(0));
+        assertEquals(2, label.getLineNum());
+        assertEquals("0: \tmovq %rsp, %rbp", program.getLine(0).toString());
+    }
+
+    /**
+     * Each edit should produce a single change for just the affected line.
+     */
+    @Test
+    public void testFineGrainedChanges() throws Exception {
+        System.out.println("fine grained changes");
+        X86Parser parser = new X86Parser();
+        x86ProgramLineList instance = new x86ProgramLineList();
+        for (int i = 0; i < 10; i++) {
+            instance.add(parser.parseLine("incq %rax"));
+        }
+
+        List<String> changes = new ArrayList<>();
+        instance.addListener((ListChangeListener<x86ProgramLine>) c -> {
+            while (c.next()) {
+                changes.add(c.getFrom() + "-" + c.getTo()
+                        + (c.wasReplaced() ? " replaced"
+                                : c.wasAdded() ? " added" : " removed"));
+            }
+        });
+
+        instance.add(3, parser.parseLine("decq %rax"));
+        instance.remove(7);
+        instance.set(5, parser.parseLine("negq %rax"));
+
+        assertEquals(3, changes.size());
+        assertEquals("3-4 added", changes.get(0));
+        assertEquals("7-7 removed", changes.get(1));
+        assertEquals("5-6 replaced", changes.get(2));
+    }
+}
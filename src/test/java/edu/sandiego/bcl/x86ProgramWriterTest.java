@@ -0,0 +1,78 @@
+package edu.sandiego.bcl;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the x86ProgramWriter class.
+ */
+public class x86ProgramWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    public x86ProgramWriterTest() {
+    }
+
+    /**
+     * The written file should contain each line without its line number, and
+     * no temporary files should be left behind.
+     */
+    @Test
+    public void testWrite() throws Exception {
+        System.out.println("write");
+        x86Program program = new x86Program();
+        List<String> source = Arrays.asList("main:", "# a comment",
+                "pushq %rbp", "movq %rsp, %rbp # set up frame", "",
+                "movzbl (%rdi), %eax", "retq");
+        for (String line : source) {
+            program.parseThenAddLine(line);
+        }
+
+        File f = folder.newFile("prog.s");
+        Files.write(f.toPath(), Arrays.asList("old contents"));
+        x86ProgramWriter.write(program.getProgramLines(), f.toPath());
+
+        List<String> written = Files.readAllLines(f.toPath());
+        assertEquals(Arrays.asList("main:", "# a comment", "\tpushq %rbp",
+                "\tmovq %rsp, %rbp # set up frame", "", "\tmovzbl (%rdi), %eax",
+                "\tretq"), written);
+        for (int i = 0; i < program.getNumLines(); i++) {
+            x86ProgramLine line = program.getLine(i);
+            assertEquals(line.toString(), i + ": " + written.get(i));
+        }
+        assertArrayEquals(new String[]{"prog.s"}, folder.getRoot().list());
+    }
+
+    /**
+     * An error getting a line's text shouldn't leave a temporary file behind
+     * or change the destination.
+     */
+    @Test
+    public void testErrorLeavesNoTempFile() throws Exception {
+        System.out.println("error leaves no temp file");
+        File f = folder.newFile("prog.s");
+        Files.write(f.toPath(), Arrays.asList("retq"));
+
+        x86ProgramLine bad = new x86Label("main", 0, null) {
+            @Override
+            public String getSourceText() {
+                throw new IllegalStateException("no text");
+            }
+        };
+        try {
+            x86ProgramWriter.write(Arrays.asList(bad), f.toPath());
+            fail("error getting the line's text was lost");
+        } catch (IllegalStateException e) {
+            assertEquals("no text", e.getMessage());
+        }
+        assertArrayEquals(new String[] {"prog.s"}, folder.getRoot().list());
+        assertEquals(Arrays.asList("retq"), Files.readAllLines(f.toPath()));
+    }
+}